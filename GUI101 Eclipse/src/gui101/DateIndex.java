@@ -0,0 +1,102 @@
+package gui101;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keeps the notes sorted by the date they were last modified, so the notes of a date range (e.g. "after:2026-01-01"
+ * in a search, see QueryEngine) are found without looking at the other notes.
+ * The dates are in a sorted tree, with the notes modified at each moment, and every note's date is kept too, so a
+ * note that is saved again is moved to its new date.
+ * The JavaFX thread puts the notes that were saved, while a search reads the dates on the gui101-query thread, so
+ * the methods are synchronized.
+ */
+public class DateIndex {
+    private final NavigableMap<Long, Set<String>> notes = new TreeMap<>();
+    private final Map<String, Long> dates = new HashMap<>();
+
+    /**
+     * Adds a note to the index, or moves it to the date it was modified again.
+     * @param noteID - the note ID
+     * @param modified - when the note was last modified (in milliseconds)
+     */
+    public synchronized void put(String noteID, long modified) {
+        this.remove(noteID);
+        this.dates.put(noteID, modified);
+        this.notes.computeIfAbsent(modified, date -> new LinkedHashSet<>()).add(noteID);
+    }
+
+    /**
+     * Removes a deleted note from the index.
+     * @param noteID - the note ID
+     */
+    public synchronized void remove(String noteID) {
+        Long date = this.dates.remove(noteID);
+        if (date == null) {
+            return;
+        }
+
+        Set<String> at = this.notes.get(date);
+        at.remove(noteID);
+        if (at.isEmpty()) {
+            this.notes.remove(date);
+        }
+    }
+
+    /**
+     * Counts the notes modified in a date range, but stops counting once there are more than the limit, since the
+     * count is only compared with the size of other results (see QueryEngine.plan()).
+     * @param from - the first moment of the range (in milliseconds)
+     * @param to - the moment after the range (in milliseconds)
+     * @param limit - the count at which to stop counting
+     * @return the number of notes, at most the limit
+     */
+    public synchronized int count(long from, long to, int limit) {
+        if (from >= to) {
+            return 0;
+        }
+
+        int count = 0;
+        for (Set<String> at : this.notes.subMap(from, true, to, false).values()) {
+            count += at.size();
+            if (count >= limit) {
+                return limit;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param from - the first moment of the range (in milliseconds)
+     * @param to - the moment after the range (in milliseconds)
+     * @return a copy of the IDs of the notes modified in the range, the most recently modified note first
+     */
+    public synchronized List<String> between(long from, long to) {
+        List<String> found = new ArrayList<>();
+        if (from < to) {
+            this.notes.subMap(from, true, to, false).descendingMap().values().forEach(found::addAll);
+        }
+        return found;
+    }
+
+    /**
+     * @param noteID - the note ID
+     * @return when the note was last modified (in milliseconds), or null if it is not in the index
+     */
+    public synchronized Long dateOf(String noteID) {
+        return this.dates.get(noteID);
+    }
+
+    /**
+     * @return the number of notes in the index
+     */
+    public synchronized int size() {
+        return this.dates.size();
+    }
+}
@@ -0,0 +1,262 @@
+package gui101;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts the HTML written by the editor (edText) into plain text or Markdown.
+ * The converter makes a single pass over the HTML and only understands the small subset of tags that
+ * the HTMLEditor produces (paragraphs, line breaks, bold, italic, underline, headings, lists and rules),
+ * every other tag is dropped while its text is kept.
+ */
+public class HtmlConverter {
+    private boolean markdown;
+
+    /**
+     * Initializes a converter for the given output format.
+     * @param markdown - true to produce Markdown, false to produce plain text
+     */
+    public HtmlConverter(boolean markdown) {
+        this.setMarkdown(markdown);
+    }
+
+    /**
+     * @return a converter that produces plain text
+     */
+    public static HtmlConverter text() {
+        return new HtmlConverter(false);
+    }
+
+    /**
+     * @return a converter that produces Markdown
+     */
+    public static HtmlConverter markdown() {
+        return new HtmlConverter(true);
+    }
+
+    /**
+     * Converts the html into the format of the converter.
+     * @param html - the html of a note
+     * @return the converted text
+     */
+    public String convert(String html) {
+        StringBuilder out = new StringBuilder(html.length() / 2);
+        int skipDepth = 0; // how deep we are inside tags whose text should not be shown (head, script, style)
+        int i = 0;
+
+        while (i < html.length()) {
+            char c = html.charAt(i);
+
+            if (c == '<') {
+                // find the end of the tag, a tag that never closes is treated as text
+                int end = html.indexOf('>', i);
+                if (end == -1) {
+                    break;
+                }
+
+                // extract the lower case tag name, and whether it is a closing tag
+                String tag = html.substring(i + 1, end).trim();
+                boolean closing = tag.startsWith("/");
+                String name = tagName(closing ? tag.substring(1) : tag);
+
+                if (name.equals("head") || name.equals("script") || name.equals("style") || name.equals("title")) {
+                    skipDepth += closing ? -1 : 1;
+                    skipDepth = Math.max(skipDepth, 0);
+                } else if (skipDepth == 0) {
+                    this.appendTag(out, name, closing);
+                }
+                i = end + 1;
+            } else if (c == '&') {
+                // decode the html entity, an entity without a ';' is treated as text
+                int end = html.indexOf(';', i);
+                if (end == -1 || end - i > 10) {
+                    if (skipDepth == 0) out.append(c);
+                    i++;
+                    continue;
+                }
+
+                if (skipDepth == 0) {
+                    out.append(decodeEntity(html.substring(i + 1, end)));
+                }
+                i = end + 1;
+            } else {
+                // html ignores the line breaks in its source, so we do too
+                if (skipDepth == 0 && c != '\n' && c != '\r') {
+                    out.append(c);
+                }
+                i++;
+            }
+        }
+
+        return trimLines(out);
+    }
+
+    /**
+     * Appends the text representation of a single tag.
+     * @param out - the text that was converted so far
+     * @param name - the lower case name of the tag
+     * @param closing - whether this is a closing tag (e.g. </p>)
+     */
+    private void appendTag(StringBuilder out, String name, boolean closing) {
+        switch (name) {
+            case "p":
+            case "div":
+                if (closing) newLine(out, 2);
+                break;
+            case "br":
+                out.append('\n');
+                break;
+            case "hr":
+                newLine(out, 1);
+                out.append(this.isMarkdown() ? "---" : "----------");
+                newLine(out, 2);
+                break;
+            case "li":
+                if (!closing) {
+                    newLine(out, 1);
+                    out.append(this.isMarkdown() ? "- " : "* ");
+                }
+                break;
+            case "ul":
+            case "ol":
+                newLine(out, closing ? 2 : 1);
+                break;
+            case "h1":
+            case "h2":
+            case "h3":
+            case "h4":
+            case "h5":
+            case "h6":
+                if (closing) {
+                    newLine(out, 2);
+                } else if (this.isMarkdown()) {
+                    newLine(out, 1);
+                    for (int level = name.charAt(1) - '0'; level > 0; level--) out.append('#');
+                    out.append(' ');
+                }
+                break;
+            case "b":
+            case "strong":
+                if (this.isMarkdown()) out.append("**");
+                break;
+            case "i":
+            case "em":
+                if (this.isMarkdown()) out.append('*');
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Makes sure that the text ends with at least the given amount of line breaks.
+     * @param out - the text that was converted so far
+     * @param count - the amount of line breaks
+     */
+    private static void newLine(StringBuilder out, int count) {
+        if (out.length() == 0) {
+            return;
+        }
+
+        int existing = 0;
+        for (int i = out.length() - 1; i >= 0 && out.charAt(i) == '\n'; i--) {
+            existing++;
+        }
+
+        for (; existing < count; existing++) {
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Extracts the tag name from the inside of a tag (e.g. 'font face="Arial"' becomes 'font').
+     * @param tag - the text between '<' and '>'
+     * @return the lower case tag name
+     */
+    private static String tagName(String tag) {
+        int end = 0;
+        while (end < tag.length() && Character.isLetterOrDigit(tag.charAt(end))) {
+            end++;
+        }
+        return tag.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Decodes a single html entity.
+     * @param entity - the entity without the '&' and ';' (e.g. 'amp' or '#39')
+     * @return the decoded text
+     */
+    static String decodeEntity(String entity) {
+        switch (entity) {
+            case "nbsp": return " ";
+            case "amp": return "&";
+            case "lt": return "<";
+            case "gt": return ">";
+            case "quot": return "\"";
+            case "apos": return "'";
+            default: break;
+        }
+
+        try {
+            if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                return new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+            } else if (entity.startsWith("#")) {
+                return new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+            }
+        } catch (IllegalArgumentException e) {
+            // an invalid number falls through and is replaced by a space like the note sample does
+        }
+        return " ";
+    }
+
+    /**
+     * Splits text into lower case words, a word is every run of letters and digits.
+     * @param text - the converted text of a note
+     * @return the words, in the order they are in the text
+     */
+    public static List<String> wordsOf(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start == -1) {
+                start = i;
+            } else if (!letter && start != -1) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Removes trailing spaces from every line and the blank lines around the text.
+     * @param text - the converted text
+     * @return the cleaned text
+     */
+    private static String trimLines(StringBuilder text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (String line : text.toString().split("\n", -1)) {
+            int end = line.length();
+            while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) end--;
+            out.append(line, 0, end).append('\n');
+        }
+        return out.toString().trim() + "\n";
+    }
+
+    /**
+     * @return whether the converter produces Markdown instead of plain text
+     */
+    public boolean isMarkdown() {
+        return markdown;
+    }
+
+    /**
+     * Sets whether the converter produces Markdown instead of plain text
+     * @param markdown - true for Markdown
+     */
+    public void setMarkdown(boolean markdown) {
+        this.markdown = markdown;
+    }
+}
@@ -0,0 +1,790 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cleans up the html of a note before it is saved, so the note file only holds the markup the editor (edText)
+ * needs to show it the same way. The HTMLEditor wraps text in the same formatting again and again (e.g. a
+ * <font face="Arial" size="4"> inside another one), and a paste from a web page or a word processor brings along
+ * classes, inline styles, comments, scripts and tags the editor cannot show, which can make a note many times larger
+ * than its text.
+ * The normalizer:
+ *  - keeps only the tags the editor can show, and only their attributes (and style properties) that change how the
+ *    note looks, every other tag is dropped while its text is kept (the text of scripts, styles and the like too)
+ *  - drops formatting that changes nothing: empty formatting tags, formatting inside the same formatting, and a
+ *    formatting tag that is closed and opened again right away (e.g. "</b><b>")
+ *  - writes every tag the same way (lower case, attributes in double quotes, "strong" as "b", "em" as "i"), collapses
+ *    the white space of the text like a browser does, and ends every paragraph with a line break, like save()
+ *    always did (see LargeNote), except that the line break of the last paragraph of a note is only kept if the
+ *    note had white space there, so a note the editor wrote is left as it is
+ * It makes a single pass over the html, and only the open tags are kept in memory, so a note of any size can be
+ * normalized from a Reader into a Writer (see normalize(Reader, Appendable)).
+ * Normalizing a normalized note changes nothing.
+ */
+public class HtmlNormalizer {
+    // what every normalized note starts and ends with, the same as the editor's own document
+    public static final String HEADER = "<html dir=\"ltr\"><head></head><body contenteditable=\"true\">", FOOTER = "</body></html>";
+
+    // the version of the normalizer, the notes normalized by an older version are normalized again (see NoteCleaner)
+    public static final int VERSION = 1;
+
+    // the longest tag that is read, a longer one is a broken note and is dropped
+    private static final int MAX_TAG = 64 * 1024 * 1024;
+
+    // the formatting tags, which are only written once they contain something
+    private static final Set<String> INLINE = new HashSet<>(Arrays.asList("a", "b", "i", "u", "strike", "sub", "sup", "font", "span", "code"));
+
+    // the tags that hold paragraphs, lists and tables
+    private static final Set<String> BLOCK = new HashSet<>(Arrays.asList("p", "div", "h1", "h2", "h3", "h4", "h5", "h6",
+            "ul", "ol", "li", "blockquote", "pre", "table", "thead", "tbody", "tfoot", "tr", "td", "th"));
+
+    // the tags without content
+    private static final Set<String> VOID = new HashSet<>(Arrays.asList("br", "hr", "img"));
+
+    // the tags whose content is never shown, it is dropped together with the tag
+    private static final Set<String> HIDDEN = new HashSet<>(Arrays.asList("head", "script", "style", "title", "xml",
+            "noscript", "iframe", "object", "template", "svg", "math", "select"));
+
+    // the tags that are written as another tag the editor knows
+    private static final Map<String, String> RENAMED = new HashMap<>();
+
+    // the attributes every tag keeps
+    private static final Map<String, Set<String>> ATTRIBUTES = new HashMap<>();
+
+    // the style properties that are kept
+    private static final Set<String> STYLES = new HashSet<>(Arrays.asList("text-align", "font-weight", "font-style",
+            "text-decoration", "color", "background-color", "font-family", "font-size"));
+
+    static {
+        RENAMED.put("strong", "b");
+        RENAMED.put("em", "i");
+        RENAMED.put("ins", "u");
+        RENAMED.put("s", "strike");
+        RENAMED.put("del", "strike");
+        RENAMED.put("tt", "code");
+        RENAMED.put("kbd", "code");
+        RENAMED.put("samp", "code");
+        for (String block : Arrays.asList("section", "article", "header", "footer", "main", "aside", "nav", "figure",
+                "figcaption", "address", "center", "dl", "dt", "dd")) {
+            RENAMED.put(block, "div");
+        }
+
+        for (String tag : Arrays.asList("p", "div", "h1", "h2", "h3", "h4", "h5", "h6", "li", "blockquote", "td", "th")) {
+            ATTRIBUTES.put(tag, new HashSet<>(Arrays.asList("align", "style")));
+        }
+        ATTRIBUTES.get("td").addAll(Arrays.asList("colspan", "rowspan"));
+        ATTRIBUTES.get("th").addAll(Arrays.asList("colspan", "rowspan"));
+        ATTRIBUTES.put("a", new HashSet<>(Arrays.asList("href", "style")));
+        ATTRIBUTES.put("font", new HashSet<>(Arrays.asList("face", "size", "color", "style")));
+        ATTRIBUTES.put("span", new HashSet<>(Arrays.asList("style")));
+        ATTRIBUTES.put("img", new HashSet<>(Arrays.asList("src", "alt", "width", "height")));
+        ATTRIBUTES.put("ol", new HashSet<>(Arrays.asList("start", "type")));
+        ATTRIBUTES.put("table", new HashSet<>(Arrays.asList("border")));
+    }
+
+    private final boolean document;
+
+    /**
+     * Initializes a normalizer.
+     * @param document - true to write a whole note (with the html and body tags), false to write only the content
+     *                   (e.g. a paste, or a page of a LargeNote)
+     */
+    public HtmlNormalizer(boolean document) {
+        this.document = document;
+    }
+
+    /**
+     * @return a normalizer that writes a whole note
+     */
+    public static HtmlNormalizer document() {
+        return new HtmlNormalizer(true);
+    }
+
+    /**
+     * @return a normalizer that writes only the content of a note, without the html and body tags
+     */
+    public static HtmlNormalizer fragment() {
+        return new HtmlNormalizer(false);
+    }
+
+    /**
+     * @param html - the html of a note
+     * @return the normalized html
+     */
+    public String normalize(String html) {
+        StringBuilder out = new StringBuilder(html.length());
+        try {
+            this.normalize(new StringReader(html), out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Reading and writing memory cannot fail", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Normalizes html from a reader into a writer, holding only the open tags in memory.
+     * @param in - the html
+     * @param out - where the normalized html is written
+     * @throws IOException if the html cannot be read or written
+     */
+    public void normalize(Reader in, Appendable out) throws IOException {
+        new Pass(in, out).run();
+    }
+
+    /**
+     * @return whether the normalizer writes whole notes
+     */
+    public boolean isDocument() {
+        return this.document;
+    }
+
+    /**
+     * A tag that is open while the html is normalized.
+     */
+    private static final class Element {
+        private final String name;
+
+        // the tag as it is written, e.g. <font face="Arial">
+        private final String tag;
+
+        // the attributes of a font tag, to tell which of them the fonts around it already have
+        private final Map<String, String> attributes;
+
+        // whether the tag was written, a formatting tag is only written once it contains something
+        private boolean written;
+
+        // whether the tag changes nothing, it is neither written nor closed
+        private boolean redundant;
+
+        Element(String name, String tag, Map<String, String> attributes) {
+            this.name = name;
+            this.tag = tag;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * One pass over the html.
+     */
+    private final class Pass {
+        private final Reader in;
+        private final Appendable out;
+
+        // what was read from the html but not used yet
+        private final char[] buffer = new char[8192];
+        private int position, limit;
+
+        // the open tags, from the outermost to the innermost
+        private final List<Element> open = new ArrayList<>();
+
+        // the formatting tags that were closed right before, in the order they were closed, and are only written once
+        // the next tag is not the same tag again
+        private final List<Element> closed = new ArrayList<>();
+
+        // the white space that is only written if more text follows on the same line
+        private boolean space;
+
+        // whether the output is at the start of a line (or the body), where white space is never shown
+        private boolean lineStart = true;
+
+        // the line break at the end of the last block, which is written once more follows
+        private boolean lineBreak;
+
+        // whether the html read so far ends with white space (outside of tags, html and body aside)
+        private boolean trailingSpace;
+
+        // how deep the tags are whose content is dropped (e.g. a script), and how many pre tags are open
+        private int hidden, pre;
+
+        Pass(Reader in, Appendable out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        void run() throws IOException {
+            if (HtmlNormalizer.this.document) {
+                this.out.append(HEADER);
+            }
+
+            while (this.position < this.limit || this.fill()) {
+                if (this.buffer[this.position] == '<') {
+                    this.position++;
+                    this.markup();
+                } else if (this.hidden > 0) {
+                    this.position++;
+                } else {
+                    this.textRun();
+                }
+            }
+
+            this.writeClosed();
+            while (!this.open.isEmpty()) {
+                this.end(this.open.remove(this.open.size() - 1));
+            }
+            // the last line break of a note is only written if the note had it, or it would change every note that
+            // the editor wrote without it (which NoteCleaner would then rewrite for nothing)
+            if (this.lineBreak && (this.trailingSpace || !HtmlNormalizer.this.document)) {
+                this.out.append('\n');
+            }
+            if (HtmlNormalizer.this.document) {
+                this.out.append(FOOTER);
+            }
+        }
+
+        /**
+         * Reads the markup after a '<': a tag, a comment, a doctype, or a '<' that is just text.
+         */
+        private void markup() throws IOException {
+            int next = this.peek();
+            if (next == '!') {
+                this.read();
+                if (this.peek() == '-') {
+                    this.skipPast("-->"); // a comment
+                } else {
+                    this.skipPast(">"); // a doctype, or one of the markers a word processor adds (e.g. <![if ...]>)
+                }
+                return;
+            }
+            if (next == '?') {
+                this.skipPast(">");
+                return;
+            }
+            if (next != '/' && !Character.isLetter(next)) {
+                if (this.hidden == 0) {
+                    for (char c : "&lt;".toCharArray()) this.text(c); // a '<' in the text, which is written escaped
+                }
+                return;
+            }
+
+            String tag = this.readTag();
+            if (tag != null) {
+                this.tag(tag);
+            }
+        }
+
+        /**
+         * Handles a tag, given without the '<' and '>'.
+         */
+        private void tag(String tag) throws IOException {
+            boolean closing = tag.startsWith("/");
+            int start = closing ? 1 : 0, end = start;
+            while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)) && tag.charAt(end) != '/' && tag.charAt(end) != '>') {
+                end++;
+            }
+            String name = tag.substring(start, end).toLowerCase(Locale.ROOT);
+            if (!name.equals("html") && !name.equals("body")) {
+                this.trailingSpace = false;
+            }
+
+            if (HIDDEN.contains(name)) {
+                if (!tag.endsWith("/")) {
+                    this.hidden = Math.max(this.hidden + (closing ? -1 : 1), 0);
+                }
+                return;
+            }
+            if (this.hidden > 0) {
+                return;
+            }
+
+            name = RENAMED.getOrDefault(name, name);
+
+            if (VOID.contains(name)) {
+                if (!closing) {
+                    this.empty(name, this.attributes(name, tag.substring(end)));
+                }
+            } else if (BLOCK.contains(name)) {
+                if (closing) {
+                    this.closeBlock(name);
+                } else {
+                    this.openBlock(name, this.attributes(name, tag.substring(end)));
+                }
+            } else if (INLINE.contains(name)) {
+                if (closing) {
+                    this.closeInline(name);
+                } else {
+                    this.openInline(name, this.attributes(name, tag.substring(end)));
+                }
+            }
+            // every other tag (e.g. html, body, o:p) is dropped, its text is kept
+        }
+
+        /**
+         * Opens a formatting tag, which is only written once something is written inside it.
+         */
+        private void openInline(String name, Map<String, String> attributes) throws IOException {
+            // a font only keeps what the fonts around it do not already say
+            if (name.equals("font")) {
+                attributes.entrySet().removeIf(attribute -> attribute.getValue().equals(this.font(attribute.getKey())));
+            }
+            String tag = tagOf(name, attributes);
+
+            // the same tag that was closed right before is open again, as if it was never closed
+            if (!this.closed.isEmpty() && this.closed.get(this.closed.size() - 1).tag.equals(tag)) {
+                this.open.add(this.closed.remove(this.closed.size() - 1));
+                return;
+            }
+            Element element = new Element(name, tag, attributes);
+            element.redundant = (attributes.isEmpty() && (name.equals("font") || name.equals("span"))) || this.isOpen(tag)
+                    || (name.equals("a") && this.isOpenName("a"));
+            if (!element.redundant) {
+                this.writeClosed(); // a tag that changes nothing does not end what was closed before it either
+            }
+            this.open.add(element);
+        }
+
+        /**
+         * Closes a formatting tag, and every tag that was opened inside it and is still open.
+         */
+        private void closeInline(String name) throws IOException {
+            int index = this.indexOf(name, true);
+            if (index == -1) {
+                return; // it was never opened, or a block was closed in between
+            }
+
+            // the tags inside it are closed first, all of them only once the next tag is not one of them again
+            for (int i = this.open.size() - 1; i >= index; i--) {
+                Element element = this.open.remove(i);
+                if (element.written && !element.redundant) {
+                    this.closed.add(element);
+                }
+            }
+        }
+
+        /**
+         * Opens a block, which is always written, together with the formatting it is inside.
+         */
+        private void openBlock(String name, Map<String, String> attributes) throws IOException {
+            this.writeClosed();
+            this.space = false;
+
+            // a list item or a table cell closes the one before it, if that was never closed
+            if (name.equals("li") || name.equals("td") || name.equals("th") || name.equals("tr") || name.equals("p")) {
+                int last = this.lastBlock();
+                if (last != -1 && (this.open.get(last).name.equals(name) || (name.equals("td") && this.open.get(last).name.equals("th"))
+                        || (name.equals("th") && this.open.get(last).name.equals("td")))) {
+                    this.closeBlock(this.open.get(last).name);
+                }
+            }
+
+            this.writeOpen();
+            Element element = new Element(name, tagOf(name, attributes), attributes);
+            this.write().append(element.tag);
+            element.written = true;
+            this.open.add(element);
+            this.lineStart = true;
+            if (name.equals("pre")) {
+                this.pre++;
+            }
+        }
+
+        /**
+         * Closes a block, and every tag that was opened inside it and is still open.
+         */
+        private void closeBlock(String name) throws IOException {
+            int index = this.indexOf(name, false);
+            if (index == -1) {
+                return; // it was never opened
+            }
+
+            this.writeClosed();
+            this.space = false;
+            for (int i = this.open.size() - 1; i >= index; i--) {
+                this.end(this.open.remove(i));
+            }
+            this.lineStart = true;
+        }
+
+        /**
+         * Closes a tag that was removed from the open tags. A paragraph, and every block that is not inside another
+         * block, ends the line, which is where a LargeNote can start a new page.
+         */
+        private void end(Element element) throws IOException {
+            this.close(element);
+            if (element.name.equals("pre")) {
+                this.pre--;
+            }
+            if (BLOCK.contains(element.name) && this.pre == 0 && (element.name.equals("p") || this.lastBlock() == -1)) {
+                this.lineBreak = true;
+            }
+        }
+
+        /**
+         * Writes a tag without content (a line break, a rule or an image).
+         */
+        private void empty(String name, Map<String, String> attributes) throws IOException {
+            if (name.equals("img") && !attributes.containsKey("src")) {
+                return; // an image that cannot be shown
+            }
+
+            this.writeClosed();
+            if (name.equals("img")) {
+                this.writeSpace();
+            }
+            this.space = false;
+            this.writeOpen();
+            this.write().append(tagOf(name, attributes));
+            this.lineStart = !name.equals("img");
+        }
+
+        /**
+         * Writes the text up to the next tag, the characters between two white spaces are written at once.
+         */
+        private void textRun() throws IOException {
+            int start = this.position;
+            while (this.position < this.limit) {
+                char c = this.buffer[this.position];
+                if (c == '<') {
+                    break;
+                }
+                if (this.pre == 0 && c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\f') {
+                    this.position++;
+                    continue;
+                }
+
+                this.writeText(start, this.position);
+                this.text(c);
+                start = ++this.position;
+            }
+            this.writeText(start, this.position);
+        }
+
+        /**
+         * Writes characters of the buffer that are neither white space nor markup.
+         */
+        private void writeText(int start, int end) throws IOException {
+            if (start == end) {
+                return;
+            }
+
+            this.writeClosed();
+            this.writeSpace();
+            this.writeOpen();
+            this.write();
+            if (this.out instanceof StringBuilder) {
+                ((StringBuilder) this.out).append(this.buffer, start, end - start);
+            } else if (this.out instanceof Writer) {
+                ((Writer) this.out).write(this.buffer, start, end - start);
+            } else {
+                for (int i = start; i < end; i++) this.out.append(this.buffer[i]);
+            }
+            this.lineStart = false;
+            this.trailingSpace = false;
+        }
+
+        /**
+         * Writes a character of text, collapsing white space.
+         */
+        private void text(char c) throws IOException {
+            this.trailingSpace = c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+            if (this.pre > 0) {
+                this.writeClosed();
+                this.writeOpen();
+                if (c == '\n') {
+                    this.write().append("<br>"); // the line breaks of a note are removed when it is loaded
+                } else if (c != '\r') {
+                    this.write().append(c);
+                }
+                this.lineStart = false;
+                return;
+            }
+
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                this.space = !this.lineStart;
+                return;
+            }
+
+            this.writeClosed();
+            this.writeSpace();
+            this.writeOpen();
+            this.write().append(c);
+            this.lineStart = false;
+        }
+
+        /**
+         * Writes the line break that was held back at the end of the last block, now that more follows.
+         * @return where the rest is written
+         */
+        private Appendable write() throws IOException {
+            if (this.lineBreak) {
+                this.out.append('\n');
+                this.lineBreak = false;
+            }
+            return this.out;
+        }
+
+        /**
+         * Writes the white space that was held back, now that more text follows.
+         */
+        private void writeSpace() throws IOException {
+            if (this.space) {
+                this.write().append(' ');
+                this.space = false;
+            }
+        }
+
+        /**
+         * Writes the formatting tags that are open but were not written yet, since something is written inside them.
+         */
+        private void writeOpen() throws IOException {
+            for (Element element : this.open) {
+                if (!element.written && !element.redundant) {
+                    this.write().append(element.tag);
+                }
+                element.written = true;
+            }
+        }
+
+        /**
+         * Writes the closing tags that were held back, since the next tag is not the same tag again.
+         */
+        private void writeClosed() throws IOException {
+            for (Element element : this.closed) {
+                this.write().append("</").append(element.name).append('>');
+            }
+            this.closed.clear();
+        }
+
+        /**
+         * Writes the closing tag of an element, if its opening tag was written.
+         */
+        private void close(Element element) throws IOException {
+            if (element.written && !element.redundant) {
+                this.write().append("</").append(element.name).append('>');
+            }
+        }
+
+        /**
+         * @return the value the fonts around the current position have for an attribute, or null
+         */
+        private String font(String attribute) {
+            for (int i = this.open.size() - 1; i >= 0; i--) {
+                Element element = this.open.get(i);
+                if (element.name.equals("font") && element.attributes.containsKey(attribute)) {
+                    return element.attributes.get(attribute);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return whether the same tag is open already
+         */
+        private boolean isOpen(String tag) {
+            for (Element element : this.open) {
+                if (element.tag.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return whether a tag with the name is open already
+         */
+        private boolean isOpenName(String name) {
+            return this.indexOf(name, false) != -1;
+        }
+
+        /**
+         * @return the index of the innermost open tag with the name, or -1; a formatting tag is only looked for inside
+         *         the innermost block, a tag is never closed outside its block
+         */
+        private int indexOf(String name, boolean inline) {
+            for (int i = this.open.size() - 1; i >= 0; i--) {
+                Element element = this.open.get(i);
+                if (element.name.equals(name)) {
+                    return i;
+                }
+                if (inline && BLOCK.contains(element.name)) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the index of the innermost open block, or -1
+         */
+        private int lastBlock() {
+            for (int i = this.open.size() - 1; i >= 0; i--) {
+                if (BLOCK.contains(this.open.get(i).name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Reads a tag up to its '>', which may be inside the quotes of an attribute value.
+         * @return the tag without the '<' and '>', or null if it is too long or never ends
+         */
+        private String readTag() throws IOException {
+            StringBuilder tag = new StringBuilder();
+            char quote = 0;
+            int c;
+            while ((c = this.read()) != -1) {
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if (c == '"' || c == '\'') {
+                    quote = (char) c;
+                } else if (c == '>') {
+                    return tag.toString().trim();
+                }
+                if (tag.length() < MAX_TAG) {
+                    tag.append((char) c);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads until after the end of a comment or a doctype.
+         */
+        private void skipPast(String end) throws IOException {
+            int matched = 0, c;
+            while (matched < end.length() && (c = this.read()) != -1) {
+                matched = c == end.charAt(matched) ? matched + 1 : (c == end.charAt(0) ? 1 : 0);
+            }
+        }
+
+        private int read() throws IOException {
+            if (this.position == this.limit && !this.fill()) {
+                return -1;
+            }
+            return this.buffer[this.position++];
+        }
+
+        private int peek() throws IOException {
+            if (this.position == this.limit && !this.fill()) {
+                return -1;
+            }
+            return this.buffer[this.position];
+        }
+
+        private boolean fill() throws IOException {
+            int read = this.in.read(this.buffer);
+            if (read <= 0) {
+                return false;
+            }
+            this.position = 0;
+            this.limit = read;
+            return true;
+        }
+
+        /**
+         * Reads the attributes of a tag that are kept, with the style reduced to the properties that are kept.
+         */
+        private Map<String, String> attributes(String name, String text) {
+            Map<String, String> attributes = new LinkedHashMap<>();
+            Set<String> kept = ATTRIBUTES.get(name);
+            int i = 0;
+            while (i < text.length()) {
+                // the attribute name
+                while (i < text.length() && (Character.isWhitespace(text.charAt(i)) || text.charAt(i) == '/')) i++;
+                int nameStart = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i)) && text.charAt(i) != '=' && text.charAt(i) != '/') i++;
+                String attribute = text.substring(nameStart, i).toLowerCase(Locale.ROOT);
+                if (attribute.isEmpty()) {
+                    break;
+                }
+
+                // the value, in quotes or not
+                while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+                String value = "";
+                if (i < text.length() && text.charAt(i) == '=') {
+                    i++;
+                    while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+                    if (i < text.length() && (text.charAt(i) == '"' || text.charAt(i) == '\'')) {
+                        char quote = text.charAt(i++);
+                        int end = text.indexOf(quote, i);
+                        end = end == -1 ? text.length() : end;
+                        value = text.substring(i, end);
+                        i = end + 1;
+                    } else {
+                        int valueStart = i;
+                        while (i < text.length() && !Character.isWhitespace(text.charAt(i))) i++;
+                        value = text.substring(valueStart, i);
+                    }
+                }
+
+                if (kept == null || !kept.contains(attribute) || attributes.containsKey(attribute)) {
+                    continue;
+                }
+                value = value.trim();
+                if (attribute.equals("style")) {
+                    value = style(value);
+                } else if (attribute.equals("href") || attribute.equals("src")) {
+                    value = isSafe(value) ? value : "";
+                }
+                if (!value.isEmpty()) {
+                    attributes.put(attribute, value);
+                }
+            }
+            return attributes;
+        }
+    }
+
+    /**
+     * @return the tag as it is written, e.g. <font face="Arial" size="4">
+     */
+    private static String tagOf(String name, Map<String, String> attributes) {
+        StringBuilder tag = new StringBuilder().append('<').append(name);
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            tag.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue().replace("\"", "&quot;")).append('"');
+        }
+        return tag.append('>').toString();
+    }
+
+    /**
+     * @return a style with only the properties that are kept, written the same way every time, e.g.
+     *         "text-align: center; color: red"
+     */
+    private static String style(String style) {
+        StringBuilder kept = new StringBuilder();
+        for (String declaration : style.replace("&quot;", "'").split(";")) {
+            int colon = declaration.indexOf(':');
+            if (colon == -1) {
+                continue;
+            }
+
+            String property = declaration.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = declaration.substring(colon + 1).trim().replaceAll("\\s+", " ");
+            String lower = value.toLowerCase(Locale.ROOT);
+            if (!STYLES.contains(property) || value.isEmpty() || lower.contains("expression(") || lower.contains("url(")) {
+                continue;
+            }
+
+            if (kept.length() > 0) {
+                kept.append("; ");
+            }
+            kept.append(property).append(": ").append(value);
+        }
+        return kept.toString();
+    }
+
+    /**
+     * @return whether a link or an image source cannot run a script
+     */
+    static boolean isSafe(String url) {
+        String lower = url.trim().toLowerCase(Locale.ROOT);
+        int colon = lower.indexOf(':');
+        if (colon == -1 || lower.lastIndexOf('/', colon) != -1 || lower.lastIndexOf('?', colon) != -1 || lower.lastIndexOf('#', colon) != -1) {
+            return true; // a relative link
+        }
+        String scheme = lower.substring(0, colon);
+        return scheme.equals("http") || scheme.equals("https") || scheme.equals("mailto") || scheme.equals("file")
+                || (scheme + ":").equals(LinkIndex.SCHEME) || lower.startsWith("data:image/");
+    }
+}
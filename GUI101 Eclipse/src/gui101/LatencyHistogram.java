@@ -0,0 +1,145 @@
+package gui101;
+
+import java.util.Locale;
+
+/**
+ * Counts latencies (in nanos) the way an HDR histogram does: every value lands in a bucket whose width grows with
+ * the value, so a latency of 10 micros and a latency of 10 seconds are both kept to about 3 significant digits,
+ * while the histogram stays the same small size no matter how many values it counts.
+ * The values are split into ranges that double (up to 2 micros, 2-4 micros, 4-8 micros, ...), and every range into
+ * the same amount of sub-buckets, so the percentiles (e.g. the 99th, the latency 99 of 100 keystrokes stay under)
+ * are exact to within 0.1% and the slowest values are never averaged away.
+ * A histogram is meant to be filled by one thread, and read once that thread is done.
+ * This class does not use JavaFX, so it can count latencies without a display (see TypingSoak).
+ */
+public class LatencyHistogram {
+    // every range of values is split into 2048 sub-buckets, which keeps 3 significant digits
+    private static final int SUB_BUCKET_BITS = 11;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS, HALF = SUB_BUCKETS / 2;
+
+    // the largest latency that is told apart (about an hour), larger latencies count as that one
+    private static final long HIGHEST = 1L << 42;
+
+    private final long[] counts;
+    private long count, total, min = Long.MAX_VALUE, max;
+
+    /**
+     * Initializes an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new long[indexOf(HIGHEST) + 1];
+    }
+
+    /**
+     * Counts a latency.
+     * @param nanos - the latency (in nanos), a negative latency counts as 0
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), HIGHEST);
+        this.counts[indexOf(value)]++;
+        this.count++;
+        this.total += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Adds the latencies of another histogram to this one (e.g. the histograms of several runs).
+     * @param other - the other histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.total += other.total;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * @param percentile - the percentile, from 0 to 100 (e.g. 99 for the latency 99% of the values stay under)
+     * @return the latency (in nanos) at the percentile, the highest value of its bucket, or 0 if nothing was counted
+     */
+    public long valueAt(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+
+        // the value that is at or above that many of the values
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(highestOf(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    /**
+     * @return the bucket of a value: the ranges that double come one after the other, the first range is split
+     *         into all sub-buckets and every range after it only into the upper half (its lower half is the range
+     *         before it)
+     */
+    private static int indexOf(long value) {
+        int range = Math.max(0, 64 - Long.numberOfLeadingZeros(value | (SUB_BUCKETS - 1)) - SUB_BUCKET_BITS);
+        int sub = (int) (value >>> range);
+        return ((range + 1) << (SUB_BUCKET_BITS - 1)) + sub - HALF;
+    }
+
+    /**
+     * @return the highest value that lands in a bucket
+     */
+    private static long highestOf(int index) {
+        int range = Math.max(0, (index >> (SUB_BUCKET_BITS - 1)) - 1);
+        int sub = index - ((range + 1) << (SUB_BUCKET_BITS - 1)) + HALF;
+        return (((long) sub + 1) << range) - 1;
+    }
+
+    /**
+     * @return the latencies as one line: the amount, the mean, the usual percentiles and the largest latency,
+     *         in millis
+     */
+    public String toText() {
+        return String.format(Locale.ROOT, "n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms",
+                this.count, millis(this.getMean()), millis(this.valueAt(50)), millis(this.valueAt(90)),
+                millis(this.valueAt(99)), millis(this.valueAt(99.9)), millis(this.max));
+    }
+
+    /**
+     * @return nanos as millis
+     */
+    private static double millis(double nanos) {
+        return nanos / 1_000_000;
+    }
+
+    /**
+     * @return the amount of latencies counted
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the mean latency (in nanos), or 0 if nothing was counted
+     */
+    public double getMean() {
+        return this.count == 0 ? 0 : (double) this.total / this.count;
+    }
+
+    /**
+     * @return the smallest latency (in nanos), or 0 if nothing was counted
+     */
+    public long getMin() {
+        return this.count == 0 ? 0 : this.min;
+    }
+
+    /**
+     * @return the largest latency (in nanos)
+     */
+    public long getMax() {
+        return this.max;
+    }
+}
@@ -0,0 +1,455 @@
+package gui101;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * The changelog of a notes directory ("notes/.changes"): every note that is created, saved, tagged or deleted through
+ * the NoteStore adds a small event to it, so other tools on the machine (indexers, backups, dashboards) can follow
+ * the changes to the notes without listing the notes directory over and over (see ChangeServer).
+ * Every event is known by its offset, the position in the file where it starts. The offsets only grow, so a tool
+ * that remembers where the last event it handled ends (Event.getNext()) reads on from there the next time, even
+ * after the program restarted.
+ * Adding an event must not slow down saving a note, so append() only puts the event into a queue, and a background
+ * thread writes everything queued so far at once and forces it to the disk, one write and one force for a whole
+ * batch of events. The events of a process are in the order they happened. Several processes may append to the
+ * same changelog, each of them appends its batches while it holds the changes byte of the lock file (see NoteLocks).
+ * Every event has a checksum, so a batch that a crash cut off midway is found and cut off by the next append, and
+ * readers stop before it. The events that were still queued when the program crashed are lost (their notes are not),
+ * so a tool that must not miss a change compares the checksums of the notes (in their metadata) when it starts.
+ */
+public class NoteChangelog {
+    public static final String FILE = ".changes";
+
+    /**
+     * What happened to a note.
+     */
+    public enum Type {
+        // a new note was written
+        CREATED,
+        // an existing note was written again
+        SAVED,
+        // the tags of a note changed, the note itself did not
+        TAGGED,
+        // the note was deleted
+        DELETED
+    }
+
+    // every event starts with the length and the checksum of the rest of it
+    private static final int HEADER = 8;
+
+    // the largest event that is read, a larger length means the changelog is broken there
+    private static final int MAX_EVENT = 64 * 1024;
+
+    // the amount of bytes read at once, always more than the largest event
+    private static final int BLOCK = 128 * 1024;
+
+    // how long (in millis) the background thread waits for more events once the queue is empty, before it ends
+    private static final long LINGER = 1000;
+
+    private final Path directory, file;
+    private final NoteLocks locks;
+
+    // the events that are not written yet, and whether the background thread was told to write them
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // writes the queued events, it is not a daemon thread, so the program waits for the last batch before it exits
+    private final ThreadPoolExecutor appender;
+
+    // the changelog file and the end of the events that are known to be whole (only used by the background thread)
+    private FileChannel channel;
+    private long checked;
+
+    // where the last batch of this process ended, readers waiting for new events are woken after every batch
+    private long end;
+
+    // what the background thread did
+    private final AtomicLong eventsAppended = new AtomicLong(), batches = new AtomicLong();
+
+    /**
+     * Initializes the changelog of a notes directory. The changelog file is created by the first event.
+     * @param directory - the directory that contains the note files
+     * @param locks - the locks of the notes directory
+     */
+    public NoteChangelog(Path directory, NoteLocks locks) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE);
+        this.locks = locks;
+        this.appender = new ThreadPoolExecutor(0, 1, LINGER, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                task -> new Thread(task, "gui101-changelog"));
+    }
+
+    /**
+     * Adds an event to the changelog, which is written in the background. Can be called from any thread, and only
+     * takes as long as adding to a queue.
+     * @param type - what happened to the note
+     * @param noteID - the note ID
+     * @param checksum - the checksum of the note afterwards, or "" for a deleted note
+     * @param size - the size of the note afterwards (in bytes), or 0 for a deleted note
+     */
+    public void append(Type type, String noteID, String checksum, long size) {
+        this.queue.add(new Event(-1, -1, type, System.currentTimeMillis(), noteID, checksum == null ? "" : checksum, size));
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.appender.execute(this::drain);
+        }
+    }
+
+    /**
+     * Waits until the events added so far are written (e.g. before the command line exits).
+     */
+    public void flush() {
+        try {
+            this.appender.submit(this::drain).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // drain() never fails, a batch that cannot be written is dropped
+        }
+    }
+
+    /**
+     * Writes every queued event as one batch, on the background thread.
+     */
+    private void drain() {
+        // events queued from now on schedule the next batch
+        this.scheduled.set(false);
+
+        List<Event> batch = new ArrayList<>();
+        for (Event event = this.queue.poll(); event != null; event = this.queue.poll()) {
+            batch.add(event);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            this.write(batch);
+        } catch (IOException e) {
+            // the events are lost, but not their notes, which were saved already
+        }
+    }
+
+    /**
+     * Appends a batch of events to the changelog, while holding the changes byte of the lock file, and forces it
+     * to the disk.
+     */
+    private void write(List<Event> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Event event : batch) {
+                byte[] payload = event.payload();
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                out.writeInt(payload.length);
+                out.writeInt((int) crc.getValue());
+                out.write(payload);
+            }
+        }
+
+        long position;
+        try (NoteLocks.Held held = this.locks.lockChanges()) {
+            if (this.channel == null) {
+                Files.createDirectories(this.directory);
+                this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+
+            // check the events the other processes appended since, and cut off a batch that a crash left unfinished
+            long size = this.channel.size();
+            if (this.checked > size) {
+                this.checked = 0; // the changelog was removed or replaced
+            }
+            position = scan(this.channel, this.checked, size, Integer.MAX_VALUE, null);
+            if (position < size) {
+                this.channel.truncate(position);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                position += this.channel.write(buffer, position);
+            }
+            this.channel.force(false);
+            this.checked = position;
+        }
+
+        this.eventsAppended.addAndGet(batch.size());
+        this.batches.incrementAndGet();
+        synchronized (this) {
+            this.end = position;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the events that start at or after an offset.
+     * @param from - where an event starts or ends (Event.getOffset() or Event.getNext()), 0 for the first event
+     * @param max - the most events to read
+     * @return the events, the oldest first, or an empty list if there is no event after the offset yet
+     * @throws IOException if the changelog cannot be read
+     */
+    public List<Event> read(long from, int max) throws IOException {
+        if (!Files.exists(this.file)) {
+            return Collections.emptyList();
+        }
+
+        try (FileChannel in = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            List<Event> events = new ArrayList<>();
+            scan(in, from, in.size(), max, events);
+            return events;
+        }
+    }
+
+    /**
+     * Tells whether an offset is where an event starts, or where the whole events end (where the next event is
+     * appended), which are the only offsets events can be read from.
+     * @param offset - the offset a reader wants to read from
+     * @return false for a negative offset, one past the end of the changelog, or one in the middle of an event
+     * @throws IOException if the changelog cannot be read
+     */
+    public boolean isBoundary(long offset) throws IOException {
+        if (offset < 0) {
+            return false;
+        }
+        if (!Files.exists(this.file)) {
+            return offset == 0;
+        }
+
+        try (FileChannel in = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (offset >= size) {
+                return offset == size;
+            }
+
+            // a whole event (with a matching checksum) starts at the offset, or else the offset is only right if
+            // the whole events end there (the rest is a batch that a crash cut off), which takes reading them all
+            List<Event> first = new ArrayList<>(1);
+            scan(in, offset, size, 1, first);
+            return !first.isEmpty() || scan(in, 0, size, Integer.MAX_VALUE, null) == offset;
+        }
+    }
+
+    /**
+     * @return where the last batch of this process ended
+     */
+    public synchronized long getEnd() {
+        return this.end;
+    }
+
+    /**
+     * Waits until this process appended events after an offset, or the time is up (another process might have
+     * appended in the meantime, which does not wake anybody up).
+     * @param offset - where the last read event ends, or where this process's events ended (getEnd()) before a read
+     *                 that found nothing, so the wait only ends early for events appended after the read
+     * @param millis - the longest wait
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized void await(long offset, long millis) throws InterruptedException {
+        if (this.end <= offset) {
+            this.wait(millis);
+        }
+    }
+
+    /**
+     * Goes over the whole events between two positions of the changelog, block by block.
+     * @param events - receives the events, or null to only find where the whole events end
+     * @return where the last whole event ends
+     */
+    private static long scan(FileChannel channel, long from, long to, int max, List<Event> events) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK);
+        block.limit(0);
+        long blockStart = from, position = from;
+        while (events == null || events.size() < max) {
+            int at = (int) (position - blockStart);
+            if (block.limit() - at < HEADER || block.limit() - at < HEADER + block.getInt(at)) {
+                // the next event is not (fully) in the block, so the block is read again from where it starts
+                int available = (int) Math.min(BLOCK, to - position);
+                if (available < HEADER) {
+                    break;
+                }
+                block.clear();
+                block.limit(available);
+                while (block.hasRemaining()) {
+                    if (channel.read(block, position + block.position()) < 0) break;
+                }
+                block.flip();
+                blockStart = position;
+                at = 0;
+            }
+
+            // an event that is cut off or does not match its checksum is where the whole events end
+            int length = block.getInt(at), checksum = block.getInt(at + 4);
+            if (length <= 0 || length > MAX_EVENT || at + HEADER + length > block.limit()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(block.array(), at + HEADER, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            long next = position + HEADER + length;
+            if (events != null) {
+                events.add(Event.parse(position, next, block.array(), at + HEADER, length));
+            }
+            position = next;
+        }
+        return position;
+    }
+
+    /**
+     * Writes the events added so far and closes the changelog file, while the notes directory is not used (see
+     * NoteStore.close()). The next event opens the changelog file again.
+     */
+    public void close() {
+        this.flush();
+        try {
+            // the file is only used by the background thread
+            this.appender.submit(() -> {
+                if (this.channel != null) {
+                    FileChannel channel = this.channel;
+                    this.channel = null;
+                    channel.close();
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the file could not be closed, it is closed when the program exits
+        }
+    }
+
+    /**
+     * @return the changelog file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return the amount of events this process appended
+     */
+    public long getEventsAppended() {
+        return this.eventsAppended.get();
+    }
+
+    /**
+     * @return the amount of batches this process appended the events in
+     */
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    /**
+     * One change of a note, as it is kept in the changelog.
+     */
+    public static final class Event {
+        private final long offset, next;
+        private final Type type;
+        private final long time;
+        private final String noteID, checksum;
+        private final long size;
+
+        Event(long offset, long next, Type type, long time, String noteID, String checksum, long size) {
+            this.offset = offset;
+            this.next = next;
+            this.type = type;
+            this.time = time;
+            this.noteID = noteID;
+            this.checksum = checksum;
+            this.size = size;
+        }
+
+        /**
+         * @return the event as it is written into the changelog, without its length and checksum
+         */
+        private byte[] payload() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + this.noteID.length());
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeByte(this.type.ordinal());
+                out.writeLong(this.time);
+                out.writeUTF(this.noteID);
+                out.writeUTF(this.checksum);
+                out.writeLong(this.size);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Reads an event written by payload().
+         */
+        private static Event parse(long offset, long next, byte[] bytes, int start, int length) throws IOException {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, start, length))) {
+                int type = in.readUnsignedByte();
+                if (type >= Type.values().length) {
+                    throw new IOException("Unknown event at " + offset);
+                }
+                return new Event(offset, next, Type.values()[type], in.readLong(), in.readUTF(), in.readUTF(), in.readLong());
+            }
+        }
+
+        /**
+         * @return the event as one line of text: its offset, where it ends, what happened, when (in millis),
+         *         the note ID, and the checksum and size of the note afterwards, separated by tabs
+         */
+        public String toText() {
+            return this.offset + "\t" + this.next + "\t" + this.type.name().toLowerCase(Locale.ROOT) + "\t"
+                    + this.time + "\t" + this.noteID + "\t" + this.checksum + "\t" + this.size;
+        }
+
+        /**
+         * @return where the event starts in the changelog
+         */
+        public long getOffset() {
+            return this.offset;
+        }
+
+        /**
+         * @return where the event ends in the changelog, which is where the next event starts
+         */
+        public long getNext() {
+            return this.next;
+        }
+
+        public Type getType() {
+            return this.type;
+        }
+
+        public long getTime() {
+            return this.time;
+        }
+
+        public String getNoteID() {
+            return this.noteID;
+        }
+
+        public String getChecksum() {
+            return this.checksum;
+        }
+
+        public long getSize() {
+            return this.size;
+        }
+    }
+}
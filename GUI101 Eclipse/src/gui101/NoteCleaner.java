@@ -0,0 +1,378 @@
+package gui101;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Normalizes the html of every note once (see HtmlNormalizer), so the notes saved before the normalizer existed
+ * become as small as the notes saved since.
+ * A note is only written again if its html changes, and it keeps the date it was last changed (see
+ * NoteStore.rewrite()), so the pass does not move it in the notes list. A note that is saved while the pass reads it
+ * is skipped, since save() normalized it already, and so is a note that is open in the editor (see setSkip()), which
+ * is normalized when it is saved. A large note (see LargeNote) is streamed from its file through the
+ * normalizer into the new file, so it is never held in memory as a whole.
+ * The pass runs on a thread with the lowest priority, and once it went over every note it is remembered in the
+ * file ".normalized" in the notes directory, with the version of the normalizer and the notes it left over (the
+ * skipped ones, and the ones that could not be read or written). It runs again only after the normalizer changed
+ * (see HtmlNormalizer.VERSION) or after it was stopped midway. Otherwise only the notes it left over are cleaned,
+ * once they are not open anymore (see retry()), or the next time the program starts.
+ */
+public class NoteCleaner {
+    // the file that remembers the version of the last finished pass
+    public static final String MARKER = ".normalized";
+
+    // the amount of notes normalized before the changed ones are reported (see setOnBatch())
+    private static final int BATCH = 64;
+
+    private final NoteStore store;
+    private final HtmlNormalizer normalizer = HtmlNormalizer.document();
+
+    // called with the metadata of the notes that each batch wrote, on the thread of the pass
+    private volatile Consumer<List<NoteMeta>> onBatch;
+
+    // tells which notes are left alone for now, on the thread of the pass
+    private volatile Predicate<String> skip;
+
+    // what the last pass did, and how long it took
+    private final AtomicLong notesChecked = new AtomicLong(), notesChanged = new AtomicLong();
+    private final AtomicLong bytesBefore = new AtomicLong(), bytesAfter = new AtomicLong();
+    private volatile long nanos;
+
+    // the notes the last pass left over, or null if they were not read from the marker yet
+    private volatile Set<String> left;
+
+    // whether start() was called, so retry() may start a pass too
+    private boolean started;
+
+    private Thread thread;
+
+    /**
+     * Initializes a cleaner over the notes of a note store.
+     * @param store - the note store
+     */
+    public NoteCleaner(NoteStore store) {
+        this.store = store;
+        this.setOnBatch(batch -> { });
+        this.setSkip(noteID -> false);
+    }
+
+    /**
+     * Starts a pass over the notes on a background thread, unless the notes were already normalized by this
+     * version of the normalizer, in which case only the notes the last pass left over are cleaned (if any).
+     */
+    public synchronized void start() {
+        this.started = true;
+        if (this.thread != null) {
+            return;
+        }
+        List<String> left = this.readLeft();
+        if (left != null && left.isEmpty()) {
+            this.left = Collections.emptySet();
+            return;
+        }
+
+        this.thread = new Thread(() -> {
+            try {
+                if (left == null) {
+                    this.cleanAll(false);
+                } else {
+                    this.cleanNotes(left, false);
+                }
+            } catch (IOException e) {
+                // the notes cannot be listed right now, the pass runs again the next time the program starts
+            } finally {
+                synchronized (this) {
+                    if (this.thread == Thread.currentThread()) {
+                        this.thread = null;
+                    }
+                }
+            }
+        }, "gui101-cleaner");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+        this.thread.start();
+    }
+
+    /**
+     * Cleans the notes the last pass left over, once some of them are not skipped anymore (e.g. a note that was open
+     * in the editor was closed), unless start() was not called yet or a pass is running.
+     */
+    public synchronized void retry() {
+        Set<String> left = this.left;
+        if (!this.started || this.thread != null || left == null) {
+            return;
+        }
+        for (String noteID : left) {
+            if (!this.skip.test(noteID)) {
+                this.start();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread started by start(), after the note it is writing.
+     */
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    /**
+     * @return whether the notes were already normalized by this version of the normalizer
+     */
+    public boolean isDone() {
+        return this.readLeft() != null;
+    }
+
+    /**
+     * @return the notes the last pass left over, or null if the notes were not normalized by this version of the
+     *         normalizer yet
+     */
+    private List<String> readLeft() {
+        try {
+            List<String> lines = Files.readAllLines(this.markerPath(), StandardCharsets.UTF_8);
+            if (lines.isEmpty() || Integer.parseInt(lines.get(0).trim()) < HtmlNormalizer.VERSION) {
+                return null;
+            }
+            List<String> left = new ArrayList<>();
+            for (String line : lines.subList(1, lines.size())) {
+                if (!line.trim().isEmpty()) {
+                    left.add(line.trim());
+                }
+            }
+            return left;
+        } catch (IOException | NumberFormatException e) {
+            return null; // there was no pass yet, or the marker is broken
+        }
+    }
+
+    /**
+     * Normalizes every note, batch by batch. A note that is skipped or cannot be read is left over for later, one
+     * that was changed or deleted in the meantime is not (save() normalized it).
+     * The pass is remembered once it went over every note (unless it is only a dry run), with the notes it left
+     * over, and it stops early if its thread is interrupted.
+     * @param dryRun - true to only count how much smaller the notes would become, without writing them
+     * @throws IOException if the notes cannot be listed or the pass cannot be remembered
+     */
+    public void cleanAll(boolean dryRun) throws IOException {
+        this.cleanNotes(this.store.list(), dryRun);
+    }
+
+    /**
+     * Normalizes some notes, batch by batch, and remembers the ones it left over (see cleanAll()).
+     */
+    private void cleanNotes(Collection<String> ids, boolean dryRun) throws IOException {
+        this.notesChecked.set(0);
+        this.notesChanged.set(0);
+        this.bytesBefore.set(0);
+        this.bytesAfter.set(0);
+        long start = System.nanoTime();
+
+        List<NoteMeta> written = new ArrayList<>();
+        Set<String> left = new LinkedHashSet<>();
+        for (String id : ids) {
+            if (Thread.currentThread().isInterrupted()) {
+                this.nanos = System.nanoTime() - start;
+                return; // the pass was stopped, it starts over the next time
+            }
+            if (this.skip.test(id)) {
+                left.add(id);
+                continue;
+            }
+
+            try {
+                NoteMeta meta = this.clean(id, dryRun);
+                if (meta != null) {
+                    written.add(meta);
+                }
+            } catch (NoteStore.ConflictException | NoSuchFileException e) {
+                // the note was saved (and normalized) or deleted in the meantime
+            } catch (IOException e) {
+                left.add(id); // the note cannot be read or written right now
+            }
+
+            if (written.size() == BATCH) {
+                this.onBatch.accept(written);
+                written = new ArrayList<>();
+            }
+        }
+        if (!written.isEmpty()) {
+            this.onBatch.accept(written);
+        }
+        this.nanos = System.nanoTime() - start;
+
+        if (!dryRun) {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.valueOf(HtmlNormalizer.VERSION));
+            lines.addAll(left);
+            Files.createDirectories(this.store.getDirectory());
+            Files.write(this.markerPath(), lines, StandardCharsets.UTF_8);
+            this.left = left;
+        }
+    }
+
+    /**
+     * Normalizes one note.
+     * @param noteID - the note ID
+     * @param dryRun - true to only count how much smaller the note would become, without writing it
+     * @return the updated metadata of the note, or null if the note was not written
+     * @throws NoteStore.ConflictException if the note was changed since it was read
+     * @throws IOException if the note cannot be read or written
+     */
+    public NoteMeta clean(String noteID, boolean dryRun) throws IOException {
+        this.notesChecked.incrementAndGet();
+        if (LargeNote.isLarge(this.store.sizeOf(noteID))) {
+            return this.cleanLarge(noteID, dryRun);
+        }
+
+        // the checksum of what was read, so the note is not written if it was saved in between
+        byte[] before = this.store.readBytes(noteID);
+        String normalized = this.normalizer.normalize(new String(before, StandardCharsets.UTF_8));
+        byte[] after = normalized.getBytes(StandardCharsets.UTF_8);
+        this.bytesBefore.addAndGet(before.length);
+        this.bytesAfter.addAndGet(after.length);
+
+        String checksum = NoteStore.checksumOf(before);
+        if (checksum.equals(NoteStore.checksumOf(after)) && before.length == after.length) {
+            return null; // the note is normalized already
+        }
+        this.notesChanged.incrementAndGet();
+        return dryRun ? null : this.store.rewrite(noteID, normalized, checksum);
+    }
+
+    /**
+     * Normalizes a large note while streaming it: once to find out whether it changes at all, and once more into
+     * the new note file if it does.
+     */
+    private NoteMeta cleanLarge(String noteID, boolean dryRun) throws IOException {
+        String checksum = this.store.checksumOfNote(noteID);
+        long size = this.store.sizeOf(noteID);
+
+        // count and checksum the normalized note without keeping it
+        Counter counter = new Counter();
+        CheckedOutputStream checked = new CheckedOutputStream(counter, new CRC32());
+        try (Reader in = this.store.openReader(noteID);
+             Writer out = new OutputStreamWriter(checked, StandardCharsets.UTF_8)) {
+            this.normalizer.normalize(in, out);
+        }
+        this.bytesBefore.addAndGet(size);
+        this.bytesAfter.addAndGet(counter.count);
+
+        if (checksum.equals(String.format("%08x", checked.getChecksum().getValue())) && size == counter.count) {
+            return null; // the note is normalized already
+        }
+        this.notesChanged.incrementAndGet();
+        if (dryRun) {
+            return null;
+        }
+
+        // the note is written through the channel of the new note file, and read once more for its fingerprint
+        this.store.rewrite(noteID, channel -> {
+            try (Reader in = this.store.openReader(noteID)) {
+                Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1));
+                this.normalizer.normalize(in, out);
+                out.flush(); // the channel is closed by the note store
+            }
+        }, checksum);
+        return this.store.fingerprint(noteID);
+    }
+
+    /**
+     * @return the file that remembers the version of the last finished pass
+     */
+    private Path markerPath() {
+        return this.store.getDirectory().resolve(MARKER);
+    }
+
+    /**
+     * Counts the bytes written into it, and keeps none of them.
+     */
+    private static final class Counter extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            this.count += length;
+        }
+    }
+
+    /**
+     * Sets what is called with the metadata of the notes each batch wrote
+     * @param onBatch - called on the thread of the pass
+     */
+    public void setOnBatch(Consumer<List<NoteMeta>> onBatch) {
+        this.onBatch = onBatch;
+    }
+
+    /**
+     * Sets which notes the pass leaves alone for now (e.g. the notes open in the editor, whose page offsets and
+     * checksum would not match the note file anymore)
+     * @param skip - tells whether to skip a note, called on the thread of the pass
+     */
+    public void setSkip(Predicate<String> skip) {
+        this.skip = skip;
+    }
+
+    /**
+     * @return the amount of notes the last pass went over
+     */
+    public long getNotesChecked() {
+        return this.notesChecked.get();
+    }
+
+    /**
+     * @return the amount of notes the last pass changed (or would have changed, in a dry run)
+     */
+    public long getNotesChanged() {
+        return this.notesChanged.get();
+    }
+
+    /**
+     * @return the size of the notes (in bytes) before the last pass
+     */
+    public long getBytesBefore() {
+        return this.bytesBefore.get();
+    }
+
+    /**
+     * @return the size of the notes (in bytes) after the last pass
+     */
+    public long getBytesAfter() {
+        return this.bytesAfter.get();
+    }
+
+    /**
+     * @return how long the last pass took (in millis)
+     */
+    public long getMillis() {
+        return this.nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,928 @@
+package gui101;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The command line version of the program, for scripts and servers without a display.
+ * It works on the same "notes" directory as the program window, or on another notebook (see Notebooks), through the
+ * same NoteStore, but it never starts JavaFX, so none of the classes it uses may depend on JavaFX.
+ * An encrypted notebook is unlocked first, with the password in the environment variable GUI101_PASSWORD (for
+ * scripts) or else with the password typed into the console.
+ *
+ * Usage: java -cp <classes> gui101.NoteCli [--notes <dir> | --notebook <name>] <command> [arguments]
+ */
+public class NoteCli {
+    // the commands that change the notes, they open the notes directory first (see NoteStore.open())
+    private static final Set<String> WRITERS = new HashSet<>(Arrays.asList("replace", "import", "reindex", "scrub", "sync", "normalize"));
+
+    // the environment variable that holds the password of an encrypted notebook
+    private static final String PASSWORD = "GUI101_PASSWORD";
+
+    private final NoteStore store;
+    private final PrintStream out, err;
+
+    /**
+     * Initializes the command line over a note store.
+     * @param store - the note store to work on
+     * @param out - where the results are printed
+     * @param err - where the errors are printed
+     */
+    public NoteCli(NoteStore store, PrintStream out, PrintStream err) {
+        this.store = store;
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+
+        // the notes directory defaults to the same "notes" subdirectory the program window uses
+        Path notesDir = Paths.get("notes/");
+        int option = arguments.indexOf("--notes");
+        if (option != -1 && option + 1 < arguments.size()) {
+            notesDir = Paths.get(arguments.get(option + 1));
+            arguments.subList(option, option + 2).clear();
+        }
+
+        // or to the directory of a notebook, by its name
+        option = arguments.indexOf("--notebook");
+        if (option != -1 && option + 1 < arguments.size()) {
+            String name = arguments.get(option + 1);
+            notesDir = Notebooks.load().directoryOf(name);
+            if (notesDir == null) {
+                System.err.println("error: there is no notebook named " + name + " (see the notebooks command)");
+                System.exit(2);
+            }
+            arguments.subList(option, option + 2).clear();
+        }
+
+        // an encrypted notebook is unlocked before its notes can be read
+        int unlocked = unlock(notesDir);
+        if (unlocked != 0) {
+            System.exit(unlocked);
+        }
+
+        System.exit(new NoteCli(new NoteStore(notesDir), System.out, System.err).run(arguments));
+    }
+
+    /**
+     * Unlocks the notebook in a notes directory if it is encrypted (see NoteCipher).
+     * @return 0 if the notebook is not encrypted or was unlocked, otherwise the exit code
+     */
+    private static int unlock(Path notesDir) {
+        if (!NoteCipher.isEncrypted(notesDir)) {
+            return 0;
+        }
+
+        char[] password = password("Password of the notebook: ");
+        if (password == null) {
+            System.err.println("error: the notebook is encrypted, give its password in " + PASSWORD);
+            return 2;
+        }
+
+        try {
+            if (NoteCipher.unlock(notesDir, password) == null) {
+                System.err.println("error: that is not the password of the notebook");
+                return 1;
+            }
+            return 0;
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            return 1;
+        } finally {
+            Arrays.fill(password, ' ');
+        }
+    }
+
+    /**
+     * @param prompt - what the console asks for
+     * @return the password in the environment variable, or the password typed into the console, or null if there
+     *         is neither
+     */
+    private static char[] password(String prompt) {
+        String variable = System.getenv(PASSWORD);
+        if (variable != null) {
+            return variable.toCharArray();
+        }
+        return System.console() == null ? null : System.console().readPassword("%s", prompt);
+    }
+
+    /**
+     * Runs a single command.
+     * @param arguments - the command followed by its arguments
+     * @return the exit code: 0 on success, 1 if the command failed or found problems, 2 on wrong usage
+     */
+    public int run(List<String> arguments) {
+        if (arguments.isEmpty()) {
+            return this.usage();
+        }
+
+        List<String> rest = arguments.subList(1, arguments.size());
+        try {
+            /*
+                a command that changes the notes tells the other processes (e.g. the program window) that it uses
+                the notes directory, so they keep its temporary files, and it finishes the changes of a crash
+                first if nobody else uses the directory, like the program window does when it starts
+             */
+            if (WRITERS.contains(arguments.get(0))) {
+                this.store.open();
+            }
+
+            switch (arguments.get(0)) {
+                case "list": return this.list();
+                case "stats": return this.stats();
+                case "search": return rest.isEmpty() ? this.usage() : this.search(String.join(" ", rest));
+                case "filter": return rest.isEmpty() ? this.usage() : this.filter(String.join(" ", rest));
+                case "query": return rest.isEmpty() ? this.usage() : this.query(new ArrayList<>(rest));
+                case "duplicates": return this.duplicates();
+                case "related": return rest.isEmpty() ? this.usage() : this.related(rest.get(0));
+                case "backlinks": return rest.isEmpty() ? this.usage() : this.backlinks(rest.get(0));
+                case "replace": return this.replace(new ArrayList<>(rest));
+                case "export": return rest.isEmpty() ? this.usage() : this.export(rest);
+                case "import": return rest.isEmpty() ? this.usage() : this.importFrom(Paths.get(rest.get(0)));
+                case "reindex": return this.reindex();
+                case "verify": return this.verify();
+                case "recover": return this.recover();
+                case "scrub": return this.scrub(new ArrayList<>(rest));
+                case "normalize": return this.normalize(rest.contains("--dry-run"));
+                case "sync": return rest.isEmpty() ? this.usage() : this.sync(rest.get(0));
+                case "sync-server": return this.syncServer(new ArrayList<>(rest));
+                case "changes": return this.changes(new ArrayList<>(rest));
+                case "notebooks": return this.notebooks(new ArrayList<>(rest));
+                case "bench-encryption": return this.benchEncryption(new ArrayList<>(rest));
+                default: return this.usage();
+            }
+        } catch (IOException e) {
+            this.err.println("error: " + e.getMessage());
+            return 1;
+        } finally {
+            // the events of the changes are written in the background, the process must not exit before them
+            this.store.getChangelog().flush();
+        }
+    }
+
+    /**
+     * Prints the ID, date and sample of every note.
+     */
+    private int list() throws IOException {
+        for (String id : this.store.list()) {
+            try {
+                NoteMeta meta = this.store.meta(id);
+                NoteData note = meta.toNoteData();
+                this.out.println(id + "\t" + note.getDateFormat().format(new Date(note.getDate())) + "\t" + note.getStrSample().trim());
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Prints the word count of every note and the totals of all notes, only the metadata is read. A note saved
+     * before the counts existed is read once to count it, and its counts are written into its metadata.
+     */
+    private int stats() throws IOException {
+        StatsIndex index = new StatsIndex();
+        for (String id : this.store.list()) {
+            try {
+                NoteMeta meta = this.store.meta(id);
+                if (!meta.getStats().isKnown()) {
+                    meta = this.store.fingerprint(id);
+                }
+                index.put(meta);
+                this.out.println(id + "\t" + meta.getStats().getWords() + " words\t" + meta.getStats().getCharacters()
+                        + " characters\t" + meta.getStats().getReadingMinutes() + " min");
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        }
+        this.out.println(index.getNotes() + " notes, " + index.getWords() + " words, " + index.getCharacters()
+                + " characters, " + index.getBytes() + " bytes");
+        return 0;
+    }
+
+    /**
+     * Prints the notes whose text contains the query (ignoring case), together with the matching line.
+     * The notes are searched in parallel.
+     */
+    private int search(String query) throws IOException {
+        String needle = query.toLowerCase(Locale.ROOT);
+        List<String> matches = Collections.synchronizedList(new ArrayList<>());
+
+        this.store.list().parallelStream().forEach(id -> {
+            try {
+                for (String line : HtmlConverter.text().convert(this.store.read(id)).split("\n")) {
+                    if (line.toLowerCase(Locale.ROOT).contains(needle)) {
+                        matches.add(id + "\t" + line.trim());
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        });
+
+        matches.forEach(this.out::println);
+        return matches.isEmpty() ? 1 : 0;
+    }
+
+    /**
+     * Prints the notes whose tags match a tag filter (e.g. "work AND NOT done"), only the metadata is read.
+     */
+    private int filter(String filter) throws IOException {
+        // index the tags of every note, and keep the metadata to print the matching notes
+        TagIndex index = new TagIndex();
+        Map<String, NoteMeta> metas = new HashMap<>();
+        for (String id : this.store.list()) {
+            try {
+                NoteMeta meta = this.store.meta(id);
+                index.put(id, meta.getTags());
+                metas.put(id, meta);
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        }
+
+        List<String> found;
+        try {
+            found = index.idsOf(index.query(filter));
+        } catch (IllegalArgumentException e) {
+            this.err.println("error: " + e.getMessage());
+            return 2;
+        }
+
+        for (String id : found) {
+            NoteMeta meta = metas.get(id);
+            this.out.println(id + "\t" + String.join(",", meta.getTags()) + "\t" + meta.getStrSample().trim());
+        }
+        return found.isEmpty() ? 1 : 0;
+    }
+
+    /**
+     * Prints the notes that match a search (e.g. meeting after:2026-01-01 -draft, see NoteQuery) as they are found,
+     * and with --explain how the search was run (see QueryEngine). Only the metadata is read for the dates, tags and
+     * words, a note whose metadata has no word counts yet leaves the words to be looked for in the text of the notes.
+     */
+    private int query(List<String> arguments) throws IOException {
+        boolean explain = arguments.remove("--explain");
+        if (arguments.isEmpty()) {
+            return this.usage();
+        }
+
+        // index the dates, tags and words of every note, and keep the metadata to print the matching notes
+        DateIndex dates = new DateIndex();
+        TagIndex tags = new TagIndex();
+        RelatedIndex words = new RelatedIndex();
+        Map<String, NoteMeta> metas = new HashMap<>();
+        for (String id : this.store.list()) {
+            try {
+                NoteMeta meta = this.store.meta(id);
+                dates.put(id, meta.getModified());
+                tags.put(id, meta.getTags());
+                if (meta.getTerms() != null) {
+                    words.put(id, meta.getTerms());
+                }
+                metas.put(id, meta);
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        }
+
+        QueryEngine.Plan plan;
+        QueryEngine engine = new QueryEngine(dates, words, tags,
+                id -> HtmlConverter.text().convert(this.store.read(id)));
+        try {
+            plan = engine.plan(NoteQuery.parse(String.join(" ", arguments)));
+        } catch (IllegalArgumentException e) {
+            this.err.println("error: " + e.getMessage());
+            return 2;
+        }
+
+        engine.run(plan, batch -> {
+            for (String id : batch) {
+                this.out.println(id + "\t" + metas.get(id).getStrSample().trim());
+            }
+        }, () -> false);
+
+        if (explain) {
+            this.out.println(plan.explain());
+        }
+        return plan.getMatches() == 0 ? 1 : 0;
+    }
+
+    /**
+     * Prints the clusters of near-duplicate notes, the notes without a fingerprint are fingerprinted first.
+     */
+    private int duplicates() throws IOException {
+        DuplicateIndex index = new DuplicateIndex();
+        Map<String, NoteMeta> metas = new ConcurrentHashMap<>();
+
+        this.store.list().parallelStream().forEach(id -> {
+            try {
+                NoteMeta meta = this.store.meta(id);
+                if (meta.getFingerprint() == null) {
+                    meta = this.store.fingerprint(id);
+                }
+                index.put(id, meta.getFingerprint());
+                metas.put(id, meta);
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        });
+
+        List<List<String>> clusters = index.clusters();
+        for (List<String> cluster : clusters) {
+            this.out.println(cluster.size() + " near-duplicate notes:");
+            for (String id : cluster) {
+                this.out.println("  " + id + "\t" + metas.get(id).getStrSample().trim());
+            }
+        }
+        this.out.println(clusters.size() + " clusters");
+        return 0;
+    }
+
+    /**
+     * Prints the notes most related to a note, by the words they share with it. The words are counted from the
+     * metadata of the notes, only a note whose metadata has no word counts yet is read, and its counts are written
+     * into its metadata.
+     */
+    private int related(String noteID) throws IOException {
+        if (!this.store.list().contains(noteID)) {
+            this.err.println("error: there is no note " + noteID);
+            return 1;
+        }
+
+        RelatedIndex index = new RelatedIndex();
+        Map<String, NoteMeta> metas = new ConcurrentHashMap<>();
+
+        this.store.list().parallelStream().forEach(id -> {
+            try {
+                NoteMeta meta = this.store.meta(id);
+                if (meta.getTerms() == null) {
+                    meta = this.store.fingerprint(id);
+                }
+                index.put(id, meta.getTerms());
+                metas.put(id, meta);
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        });
+
+        for (String id : index.find(noteID, RelatedIndex.RESULTS)) {
+            this.out.println(id + "\t" + metas.get(id).getStrSample().trim());
+        }
+        return 0;
+    }
+
+    /**
+     * Prints the notes that link to a note. The links are read from the metadata, only notes saved before links
+     * existed are read for their links (and fingerprinted at the same time).
+     */
+    private int backlinks(String noteID) throws IOException {
+        LinkIndex index = new LinkIndex();
+        Map<String, NoteMeta> metas = new ConcurrentHashMap<>();
+
+        this.store.list().parallelStream().forEach(id -> {
+            try {
+                NoteMeta meta = this.store.meta(id);
+                if (meta.getLinks() == null) {
+                    meta = this.store.fingerprint(id);
+                }
+                index.put(id, meta.getLinks());
+                metas.put(id, meta);
+            } catch (IOException e) {
+                this.err.println("cannot read " + id + ": " + e.getMessage());
+            }
+        });
+
+        Set<String> backlinks = index.backlinksOf(noteID);
+        for (String id : backlinks) {
+            this.out.println(id + "\t" + metas.get(id).getStrSample().trim());
+        }
+        this.out.println(backlinks.size() + " notes link to " + noteID);
+        return 0;
+    }
+
+    /**
+     * Replaces a text in every note, the option --case matches the case and --dry-run only prints the matches.
+     */
+    private int replace(List<String> arguments) throws IOException {
+        boolean matchCase = arguments.remove("--case");
+        boolean dryRun = arguments.remove("--dry-run");
+        if (arguments.size() != 2 || arguments.get(0).isEmpty()) {
+            return this.usage();
+        }
+
+        NoteReplacer replacer = new NoteReplacer(this.store, arguments.get(0), arguments.get(1), matchCase);
+        List<NoteReplacer.Match> matches = replacer.find((done, total, message) -> { }, () -> false);
+        int count = 0;
+        for (NoteReplacer.Match match : matches) {
+            this.out.println(match.getNoteID() + "\t" + match.getCount() + "\t" + match.getSample() + "\t..." + match.getSnippet() + "...");
+            count += match.getCount();
+        }
+        this.out.println(String.format(Locale.ROOT, "%d matches in %d notes, read %.1f MB at %.1f MB/s",
+                count, matches.size(), replacer.getMegabytes(), replacer.getMegabytesPerSecond()));
+        if (dryRun || matches.isEmpty()) {
+            return 0;
+        }
+
+        count = replacer.replace(matches, (done, total, message) -> { }, () -> false, batch -> { });
+        this.out.println(String.format(Locale.ROOT, "replaced %d matches in %d notes, read %.1f MB at %.1f MB/s",
+                count, replacer.getNotesChanged(), replacer.getMegabytes(), replacer.getMegabytesPerSecond()));
+        return 0;
+    }
+
+    /**
+     * Exports the notes into an archive, the options --text and --markdown add the conversions.
+     */
+    private int export(List<String> arguments) throws IOException {
+        Path target = Paths.get(arguments.get(0));
+        NoteExporter exporter = new NoteExporter(NoteExporter.formatOf(target));
+        exporter.setIncludeText(arguments.contains("--text"));
+        exporter.setIncludeMarkdown(arguments.contains("--markdown"));
+        exporter.setCipher(this.store.getCipher());
+
+        NoteSnapshot snapshot = this.store.openSnapshot();
+        try {
+            long count = exporter.export(snapshot, target, (done, total, message) -> { });
+            this.out.println("exported " + count + " notes to " + target);
+        } finally {
+            this.store.closeSnapshot(snapshot);
+        }
+        return 0;
+    }
+
+    /**
+     * Imports a directory or ZIP archive of .html, .md and .txt files.
+     */
+    private int importFrom(Path source) throws IOException {
+        NoteImporter importer = new NoteImporter(this.store);
+        long[] count = new long[1];
+        importer.setOnBatch(batch -> count[0] += batch.size());
+
+        List<String> failed = importer.importFrom(source, (done, total, message) -> { });
+        failed.forEach(name -> this.err.println("cannot import " + name));
+        this.out.println("imported " + count[0] + " notes");
+        return failed.isEmpty() ? 0 : 1;
+    }
+
+    /**
+     * Rebuilds the metadata of every note and removes the metadata of notes that no longer exist.
+     */
+    private int reindex() throws IOException {
+        List<String> ids = this.store.list();
+        List<String> failed = Collections.synchronizedList(new ArrayList<>());
+
+        ids.parallelStream().forEach(id -> {
+            try {
+                this.store.reindex(id);
+                this.store.fingerprint(id); // the note might have changed, so its fingerprint is made again
+            } catch (IOException e) {
+                failed.add(id);
+            }
+        });
+
+        int removed = 0;
+        for (Path meta : this.orphanedMeta()) {
+            Files.deleteIfExists(meta);
+            removed++;
+        }
+
+        failed.forEach(id -> this.err.println("cannot reindex " + id));
+        this.out.println("reindexed " + (ids.size() - failed.size()) + " notes, removed " + removed + " orphaned metadata files");
+        return failed.isEmpty() ? 0 : 1;
+    }
+
+    /**
+     * Checks that every note can be read and that its metadata matches it, and reports leftover files.
+     */
+    private int verify() throws IOException {
+        List<String> problems = Collections.synchronizedList(new ArrayList<>());
+        List<String> ids = this.store.list();
+
+        ids.parallelStream().forEach(id -> {
+            byte[] bytes;
+            try {
+                bytes = this.store.readBytes(id);
+            } catch (IOException e) {
+                problems.add(id + ": the note cannot be read");
+                return;
+            }
+
+            try {
+                NoteMeta meta = this.store.readMeta(id);
+                if (meta.getSize() != bytes.length) {
+                    problems.add(id + ": the metadata says " + meta.getSize() + " bytes, but the note has " + bytes.length);
+                } else if (meta.getChecksum() != null && !meta.getChecksum().equals(NoteStore.checksumOf(bytes))) {
+                    problems.add(id + ": the note does not match its checksum, it is damaged");
+                }
+            } catch (IOException e) {
+                problems.add(id + ": the metadata is missing or corrupt");
+            }
+        });
+
+        for (Path meta : this.orphanedMeta()) {
+            problems.add(meta.getFileName() + ": metadata without a note");
+        }
+
+        for (NoteJournal.Change change : this.store.getJournal().unfinished()) {
+            problems.add(change.getNoteID() + ": unfinished change in the journal, run recover");
+        }
+
+        if (Files.isDirectory(this.store.getDirectory())) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.store.getDirectory(), "*" + NoteStore.TEMP)) {
+                for (Path temp : stream) {
+                    problems.add(temp.getFileName() + ": unfinished write");
+                }
+            }
+        }
+
+        Collections.sort(problems);
+        problems.forEach(this.out::println);
+        this.out.println("verified " + ids.size() + " notes, " + problems.size() + " problems");
+        return problems.isEmpty() ? 0 : 1;
+    }
+
+    /**
+     * Finishes the changes a crash interrupted from the journal, then removes the temporary files left behind.
+     * The program window does the same when it starts, so nothing is done while it has the notes open.
+     */
+    private int recover() throws IOException {
+        List<String> recovered = this.store.open();
+        if (recovered == null) {
+            this.out.println("the notes are open in another process, which recovered them when it opened them");
+            return 0;
+        }
+
+        for (String id : recovered) {
+            this.out.println(id);
+        }
+        this.out.println("recovered " + recovered.size() + " changes");
+        return 0;
+    }
+
+    /**
+     * Checks every note against its checksum once, repairing the damaged notes from the journal where it can.
+     * The option --rate limits the megabytes read per second (0, the default here, reads as fast as possible).
+     */
+    private int scrub(List<String> arguments) throws IOException {
+        NoteScrubber scrubber = new NoteScrubber(this.store);
+        scrubber.setRate(0);
+        int rate = arguments.indexOf("--rate");
+        if (rate != -1) {
+            try {
+                scrubber.setRate(Double.parseDouble(arguments.get(rate + 1)));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                return this.usage();
+            }
+        }
+
+        scrubber.setOnFound((id, status) -> this.out.println(id + "\t" + status.name().toLowerCase(Locale.ROOT)));
+        long start = System.nanoTime();
+        try {
+            scrubber.scrubAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+
+        this.out.println(String.format(Locale.ROOT, "checked %d notes (%.1f MB at %.1f MB/s), %d new checksums, %d repaired, %d damaged",
+                scrubber.getNotesChecked(), scrubber.getMegabytesChecked(), scrubber.getMegabytesChecked() / seconds,
+                scrubber.getAdopted(), scrubber.getRepaired(), scrubber.getDamaged().size()));
+        return scrubber.getDamaged().isEmpty() ? 0 : 1;
+    }
+
+    /**
+     * Normalizes the html of every note (see NoteCleaner), and prints how much smaller the notes became.
+     */
+    private int normalize(boolean dryRun) throws IOException {
+        NoteCleaner cleaner = new NoteCleaner(this.store);
+        cleaner.setOnBatch(batch -> batch.forEach(meta -> this.out.println(meta.getStrID() + "\tnormalized")));
+        cleaner.cleanAll(dryRun);
+
+        double before = cleaner.getBytesBefore() / (1024.0 * 1024.0), after = cleaner.getBytesAfter() / (1024.0 * 1024.0);
+        double smaller = before == 0 ? 0.0 : 100 * (1 - after / before);
+        this.out.println(String.format(Locale.ROOT, "%s %d of %d notes, %.1f MB to %.1f MB (%.0f%% %s) in %d ms",
+                dryRun ? "would normalize" : "normalized", cleaner.getNotesChanged(), cleaner.getNotesChecked(),
+                before, after, Math.abs(smaller), smaller < 0 ? "larger" : "smaller", cleaner.getMillis()));
+        return 0;
+    }
+
+    /**
+     * Syncs the notes with a sync server once, and prints what the round sent and received.
+     */
+    private int sync(String server) throws IOException {
+        if (this.store.isEncrypted()) {
+            this.err.println("error: an encrypted notebook is never synced, the sync server would see its notes");
+            return 1;
+        }
+
+        NoteSync sync;
+        try {
+            sync = new NoteSync(this.store, server);
+        } catch (IllegalArgumentException e) {
+            return this.usage();
+        }
+
+        NoteSync.Changes changes = sync.sync();
+        changes.getChanged().forEach(meta -> this.out.println(meta.getStrID() + "\tchanged"));
+        changes.getDeleted().forEach(id -> this.out.println(id + "\tdeleted"));
+        this.out.println(String.format(Locale.ROOT, "pushed %d notes, pulled %d notes, %d conflicts, sent %.1f KB, received %.1f KB for %.1f KB of notes",
+                sync.getPushed(), sync.getPulled(), sync.getConflicts(),
+                sync.getBytesSent() / 1024.0, sync.getBytesReceived() / 1024.0, sync.getBytesRaw() / 1024.0));
+        return 0;
+    }
+
+    /**
+     * Runs the stand-in sync server until the process is stopped, the option --port picks its port (any free port
+     * by default). The server keeps the notes in memory only.
+     */
+    private int syncServer(List<String> arguments) throws IOException {
+        int port = 0;
+        int option = arguments.indexOf("--port");
+        if (option != -1) {
+            try {
+                port = Integer.parseInt(arguments.get(option + 1));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                return this.usage();
+            }
+        }
+
+        SyncServer server = new SyncServer(port);
+        server.start();
+        this.out.println("sync server listening on localhost:" + server.getPort());
+        try {
+            Thread.currentThread().join(); // serve until the process is stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.stop();
+        return 0;
+    }
+
+    /**
+     * Prints the events of the changelog from an offset on (option --from, 0 by default), one per line (see
+     * NoteChangelog.Event.toText()). With the option --port, the events come from the change server of the program
+     * on that port instead, and the events that happen later are printed too, until the process is stopped.
+     */
+    private int changes(List<String> arguments) throws IOException {
+        long from = 0;
+        int port = -1;
+        try {
+            int option = arguments.indexOf("--from");
+            if (option != -1) from = Long.parseLong(arguments.get(option + 1));
+            option = arguments.indexOf("--port");
+            if (option != -1) port = Integer.parseInt(arguments.get(option + 1));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return this.usage();
+        }
+
+        if (port == -1) {
+            List<NoteChangelog.Event> events;
+            while (!(events = this.store.getChangelog().read(from, 1024)).isEmpty()) {
+                events.forEach(event -> this.out.println(event.toText()));
+                from = events.get(events.size() - 1).getNext();
+            }
+            return 0;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("FROM " + from + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            // the server sends "OK" while nothing happens, which is not an event
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("ERROR")) {
+                    this.err.println(line);
+                    return 1;
+                }
+                if (!line.equals("OK")) this.out.println(line);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the metadata files whose note does not exist anymore
+     */
+    private List<Path> orphanedMeta() throws IOException {
+        List<Path> orphaned = new ArrayList<>();
+        if (!Files.isDirectory(this.store.getDirectory())) {
+            return orphaned;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.store.getDirectory(), "*" + NoteStore.META)) {
+            for (Path meta : stream) {
+                String name = meta.getFileName().toString();
+                if (!Files.exists(this.store.pathOf(name.substring(0, name.length() - NoteStore.META.length())))) {
+                    orphaned.add(meta);
+                }
+            }
+        }
+        return orphaned;
+    }
+
+    /**
+     * Prints how the command line is used.
+     */
+    /**
+     * Prints the name and the directory of every notebook, the active notebook marked with a star, or creates a
+     * notebook ("notebooks new <name>").
+     */
+    private int notebooks(List<String> arguments) throws IOException {
+        Notebooks notebooks = Notebooks.load();
+        if (!arguments.isEmpty()) {
+            boolean encrypted = arguments.remove("--encrypted");
+            if (!arguments.get(0).equals("new") || arguments.size() < 2) {
+                return this.usage();
+            }
+
+            // the password is asked for first, so a notebook is never left without the encryption it was meant to have
+            char[] password = encrypted ? password("Password of the new notebook: ") : null;
+            if (encrypted && (password == null || password.length == 0)) {
+                this.err.println("error: an encrypted notebook needs a password, give it in " + PASSWORD);
+                return 2;
+            }
+            if (encrypted && System.getenv(PASSWORD) == null && !Arrays.equals(password, System.console().readPassword("Repeat the password: "))) {
+                this.err.println("error: the passwords are not the same");
+                return 1;
+            }
+
+            String name = String.join(" ", arguments.subList(1, arguments.size()));
+            try {
+                // the notebook is only listed once it is encrypted, so a failed encryption leaves no notebook behind
+                Path directory = notebooks.add(name, dir -> {
+                    if (encrypted) {
+                        NoteCipher.encrypt(dir, password);
+                    }
+                });
+                this.out.println(name.trim() + "\t" + directory + (encrypted ? "\tencrypted" : ""));
+                return 0;
+            } catch (IllegalArgumentException e) {
+                this.err.println("error: " + e.getMessage());
+                return 1;
+            } finally {
+                if (password != null) Arrays.fill(password, ' ');
+            }
+        }
+
+        for (String name : notebooks.getNames()) {
+            String active = name.equals(notebooks.getActive()) ? "*" : " ";
+            Path directory = notebooks.directoryOf(name);
+            this.out.println(active + " " + name + "\t" + directory + (NoteCipher.isEncrypted(directory) ? "\tencrypted" : ""));
+        }
+        return 0;
+    }
+
+    /**
+     * Measures how much an encrypted notebook slows the notes down. The same notes are saved, listed (their
+     * metadata is read, like the notes list does) and read in a new plain and a new encrypted notebook, and a large
+     * note is written and read through a channel in both, like a LargeNote. The latencies of both notebooks are
+     * printed below each other, with how many times slower the encrypted one is at the median.
+     * The key of the encrypted notebook is derived before the measuring, since that happens once per session.
+     */
+    private int benchEncryption(List<String> arguments) throws IOException {
+        int notes = 200, size = 8;
+        try {
+            int option = arguments.indexOf("--count");
+            if (option != -1) notes = Integer.parseInt(arguments.get(option + 1));
+            option = arguments.indexOf("--size");
+            if (option != -1) size = Integer.parseInt(arguments.get(option + 1));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return this.usage();
+        }
+
+        // the html of a note of about the given size, with paragraphs like the editor writes them
+        StringBuilder builder = new StringBuilder("<html dir=\"ltr\"><head></head><body contenteditable=\"true\">");
+        while (builder.length() < size * 1024) {
+            builder.append("<p>The quick brown fox jumps over the lazy dog.</p>\n");
+        }
+        String html = builder.append("</body></html>").toString();
+
+        Path root = Files.createTempDirectory("gui101-bench");
+        try {
+            Path plainDir = root.resolve("plain"), encryptedDir = root.resolve("encrypted");
+            NoteCipher.encrypt(encryptedDir, "benchmark".toCharArray());
+
+            // a round on both notebooks first, so neither is measured before the JIT compiled the code
+            this.bench(plainDir, notes, html);
+            this.bench(encryptedDir, notes, html);
+            LatencyHistogram[] plain = this.bench(plainDir, notes, html);
+            LatencyHistogram[] encrypted = this.bench(encryptedDir, notes, html);
+
+            String[] names = { "save", "list", "read", "stream" };
+            for (int i = 0; i < names.length; i++) {
+                this.out.println(String.format(Locale.ROOT, "%-6s plain     %s", names[i], plain[i].toText()));
+                this.out.println(String.format(Locale.ROOT, "%-6s encrypted %s  %.2fx", names[i], encrypted[i].toText(),
+                        (double) encrypted[i].valueAt(50) / Math.max(1, plain[i].valueAt(50))));
+            }
+            return 0;
+        } finally {
+            NoteSnapshot.deleteRecursively(root);
+        }
+    }
+
+    /**
+     * Saves, lists and reads notes in a notes directory, and streams a note of 4 MB in and out of it.
+     * @return the latencies of saving, listing, reading and streaming
+     */
+    private LatencyHistogram[] bench(Path directory, int notes, String html) throws IOException {
+        LatencyHistogram save = new LatencyHistogram(), list = new LatencyHistogram();
+        LatencyHistogram read = new LatencyHistogram(), stream = new LatencyHistogram();
+        NoteStore store = new NoteStore(directory);
+        store.open();
+        try {
+            for (int i = 0; i < notes; i++) {
+                long start = System.nanoTime();
+                store.write("note-" + i, html);
+                save.record(System.nanoTime() - start);
+            }
+            for (int i = 0; i < notes; i++) {
+                long start = System.nanoTime();
+                store.meta("note-" + i);
+                list.record(System.nanoTime() - start);
+            }
+            for (int i = 0; i < notes; i++) {
+                long start = System.nanoTime();
+                store.read("note-" + i);
+                read.record(System.nanoTime() - start);
+            }
+
+            byte[] page = html.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (int i = 0; i < 5; i++) {
+                long start = System.nanoTime();
+                store.write("large", out -> {
+                    for (long written = 0; written < 4 * 1024 * 1024; written += page.length) {
+                        ByteBuffer bytes = ByteBuffer.wrap(page);
+                        while (bytes.hasRemaining()) out.write(bytes);
+                    }
+                });
+                try (FileChannel in = store.openContent("large")) {
+                    while (in.read(buffer) != -1) buffer.clear();
+                }
+                stream.record(System.nanoTime() - start);
+            }
+        } finally {
+            store.getChangelog().flush();
+            store.close();
+        }
+        return new LatencyHistogram[] { save, list, read, stream };
+    }
+
+    private int usage() {
+        this.err.println("usage: gui101.NoteCli [--notes <dir> | --notebook <name>] <command>");
+        this.err.println("  list                                      list every note");
+        this.err.println("  stats                                     count the words of every note, and of all notes");
+        this.err.println("  search <text>                             find the notes that contain the text");
+        this.err.println("  filter <tag filter>                       find the notes whose tags match, e.g. work AND NOT done");
+        this.err.println("  query <search> [--explain]                find the notes that match a search, e.g. meeting after:2026-01-01 -draft");
+        this.err.println("  duplicates                                find the clusters of near-duplicate notes");
+        this.err.println("  related <note id>                         find the notes about the same things as a note");
+        this.err.println("  backlinks <note id>                       find the notes that link to a note");
+        this.err.println("  replace <text> <replacement> [--case] [--dry-run]");
+        this.err.println("                                            replace a text in every note");
+        this.err.println("  export <file.zip|file.jsonl> [--text] [--markdown]");
+        this.err.println("                                            export every note into an archive");
+        this.err.println("  import <dir|file.zip>                     import .html, .md and .txt files as notes");
+        this.err.println("  reindex                                   rebuild the metadata of every note");
+        this.err.println("  verify                                    check the notes and their metadata");
+        this.err.println("  recover                                   finish the changes a crash interrupted");
+        this.err.println("  scrub [--rate <MB/s>]                     check every note against its checksum and repair it");
+        this.err.println("  normalize [--dry-run]                     clean up the html of every note to make it smaller");
+        this.err.println("  sync <host:port>                          sync the notes with a sync server once");
+        this.err.println("  sync-server [--port <port>]               run a local sync server that keeps the notes in memory");
+        this.err.println("  changes [--from <offset>] [--port <port>] print the changelog, or follow the program's change server");
+        this.err.println("  notebooks [new <name> [--encrypted]]      list the notebooks, or create a notebook");
+        this.err.println("  bench-encryption [--count <notes>] [--size <KB>]");
+        this.err.println("                                            compare the speed of a plain and an encrypted notebook");
+        return 2;
+    }
+}
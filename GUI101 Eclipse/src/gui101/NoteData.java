@@ -2,11 +2,14 @@ package gui101;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Set;
 import java.util.UUID;
 
 public class NoteData {
     private String strSample, strID;
-    private Long lnDate;
+    private Long lnDate, lnModified;
+    private Set<String> tags;
 
     // this final DateFormat variable will make sure that all dates in the program will appear in the same format
     private static final DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
@@ -15,12 +18,16 @@ public class NoteData {
      * Initializes Note data with default values for each attribute.
      * strSample - defaults to "New Note"
      * lnDate - defaults to the current time the object was instantiated (in millis)
+     * lnModified - defaults to the same time as lnDate
      * strID - defaults to a unique ID generated by the UUID class
+     * tags - defaults to no tags
      */
     public NoteData() {
         this.setStrSample("New Note"); // set a default note sample "New Note"
         this.setStrID(UUID.randomUUID().toString()); // set a default random unique ID using the UUID class
         this.setDate(System.currentTimeMillis()); // set the default date (the date the object was instantiated)
+        this.setModified(this.getDate()); // a new note was last changed when it was created
+        this.setTags(Collections.emptySet()); // a new note has no tags
     }
 
     /**
@@ -32,6 +39,17 @@ public class NoteData {
         this(); // instantiate the default object
         this.setStrSample(sample); // set the object's note sample with the one given in the parameter
         this.setDate(date); // set the object's date with the one given in the parameter
+        this.setModified(date); // the note was last changed when it was created, until told otherwise
+    }
+
+    /**
+     * Extracts the note sample/title from the html of a note.
+     * The html components are removed and only the first 20 characters of the remaining text are kept.
+     * @param html - the html of the note
+     * @return the note sample
+     */
+    public static String sampleOf(String html) {
+        return String.format("%.20s", html.replaceAll("</p>", "</p>\n").replaceAll("<[^>]*>", "").replaceAll("&[^;]*;", " "));
     }
 
     /**
@@ -48,6 +66,20 @@ public class NoteData {
         return lnDate;
     }
 
+    /**
+     * @return the date the note was last saved (in millis)
+     */
+    public Long getModified() {
+        return lnModified;
+    }
+
+    /**
+     * @return the tags of the note
+     */
+    public Set<String> getTags() {
+        return tags;
+    }
+
     /**
      * @return the unique ID assigned to the object
      */
@@ -70,6 +102,22 @@ public class NoteData {
         this.lnDate = lnDate;
     }
 
+    /**
+     * Sets the date the note was last saved
+     * @param lnModified - the date (in millis)
+     */
+    public void setModified(Long lnModified) {
+        this.lnModified = lnModified;
+    }
+
+    /**
+     * Sets the tags of the note
+     * @param tags - the tags
+     */
+    public void setTags(Set<String> tags) {
+        this.tags = tags;
+    }
+
     /**
      * Sets the unique ID for the note
      * @param strID - the unique ID
@@ -0,0 +1,449 @@
+package gui101;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams every note of a NoteSnapshot into a single archive file.
+ * Two archive formats are supported:
+ *  - ZIP: a "manifest.jsonl" entry with one line of metadata per note, followed by the notes themselves
+ *    under "notes/" and (optionally) their plain text under "text/" and Markdown under "markdown/".
+ *  - JSONL: one line per note that contains the metadata, the html and the optional conversions.
+ * Notes are copied through NIO channels with fixed size buffers, so the memory used does not grow with the
+ * size of the corpus. The optional conversions are done in parallel, but only a small window of notes is
+ * converted ahead of the one being written.
+ * The notes of an encrypted notebook are decrypted into the archive (see setCipher()), the archive itself is plain.
+ */
+public class NoteExporter {
+    public enum Format { ZIP, JSONL }
+
+    private Format format;
+    private boolean includeText, includeMarkdown;
+    private int threads;
+
+    // decrypts the notes of an encrypted notebook, or null
+    private NoteCipher cipher;
+
+    /**
+     * Initializes an exporter for the given archive format, without the optional conversions.
+     * @param format - the archive format to write
+     */
+    public NoteExporter(Format format) {
+        this.setFormat(format);
+        this.setThreads(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Guesses the archive format from the file name of the target, defaulting to ZIP.
+     * @param target - the archive file
+     * @return the matching archive format
+     */
+    public static Format formatOf(Path target) {
+        return target.getFileName().toString().toLowerCase().endsWith(".jsonl") ? Format.JSONL : Format.ZIP;
+    }
+
+    /**
+     * Exports every note in the snapshot into the target file.
+     * The archive is first written next to the target and only moved in place once it is complete,
+     * so a failed or cancelled export never leaves a broken archive behind.
+     * Cancelling is done by interrupting the thread that runs this method.
+     * @param snapshot - the snapshot of the notes directory to export
+     * @param target - the archive file to create
+     * @param listener - receives the progress of the export
+     * @return the amount of notes exported
+     * @throws IOException if a note cannot be read, the archive cannot be written or the export was cancelled
+     */
+    public long export(NoteSnapshot snapshot, Path target, ProgressListener listener) throws IOException {
+        listener.progress(0, -1, "Taking a snapshot of the notes");
+        snapshot.capture();
+
+        // count the notes first, so that the progress can be shown as a fraction
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshot.getDirectory(), "*" + NoteStore.NOTE)) {
+            for (Path ignored : stream) total++;
+        }
+
+        Path temp = target.resolveSibling(target.getFileName() + ".part");
+        ExecutorService converters = this.needsConversion() ? Executors.newFixedThreadPool(this.getThreads(), r -> {
+            Thread thread = new Thread(r, "note-export-converter");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long exported;
+            if (this.getFormat() == Format.ZIP) {
+                exported = this.writeZip(snapshot.getDirectory(), channel, converters, total, listener);
+            } else {
+                exported = this.writeJsonLines(snapshot.getDirectory(), channel, converters, total, listener);
+            }
+
+            // make sure the archive is on the disk before it replaces the target
+            channel.force(true);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            listener.progress(exported, total, "Exported " + exported + " notes");
+            return exported;
+        } finally {
+            if (converters != null) converters.shutdownNow();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the notes as a ZIP archive.
+     * @return the amount of notes written
+     */
+    private long writeZip(Path dir, FileChannel channel, ExecutorService converters, long total, ProgressListener listener) throws IOException {
+        // the ZipOutputStream must not be closed by the try statement, since that would close the channel too early
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(uncloseable(zip), StandardCharsets.UTF_8));
+        WritableByteChannel zipChannel = Channels.newChannel(uncloseable(zip));
+
+        // the manifest only needs the file attributes, so it is written in a quick first pass
+        zip.putNextEntry(new ZipEntry("manifest.jsonl"));
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + NoteStore.NOTE)) {
+            for (Path p : stream) {
+                writer.write(this.metadataOf(p));
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+        zip.closeEntry();
+
+        long done = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + NoteStore.NOTE)) {
+            Iterator<Future<Converted>> pipeline = this.pipeline(stream.iterator(), converters);
+            while (pipeline.hasNext()) {
+                Converted note = await(pipeline.next());
+                String id = NoteStore.idOf(note.file);
+
+                // copy the html without decoding it, through the channel
+                ZipEntry entry = new ZipEntry("notes/" + id + ".note");
+                entry.setTime(Files.getLastModifiedTime(note.file).toMillis());
+                zip.putNextEntry(entry);
+                try (FileChannel in = this.open(note.file)) {
+                    long size = in.size(), position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, zipChannel);
+                    }
+                }
+                zip.closeEntry();
+
+                if (note.text != null) {
+                    zip.putNextEntry(new ZipEntry("text/" + id + ".txt"));
+                    writer.write(note.text);
+                    writer.flush();
+                    zip.closeEntry();
+                }
+
+                if (note.markdown != null) {
+                    zip.putNextEntry(new ZipEntry("markdown/" + id + ".md"));
+                    writer.write(note.markdown);
+                    writer.flush();
+                    zip.closeEntry();
+                }
+
+                listener.progress(++done, total, "Exporting notes");
+            }
+        }
+
+        zip.finish();
+        zip.flush();
+        return done;
+    }
+
+    /**
+     * Writes the notes as JSON lines, one note per line.
+     * @return the amount of notes written
+     */
+    private long writeJsonLines(Path dir, FileChannel channel, ExecutorService converters, long total, ProgressListener listener) throws IOException {
+        Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 64 * 1024), 64 * 1024);
+
+        long done = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + NoteStore.NOTE)) {
+            Iterator<Future<Converted>> pipeline = this.pipeline(stream.iterator(), converters);
+            while (pipeline.hasNext()) {
+                Converted note = await(pipeline.next());
+
+                // reuse the metadata object, but leave it open to add the note's content
+                String metadata = this.metadataOf(note.file);
+                writer.write(metadata, 0, metadata.length() - 1);
+
+                writer.write(",\"html\":");
+                try (Reader in = Channels.newReader(this.open(note.file), StandardCharsets.UTF_8.newDecoder(), -1)) {
+                    Json.quote(in, writer);
+                }
+
+                if (note.text != null) {
+                    writer.write(",\"text\":");
+                    writer.write(Json.quote(note.text));
+                }
+
+                if (note.markdown != null) {
+                    writer.write(",\"markdown\":");
+                    writer.write(Json.quote(note.markdown));
+                }
+                writer.write("}\n");
+
+                listener.progress(++done, total, "Exporting notes");
+            }
+        }
+
+        writer.flush();
+        return done;
+    }
+
+    /**
+     * Creates the conversion pipeline over the note files.
+     * At most 2 notes per converter thread are converted ahead of the note that is being written, this keeps
+     * every thread busy while bounding the memory held by finished conversions.
+     * @param files - the note files in the order they will be written
+     * @param converters - the converter threads, or null if no conversion is needed
+     * @return the conversions, in the same order as the files
+     */
+    private Iterator<Future<Converted>> pipeline(Iterator<Path> files, ExecutorService converters) {
+        int window = converters == null ? 1 : this.getThreads() * 2;
+        Deque<Future<Converted>> pending = new ArrayDeque<>(window);
+
+        return new Iterator<Future<Converted>>() {
+            @Override
+            public boolean hasNext() {
+                this.fill();
+                return !pending.isEmpty();
+            }
+
+            @Override
+            public Future<Converted> next() {
+                this.fill();
+                return pending.poll();
+            }
+
+            /**
+             * Submits conversions until the window is full or there are no more files.
+             */
+            private void fill() {
+                while (pending.size() < window && files.hasNext()) {
+                    Path file = files.next();
+                    if (converters == null) {
+                        pending.add(CompletableFuture.completedFuture(new Converted(file, null, null)));
+                    } else {
+                        pending.add(converters.submit(() -> NoteExporter.this.convert(file)));
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Opens a note file for reading, through a channel that decrypts it if the notes are encrypted.
+     */
+    private FileChannel open(Path file) throws IOException {
+        return this.getCipher() == null ? FileChannel.open(file, StandardOpenOption.READ) : this.getCipher().open(file);
+    }
+
+    /**
+     * Reads a single note and converts it into the enabled formats. This runs on a converter thread.
+     * @param file - the note file
+     * @return the conversions of the note
+     * @throws IOException if the note cannot be read
+     */
+    private Converted convert(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        String html = new String(this.getCipher() == null ? bytes : this.getCipher().decrypt(bytes), StandardCharsets.UTF_8);
+        return new Converted(file,
+                this.isIncludeText() ? HtmlConverter.text().convert(html) : null,
+                this.isIncludeMarkdown() ? HtmlConverter.markdown().convert(html) : null);
+    }
+
+    /**
+     * Waits for a conversion to finish.
+     * @param future - the conversion
+     * @return the finished conversion
+     * @throws IOException if the conversion failed or the export was cancelled while waiting
+     */
+    private static Converted await(Future<Converted> future) throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("The export was cancelled");
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The export was cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Creates the JSON metadata of a note from its metadata file, or from its file attributes if the note has no metadata.
+     * @param file - the note file
+     * @return a JSON object with the note's ID, creation date, modification date, size, sample and tags
+     * @throws IOException if the attributes cannot be read
+     */
+    private String metadataOf(Path file) throws IOException {
+        String id = NoteStore.idOf(file);
+        NoteMeta meta;
+        try {
+            meta = NoteMeta.read(id, file.resolveSibling(id + NoteStore.META), this.getCipher());
+        } catch (IOException e) {
+            BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+            meta = new NoteMeta(id);
+            meta.setCreated(attr.creationTime().toMillis());
+            meta.setModified(attr.lastModifiedTime().toMillis());
+            meta.setSize(this.getCipher() == null ? attr.size() : NoteCipher.plainSizeOf(attr.size()));
+        }
+
+        return "{\"id\":" + Json.quote(id)
+                + ",\"created\":" + meta.getCreated()
+                + ",\"modified\":" + meta.getModified()
+                + ",\"size\":" + meta.getSize()
+                + ",\"sample\":" + Json.quote(meta.getStrSample())
+                + ",\"tags\":[" + meta.getTags().stream().map(Json::quote).collect(Collectors.joining(",")) + "]}";
+    }
+
+    /**
+     * Wraps a stream so that closing it does nothing, this keeps the writers over the zip stream from closing it.
+     * @param out - the stream to wrap
+     * @return the wrapped stream
+     */
+    private static OutputStream uncloseable(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                this.out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                this.flush();
+            }
+        };
+    }
+
+    /**
+     * @return whether any of the optional conversions are enabled
+     */
+    private boolean needsConversion() {
+        return this.isIncludeText() || this.isIncludeMarkdown();
+    }
+
+    /**
+     * @return the archive format that is written
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return whether a plain text copy of each note is exported
+     */
+    public boolean isIncludeText() {
+        return includeText;
+    }
+
+    /**
+     * @return whether a Markdown copy of each note is exported
+     */
+    public boolean isIncludeMarkdown() {
+        return includeMarkdown;
+    }
+
+    /**
+     * @return the amount of threads used for the conversions
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the cipher the notes are decrypted with, or null if they are not encrypted
+     */
+    public NoteCipher getCipher() {
+        return cipher;
+    }
+
+    /**
+     * Sets the archive format that is written
+     * @param format - the archive format
+     */
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Sets whether a plain text copy of each note is exported
+     * @param includeText - true to export plain text
+     */
+    public void setIncludeText(boolean includeText) {
+        this.includeText = includeText;
+    }
+
+    /**
+     * Sets whether a Markdown copy of each note is exported
+     * @param includeMarkdown - true to export Markdown
+     */
+    public void setIncludeMarkdown(boolean includeMarkdown) {
+        this.includeMarkdown = includeMarkdown;
+    }
+
+    /**
+     * Sets the amount of threads used for the conversions
+     * @param threads - the amount of threads (at least 1)
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the cipher of an encrypted notebook, whose notes are decrypted into the archive
+     * @param cipher - the cipher of the notebook (see NoteStore.getCipher()), or null if it is not encrypted
+     */
+    public void setCipher(NoteCipher cipher) {
+        this.cipher = cipher;
+    }
+
+    /**
+     * The result of reading and converting a single note.
+     */
+    private static class Converted {
+        private final Path file;
+        private final String text, markdown;
+
+        private Converted(Path file, String text, String markdown) {
+            this.file = file;
+            this.text = text;
+            this.markdown = markdown;
+        }
+    }
+}
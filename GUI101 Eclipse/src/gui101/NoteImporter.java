@@ -0,0 +1,492 @@
+package gui101;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports a directory or ZIP archive of .html, .md and .txt files (and .note files exported by NoteExporter)
+ * into the notes directory.
+ * The import runs as a pipeline of three stages, so that reading, converting and writing overlap:
+ *  1. the calling thread reads each file (or archive entry) together with its timestamps,
+ *  2. a pool of converter threads turns the content into the editor's html,
+ *  3. a single writer thread writes the .note files and hands the new NoteData to the batch listener, the files
+ *     that are ready at the same time are written in parallel, so the journal forces the disk once for all of them.
+ * The amount of files between the first and the last stage is limited, so the memory used does not
+ * depend on the amount of files imported.
+ */
+public class NoteImporter {
+    private static final String HEADER = "<html dir=\"ltr\"><head></head><body contenteditable=\"true\">";
+    private static final String FOOTER = "</body></html>";
+
+    // an inline Markdown link, [text](address), after its text was escaped
+    private static final Pattern LINK = Pattern.compile("\\[([^\\]]+)\\]\\(([^)\\s]+)\\)");
+
+    // marks the end of the files for the writer stage
+    private static final Converted END = new Converted(null, null);
+
+    private final NoteStore store;
+    private int threads, batchSize;
+    private Consumer<List<NoteData>> onBatch;
+
+    /**
+     * Initializes an importer that writes into the given note store.
+     * @param store - the store the new notes are written to
+     */
+    public NoteImporter(NoteStore store) {
+        this.store = store;
+        this.setThreads(Runtime.getRuntime().availableProcessors());
+        this.setBatchSize(256);
+        this.setOnBatch(batch -> { });
+    }
+
+    /**
+     * @param file - a file name
+     * @return whether the importer knows how to convert the file
+     */
+    public static boolean isSupported(String file) {
+        String name = file.toLowerCase(Locale.ROOT);
+        return name.endsWith(".html") || name.endsWith(".htm") || name.endsWith(".note")
+                || name.endsWith(".md") || name.endsWith(".markdown") || name.endsWith(".txt");
+    }
+
+    /**
+     * Imports every supported file inside the source, which is either a directory (searched recursively)
+     * or a ZIP archive.
+     * Cancelling is done by interrupting the thread that runs this method, the notes that were already
+     * written are kept.
+     * @param source - the directory or ZIP archive to import
+     * @param listener - receives the progress of the import
+     * @return the names of the files that could not be imported
+     * @throws IOException if the source cannot be read or the import was cancelled
+     */
+    public List<String> importFrom(Path source, ProgressListener listener) throws IOException {
+        List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        BlockingQueue<Converted> written = new LinkedBlockingQueue<>();
+        Semaphore inFlight = new Semaphore(this.getThreads() * 4);
+        AtomicLong done = new AtomicLong();
+
+        ExecutorService converters = Executors.newFixedThreadPool(this.getThreads(), r -> {
+            Thread thread = new Thread(r, "note-import-converter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // the writer stage, it is the only thread that takes the converted files and writes them into the note store
+        Thread writer = new Thread(() -> this.write(written, inFlight, failed, done, listener), "note-import-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            listener.progress(0, -1, "Reading the files to import");
+
+            // the reader stage, which runs on the calling thread
+            if (Files.isDirectory(source)) {
+                this.readDirectory(source, converters, written, inFlight, failed);
+            } else {
+                this.readArchive(source, converters, written, inFlight, failed);
+            }
+
+            // wait for the converters to finish, then tell the writer that no more notes are coming
+            converters.shutdown();
+            while (!converters.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                checkCancelled();
+            }
+            written.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The import was cancelled");
+        } finally {
+            converters.shutdownNow();
+            writer.interrupt();
+        }
+
+        listener.progress(done.get(), done.get(), "Imported " + done.get() + " notes");
+        return failed;
+    }
+
+    /**
+     * Reads every supported file inside a directory and hands it to the converters.
+     */
+    private void readDirectory(Path dir, ExecutorService converters, BlockingQueue<Converted> written,
+                               Semaphore inFlight, List<String> failed) throws IOException, InterruptedException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            Iterator<Path> files = walk.filter(p -> Files.isRegularFile(p) && isSupported(p.toString())).iterator();
+            while (files.hasNext()) {
+                Path file = files.next();
+                checkCancelled();
+                try {
+                    BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+                    this.submit(new Source(file.toString(), Files.readAllBytes(file), attr.creationTime(), attr.lastModifiedTime()),
+                            converters, written, inFlight, failed);
+                } catch (IOException e) {
+                    failed.add(file.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads every supported entry inside a ZIP archive and hands it to the converters.
+     */
+    private void readArchive(Path archive, ExecutorService converters, BlockingQueue<Converted> written,
+                             Semaphore inFlight, List<String> failed) throws IOException, InterruptedException {
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            boolean exported = false; // whether the archive was written by NoteExporter
+            while ((entry = zip.getNextEntry()) != null) {
+                checkCancelled();
+                exported |= entry.getName().equals("manifest.jsonl");
+
+                // an exported archive also contains text and Markdown copies of its notes, only the notes are imported
+                if (entry.isDirectory() || !isSupported(entry.getName()) || (exported && !entry.getName().startsWith("notes/"))) {
+                    continue;
+                }
+
+                // archives often do not store a creation time, use the modification time instead
+                FileTime modified = entry.getLastModifiedTime() != null ? entry.getLastModifiedTime() : FileTime.fromMillis(System.currentTimeMillis());
+                FileTime created = entry.getCreationTime() != null ? entry.getCreationTime() : modified;
+                this.submit(new Source(entry.getName(), readFully(zip), created, modified), converters, written, inFlight, failed);
+            }
+        }
+    }
+
+    /**
+     * Hands a single file to the converters, waiting while too many files are already in the pipeline.
+     */
+    private void submit(Source source, ExecutorService converters, BlockingQueue<Converted> written,
+                        Semaphore inFlight, List<String> failed) throws InterruptedException {
+        inFlight.acquire();
+        converters.execute(() -> {
+            try {
+                written.put(new Converted(source, toNote(source.name, new String(source.content, StandardCharsets.UTF_8))));
+            } catch (RuntimeException e) {
+                failed.add(source.name);
+                inFlight.release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * The writer stage: writes each converted file as a new note and hands the new notes to the batch listener.
+     */
+    private void write(BlockingQueue<Converted> written, Semaphore inFlight, List<String> failed, AtomicLong done, ProgressListener listener) {
+        List<NoteData> batch = new ArrayList<>(this.getBatchSize());
+        try {
+            boolean finished = false;
+            while (!finished) {
+                // take every converted file that is ready, waiting for at least one
+                List<Converted> ready = new ArrayList<>();
+                ready.add(written.take());
+                written.drainTo(ready);
+                finished = ready.remove(END);
+                inFlight.release(ready.size());
+
+                // write them in parallel, so their journal records are forced to the disk together (see NoteJournal)
+                List<NoteData> notes = Collections.synchronizedList(new ArrayList<>());
+                ready.parallelStream().forEach(converted -> {
+                    try {
+                        // the note keeps the timestamps of the original file
+                        String noteID = new NoteData().getStrID();
+                        NoteMeta meta = this.store.write(noteID, converted.html,
+                                converted.source.created.toMillis(), converted.source.modified.toMillis());
+                        notes.add(meta.toNoteData());
+                    } catch (IOException e) {
+                        failed.add(converted.source.name);
+                    }
+                });
+                batch.addAll(notes);
+                listener.progress(done.addAndGet(notes.size()), -1, "Importing notes");
+
+                // insert the notes in batches, so the list is changed once per batch instead of once per note
+                if (batch.size() >= this.getBatchSize()) {
+                    this.getOnBatch().accept(batch);
+                    batch = new ArrayList<>(this.getBatchSize());
+                }
+            }
+        } catch (InterruptedException e) {
+            // the import was cancelled, hand over the notes that were already written
+        }
+
+        if (!batch.isEmpty()) {
+            this.getOnBatch().accept(batch);
+        }
+    }
+
+    /**
+     * Converts the content of a file into the html the editor writes, based on the file's extension.
+     * @param name - the file name
+     * @param content - the content of the file
+     * @return the note html
+     */
+    static String toNote(String name, String content) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".md") || lower.endsWith(".markdown")) {
+            return HEADER + markdownToHtml(content) + FOOTER;
+        } else if (lower.endsWith(".txt")) {
+            return HEADER + textToHtml(content) + FOOTER;
+        }
+        return HEADER + bodyOf(content) + FOOTER;
+    }
+
+    /**
+     * Extracts what is inside the body of an html document, or the whole text if it has no body.
+     * @param html - the html document
+     * @return the body's content
+     */
+    static String bodyOf(String html) {
+        String lower = html.toLowerCase(Locale.ROOT);
+        int body = lower.indexOf("<body");
+        if (body == -1) {
+            return html.trim();
+        }
+
+        int start = lower.indexOf('>', body) + 1;
+        int end = lower.lastIndexOf("</body>");
+        return html.substring(start, end > start ? end : html.length()).trim();
+    }
+
+    /**
+     * Converts plain text into html, every block of lines separated by a blank line becomes a paragraph.
+     * @param text - the plain text
+     * @return the html
+     */
+    static String textToHtml(String text) {
+        StringBuilder html = new StringBuilder(text.length() + 64);
+        for (String paragraph : text.replace("\r\n", "\n").split("\n\\s*\n")) {
+            if (paragraph.trim().isEmpty()) continue;
+            html.append("<p>").append(escape(paragraph.trim()).replace("\n", "<br>")).append("</p>\n");
+        }
+        return html.toString();
+    }
+
+    /**
+     * Converts Markdown into html. Only headings, rules, lists, paragraphs, bold, italic and inline links
+     * ([text](http://...)) are understood, everything else is kept as text.
+     * @param markdown - the Markdown text
+     * @return the html
+     */
+    static String markdownToHtml(String markdown) {
+        StringBuilder html = new StringBuilder(markdown.length() + 64);
+        List<String> paragraph = new ArrayList<>();
+        boolean inList = false;
+
+        // the blank line added at the end ends the last paragraph (-1 keeps it, split() drops trailing blanks otherwise)
+        for (String line : (markdown.replace("\r\n", "\n") + "\n").split("\n", -1)) {
+            String trimmed = line.trim();
+            boolean item = trimmed.matches("[-*+] .*");
+
+            // a blank line, heading, rule or list item ends the current paragraph
+            if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.matches("(-{3,}|\\*{3,}|_{3,})") || item) {
+                if (!paragraph.isEmpty()) {
+                    html.append("<p>").append(inline(String.join("<br>", paragraph))).append("</p>\n");
+                    paragraph.clear();
+                }
+            }
+
+            if (inList && !item) {
+                html.append("</ul>\n");
+                inList = false;
+            }
+
+            if (trimmed.isEmpty()) {
+                continue;
+            } else if (trimmed.matches("#{1,6} .*")) {
+                int level = trimmed.indexOf(' ');
+                html.append("<h").append(level).append('>').append(inline(trimmed.substring(level + 1).trim()))
+                        .append("</h").append(level).append(">\n");
+            } else if (trimmed.matches("(-{3,}|\\*{3,}|_{3,})")) {
+                html.append("<hr>");
+            } else if (item) {
+                if (!inList) {
+                    html.append("<ul>");
+                    inList = true;
+                }
+                html.append("<li>").append(inline(trimmed.substring(2).trim())).append("</li>");
+            } else {
+                paragraph.add(trimmed);
+            }
+        }
+
+        if (inList) html.append("</ul>\n");
+        return html.toString();
+    }
+
+    /**
+     * Converts the inline Markdown formatting (bold, italic and links) of a line into html.
+     * A link becomes an "a" tag only if its address cannot run a script (see HtmlNormalizer.isSafe()), otherwise
+     * only its text is kept. The links are set aside while the rest is formatted, so the bold and italic markers
+     * of an address (e.g. "__init__") are left alone, and a link can still be inside bold text.
+     * @param text - the line, with html line breaks between joined lines
+     * @return the html
+     */
+    private static String inline(String text) {
+        // the links are marked by their number between two NUL characters, so those are removed first
+        String escaped = escape(text.replace("\u0000", "")).replace("&lt;br&gt;", "<br>");
+        List<String> links = new ArrayList<>();
+        StringBuffer marked = new StringBuffer(escaped.length());
+        Matcher link = LINK.matcher(escaped);
+        while (link.find()) {
+            String href = link.group(2).replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+            links.add(HtmlNormalizer.isSafe(href)
+                    ? "<a href=\"" + link.group(2).replace("\"", "&quot;") + "\">" + formatting(link.group(1)) + "</a>"
+                    : formatting(link.group(1)));
+            link.appendReplacement(marked, "\u0000" + (links.size() - 1) + "\u0000");
+        }
+        link.appendTail(marked);
+
+        String html = formatting(marked.toString());
+        for (int i = 0; i < links.size(); i++) {
+            html = html.replace("\u0000" + i + "\u0000", links.get(i));
+        }
+        return html;
+    }
+
+    /**
+     * Converts bold and italic Markdown into html.
+     * @param escaped - the text, with its html characters escaped
+     * @return the html
+     */
+    private static String formatting(String escaped) {
+        return escaped.replaceAll("\\*\\*(.+?)\\*\\*", "<b>$1</b>")
+                .replaceAll("__(.+?)__", "<b>$1</b>")
+                .replaceAll("\\*(.+?)\\*", "<i>$1</i>")
+                .replaceAll("\\b_(.+?)_\\b", "<i>$1</i>");
+    }
+
+    /**
+     * Escapes the characters that have a meaning in html.
+     * @param text - the text to escape
+     * @return the escaped text
+     */
+    static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Reads the rest of a stream (e.g. the current entry of a ZIP archive) into memory.
+     * @param in - the stream
+     * @return the bytes that were read
+     * @throws IOException if the stream cannot be read
+     */
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws InterruptedIOException if the thread was interrupted (the import was cancelled)
+     */
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("The import was cancelled");
+        }
+    }
+
+    /**
+     * @return the amount of converter threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the amount of notes handed to the batch listener at once
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the listener that receives the imported notes, one batch at a time
+     */
+    public Consumer<List<NoteData>> getOnBatch() {
+        return onBatch;
+    }
+
+    /**
+     * Sets the amount of converter threads
+     * @param threads - the amount of threads (at least 1)
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the amount of notes handed to the batch listener at once
+     * @param batchSize - the batch size (at least 1)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets the listener that receives the imported notes. It is called from the writer thread.
+     * @param onBatch - the batch listener
+     */
+    public void setOnBatch(Consumer<List<NoteData>> onBatch) {
+        this.onBatch = onBatch;
+    }
+
+    /**
+     * A file that was read by the first stage.
+     */
+    private static class Source {
+        private final String name;
+        private final byte[] content;
+        private final FileTime created, modified;
+
+        private Source(String name, byte[] content, FileTime created, FileTime modified) {
+            this.name = name;
+            this.content = content;
+            this.created = created;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * A file that was converted by the second stage.
+     */
+    private static class Converted {
+        private final Source source;
+        private final String html;
+
+        private Converted(Source source, String html) {
+            this.source = source;
+            this.html = html;
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package gui101;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * The write-ahead journal of a notes directory ("notes/.journal"), which lets the changes to the notes survive a crash.
+ * Before the NoteStore writes or deletes a note, it appends the change to the journal and forces it to the disk,
+ * and once the change is done, it appends that too (without forcing). After a crash, unfinished() returns the
+ * changes that are in the journal but were never done, so the NoteStore can do them again: a written note is
+ * written again from the html in the journal, a deleted note is deleted again.
+ * A change that never made it into the journal never touched the notes either (only its temporary file, which
+ * NoteStore.cleanUp() removes), so it is simply rolled back.
+ * Forcing the disk is slow, so the journal uses a group commit: while one thread forces the journal, the changes
+ * that other threads append wait for it, and are then forced together by the next force.
+ * Once no change of the process is running and the journal grew past CHECKPOINT_SIZE, the notes changed since the last checkpoint
+ * are forced to the disk and the journal is emptied, so recovery never reads more than a few megabytes, no matter
+ * how many notes there are.
+ * Several processes may append to the same journal. Each of them holds the journal byte of the lock file (see
+ * NoteLocks) while it has changes that are not forced yet, and the journal is only emptied by a process that finds
+ * none of them holding it, so a checkpoint never throws away the changes of another process.
+ * A change that failed midway (see abort()) might have left its note half changed (e.g. the note file was replaced
+ * but its metadata was not), so the journal is not emptied, and its byte stays held, until a later change of the same
+ * note is done or recovery does the change again the next time the notes are opened.
+ */
+public class NoteJournal {
+    public static final String FILE = ".journal";
+
+    // the journal is emptied once it grows past this size (in bytes) and no change is running
+    public static final long CHECKPOINT_SIZE = 4 * 1024 * 1024;
+
+    // the kinds of records: a note written from html, a note replaced by its (forced) temporary file,
+    // a deleted note, and a change that is done
+    public static final byte WRITE = 1, REPLACE = 2, DELETE = 3, DONE = 4;
+
+    private final Path directory, file;
+
+    // the locks of the notes directory, which tell whether other processes have changes in the journal
+    private final NoteLocks locks;
+
+    // the journal file, opened by the first change
+    private FileChannel channel;
+
+    // numbers the changes, a done record points to the change by its number
+    // (the numbers start at a random number, so they never repeat the numbers of an earlier run, or of another
+    // process that appends to the same journal)
+    private final AtomicLong sequence = new AtomicLong(new SecureRandom().nextLong());
+
+    // the amount of bytes this process appended to and forced in the journal since its last checkpoint,
+    // and whether a thread is forcing it right now
+    private long written, forced;
+    private boolean forcing;
+
+    // the changes that were appended but are not done yet, and the notes changed since the last checkpoint
+    private int running;
+    private final Set<String> changed = new HashSet<>();
+
+    // the notes of the running changes by the number of the change, and the changes that failed midway by their
+    // note, which keep the journal from being emptied until the note is changed again
+    private final Map<Long, String> begun = new HashMap<>();
+    private final Set<String> aborted = new HashSet<>();
+
+    /**
+     * Initializes the journal of a notes directory. The journal file is created by the first change.
+     * @param directory - the directory that contains the note files
+     * @param locks - the locks of the notes directory
+     */
+    public NoteJournal(Path directory, NoteLocks locks) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE);
+        this.locks = locks;
+    }
+
+    /**
+     * Records that a note is about to be written, with its html, and waits until the record is on the disk.
+     * @param noteID - the note ID
+     * @param html - the html of the note, as written into the note file
+     * @param created - the date the note was created (in millis)
+     * @param modified - the date the note was last changed (in millis)
+     * @return the number of the change, which is passed to done() afterwards
+     * @throws IOException if the journal cannot be written, the note must not be written then
+     */
+    public long write(String noteID, byte[] html, long created, long modified) throws IOException {
+        return this.begin(WRITE, noteID, html, created, modified);
+    }
+
+    /**
+     * Records that a note is about to be replaced by its temporary file, which must already be forced to the disk,
+     * and waits until the record is on the disk.
+     * @param noteID - the note ID
+     * @return the number of the change, which is passed to done() afterwards
+     * @throws IOException if the journal cannot be written, the note must not be replaced then
+     */
+    public long replace(String noteID) throws IOException {
+        return this.begin(REPLACE, noteID, null, 0, 0);
+    }
+
+    /**
+     * Records that a note is about to be deleted, and waits until the record is on the disk.
+     * @param noteID - the note ID
+     * @return the number of the change, which is passed to done() afterwards
+     * @throws IOException if the journal cannot be written, the note must not be deleted then
+     */
+    public long delete(String noteID) throws IOException {
+        return this.begin(DELETE, noteID, null, 0, 0);
+    }
+
+    /**
+     * Records that a change is done. This is not forced to the disk: if it is lost in a crash, the change is
+     * simply done again, which gives the same note.
+     * A change that failed is never done, so that recovery tries it again (see abort()).
+     * @param change - the number returned when the change began
+     */
+    public void done(long change) {
+        try {
+            this.append(record(DONE, change, "", null, 0, 0), false);
+        } catch (IOException e) {
+            // the change is done again after a crash, which does no harm
+        }
+
+        synchronized (this) {
+            this.running--;
+            String noteID = this.begun.remove(change);
+            if (noteID != null) {
+                this.aborted.remove(noteID); // the note is whole again, the failed change does not matter anymore
+            }
+            try {
+                // the size of the file counts the changes of the other processes too, which might be waiting for
+                // this process to force its changes before the journal can be emptied
+                if (this.running == 0 && this.channel.size() >= CHECKPOINT_SIZE) {
+                    this.checkpoint();
+                }
+            } catch (IOException e) {
+                // the journal is kept as it is, the next checkpoint tries again
+            }
+        }
+    }
+
+    /**
+     * Stops counting a change that failed midway (e.g. the disk is full, or the meta file cannot be written) as
+     * running, without recording it as done.
+     * The note might be half changed now, so the change is kept in the journal until a later change of the same
+     * note is done, or until recovery does it again the next time the notes are opened (see NoteStore.recover()),
+     * which makes the note and its metadata agree again.
+     * A change that is never done nor aborted keeps the journal from ever being emptied, and its byte of the lock
+     * file held, so every change of the NoteStore ends with one of them.
+     * @param change - the number returned when the change began
+     */
+    public void abort(long change) {
+        synchronized (this) {
+            this.running--;
+            String noteID = this.begun.remove(change);
+            if (noteID != null) {
+                this.aborted.add(noteID);
+            }
+            try {
+                // the notes changed so far are forced, and the journal is emptied unless a change failed midway
+                if (this.running == 0) {
+                    this.checkpoint();
+                }
+            } catch (IOException e) {
+                // the journal is kept as it is, the next checkpoint tries again
+            }
+        }
+    }
+
+    /**
+     * Appends a change to the journal and waits until it is on the disk.
+     */
+    private long begin(byte type, String noteID, byte[] html, long created, long modified) throws IOException {
+        long change = this.sequence.incrementAndGet();
+        byte[] record = record(type, change, noteID, html, created, modified);
+
+        synchronized (this) {
+            // other processes must not empty the journal until this change is forced by a checkpoint,
+            // which waits while another process is emptying it
+            this.locks.holdJournal();
+            this.running++;
+            this.begun.put(change, noteID);
+            this.changed.add(noteID);
+        }
+        try {
+            this.append(record, true);
+        } catch (IOException e) {
+            // the change never began, its note is untouched, so the journal does not have to keep it
+            synchronized (this) {
+                this.begun.remove(change);
+            }
+            this.abort(change);
+            throw e;
+        }
+        return change;
+    }
+
+    /**
+     * Appends a record to the journal, and forces it to the disk together with every record appended before it.
+     * Only one thread forces the journal at a time, the threads that append while it does wait for it to finish
+     * and the first of them forces every record appended in the meantime at once (the group commit).
+     */
+    private void append(byte[] record, boolean force) throws IOException {
+        long end;
+        synchronized (this) {
+            if (this.channel == null) {
+                Files.createDirectories(this.directory);
+                this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.written += record.length;
+            end = this.written;
+
+            if (!force) {
+                return;
+            }
+
+            // wait for the thread that is forcing the journal, it might force this record too
+            while (this.forcing && this.forced < end) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while forcing the journal");
+                }
+            }
+            if (this.forced >= end) {
+                return; // another thread forced this record together with its own
+            }
+
+            this.forcing = true;
+            end = this.written; // every record appended so far is forced at once
+        }
+
+        boolean done = false;
+        try {
+            this.channel.force(false);
+            done = true;
+        } finally {
+            synchronized (this) {
+                this.forcing = false;
+                if (done) {
+                    this.forced = Math.max(this.forced, end);
+                }
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Forces the notes changed since the last checkpoint to the disk, then empties the journal, since none of its
+     * changes has to be done again anymore. Must only be called while no change is running.
+     * If another process still has changes in the journal that are not forced, the journal is kept as it is, and
+     * that process empties it with its own checkpoint. It is also kept, with its byte held, while a change of this
+     * process that failed midway was not done again (see abort()).
+     * @throws IOException if a note or the journal cannot be forced
+     */
+    public synchronized void checkpoint() throws IOException {
+        // the notes are forced in parallel, since the disk can work on many of them at once
+        List<String> noteIDs = new ArrayList<>(this.changed);
+        try {
+            noteIDs.parallelStream().forEach(noteID -> {
+                try {
+                    force(this.directory.resolve(noteID + NoteStore.NOTE));
+                    force(this.directory.resolve(noteID + NoteStore.META));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        forceDirectory(this.directory);
+        this.changed.clear();
+        this.written = 0;
+        this.forced = 0;
+
+        if (!this.aborted.isEmpty() || !this.locks.ownJournal()) {
+            return;
+        }
+        try {
+            if (this.channel != null) {
+                this.channel.truncate(0);
+                this.channel.force(false);
+            } else {
+                Files.deleteIfExists(this.file);
+            }
+        } finally {
+            this.locks.releaseJournal();
+        }
+    }
+
+    /**
+     * Reads the journal after a crash, before any change is made.
+     * A record that was only partly written when the program stopped (its checksum does not match) ends the journal,
+     * its change never began.
+     * @return the changes that are not done, in the order they began, only the last change of each note is returned
+     *         since it replaces the changes before it
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized List<Change> unfinished() throws IOException {
+        Map<String, Change> last = new LinkedHashMap<>();
+        Set<Long> done = new HashSet<>();
+        for (Change change : this.read()) {
+            if (change.getType() == DONE) {
+                done.add(change.getNumber());
+            } else {
+                // the change moves to the end, since it begins after the other changes
+                last.remove(change.getNoteID());
+                last.put(change.getNoteID(), change);
+            }
+        }
+
+        List<Change> unfinished = new ArrayList<>();
+        for (Change change : last.values()) {
+            if (!done.contains(change.getNumber())) {
+                unfinished.add(change);
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * Finds the copies of a note that are still in the journal, which the NoteScrubber uses to repair a damaged note.
+     * @param noteID - the note ID
+     * @return the html written into the note since the last checkpoint, the latest first
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized List<Change> copiesOf(String noteID) throws IOException {
+        List<Change> copies = new ArrayList<>();
+        for (Change change : this.read()) {
+            if (change.getType() == WRITE && change.getNoteID().equals(noteID)) {
+                copies.add(0, change);
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Reads every record of the journal file. A record that was only partly written when the program stopped
+     * (its checksum does not match) ends the journal.
+     */
+    private List<Change> read() throws IOException {
+        List<Change> changes = new ArrayList<>();
+        if (!Files.exists(this.file)) {
+            return changes;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(this.file));
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            if (length < 9 || length > buffer.remaining() - 4) {
+                break; // the last record was only partly written
+            }
+
+            byte[] body = new byte[length];
+            buffer.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                break;
+            }
+            changes.add(Change.parse(ByteBuffer.wrap(body)));
+        }
+        return changes;
+    }
+
+    /**
+     * Encodes a record: its length, then the type, number, note ID, dates and html, then the checksum of all that.
+     */
+    private static byte[] record(byte type, long change, String noteID, byte[] html, long created, long modified) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + noteID.length() + (html == null ? 0 : html.length));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // the length, filled in below
+        out.writeByte(type);
+        out.writeLong(change);
+        out.writeUTF(noteID);
+        if (type == WRITE) {
+            out.writeLong(created);
+            out.writeLong(modified);
+            out.writeInt(html.length);
+            out.write(html);
+        }
+        out.writeInt(0); // the checksum, filled in below
+
+        byte[] record = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int length = record.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, length);
+        buffer.putInt(0, length);
+        buffer.putInt(4 + length, (int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Forces a file to the disk, if it exists.
+     */
+    private static void force(Path path) throws IOException {
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Forces a directory to the disk, which makes the files moved into it and deleted from it stay that way.
+     * @param directory - the directory
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // some systems (e.g. Windows) cannot open a directory, their file systems keep the moves in order anyway
+        }
+    }
+
+    /**
+     * Empties the journal with a checkpoint and closes the journal file, while the notes directory is not used
+     * (see NoteStore.close()). The next change opens the journal file again.
+     * Nothing is closed while a change is running. A change that failed midway stays in the journal, so the next
+     * time the notes are opened, recovery does it again.
+     * @throws IOException if the checkpoint fails or the journal file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (this.running > 0 || this.channel == null) {
+            return;
+        }
+
+        try {
+            this.checkpoint();
+        } finally {
+            FileChannel channel = this.channel;
+            this.channel = null;
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the journal file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * A change recorded in the journal.
+     */
+    public static class Change {
+        private final byte type;
+        private final long number;
+        private final String noteID;
+        private long created, modified;
+        private byte[] html;
+
+        private Change(byte type, long number, String noteID) {
+            this.type = type;
+            this.number = number;
+            this.noteID = noteID;
+        }
+
+        /**
+         * Decodes the body of a record (everything between its length and its checksum).
+         */
+        private static Change parse(ByteBuffer body) {
+            byte type = body.get();
+            long number = body.getLong();
+            byte[] id = new byte[body.getShort() & 0xffff];
+            body.get(id);
+
+            // writeUTF() only differs from UTF-8 for characters a note ID never has
+            Change change = new Change(type, number, new String(id, StandardCharsets.UTF_8));
+            if (type == WRITE) {
+                change.created = body.getLong();
+                change.modified = body.getLong();
+                change.html = new byte[body.getInt()];
+                body.get(change.html);
+            }
+            return change;
+        }
+
+        /**
+         * @return the kind of change (WRITE, REPLACE, DELETE or DONE)
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * @return the number of the change
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return the ID of the changed note
+         */
+        public String getNoteID() {
+            return noteID;
+        }
+
+        /**
+         * @return the date the written note was created (in millis)
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return the date the written note was last changed (in millis)
+         */
+        public long getModified() {
+            return modified;
+        }
+
+        /**
+         * @return the html of the written note, or null for other changes
+         */
+        public byte[] getHtml() {
+            return html;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package gui101;
+
+import javafx.event.Event;
+import javafx.geometry.Insets;
+import javafx.scene.Node;
+import javafx.scene.control.Hyperlink;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Separator;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontPosture;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextFlow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * A lightweight, read-only view of a note.
+ * Instead of loading the note into a WebView (which the HTMLEditor does), the html is turned directly into
+ * JavaFX Text nodes inside a TextFlow. Only the subset of html that the editor writes is understood:
+ * paragraphs, line breaks, rules, headings, bold, italic, underline, and the font tag's face, size and color
+ * (plus the background color in its style attribute). Every other tag is dropped while its text is kept.
+ * Links to other notes (see LinkIndex) are shown as hyperlinks that call onLink with the ID of the linked note.
+ */
+public class NotePreview extends ScrollPane {
+    // the font sizes (in pixels) of the html font sizes 1 to 7
+    private static final double[] FONT_SIZES = { 10, 13, 16, 18, 24, 32, 48 };
+
+    private TextFlow flow;
+
+    // called with the note ID of a clicked link to another note
+    private Consumer<String> onLink;
+
+    /**
+     * Initializes an empty preview.
+     */
+    public NotePreview() {
+        super();
+
+        this.setFlow(new TextFlow());
+        this.getFlow().setPadding(new Insets(45.0, 15.0, 15.0, 15.0)); // leave room for the New/Delete buttons
+        this.getFlow().setLineSpacing(2.0);
+
+        // the horizontal lines (hr) always fill the width of the preview
+        this.getFlow().widthProperty().addListener((observable, oldValue, newValue) -> {
+            for (Node node : this.getFlow().getChildren()) {
+                if (node instanceof Separator) {
+                    ((Separator) node).setPrefWidth(ruleWidth(newValue.doubleValue()));
+                }
+            }
+        });
+
+        // the text should wrap at the preview's width instead of scrolling sideways
+        this.setFitToWidth(true);
+        this.setContent(this.getFlow());
+    }
+
+    /**
+     * Replaces the content of the preview with the given html.
+     * @param html - the html of a note
+     */
+    public void render(String html) {
+        List<Node> nodes = new ArrayList<>();
+        Deque<Style> styles = new ArrayDeque<>();
+        styles.push(new Style());
+
+        StringBuilder text = new StringBuilder(); // the text that still has to be added with the current style
+        boolean space = true; // whether the last character added was a space, used to collapse spaces like html does
+        int skipDepth = 0;    // how deep we are inside tags whose text should not be shown (head, script, style)
+        int i = 0;
+
+        while (i < html.length()) {
+            char c = html.charAt(i);
+
+            if (c == '<') {
+                int end = html.indexOf('>', i);
+                if (end == -1) {
+                    break;
+                }
+
+                String tag = html.substring(i + 1, end).trim();
+                boolean closing = tag.startsWith("/");
+                String name = tagName(closing ? tag.substring(1) : tag);
+                i = end + 1;
+
+                if (name.equals("head") || name.equals("script") || name.equals("style") || name.equals("title")) {
+                    skipDepth = Math.max(0, skipDepth + (closing ? -1 : 1));
+                    continue;
+                } else if (skipDepth > 0) {
+                    continue;
+                }
+
+                // every tag may change the style, so the text collected so far is added with the old style
+                flush(nodes, text, styles.peek());
+
+                switch (name) {
+                    case "p":
+                    case "div":
+                    case "h1":
+                    case "h2":
+                    case "h3":
+                    case "h4":
+                    case "h5":
+                    case "h6":
+                        if (closing) {
+                            newLine(nodes);
+                            space = true;
+                        }
+                        break;
+                    case "br":
+                        nodes.add(new Text("\n"));
+                        space = true;
+                        continue;
+                    case "hr":
+                        newLine(nodes);
+                        nodes.add(this.rule());
+                        nodes.add(new Text("\n"));
+                        space = true;
+                        continue;
+                    default:
+                        break;
+                }
+
+                // headings and inline tags change the style until they are closed
+                if (isStyleTag(name)) {
+                    if (closing) {
+                        if (styles.size() > 1) styles.pop();
+                    } else {
+                        styles.push(styles.peek().with(name, tag));
+                    }
+                }
+            } else if (skipDepth > 0) {
+                i++;
+            } else if (c == '&') {
+                int end = html.indexOf(';', i);
+                String decoded = end == -1 || end - i > 10 ? "&" : HtmlConverter.decodeEntity(html.substring(i + 1, end));
+                text.append(decoded);
+                space = decoded.equals(" ");
+                i = end == -1 || end - i > 10 ? i + 1 : end + 1;
+            } else {
+                // collapse every run of whitespace into a single space, like a browser does
+                if (Character.isWhitespace(c)) {
+                    if (!space) text.append(' ');
+                    space = true;
+                } else {
+                    text.append(c);
+                    space = false;
+                }
+                i++;
+            }
+        }
+        flush(nodes, text, styles.peek());
+
+        // replace all nodes with a single change, so the preview is laid out only once
+        this.getFlow().getChildren().setAll(nodes);
+        this.setVvalue(0);
+    }
+
+    /**
+     * Adds the collected text to the nodes with the given style and clears it.
+     * Text with a background color is added as a Label, since Text nodes cannot have a background,
+     * and the text of a link to another note is added as a Hyperlink.
+     */
+    private void flush(List<Node> nodes, StringBuilder text, Style style) {
+        if (text.length() == 0) {
+            return;
+        }
+
+        Font font = Font.font(style.face, style.bold ? FontWeight.BOLD : FontWeight.NORMAL,
+                style.italic ? FontPosture.ITALIC : FontPosture.REGULAR, style.size);
+        if (style.link != null) {
+            Hyperlink link = new Hyperlink(text.toString());
+            link.setFont(font);
+            link.setOnAction(v -> {
+                if (this.getOnLink() != null) this.getOnLink().accept(style.link);
+            });
+
+            // the click must not reach the preview, which would start editing the note that has the link
+            link.addEventHandler(MouseEvent.MOUSE_CLICKED, Event::consume);
+            nodes.add(link);
+        } else if (style.background != null) {
+            Label label = new Label(text.toString());
+            label.setFont(font);
+            label.setStyle("-fx-background-color: " + style.background + "; -fx-text-fill: " + (style.color == null ? "black" : style.color) + ";");
+            nodes.add(label);
+        } else {
+            Text node = new Text(text.toString());
+            node.setFont(font);
+            node.setUnderline(style.underline);
+            node.setFill(parseColor(style.color, Color.BLACK));
+            nodes.add(node);
+        }
+        text.setLength(0);
+    }
+
+    /**
+     * Ends the current line, unless the nodes already end with one.
+     */
+    private static void newLine(List<Node> nodes) {
+        Node last = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+        if (last != null && !(last instanceof Text && ((Text) last).getText().endsWith("\n"))) {
+            nodes.add(new Text("\n"));
+        }
+    }
+
+    /**
+     * @return a horizontal line that fills the width of the preview, used for the hr tag
+     */
+    private Node rule() {
+        Separator separator = new Separator();
+        separator.setPrefWidth(ruleWidth(this.getFlow().getWidth()));
+        return separator;
+    }
+
+    /**
+     * @param width - the width of the TextFlow
+     * @return the width of a horizontal line, which is the width of the TextFlow without its padding
+     */
+    private static double ruleWidth(double width) {
+        return Math.max(0, width - 30.0);
+    }
+
+    /**
+     * @param name - a lower case tag name
+     * @return whether the tag changes the style of the text inside it
+     */
+    private static boolean isStyleTag(String name) {
+        switch (name) {
+            case "b": case "strong": case "i": case "em": case "u": case "font": case "span": case "a":
+            case "h1": case "h2": case "h3": case "h4": case "h5": case "h6":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Extracts the tag name from the inside of a tag (e.g. 'font face="Arial"' becomes 'font').
+     */
+    private static String tagName(String tag) {
+        int end = 0;
+        while (end < tag.length() && Character.isLetterOrDigit(tag.charAt(end))) {
+            end++;
+        }
+        return tag.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Extracts the value of an attribute from the inside of a tag.
+     * @param tag - the text between '<' and '>'
+     * @param attribute - the lower case attribute name
+     * @return the attribute's value, or null if the tag does not have it
+     */
+    private static String attribute(String tag, String attribute) {
+        String lower = tag.toLowerCase(Locale.ROOT);
+        int at = lower.indexOf(" " + attribute + "=");
+        if (at == -1) {
+            return null;
+        }
+
+        int start = at + attribute.length() + 2;
+        if (start < tag.length() && (tag.charAt(start) == '"' || tag.charAt(start) == '\'')) {
+            int end = tag.indexOf(tag.charAt(start), start + 1);
+            return tag.substring(start + 1, end == -1 ? tag.length() : end);
+        }
+
+        int end = start;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end))) end++;
+        return tag.substring(start, end);
+    }
+
+    /**
+     * Parses an html/css color (e.g. "#ffffff", "red" or "rgb(181, 111, 189)").
+     * @param color - the color, or null
+     * @param fallback - the color to use if the color is missing or invalid
+     * @return the parsed color
+     */
+    private static Color parseColor(String color, Color fallback) {
+        if (color == null) {
+            return fallback;
+        }
+
+        try {
+            return Color.web(color.trim());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * @return the TextFlow that contains the rendered note
+     */
+    public TextFlow getFlow() {
+        return flow;
+    }
+
+    /**
+     * @return the action called with the note ID of a clicked link to another note
+     */
+    public Consumer<String> getOnLink() {
+        return onLink;
+    }
+
+    /**
+     * Sets the TextFlow that contains the rendered note
+     * @param flow - the text flow
+     */
+    public void setFlow(TextFlow flow) {
+        this.flow = flow;
+    }
+
+    /**
+     * Sets the action called with the note ID of a clicked link to another note
+     * @param onLink - receives the note ID
+     */
+    public void setOnLink(Consumer<String> onLink) {
+        this.onLink = onLink;
+    }
+
+    /**
+     * The style of the text at some point in the html. Styles are immutable, every tag creates a new one.
+     */
+    private static class Style {
+        private String face = "System", color, background, link;
+        private double size = FONT_SIZES[2];
+        private boolean bold, italic, underline;
+
+        /**
+         * @param name - the lower case tag name
+         * @param tag - the text between '<' and '>'
+         * @return a copy of this style, changed by the given tag
+         */
+        private Style with(String name, String tag) {
+            Style style = new Style();
+            style.face = this.face;
+            style.color = this.color;
+            style.background = this.background;
+            style.size = this.size;
+            style.bold = this.bold;
+            style.italic = this.italic;
+            style.underline = this.underline;
+            style.link = this.link;
+
+            switch (name) {
+                case "b": case "strong": style.bold = true; break;
+                case "i": case "em": style.italic = true; break;
+                case "u": style.underline = true; break;
+                case "h1": case "h2": case "h3": case "h4": case "h5": case "h6":
+                    style.bold = true;
+                    style.size = FONT_SIZES[Math.max(0, 7 - (name.charAt(1) - '0'))];
+                    break;
+                case "a":
+                    // only links to other notes can be followed, other links are shown as plain text
+                    String href = attribute(tag, "href");
+                    if (href != null && href.startsWith(LinkIndex.SCHEME)) {
+                        style.link = href.substring(LinkIndex.SCHEME.length()).trim();
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            // the font tag (and a span's style) can change the face, size and colors
+            String face = attribute(tag, "face");
+            if (face != null) style.face = face.split(",")[0].trim();
+
+            String color = attribute(tag, "color");
+            if (color != null) style.color = color;
+
+            String size = attribute(tag, "size");
+            if (size != null) {
+                try {
+                    style.size = FONT_SIZES[Math.min(7, Math.max(1, Integer.parseInt(size.trim()))) - 1];
+                } catch (NumberFormatException e) {
+                    // keep the size of the surrounding text
+                }
+            }
+
+            String css = attribute(tag, "style");
+            if (css != null) {
+                for (String declaration : css.split(";")) {
+                    int colon = declaration.indexOf(':');
+                    if (colon == -1) continue;
+
+                    String property = declaration.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    String value = declaration.substring(colon + 1).trim();
+                    if (property.equals("background-color")) style.background = value;
+                    else if (property.equals("color")) style.color = value;
+                    else if (property.equals("font-weight")) style.bold = value.equals("bold") || value.startsWith("7") || value.startsWith("8") || value.startsWith("9");
+                    else if (property.equals("font-style")) style.italic = value.equals("italic");
+                }
+            }
+            return style;
+        }
+    }
+}
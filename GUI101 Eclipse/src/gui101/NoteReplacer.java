@@ -0,0 +1,295 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Finds a text in every note and replaces it (e.g. to rename a term across all notes).
+ * The notes are read in parallel on every core, and only the text of the notes is searched, never their tags
+ * (see TextSearch), so a replacement cannot break the html or a link.
+ * The replacement works in batches: the new html of a batch of notes is made in parallel, then each note of the
+ * batch is written atomically by the NoteStore. A cancelled replacement stops between two batches, so every note
+ * is either fully replaced or not changed at all.
+ * The amount of bytes read per second (MB/s) is reported with the progress.
+ */
+public class NoteReplacer {
+    private final NoteStore store;
+    private final String query, replacement;
+    private final boolean matchCase;
+
+    // the amount of notes whose new html is made in parallel and then written, before cancelling is checked again
+    private int batchSize;
+
+    // what the last find() or replace() did, and how long it took
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicInteger notesChanged = new AtomicInteger();
+    private long nanos;
+
+    /**
+     * Initializes a replacement over a note store.
+     * @param store - the note store to search
+     * @param query - the text to find (plain text, not html)
+     * @param replacement - the text to put in its place (plain text, not html)
+     * @param matchCase - whether upper and lower case letters are different
+     */
+    public NoteReplacer(NoteStore store, String query, String replacement, boolean matchCase) {
+        this.store = store;
+        this.query = query;
+        this.replacement = replacement;
+        this.matchCase = matchCase;
+        this.setBatchSize(64);
+    }
+
+    /**
+     * Finds the notes that contain the text, reading them in parallel.
+     * @param listener - receives the progress
+     * @param cancelled - tells whether the user cancelled the search
+     * @return the notes with at least one match, the note with the most matches first
+     * @throws IOException if the notes cannot be listed
+     * @throws CancellationException if the search was cancelled
+     */
+    public List<Match> find(ProgressListener listener, BooleanSupplier cancelled) throws IOException {
+        List<String> ids = this.store.list();
+        String htmlQuery = NoteImporter.escape(this.query);
+        Map<String, Match> found = new ConcurrentHashMap<>();
+        AtomicInteger done = new AtomicInteger();
+        this.start();
+
+        ids.parallelStream().forEach(id -> {
+            if (cancelled.getAsBoolean()) {
+                return; // the rest of the notes are skipped, the search stops below
+            }
+
+            try {
+                String html = this.read(id);
+                int[] matches = TextSearch.findInHtml(html, htmlQuery, this.matchCase);
+                if (matches.length > 0) {
+                    found.put(id, new Match(id, this.store.meta(id).getStrSample().trim(), matches.length, snippetOf(html, matches[0], htmlQuery.length())));
+                }
+            } catch (IOException e) {
+                // the note cannot be read (e.g. it was deleted in the meantime), it has no matches
+            }
+            this.report(listener, done.incrementAndGet(), ids.size(), "Searching");
+        });
+        this.stop();
+
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("The search was cancelled");
+        }
+
+        List<Match> matches = new ArrayList<>(found.values());
+        matches.sort(Comparator.comparingInt(Match::getCount).reversed().thenComparing(Match::getNoteID));
+        return matches;
+    }
+
+    /**
+     * Replaces the text in the given notes, batch by batch. Each note is read again, since it might have
+     * changed since it was found.
+     * @param matches - the notes to change, as returned by find()
+     * @param listener - receives the progress
+     * @param cancelled - tells whether the user cancelled the replacement, it stops before the next batch
+     * @param onBatch - receives the metadata of the notes changed by each batch, once they are written
+     * @return the amount of replaced matches
+     * @throws IOException if a note cannot be written, the notes of the earlier batches stay changed
+     * @throws CancellationException if the replacement was cancelled
+     */
+    public int replace(List<Match> matches, ProgressListener listener, BooleanSupplier cancelled, Consumer<List<NoteMeta>> onBatch) throws IOException {
+        String htmlQuery = NoteImporter.escape(this.query), htmlReplacement = NoteImporter.escape(this.replacement);
+        AtomicInteger replaced = new AtomicInteger();
+        this.start();
+
+        try {
+            for (int start = 0; start < matches.size(); start += this.getBatchSize()) {
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("The replacement was cancelled");
+                }
+
+                // make the new html of the batch in parallel, notes that no longer match are left out, and the
+                // checksum of every note that was read is kept, to leave it out if it is saved before it is written
+                List<Match> batch = matches.subList(start, Math.min(matches.size(), start + this.getBatchSize()));
+                Map<String, String> changed = new ConcurrentHashMap<>(), checksums = new ConcurrentHashMap<>();
+                Map<String, Integer> counts = new ConcurrentHashMap<>();
+                batch.parallelStream().forEach(match -> {
+                    try {
+                        String html = this.read(match.getNoteID());
+                        int[] found = TextSearch.findInHtml(html, htmlQuery, this.matchCase);
+                        if (found.length > 0) {
+                            changed.put(match.getNoteID(), TextSearch.replace(html, found, htmlQuery.length(), htmlReplacement));
+                            checksums.put(match.getNoteID(), NoteStore.checksumOf(html.getBytes(StandardCharsets.UTF_8)));
+                            counts.put(match.getNoteID(), found.length);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+                // write the notes of the batch in parallel, each one is replaced atomically by the store, and the
+                // journal forces the disk once for the notes written at the same time (see NoteJournal)
+                List<NoteMeta> written = Collections.synchronizedList(new ArrayList<>());
+                changed.entrySet().parallelStream().forEach(note -> {
+                    try {
+                        written.add(this.store.write(note.getKey(), note.getValue(), checksums.get(note.getKey())));
+                        replaced.addAndGet(counts.get(note.getKey()));
+                        this.notesChanged.incrementAndGet();
+                    } catch (NoteStore.ConflictException e) {
+                        // the note was saved in the meantime (e.g. in another program window), which is kept
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                onBatch.accept(new ArrayList<>(written));
+                this.report(listener, start + batch.size(), matches.size(), "Replacing");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            this.stop();
+        }
+        return replaced.get();
+    }
+
+    /**
+     * Reads a note and counts its bytes for the throughput.
+     */
+    private String read(String noteID) throws IOException {
+        String html = this.store.read(noteID);
+        this.bytesRead.addAndGet(html.getBytes(StandardCharsets.UTF_8).length);
+        return html;
+    }
+
+    /**
+     * Resets the counters at the start of find() or replace().
+     */
+    private void start() {
+        this.bytesRead.set(0);
+        this.notesChanged.set(0);
+        this.nanos = -System.nanoTime();
+    }
+
+    /**
+     * Stops the clock at the end of find() or replace().
+     */
+    private void stop() {
+        this.nanos += System.nanoTime();
+    }
+
+    /**
+     * Reports the progress with the throughput so far, about once every 1% of the notes.
+     */
+    private void report(ProgressListener listener, int done, int total, String action) {
+        if (done == total || done % Math.max(1, total / 100) == 0) {
+            double seconds = (System.nanoTime() + this.nanos) / 1e9;
+            listener.progress(done, total, String.format("%s %d of %d notes (%.1f MB/s)", action, done, total, megabytes(this.bytesRead.get()) / Math.max(seconds, 1e-9)));
+        }
+    }
+
+    /**
+     * Cuts the text around a match out of the html, as plain text, to preview the match.
+     */
+    private static String snippetOf(String html, int at, int length) {
+        // stay inside the text around the match, the tags before and after it are left out
+        int start = Math.max(Math.max(0, at - 40), html.lastIndexOf('>', at) + 1);
+        int tag = html.indexOf('<', at + length);
+        int end = Math.min(Math.min(html.length(), at + length + 40), tag == -1 ? html.length() : tag);
+        return HtmlConverter.text().convert(html.substring(start, end)).trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @param bytes - an amount of bytes
+     * @return the amount in megabytes
+     */
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    /**
+     * @return the amount of megabytes read by the last find() or replace()
+     */
+    public double getMegabytes() {
+        return megabytes(this.bytesRead.get());
+    }
+
+    /**
+     * @return the megabytes read per second by the last find() or replace()
+     */
+    public double getMegabytesPerSecond() {
+        return this.getMegabytes() / Math.max(this.nanos / 1e9, 1e-9);
+    }
+
+    /**
+     * @return the amount of notes written by the last replace(), even if it was cancelled or failed
+     */
+    public int getNotesChanged() {
+        return this.notesChanged.get();
+    }
+
+    /**
+     * @return the amount of notes whose new html is made in parallel and then written, before cancelling is checked
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Sets the amount of notes per batch
+     * @param batchSize - the amount of notes, at least 1
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * A note that contains the text, with the amount of matches and the text around the first one.
+     */
+    public static class Match {
+        private final String noteID, sample, snippet;
+        private final int count;
+
+        private Match(String noteID, String sample, int count, String snippet) {
+            this.noteID = noteID;
+            this.sample = sample;
+            this.count = count;
+            this.snippet = snippet;
+        }
+
+        /**
+         * @return the note ID
+         */
+        public String getNoteID() {
+            return this.noteID;
+        }
+
+        /**
+         * @return the note sample/title
+         */
+        public String getSample() {
+            return this.sample;
+        }
+
+        /**
+         * @return the amount of matches in the note
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return the text around the first match
+         */
+        public String getSnippet() {
+            return this.snippet;
+        }
+    }
+}
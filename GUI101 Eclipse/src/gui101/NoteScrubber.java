@@ -0,0 +1,350 @@
+package gui101;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Reads every note in the background and compares it with the checksum in its metadata, so a note file that was
+ * damaged on the disk is found before the user opens it.
+ * A damaged note is repaired from the journal (NoteJournal) if the journal still has a copy of the note with the
+ * right checksum (it keeps the notes written since its last checkpoint), and otherwise reported as damaged.
+ * A note without a checksum (saved before checksums existed) gets the checksum of its content the first time
+ * it is read.
+ * The scrubber runs on a thread with the lowest priority and reads at most a few megabytes per second (see
+ * getRate()), and it stops reading for a moment whenever the user opens a note (see interactive()), so it never
+ * slows down the editor.
+ */
+public class NoteScrubber {
+    // the amount of megabytes read per second, unless the system property "gui101.scrubRate" says otherwise
+    public static final double RATE = 2.0;
+
+    // how long (in millis) the scrubber stops after the user opened a note, and after each pass over the notes
+    private static final long QUIET = 500, PAUSE = TimeUnit.MINUTES.toMillis(30);
+
+    // the size of the blocks a note is read in, the rate is kept after every block
+    private static final int BLOCK = 64 * 1024;
+
+    /**
+     * What the scrubber found out about a note.
+     */
+    public enum Status {
+        // the note matches its checksum
+        OK,
+        // the note had no checksum, and got the checksum of its content
+        ADOPTED,
+        // the note did not match its checksum, and was written again from the journal
+        REPAIRED,
+        // the note does not match its checksum, and there is no copy to repair it from
+        DAMAGED
+    }
+
+    private final NoteStore store;
+
+    // the amount of bytes read per second, 0 reads as fast as the disk allows
+    private volatile double rate;
+
+    // the last time (in millis) the user opened a note, and the time the next block may be read (in nanos)
+    private volatile long lastInteractive;
+    private long due;
+
+    // called with every note that is not OK, on the scrubber thread
+    private volatile BiConsumer<String, Status> onFound;
+
+    // called at the end of every pass over the notes, on the scrubber thread
+    private volatile Runnable onPass;
+
+    // what the scrubber did so far
+    private final AtomicLong notesChecked = new AtomicLong(), bytesChecked = new AtomicLong(), passes = new AtomicLong();
+    private final AtomicLong adopted = new AtomicLong(), repaired = new AtomicLong();
+    private final Set<String> damaged = ConcurrentHashMap.newKeySet();
+
+    private Thread thread;
+
+    /**
+     * Initializes a scrubber over the notes of a note store.
+     * @param store - the note store
+     */
+    public NoteScrubber(NoteStore store) {
+        this.store = store;
+        this.setRate(rateOf(System.getProperty("gui101.scrubRate")));
+        this.setOnFound((noteID, status) -> { });
+        this.setOnPass(() -> { });
+    }
+
+    /**
+     * Starts scrubbing the notes over and over on a background thread, with a pause after each pass.
+     */
+    public synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+
+        this.thread = new Thread(() -> {
+            try {
+                while (true) {
+                    this.scrubAll();
+                    Thread.sleep(PAUSE);
+                }
+            } catch (InterruptedException e) {
+                // the scrubber was stopped
+            }
+        }, "gui101-scrubber");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the background thread started by start().
+     */
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    /**
+     * Tells the scrubber that the user is opening a note, so it stops reading for a moment and leaves the disk
+     * to the editor. Can be called from any thread.
+     */
+    public void interactive() {
+        this.lastInteractive = System.currentTimeMillis();
+    }
+
+    /**
+     * Checks every note once. Notes that are deleted while they are checked are skipped.
+     * @throws InterruptedException if the scrubber was stopped
+     */
+    public void scrubAll() throws InterruptedException {
+        try {
+            for (String noteID : this.store.list()) {
+                try {
+                    this.scrub(noteID);
+                } catch (IOException e) {
+                    // the note was deleted or cannot be read right now, the next pass checks it again
+                }
+            }
+        } catch (IOException e) {
+            // the notes cannot be listed right now, the next pass tries again
+        }
+        this.passes.incrementAndGet();
+        this.getOnPass().run();
+    }
+
+    /**
+     * Reads a note at the scrubber's rate and compares it with its checksum, repairing it if it can.
+     * Only one thread may scrub at a time.
+     * @param noteID - the note ID
+     * @return what the scrubber found out about the note
+     * @throws IOException if the note or its metadata cannot be read
+     * @throws InterruptedException if the scrubber was stopped
+     */
+    public Status scrub(String noteID) throws IOException, InterruptedException {
+        NoteMeta meta = this.store.meta(noteID);
+        String checksum = this.checksumOf(noteID);
+        this.notesChecked.incrementAndGet();
+
+        Status status;
+        if (meta.getChecksum() == null) {
+            this.store.checksum(noteID, checksum);
+            this.adopted.incrementAndGet();
+            status = Status.ADOPTED;
+        } else if (meta.getChecksum().equals(checksum)) {
+            status = Status.OK;
+        } else if (!this.stillDamaged(noteID)) {
+            status = Status.OK; // the note was saved while it was read, its new content matches its new checksum
+        } else if (this.repair(noteID)) {
+            this.repaired.incrementAndGet();
+            status = Status.REPAIRED;
+        } else {
+            status = Status.DAMAGED;
+        }
+
+        if (status == Status.DAMAGED) {
+            this.damaged.add(noteID);
+        } else {
+            this.damaged.remove(noteID);
+        }
+        if (status != Status.OK) {
+            this.getOnFound().accept(noteID, status);
+        }
+        return status;
+    }
+
+    /**
+     * Reads a note again at once, together with its metadata, to tell a damaged note from a note that was saved
+     * while the scrubber read it.
+     */
+    private boolean stillDamaged(String noteID) throws IOException {
+        NoteMeta meta = this.store.meta(noteID);
+        return meta.getChecksum() != null && !meta.getChecksum().equals(this.store.checksumOfNote(noteID));
+    }
+
+    /**
+     * Writes a damaged note again from the latest copy in the journal that matches its checksum.
+     * @return whether the note was repaired
+     */
+    private boolean repair(String noteID) throws IOException {
+        String checksum = this.store.meta(noteID).getChecksum();
+        for (NoteJournal.Change copy : this.store.getJournal().copiesOf(noteID)) {
+            byte[] html = this.store.contentOf(copy);
+            if (NoteStore.checksumOf(html).equals(checksum)) {
+                this.store.write(noteID, new String(html, StandardCharsets.UTF_8), copy.getCreated(), copy.getModified());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a note block by block for its checksum, keeping the rate after every block.
+     */
+    private String checksumOf(String noteID) throws IOException, InterruptedException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK);
+        try (FileChannel in = this.store.openContent(noteID)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+                this.bytesChecked.addAndGet(read);
+                this.throttle(read);
+            }
+        }
+        return String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * Waits until the user has not opened a note for a moment, and until reading the given amount of bytes
+     * keeps the rate.
+     */
+    private void throttle(long bytes) throws InterruptedException {
+        long quiet;
+        while ((quiet = this.lastInteractive + QUIET - System.currentTimeMillis()) > 0) {
+            Thread.sleep(quiet);
+        }
+
+        double rate = this.rate;
+        if (rate <= 0) {
+            return;
+        }
+
+        // the time the next block may be read moves on by the time these bytes take at the rate
+        long now = System.nanoTime();
+        this.due = Math.max(this.due, now) + (long) (bytes / rate * 1e9);
+        long wait = this.due - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @param text - the rate in megabytes per second, e.g. from a system property, or null
+     * @return the rate in bytes per second, RATE if the text is not a number
+     */
+    private static double rateOf(String text) {
+        try {
+            return text == null ? RATE * 1024 * 1024 : Math.max(0, Double.parseDouble(text)) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            return RATE * 1024 * 1024;
+        }
+    }
+
+    /**
+     * @return the amount of megabytes read per second, 0 if the scrubber reads as fast as it can
+     */
+    public double getRate() {
+        return this.rate / (1024 * 1024);
+    }
+
+    /**
+     * Sets the amount of megabytes read per second
+     * @param rate - the rate, 0 to read as fast as the disk allows
+     */
+    public void setRate(double rate) {
+        this.rate = Math.max(0, rate) * 1024 * 1024;
+    }
+
+    /**
+     * @return the action called with every note that is not OK
+     */
+    public BiConsumer<String, Status> getOnFound() {
+        return onFound;
+    }
+
+    /**
+     * Sets the action called with every note that is not OK
+     * @param onFound - receives the note ID and status on the scrubber thread
+     */
+    public void setOnFound(BiConsumer<String, Status> onFound) {
+        this.onFound = onFound;
+    }
+
+    /**
+     * @return the action called at the end of every pass over the notes
+     */
+    public Runnable getOnPass() {
+        return onPass;
+    }
+
+    /**
+     * Sets the action called at the end of every pass over the notes
+     * @param onPass - runs on the scrubber thread
+     */
+    public void setOnPass(Runnable onPass) {
+        this.onPass = onPass;
+    }
+
+    /**
+     * @return the amount of notes checked so far
+     */
+    public long getNotesChecked() {
+        return this.notesChecked.get();
+    }
+
+    /**
+     * @return the amount of megabytes checked so far
+     */
+    public double getMegabytesChecked() {
+        return this.bytesChecked.get() / (1024.0 * 1024.0);
+    }
+
+    /**
+     * @return the amount of passes over every note so far
+     */
+    public long getPasses() {
+        return this.passes.get();
+    }
+
+    /**
+     * @return the amount of notes that got their first checksum so far
+     */
+    public long getAdopted() {
+        return this.adopted.get();
+    }
+
+    /**
+     * @return the amount of notes repaired from the journal so far
+     */
+    public long getRepaired() {
+        return this.repaired.get();
+    }
+
+    /**
+     * @return the IDs of the notes that were damaged the last time they were checked
+     */
+    public Set<String> getDamaged() {
+        return new TreeSet<>(this.damaged);
+    }
+}
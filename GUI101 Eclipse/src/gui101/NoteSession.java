@@ -0,0 +1,224 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * What a program window showed when it was closed, so the next start can show it again right away: the selected
+ * note, whether it was being edited (and where the caret and the scroll bar of the editor were), the note at the top
+ * of the notes list, and the rows of the notes list around it.
+ * The rows are a copy of the metadata of those notes, so the first window paints the notes list from the session
+ * file alone, and reads the metadata of every note in the background afterwards (see Controller.initialize()).
+ * The session is kept in the ".session" file of the notes, encrypted in an encrypted notebook (see NoteCipher)
+ * since the rows show the samples of the notes.
+ * The window reads the session when it opens and writes it when it is closed.
+ */
+public class NoteSession {
+    public static final String FILE = ".session";
+
+    // the most rows kept, a few more than fit into the notes list of a maximized window
+    public static final int MAX_ROWS = 64;
+
+    private String selectedNoteID, topNoteID;
+    private boolean editing;
+    private int page, caret;
+    private double scroll;
+    private List<NoteData> rows = new ArrayList<>();
+
+    /**
+     * Reads the session of a notes directory.
+     * @param store - the note store of the notes directory
+     * @return the session, or null if there is none (e.g. on the first start) or it cannot be read
+     */
+    public static NoteSession read(NoteStore store) {
+        Path path = store.getDirectory().resolve(FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = store.getCipher() == null ? Files.newBufferedReader(path, StandardCharsets.UTF_8)
+                : new StringReader(new String(store.getCipher().decrypt(Files.readAllBytes(path)), StandardCharsets.UTF_8))) {
+            properties.load(reader);
+        } catch (IOException e) {
+            return null; // the notes list is painted once the notes are listed, like on the first start
+        }
+
+        try {
+            NoteSession session = new NoteSession();
+            session.setSelectedNoteID(properties.getProperty("note"));
+            session.setTopNoteID(properties.getProperty("top"));
+            session.setEditing(Boolean.parseBoolean(properties.getProperty("editing")));
+            session.setPage(Integer.parseInt(properties.getProperty("page", "0")));
+            session.setCaret(Integer.parseInt(properties.getProperty("caret", "-1")));
+            session.setScroll(Double.parseDouble(properties.getProperty("scroll", "0")));
+
+            // every row is "<note id> <created> <modified> <tags> <sample>", with tabs between them
+            int count = Integer.parseInt(properties.getProperty("rows", "0"));
+            for (int i = 0; i < count; i++) {
+                String[] row = properties.getProperty("row." + i, "").split("\t", 5);
+                if (row.length < 5) {
+                    return null;
+                }
+
+                NoteData note = new NoteData(Long.parseLong(row[1]), row[4]);
+                note.setStrID(row[0]);
+                note.setModified(Long.parseLong(row[2]));
+                note.setTags(TagIndex.parseTags(row[3]));
+                session.getRows().add(note);
+            }
+            return session;
+        } catch (NumberFormatException e) {
+            return null; // a broken session is ignored
+        }
+    }
+
+    /**
+     * Writes the session into the notes directory. The file is replaced in one step, so it is never half written.
+     * @param store - the note store of the notes directory
+     * @throws IOException if the file cannot be written
+     */
+    public void write(NoteStore store) throws IOException {
+        Properties properties = new Properties();
+        if (this.getSelectedNoteID() != null) {
+            properties.setProperty("note", this.getSelectedNoteID());
+        }
+        if (this.getTopNoteID() != null) {
+            properties.setProperty("top", this.getTopNoteID());
+        }
+        properties.setProperty("editing", Boolean.toString(this.isEditing()));
+        properties.setProperty("page", Integer.toString(this.getPage()));
+        properties.setProperty("caret", Integer.toString(this.getCaret()));
+        properties.setProperty("scroll", Double.toString(this.getScroll()));
+
+        properties.setProperty("rows", Integer.toString(this.getRows().size()));
+        for (int i = 0; i < this.getRows().size(); i++) {
+            NoteData note = this.getRows().get(i);
+            properties.setProperty("row." + i, note.getStrID() + "\t" + note.getDate() + "\t" + note.getModified()
+                    + "\t" + String.join(",", note.getTags()) + "\t" + note.getStrSample().replace('\t', ' '));
+        }
+
+        StringWriter writer = new StringWriter();
+        properties.store(writer, null);
+        byte[] bytes = writer.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path path = store.getDirectory().resolve(FILE);
+        Path temp = path.resolveSibling(path.getFileName() + NoteStore.TEMP);
+        Files.write(temp, store.getCipher() == null ? bytes : store.getCipher().encrypt(bytes));
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the ID of the selected note, or null if no note was selected
+     */
+    public String getSelectedNoteID() {
+        return this.selectedNoteID;
+    }
+
+    /**
+     * @return the ID of the note at the top of the notes list, or null if the list was empty
+     */
+    public String getTopNoteID() {
+        return this.topNoteID;
+    }
+
+    /**
+     * @return whether the selected note was in the editor, instead of the preview
+     */
+    public boolean isEditing() {
+        return this.editing;
+    }
+
+    /**
+     * @return the page of the editor, if the selected note is a large note
+     */
+    public int getPage() {
+        return this.page;
+    }
+
+    /**
+     * @return where the caret of the editor was, in characters of text from the start of the page, or -1
+     */
+    public int getCaret() {
+        return this.caret;
+    }
+
+    /**
+     * @return how far the editor was scrolled down (in pixels)
+     */
+    public double getScroll() {
+        return this.scroll;
+    }
+
+    /**
+     * @return the rows of the notes list, from the note at its top
+     */
+    public List<NoteData> getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Sets the ID of the selected note
+     * @param selectedNoteID - the note ID, or null
+     */
+    public void setSelectedNoteID(String selectedNoteID) {
+        this.selectedNoteID = selectedNoteID;
+    }
+
+    /**
+     * Sets the ID of the note at the top of the notes list
+     * @param topNoteID - the note ID, or null
+     */
+    public void setTopNoteID(String topNoteID) {
+        this.topNoteID = topNoteID;
+    }
+
+    /**
+     * Sets whether the selected note was in the editor
+     * @param editing - true if it was being edited
+     */
+    public void setEditing(boolean editing) {
+        this.editing = editing;
+    }
+
+    /**
+     * Sets the page of the editor
+     * @param page - the page index
+     */
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    /**
+     * Sets where the caret of the editor was
+     * @param caret - the caret offset in characters of text, or -1
+     */
+    public void setCaret(int caret) {
+        this.caret = caret;
+    }
+
+    /**
+     * Sets how far the editor was scrolled down
+     * @param scroll - the scroll position in pixels
+     */
+    public void setScroll(double scroll) {
+        this.scroll = scroll;
+    }
+
+    /**
+     * Sets the rows of the notes list
+     * @param rows - the rows, from the note at the top of the list
+     */
+    public void setRows(List<NoteData> rows) {
+        this.rows = rows;
+    }
+}
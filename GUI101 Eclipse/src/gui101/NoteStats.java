@@ -0,0 +1,150 @@
+package gui101;
+
+/**
+ * The word count and character count of a note's text, as the preview shows it: the html tags are not counted, an
+ * entity (e.g. &amp;amp;) is one character, and a word is a run of characters between whitespace. The characters are
+ * counted without the whitespace, so a change of the text changes the count by exactly the characters it added or
+ * removed (see Controller, which keeps the counts of the note in the editor up to date from the edits alone).
+ * The counts are stored in the metadata of each note when it is saved (see NoteMeta), so the totals of all notes
+ * (see StatsIndex) never need the notes to be read again.
+ */
+public final class NoteStats {
+    // the words read in a minute, for the reading time
+    public static final int WORDS_PER_MINUTE = 200;
+
+    // the counts of an empty note, and of a note whose text was not counted yet
+    public static final NoteStats EMPTY = new NoteStats(0, 0), UNKNOWN = new NoteStats(-1, -1);
+
+    private final long words, characters;
+
+    /**
+     * Initializes the counts of a text.
+     * @param words - the number of words
+     * @param characters - the number of characters, without whitespace
+     */
+    public NoteStats(long words, long characters) {
+        this.words = words;
+        this.characters = characters;
+    }
+
+    /**
+     * Counts the words and characters of the text of a note, in one pass over its html. The head of the page and
+     * its styles and scripts are not text.
+     * @param html - the html of the note
+     * @return the counts
+     */
+    public static NoteStats of(String html) {
+        long words = 0, characters = 0;
+        boolean inWord = false;
+        String skipped = null; // the element whose content is not text (e.g. "head"), until it is closed
+
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int end = html.indexOf('>', i);
+                if (end == -1) {
+                    break; // a tag that is cut off is not text either
+                }
+                String name = tagName(html, i + 1, end);
+                if (skipped == null && (name.equals("head") || name.equals("style") || name.equals("script"))) {
+                    skipped = name;
+                } else if (skipped != null && name.equals("/" + skipped)) {
+                    skipped = null;
+                }
+
+                // a tag between two letters keeps them in one word, unless it starts a new line (e.g. a paragraph)
+                if (isBlock(name)) {
+                    inWord = false;
+                }
+                i = end + 1;
+                continue;
+            }
+            if (skipped != null) {
+                i++;
+                continue;
+            }
+
+            boolean space = Character.isWhitespace(c);
+            if (c == '&') {
+                int end = html.indexOf(';', i);
+                if (end != -1 && end - i <= 10) {
+                    space = html.startsWith("&nbsp;", i) || html.startsWith("&#160;", i);
+                    i = end;
+                }
+            }
+
+            if (space) {
+                inWord = false;
+            } else {
+                characters++;
+                if (!inWord) {
+                    words++;
+                    inWord = true;
+                }
+            }
+            i++;
+        }
+        return new NoteStats(words, characters);
+    }
+
+    /**
+     * @return the lower case name of the tag between two positions (e.g. "p" or "/p"), without its attributes
+     */
+    private static String tagName(String html, int start, int end) {
+        int i = start;
+        if (i < end && html.charAt(i) == '/') i++;
+        while (i < end && Character.isLetterOrDigit(html.charAt(i))) i++;
+        return html.substring(start, i).toLowerCase();
+    }
+
+    /**
+     * @return whether a tag starts a new line, which ends the word before it
+     */
+    private static boolean isBlock(String name) {
+        switch (name.startsWith("/") ? name.substring(1) : name) {
+            case "p": case "div": case "br": case "li": case "ul": case "ol": case "tr": case "td": case "th":
+            case "table": case "blockquote": case "pre": case "hr": case "body":
+            case "h1": case "h2": case "h3": case "h4": case "h5": case "h6":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param other - other counts
+     * @return these counts with the other counts added
+     */
+    public NoteStats plus(NoteStats other) {
+        return new NoteStats(this.words + other.words, this.characters + other.characters);
+    }
+
+    /**
+     * @return whether the text was counted, the metadata of a note saved before the counts existed has none
+     */
+    public boolean isKnown() {
+        return this.words >= 0 && this.characters >= 0;
+    }
+
+    /**
+     * @return how long it takes to read the text, in minutes (at least 1 for a text that has words)
+     */
+    public long getReadingMinutes() {
+        return this.words <= 0 ? 0 : Math.max(1, Math.round((double) this.words / WORDS_PER_MINUTE));
+    }
+
+    /**
+     * @return the number of words
+     */
+    public long getWords() {
+        return this.words;
+    }
+
+    /**
+     * @return the number of characters, without whitespace
+     */
+    public long getCharacters() {
+        return this.characters;
+    }
+}
@@ -0,0 +1,437 @@
+package gui101;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.HBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.TextFlow;
+import javafx.scene.transform.Transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Makes the thumbnails shown in the notes list (see NoteCell): a small picture of the top of every note as the
+ * preview shows it, with the first image of the note next to its text, so notes that start alike can still be told
+ * apart.
+ * A cell asks for the thumbnail of its note with request(), and gets it right away if it is in memory. Otherwise the
+ * cell shows a placeholder, and the thumbnail is made on a background thread: the note is read and its first image
+ * decoded there, and only the snapshot itself is taken on the JavaFX Application Thread, one small note at a time,
+ * so scrolling the list never waits for a thumbnail.
+ * Only the cells of the list ask for thumbnails, and a cell that shows another note replaces its request (the old one
+ * is taken out of the queue), so the queue never holds more requests than there are visible cells. The newest request is made first, the notes the user
+ * scrolled past last are the ones on screen.
+ * The thumbnails are cached in the ".thumbnails" directory of the notes, named after the checksum and size of the
+ * note, so a note that did not change since is never drawn again, and a changed note gets a new thumbnail. In an
+ * encrypted notebook the cached thumbnails are encrypted too (see NoteCipher), since they show the notes.
+ */
+public class NoteThumbnails {
+    public static final String DIRECTORY = ".thumbnails", THUMBNAIL = ".thumb";
+
+    // the size of a thumbnail (in pixels), the note is drawn twice as large and scaled down
+    public static final int WIDTH = 178, HEIGHT = 40;
+    private static final double SCALE = 0.5;
+
+    // the thumbnail only shows the top of a note, so only the start of the html is drawn
+    private static final int MAX_HTML = 4096;
+
+    // the most thumbnails kept in memory, and on the disk (the oldest are removed when the program starts)
+    private static final int MEMORY = 256, DISK = 4096;
+
+    // the first image of a note, if it is embedded (data:) or a local file (file:), images on the web are never loaded
+    private static final Pattern IMAGE = Pattern.compile("<img[^>]*\\ssrc=\"((?:data|file):[^\"]+)\"", Pattern.CASE_INSENSITIVE);
+
+    // the header of a cached thumbnail file
+    private static final int MAGIC = 0x47544831; // "GTH1"
+
+    private final NoteStore store;
+    private final Path directory;
+
+    // the thumbnails made since the program started, by note ID and the date the note was last changed, the
+    // least recently shown is dropped first (only used on the JavaFX Application Thread)
+    private final Map<String, Image> memory = new LinkedHashMap<String, Image>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return this.size() > MEMORY;
+        }
+    };
+
+    // the latest request of every cell, a request that is not here anymore is skipped
+    private final Map<Object, Request> wanted = new ConcurrentHashMap<>();
+    private final LinkedBlockingDeque<Request> queue = new LinkedBlockingDeque<>();
+
+    private Thread thread;
+    private boolean enabled;
+
+    /**
+     * Initializes the thumbnails of the notes in a note store, the background thread starts with the first request.
+     * @param store - the note store
+     */
+    public NoteThumbnails(NoteStore store) {
+        this.store = store;
+        this.directory = store.getDirectory().resolve(DIRECTORY);
+        this.setEnabled(Boolean.getBoolean("gui101.thumbnails"));
+    }
+
+    /**
+     * Asks for the thumbnail of a note. Must be called on the JavaFX Application Thread.
+     * @param owner - who shows the thumbnail (e.g. a NoteCell), its earlier request is replaced
+     * @param note - the note
+     * @param onReady - called on the JavaFX Application Thread with the thumbnail once it is made, unless the owner
+     *                asked for another thumbnail in the meantime
+     * @return the thumbnail if it is in memory (onReady is not called then), or null until it is made
+     */
+    public Image request(Object owner, NoteData note, Consumer<Image> onReady) {
+        Image image = this.memory.get(memoryKeyOf(note));
+        if (image != null) {
+            this.wanted.remove(owner);
+            return image;
+        }
+
+        Request request = new Request(owner, note, onReady);
+        Request replaced = this.wanted.put(owner, request);
+        if (replaced != null) {
+            this.queue.remove(replaced);
+        }
+        this.queue.addFirst(request);
+        this.start();
+        return null;
+    }
+
+    /**
+     * Forgets the request of an owner that does not show a note anymore (e.g. an empty cell).
+     * @param owner - who asked for a thumbnail
+     */
+    public void cancel(Object owner) {
+        Request request = this.wanted.remove(owner);
+        if (request != null) {
+            this.queue.remove(request);
+        }
+    }
+
+    /**
+     * @return the key of a note's thumbnail in memory, which changes whenever the note is saved
+     */
+    private static String memoryKeyOf(NoteData note) {
+        return note.getStrID() + "@" + note.getModified();
+    }
+
+    /**
+     * Starts the background thread, which removes the oldest cached thumbnails first.
+     */
+    private synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+
+        this.thread = new Thread(() -> {
+            this.prune();
+            this.work();
+        }, "gui101-thumbnails");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the background thread, the requests that were not made yet are dropped.
+     */
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+        this.queue.clear();
+        this.wanted.clear();
+    }
+
+    /**
+     * Makes the requested thumbnails one after the other, until the thread is stopped.
+     */
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Request request = this.queue.takeFirst();
+                if (this.wanted.get(request.owner) != request) {
+                    continue; // the cell shows another note by now
+                }
+
+                Image image;
+                try {
+                    image = this.thumbnailOf(request.note.getStrID());
+                } catch (IOException | RuntimeException e) {
+                    // the cell keeps the placeholder, e.g. the note was deleted meanwhile or its html cannot be drawn,
+                    // and the thread goes on with the other requests
+                    continue;
+                }
+
+                Platform.runLater(() -> {
+                    this.memory.put(memoryKeyOf(request.note), image);
+                    if (this.wanted.remove(request.owner, request)) {
+                        request.onReady.accept(image);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // the thumbnails were stopped
+        }
+    }
+
+    /**
+     * Reads the thumbnail of a note from the disk, or makes it and writes it onto the disk.
+     */
+    private Image thumbnailOf(String noteID) throws IOException, InterruptedException {
+        NoteMeta meta = this.store.meta(noteID);
+        String checksum = meta.getChecksum() == null ? this.store.checksumOfNote(noteID) : meta.getChecksum();
+        Path file = this.directory.resolve(checksum + "-" + meta.getSize() + THUMBNAIL);
+
+        if (Files.exists(file)) {
+            try {
+                return decode(this.decrypt(Files.readAllBytes(file)));
+            } catch (IOException e) {
+                // the cached thumbnail is broken, it is made again
+            }
+        }
+
+        String html = this.store.read(noteID);
+        Image picture = pictureOf(html);
+        if (html.length() > MAX_HTML) {
+            html = html.substring(0, MAX_HTML);
+        }
+
+        // only the snapshot is taken on the JavaFX Application Thread, this thread waits for it
+        CompletableFuture<int[]> pixels = new CompletableFuture<>();
+        String top = html;
+        Platform.runLater(() -> {
+            try {
+                pixels.complete(snapshot(top, picture));
+            } catch (RuntimeException e) {
+                pixels.completeExceptionally(e);
+            }
+        });
+
+        int[] argb;
+        try {
+            argb = pixels.get();
+        } catch (ExecutionException e) {
+            throw new IOException("The thumbnail cannot be drawn", e.getCause());
+        }
+
+        // the file is replaced in one step, like the notes, so another window never reads half of it
+        Files.createDirectories(this.directory);
+        Path temp = file.resolveSibling(file.getFileName() + NoteStore.TEMP);
+        Files.write(temp, this.encrypt(encode(argb)));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return imageOf(argb);
+    }
+
+    /**
+     * Loads the first image of a note, scaled down to the height of the thumbnail, on the background thread.
+     * @return the image, or null if the note has no image that can be loaded
+     */
+    private static Image pictureOf(String html) {
+        Matcher matcher = IMAGE.matcher(html);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        String source = matcher.group(1);
+        Image image;
+        int comma = source.indexOf(',');
+        if (source.startsWith("data:") && source.substring(0, Math.max(comma, 0)).endsWith(";base64")) {
+            try {
+                byte[] bytes = Base64.getMimeDecoder().decode(source.substring(comma + 1));
+                image = new Image(new ByteArrayInputStream(bytes), 0, HEIGHT / SCALE, true, true);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        } else if (source.startsWith("file:")) {
+            image = new Image(source, 0, HEIGHT / SCALE, true, true, false);
+        } else {
+            return null;
+        }
+        return image.isError() ? null : image;
+    }
+
+    /**
+     * Draws the top of a note the way the preview shows it, with its first image on the left, and takes a
+     * snapshot of it scaled down to the size of a thumbnail. Runs on the JavaFX Application Thread.
+     * @return the pixels of the thumbnail, row by row
+     */
+    private static int[] snapshot(String html, Image picture) {
+        NotePreview preview = new NotePreview();
+        preview.render(html);
+        TextFlow flow = preview.getFlow();
+        preview.setContent(null);
+        flow.setPadding(new Insets(4.0, 6.0, 4.0, 6.0));
+
+        HBox box = new HBox(4.0);
+        if (picture != null) {
+            ImageView view = new ImageView(picture);
+            view.setFitHeight(HEIGHT / SCALE);
+            view.setFitWidth(WIDTH / SCALE / 3);
+            view.setPreserveRatio(true);
+            box.getChildren().add(view);
+        }
+        box.getChildren().add(flow);
+
+        // the box is cut to the size of the thumbnail, however long the note is
+        box.setPrefSize(WIDTH / SCALE, HEIGHT / SCALE);
+        box.setMaxSize(WIDTH / SCALE, HEIGHT / SCALE);
+        box.setClip(new Rectangle(WIDTH / SCALE, HEIGHT / SCALE));
+        box.setStyle("-fx-background-color: white;");
+
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.WHITE);
+        parameters.setTransform(Transform.scale(SCALE, SCALE));
+        WritableImage image = box.snapshot(parameters, new WritableImage(WIDTH, HEIGHT));
+
+        int[] argb = new int[WIDTH * HEIGHT];
+        image.getPixelReader().getPixels(0, 0, WIDTH, HEIGHT, PixelFormat.getIntArgbInstance(), argb, 0, WIDTH);
+        return argb;
+    }
+
+    /**
+     * @return an image of the pixels of a thumbnail
+     */
+    private static Image imageOf(int[] argb) {
+        WritableImage image = new WritableImage(WIDTH, HEIGHT);
+        image.getPixelWriter().setPixels(0, 0, WIDTH, HEIGHT, PixelFormat.getIntArgbInstance(), argb, 0, WIDTH);
+        return image;
+    }
+
+    /**
+     * @return the pixels of a thumbnail as a cached thumbnail file: the header, the size and the compressed pixels
+     */
+    private static byte[] encode(int[] argb) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(WIDTH);
+            out.writeShort(HEIGHT);
+            DataOutputStream pixels = new DataOutputStream(new DeflaterOutputStream(out));
+            for (int pixel : argb) {
+                pixels.writeInt(pixel);
+            }
+            pixels.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the image in a cached thumbnail file
+     * @throws IOException if the file is not a thumbnail of the current size
+     */
+    private static Image decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readShort() != WIDTH || in.readShort() != HEIGHT) {
+                throw new IOException("Not a thumbnail");
+            }
+
+            DataInputStream pixels = new DataInputStream(new InflaterInputStream(in));
+            int[] argb = new int[WIDTH * HEIGHT];
+            for (int i = 0; i < argb.length; i++) {
+                argb[i] = pixels.readInt();
+            }
+            return imageOf(argb);
+        }
+    }
+
+    private byte[] encrypt(byte[] bytes) throws IOException {
+        return this.store.getCipher() == null ? bytes : this.store.getCipher().encrypt(bytes);
+    }
+
+    private byte[] decrypt(byte[] bytes) throws IOException {
+        return this.store.getCipher() == null ? bytes : this.store.getCipher().decrypt(bytes);
+    }
+
+    /**
+     * Removes the oldest cached thumbnails (e.g. of notes that changed or were deleted since) once there are more
+     * than fit on the disk.
+     */
+    private void prune() {
+        if (!Files.isDirectory(this.directory)) {
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        Map<Path, FileTime> times = new LinkedHashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (Path file : stream) {
+                files.add(file);
+                times.put(file, Files.getLastModifiedTime(file));
+            }
+        } catch (IOException e) {
+            return; // the thumbnails are pruned on the next start
+        }
+        if (files.size() <= DISK) {
+            return;
+        }
+
+        files.sort((a, b) -> times.get(a).compareTo(times.get(b)));
+        for (Path file : files.subList(0, files.size() - DISK)) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // the file is removed on the next start
+            }
+        }
+    }
+
+    /**
+     * @return whether the notes list shows the thumbnails
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Sets whether the notes list shows the thumbnails, which starts with the system property "gui101.thumbnails"
+     * @param enabled - true to show the thumbnails
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * A thumbnail a cell asked for.
+     */
+    private static final class Request {
+        private final Object owner;
+        private final NoteData note;
+        private final Consumer<Image> onReady;
+
+        Request(Object owner, NoteData note, Consumer<Image> onReady) {
+            this.owner = owner;
+            this.note = note;
+            this.onReady = onReady;
+        }
+    }
+}
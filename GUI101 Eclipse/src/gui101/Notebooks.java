@@ -0,0 +1,243 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The notebooks of the program. Every notebook is a notes directory of its own, with its own notes, metadata,
+ * journal, changelog and indexes (see NoteModel), so the notes of one notebook never show up in another one.
+ * The first notebook, "My Notes", is the "notes" directory the program always used, the notebooks created later
+ * get a directory inside the "notebooks" directory.
+ * The notebooks are listed in the file "notebooks.properties", together with the active notebook, which is the only
+ * notebook the program opens when it starts (the other notebooks are opened once they are switched to).
+ */
+public class Notebooks {
+    public static final String FILE = "notebooks.properties";
+
+    // the notebook every program has, even without the file
+    public static final String DEFAULT = "My Notes";
+    public static final Path DEFAULT_DIRECTORY = Paths.get("notes/");
+
+    // the directory that contains the directories of the created notebooks
+    private static final Path NOTEBOOKS = Paths.get("notebooks/");
+
+    // the keys of the file: "notebook.<name>" for the directory of every notebook, and "active"
+    private static final String NOTEBOOK = "notebook.", ACTIVE = "active";
+
+    private final Path file;
+
+    // the directory of every notebook, by name, ignoring case
+    private final Map<String, Path> notebooks = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private String active = DEFAULT;
+
+    /**
+     * Initializes the notebooks with only the default notebook.
+     * @param file - the file that lists the notebooks
+     */
+    private Notebooks(Path file) {
+        this.file = file;
+        this.notebooks.put(DEFAULT, DEFAULT_DIRECTORY);
+    }
+
+    /**
+     * Reads the notebooks from "notebooks.properties" in the working directory, next to the "notes" directory.
+     * @return the notebooks, or only the default notebook if the file does not exist or cannot be read
+     */
+    public static Notebooks load() {
+        return load(Paths.get(FILE));
+    }
+
+    /**
+     * Reads the notebooks from a file.
+     * @param file - the file that lists the notebooks
+     * @return the notebooks, or only the default notebook if the file does not exist or cannot be read
+     */
+    public static Notebooks load(Path file) {
+        Notebooks notebooks = new Notebooks(file);
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return notebooks; // no notebook was created yet
+        } catch (IOException | IllegalArgumentException e) {
+            return notebooks; // the notes of the default notebook can still be used
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(NOTEBOOK) && key.length() > NOTEBOOK.length()) {
+                notebooks.notebooks.put(key.substring(NOTEBOOK.length()), Paths.get(properties.getProperty(key)));
+            }
+        }
+        notebooks.active = notebooks.nameOf(properties.getProperty(ACTIVE, DEFAULT));
+        return notebooks;
+    }
+
+    /**
+     * @return the names of the notebooks, the default notebook first and the others by name
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>();
+        names.add(DEFAULT);
+        for (String name : this.notebooks.keySet()) {
+            if (!name.equalsIgnoreCase(DEFAULT)) names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @param name - the name of a notebook, in any case
+     * @return the notes directory of the notebook, or null if there is no such notebook
+     */
+    public Path directoryOf(String name) {
+        return this.notebooks.get(name);
+    }
+
+    /**
+     * @param directory - a notes directory
+     * @return the name of the notebook in the directory, or null if the directory is not a notebook
+     */
+    public String nameOf(Path directory) {
+        Path absolute = directory.toAbsolutePath().normalize();
+        for (Map.Entry<String, Path> notebook : this.notebooks.entrySet()) {
+            if (notebook.getValue().toAbsolutePath().normalize().equals(absolute)) {
+                return notebook.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name - a name, in any case
+     * @return the name as the notebook is listed, or the default notebook if there is no such notebook
+     */
+    private String nameOf(String name) {
+        for (String notebook : this.notebooks.keySet()) {
+            if (notebook.equalsIgnoreCase(name)) return notebook;
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * Prepares the directory of a new notebook before the notebook is listed (see add()).
+     */
+    @FunctionalInterface
+    public interface Preparer {
+        /**
+         * @param directory - the notes directory of the new notebook
+         * @throws IOException if the directory cannot be prepared, the notebook is not created then
+         */
+        void prepare(Path directory) throws IOException;
+    }
+
+    /**
+     * Creates a notebook, in a new directory inside the "notebooks" directory named after it. The directory itself is
+     * created when the first note is written into it, like the "notes" directory.
+     * @param name - the name of the notebook
+     * @return the notes directory of the notebook
+     * @throws IllegalArgumentException if the name is empty, or there is a notebook with that name already
+     * @throws IOException if the notebooks cannot be written
+     */
+    public Path add(String name) throws IOException {
+        return this.add(name, directory -> { });
+    }
+
+    /**
+     * Creates a notebook like add(name), but prepares its directory first (e.g. encrypts it, see NoteCipher.encrypt()).
+     * The notebook is only listed once its directory is prepared and the notebooks are written, so a notebook that
+     * should have been encrypted is never listed (and used) without its encryption.
+     * @param name - the name of the notebook
+     * @param preparer - prepares the directory of the notebook
+     * @return the notes directory of the notebook
+     * @throws IllegalArgumentException if the name is empty, or there is a notebook with that name already
+     * @throws IOException if the directory cannot be prepared or the notebooks cannot be written
+     */
+    public Path add(String name, Preparer preparer) throws IOException {
+        String trimmed = name == null ? "" : name.trim();
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("A notebook needs a name");
+        }
+        if (this.notebooks.containsKey(trimmed)) {
+            throw new IllegalArgumentException("There is a notebook named " + trimmed + " already");
+        }
+
+        // the directory is named after the notebook, as far as a file name allows, and never shared with another one
+        String folder = trimmed.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+        if (folder.isEmpty()) folder = "notebook";
+        Path directory = NOTEBOOKS.resolve(folder);
+        for (int i = 2; this.nameOf(directory) != null || Files.exists(directory); i++) {
+            directory = NOTEBOOKS.resolve(folder + "-" + i);
+        }
+
+        preparer.prepare(directory);
+        this.notebooks.put(trimmed, directory);
+        try {
+            this.save();
+        } catch (IOException e) {
+            this.notebooks.remove(trimmed); // the notebook is not listed in the file, so it is not listed at all
+            throw e;
+        }
+        return directory;
+    }
+
+    /**
+     * @return the name of the notebook the program opens when it starts
+     */
+    public String getActive() {
+        return this.active;
+    }
+
+    /**
+     * @return the notes directory of the notebook the program opens when it starts
+     */
+    public Path getActiveDirectory() {
+        return this.directoryOf(this.active);
+    }
+
+    /**
+     * Sets the notebook the program opens the next time it starts, and writes it into the file
+     * @param name - the name of a notebook
+     * @throws IOException if the notebooks cannot be written
+     */
+    public void setActive(String name) throws IOException {
+        this.active = this.nameOf(name);
+        this.save();
+    }
+
+    /**
+     * Writes the notebooks into a temporary file first, which then replaces the file, so a crash never leaves
+     * half of the notebooks behind.
+     */
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Path> notebook : this.notebooks.entrySet()) {
+            properties.setProperty(NOTEBOOK + notebook.getKey(), notebook.getValue().toString());
+        }
+        properties.setProperty(ACTIVE, this.active);
+
+        Path temp = this.file.resolveSibling(this.file.getFileName() + NoteStore.TEMP);
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "The notebooks of the program, see Notebooks.java");
+        }
+        Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the file that lists the notebooks
+     */
+    public Path getFile() {
+        return this.file;
+    }
+}
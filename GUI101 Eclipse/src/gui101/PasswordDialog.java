@@ -0,0 +1,129 @@
+package gui101;
+
+import javafx.scene.Node;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.PasswordField;
+import javafx.scene.layout.VBox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The window that asks for the password of an encrypted notebook (see NoteCipher), either to unlock it, or to
+ * choose the password of a new encrypted notebook. A new password is typed twice, since a typo would lock the
+ * user out of the notebook for good: the notes cannot be read without the password, not even by the program.
+ * The password is returned as characters instead of a string, so it can be wiped once the notebook is unlocked.
+ */
+public class PasswordDialog extends Dialog<char[]> {
+    private PasswordField pfPassword, pfRepeat;
+
+    /**
+     * Initializes the window.
+     * @param notebook - the name of the notebook
+     * @param create - true to choose the password of a new notebook, false to unlock a notebook
+     */
+    public PasswordDialog(String notebook, boolean create) {
+        super();
+        this.setTitle(create ? "New Encrypted Notebook" : "Unlock " + notebook);
+        this.setHeaderText(create
+                ? "Choose the password of " + notebook + ".\nIts notes cannot be read without it, so don't lose it!"
+                : notebook + " is encrypted, type its password to open it.");
+
+        this.setPfPassword(new PasswordField());
+        this.getPfPassword().setPromptText("Password");
+        this.setPfRepeat(new PasswordField());
+        this.getPfRepeat().setPromptText("Repeat the password");
+
+        VBox content = new VBox(10.0, this.getPfPassword());
+        if (create) {
+            content.getChildren().add(this.getPfRepeat());
+        }
+        this.getDialogPane().setContent(content);
+        this.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        // the password can only be used once it is typed (twice, the same way, for a new notebook)
+        Node btnOk = this.getDialogPane().lookupButton(ButtonType.OK);
+        btnOk.setDisable(true);
+        this.getPfPassword().textProperty().addListener((observable, oldValue, newValue) ->
+                btnOk.setDisable(newValue.isEmpty() || create && !newValue.equals(this.getPfRepeat().getText())));
+        this.getPfRepeat().textProperty().addListener((observable, oldValue, newValue) ->
+                btnOk.setDisable(newValue.isEmpty() || !newValue.equals(this.getPfPassword().getText())));
+
+        this.setResultConverter(button -> button == ButtonType.OK ? this.getPfPassword().getText().toCharArray() : null);
+    }
+
+    /**
+     * Unlocks an encrypted notebook before a window is opened on it, by asking for its password until the user
+     * types the right one or gives up. A notebook is only asked for once, it stays unlocked until the program exits.
+     * @param notebook - the name of the notebook
+     * @param directory - the notes directory of the notebook
+     * @return whether the notebook can be opened: it is not encrypted, it was unlocked before, or it is unlocked now
+     */
+    public static boolean unlock(String notebook, Path directory) {
+        if (!NoteCipher.isEncrypted(directory) || NoteCipher.unlocked(directory) != null) {
+            return true;
+        }
+
+        PasswordDialog dialog = new PasswordDialog(notebook, false);
+        while (true) {
+            Optional<char[]> password = dialog.showAndWait();
+            if (!password.isPresent()) {
+                return false; // the user cancelled
+            }
+
+            // deriving the key from the password is slow on purpose (see NoteCipher)
+            try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Unlocking a notebook")) {
+                if (NoteCipher.unlock(directory, password.get()) != null) {
+                    return true;
+                }
+            } catch (IOException e) {
+                // if the key of the notebook cannot be read, show an alert window
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setTitle("Failed to Unlock the Notebook");
+                a.setHeaderText("Uh Oh!");
+                a.setContentText("We can't read the key of the notebook right now, try again later.");
+                a.showAndWait();
+                return false;
+            } finally {
+                Arrays.fill(password.get(), ' ');
+            }
+
+            dialog.setHeaderText("That's not the password of " + notebook + ", try again.");
+            dialog.getPfPassword().clear();
+        }
+    }
+
+    /**
+     * @return the field the password is typed into
+     */
+    public PasswordField getPfPassword() {
+        return this.pfPassword;
+    }
+
+    /**
+     * @return the field a new password is typed into once more
+     */
+    public PasswordField getPfRepeat() {
+        return this.pfRepeat;
+    }
+
+    /**
+     * Sets the field the password is typed into
+     * @param pfPassword - the password field
+     */
+    public void setPfPassword(PasswordField pfPassword) {
+        this.pfPassword = pfPassword;
+    }
+
+    /**
+     * Sets the field a new password is typed into once more
+     * @param pfRepeat - the password field
+     */
+    public void setPfRepeat(PasswordField pfRepeat) {
+        this.pfRepeat = pfRepeat;
+    }
+}
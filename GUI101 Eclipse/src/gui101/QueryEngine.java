@@ -0,0 +1,420 @@
+package gui101;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs a search (see NoteQuery) with the indexes the notes already have, instead of reading every note.
+ * Planning a search picks the term whose index gives the fewest notes (the driver): a note ID, the notes of a date
+ * range (see DateIndex), the notes of a tag (see TagIndex) or the notes that use a word (the posting lists of
+ * RelatedIndex). Only those notes are looked at, and every other term is checked on them one note at a time, the
+ * cheapest check first, so a note is dropped at the first term it does not match and the slow checks (reading the
+ * text of a note, for phrases and short words) only see the notes that are left.
+ * The matches are handed out in batches while the search runs, so the notes list shows the first matches right away,
+ * and the plan keeps how many notes each step looked at and let through, and how long it took (see Plan.explain()).
+ * The words are only looked up in the posting lists once every note is in them, until then they are looked for in
+ * the text of the notes.
+ */
+public class QueryEngine {
+    // the most matches in a batch, and how long a match waits for more matches before its batch is handed out
+    public static final int BATCH = 64;
+    private static final long BATCH_NANOS = 50_000_000L;
+
+    // what checking a note against a term costs, roughly: a lookup in a map, in a note's words, or reading the note
+    private static final int LOOKUP = 1, POSTINGS = 2, TEXT = 100;
+
+    /**
+     * Reads the text of a note, for the terms the indexes cannot answer.
+     */
+    @FunctionalInterface
+    public interface TextReader {
+        /**
+         * @param noteID - the note ID
+         * @return the text of the note (without html)
+         * @throws IOException if the note cannot be read
+         */
+        String read(String noteID) throws IOException;
+    }
+
+    /**
+     * Checks a note against a term.
+     */
+    @FunctionalInterface
+    private interface Check {
+        boolean test(String noteID, Supplier<String> text);
+    }
+
+    /**
+     * One step of a plan: the driver that gives the notes to look at, or a check of one term.
+     */
+    public static class Step {
+        private final String terms, source;
+        private final int cost;
+        private final double selectivity;
+        private final Supplier<List<String>> candidates;
+        private final Check check;
+
+        // written by the thread that runs the search, read by explain()
+        private volatile long in, out, nanos;
+
+        /**
+         * Initializes a step.
+         */
+        private Step(String terms, String source, int cost, double selectivity, Supplier<List<String>> candidates, Check check) {
+            this.terms = terms;
+            this.source = source;
+            this.cost = cost;
+            this.selectivity = selectivity;
+            this.candidates = candidates;
+            this.check = check;
+        }
+
+        /**
+         * @return the terms of the step, as they were typed
+         */
+        public String getTerms() {
+            return this.terms;
+        }
+
+        /**
+         * @return where the step looks (e.g. "date index" or "note text")
+         */
+        public String getSource() {
+            return this.source;
+        }
+    }
+
+    /**
+     * How a search is run, and once it ran, what each step did.
+     */
+    public static class Plan {
+        private final NoteQuery query;
+        private final Step driver;
+        private final List<Step> filters;
+        private final long estimate, planNanos;
+
+        private volatile long matches, runNanos;
+        private volatile boolean finished, cancelled;
+
+        /**
+         * Initializes a plan.
+         */
+        private Plan(NoteQuery query, Step driver, List<Step> filters, long estimate, long planNanos) {
+            this.query = query;
+            this.driver = driver;
+            this.filters = filters;
+            this.estimate = estimate;
+            this.planNanos = planNanos;
+        }
+
+        /**
+         * @return the search
+         */
+        public NoteQuery getQuery() {
+            return this.query;
+        }
+
+        /**
+         * @return the step that gives the notes to look at
+         */
+        public Step getDriver() {
+            return this.driver;
+        }
+
+        /**
+         * @return the checks, in the order they are made
+         */
+        public List<Step> getFilters() {
+            return this.filters;
+        }
+
+        /**
+         * @return the number of notes found so far
+         */
+        public long getMatches() {
+            return this.matches;
+        }
+
+        /**
+         * @return whether the search ran to its end
+         */
+        public boolean isFinished() {
+            return this.finished;
+        }
+
+        /**
+         * Describes the plan, one line per step with the notes it looked at, the notes it let through and its time,
+         * e.g. for "meeting after:2026-01-01 -draft":
+         *   1. after:2026-01-01   date index   96 found                 0.2 ms
+         *   2. meeting            word index   96 checked   12 passed   0.1 ms
+         *   3. -draft             word index   12 checked   11 passed   0.0 ms
+         * @return the description
+         */
+        public String explain() {
+            StringBuilder text = new StringBuilder();
+            text.append("Search: ").append(this.query.getText().trim()).append('\n');
+            text.append(String.format("Planned in %.1f ms, %,d notes expected from the driver%n", millis(this.planNanos), this.estimate));
+            text.append(String.format("1. %-30s %-12s %,9d found %17s %8.1f ms%n", this.driver.terms, this.driver.source,
+                    this.driver.out, "", millis(this.driver.nanos)));
+            int number = 2;
+            for (Step step : this.filters) {
+                text.append(String.format("%d. %-30s %-12s %,9d checked %,8d passed %8.1f ms%n", number++, step.terms,
+                        step.source, step.in, step.out, millis(step.nanos)));
+            }
+
+            String state = this.cancelled ? "cancelled" : this.finished ? "done" : "still searching";
+            text.append(String.format("%,d matches in %.1f ms (%s)", this.matches, millis(this.runNanos), state));
+            return text.toString();
+        }
+
+        /**
+         * @return the nanoseconds in milliseconds
+         */
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    private final DateIndex dates;
+    private final RelatedIndex words;
+    private final TagIndex tags;
+    private final TextReader texts;
+
+    /**
+     * Initializes a query engine over the indexes of the notes.
+     * @param dates - the date index, which has every note
+     * @param words - the related notes index, whose posting lists are used once they have every note
+     * @param tags - the tag index
+     * @param texts - reads the text of a note
+     */
+    public QueryEngine(DateIndex dates, RelatedIndex words, TagIndex tags, TextReader texts) {
+        this.dates = dates;
+        this.words = words;
+        this.tags = tags;
+        this.texts = texts;
+    }
+
+    /**
+     * Plans a search: picks the driver that gives the fewest notes, and orders the checks of the other terms from
+     * the cheapest and most selective to the most expensive.
+     * The notes of a tag are taken from the tag index right away, so a plan must be made on the thread that changes
+     * the tag index (the JavaFX thread in the program window).
+     * @param query - the search
+     * @return the plan, which run() runs
+     */
+    public Plan plan(NoteQuery query) {
+        long start = System.nanoTime();
+        int total = this.dates.size();
+        boolean indexed = this.words.size() >= total; // every note is in the posting lists
+
+        // the dates a note must be modified between, from all after: and before: terms together
+        long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+        List<NoteQuery.Term> range = new ArrayList<>();
+        for (NoteQuery.Term term : query.getTerms()) {
+            if (!term.isNegated() && term.getKind() == NoteQuery.Kind.AFTER) {
+                from = Math.max(from, term.getDate());
+                range.add(term);
+            } else if (!term.isNegated() && term.getKind() == NoteQuery.Kind.BEFORE) {
+                to = Math.min(to, term.getDate());
+                range.add(term);
+            }
+        }
+
+        // the driver is the index that gives the fewest notes, every note is looked at if no term has an index
+        long lower = from, upper = to;
+        Step driver = new Step("(every note)", "date index", 0, 1, () -> this.dates.between(Long.MIN_VALUE, Long.MAX_VALUE), null);
+        long estimate = total;
+        List<NoteQuery.Term> driven = Collections.emptyList();
+        if (!range.isEmpty()) {
+            estimate = this.dates.count(lower, upper, total);
+            driver = new Step(join(range), "date index", 0, 1, () -> this.dates.between(lower, upper), null);
+            driven = range;
+        }
+        for (NoteQuery.Term term : query.getTerms()) {
+            if (term.isNegated()) {
+                continue; // the notes that do not match a term are not in any index
+            }
+
+            long count;
+            Step step;
+            switch (term.getKind()) {
+                case ID:
+                    count = 1;
+                    step = new Step(term.toString(), "note ID", 0, 1, () -> this.dates.dateOf(term.getValue()) == null
+                            ? Collections.emptyList() : Collections.singletonList(term.getValue()), null);
+                    break;
+                case TAG:
+                    List<String> tagged = this.tags.notesTagged(term.getValue());
+                    count = tagged.size();
+                    step = new Step(term.toString(), "tag index", 0, 1, () -> tagged, null);
+                    break;
+                case WORD:
+                    if (!indexed || !RelatedIndex.indexes(term.getValue())) {
+                        continue;
+                    }
+                    count = this.words.frequency(term.getValue());
+                    step = new Step(term.toString(), "word index", 0, 1, () -> this.words.notesWith(term.getValue()), null);
+                    break;
+                default:
+                    continue;
+            }
+            if (count < estimate) {
+                estimate = count;
+                driver = step;
+                driven = Collections.singletonList(term);
+            }
+        }
+
+        // every other term is checked on the notes of the driver
+        List<Step> filters = new ArrayList<>();
+        for (NoteQuery.Term term : query.getTerms()) {
+            if (!driven.contains(term)) {
+                filters.add(this.filter(term, indexed, total));
+            }
+        }
+        filters.sort(Comparator.<Step>comparingInt(step -> step.cost).thenComparingDouble(step -> step.selectivity));
+        return new Plan(query, driver, filters, estimate, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the step that checks a note against a term
+     */
+    private Step filter(NoteQuery.Term term, boolean indexed, int total) {
+        boolean negated = term.isNegated();
+        String value = term.getValue();
+        if (term.getKind() == NoteQuery.Kind.WORD && indexed && RelatedIndex.indexes(value)) {
+            return new Step(term.toString(), "word index", POSTINGS,
+                    fraction(this.words.frequency(value), total, negated), null,
+                    (noteID, text) -> this.words.uses(noteID, value) != negated);
+        }
+
+        switch (term.getKind()) {
+            case ID:
+                return new Step(term.toString(), "note ID", LOOKUP, negated ? 1 : 0, null,
+                        (noteID, text) -> noteID.equals(value) != negated);
+            case AFTER:
+            case BEFORE:
+                boolean after = term.getKind() == NoteQuery.Kind.AFTER;
+                return new Step(term.toString(), "date index", LOOKUP, 0.5, null, (noteID, text) -> {
+                    Long date = this.dates.dateOf(noteID);
+                    return date != null && (after ? date >= term.getDate() : date < term.getDate()) != negated;
+                });
+            case TAG:
+                Set<String> tagged = new HashSet<>(this.tags.notesTagged(value));
+                return new Step(term.toString(), "tag index", LOOKUP, fraction(tagged.size(), total, negated), null,
+                        (noteID, text) -> tagged.contains(noteID) != negated);
+            default:
+                // a phrase, a short word (which is not in the posting lists), or any word while the posting lists
+                // do not have every note yet
+                String padded = " " + value + " ";
+                return new Step(term.toString(), "note text", TEXT, negated ? 1 : 0.5, null, (noteID, text) -> {
+                    String words = text.get();
+                    return words != null && words.contains(padded) != negated;
+                });
+        }
+    }
+
+    /**
+     * Runs a plan: looks at the notes of its driver one at a time, and hands out the notes that match every term
+     * in batches, while it runs. The driver's notes are a copy, so notes that change meanwhile are found as they
+     * were when the search started.
+     * @param plan - the plan
+     * @param found - receives every batch of matching note IDs, on the thread that runs the search
+     * @param cancelled - tells whether the search is not needed anymore (e.g. the user typed another one)
+     */
+    public void run(Plan plan, Consumer<List<String>> found, BooleanSupplier cancelled) {
+        long start = System.nanoTime();
+        List<String> candidates = plan.driver.candidates.get();
+        plan.driver.in = candidates.size();
+        plan.driver.out = candidates.size();
+        plan.driver.nanos = System.nanoTime() - start;
+
+        List<String> batch = new ArrayList<>();
+        long handed = System.nanoTime();
+        for (String noteID : candidates) {
+            if (cancelled.getAsBoolean()) {
+                plan.cancelled = true;
+                break;
+            }
+
+            // the note is read by the first check that needs its text, and only once
+            String[] text = new String[1];
+            boolean[] read = new boolean[1];
+            Supplier<String> words = () -> {
+                if (!read[0]) {
+                    read[0] = true;
+                    text[0] = this.wordsOf(noteID);
+                }
+                return text[0];
+            };
+
+            boolean matches = true;
+            for (Step step : plan.filters) {
+                long checked = System.nanoTime();
+                step.in++;
+                matches = step.check.test(noteID, words);
+                step.nanos += System.nanoTime() - checked;
+                if (!matches) {
+                    break; // the other terms do not matter anymore
+                }
+                step.out++;
+            }
+            if (!matches) {
+                continue;
+            }
+
+            plan.matches++;
+            batch.add(noteID);
+            long now = System.nanoTime();
+            if (batch.size() >= BATCH || now - handed >= BATCH_NANOS) {
+                found.accept(batch);
+                batch = new ArrayList<>();
+                handed = now;
+            }
+            plan.runNanos = now - start;
+        }
+
+        if (!batch.isEmpty() && !plan.cancelled) {
+            found.accept(batch);
+        }
+        plan.runNanos = System.nanoTime() - start;
+        plan.finished = !plan.cancelled;
+    }
+
+    /**
+     * @return the words of a note in lower case, with a space around each of them (so " word " is a whole word),
+     *         or null if the note cannot be read
+     */
+    private String wordsOf(String noteID) {
+        try {
+            return " " + String.join(" ", HtmlConverter.wordsOf(this.texts.read(noteID))) + " ";
+        } catch (IOException e) {
+            return null; // a note that cannot be read matches nothing
+        }
+    }
+
+    /**
+     * @return the part of the notes that passes a check of a term that the given amount of notes match
+     */
+    private static double fraction(int count, int total, boolean negated) {
+        double part = total == 0 ? 0 : Math.min(1, (double) count / total);
+        return negated ? 1 - part : part;
+    }
+
+    /**
+     * @return the terms as they were typed, separated by spaces
+     */
+    private static String join(List<NoteQuery.Term> terms) {
+        List<String> typed = new ArrayList<>();
+        terms.forEach(term -> typed.add(term.toString()));
+        return String.join(" ", typed);
+    }
+}
@@ -0,0 +1,324 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the JavaFX Application Thread for stalls, the moments the program window freezes because a handler on
+ * that thread (e.g. reading a note from the disk, or rebuilding the notes list) takes too long.
+ * A background thread posts a heartbeat onto the watched thread every few millis. If the heartbeat did not run
+ * within the threshold, the thread is stalled: the watchdog takes the stack of the thread right then, together with
+ * the operations the thread said it is in (see begin()), and once the heartbeat runs it knows how long the stall
+ * was. The stalls are kept in a log of the last few of them (the oldest is dropped first), which the diagnostics
+ * window of the program shows and which can be saved into a file (see dump()). A stall that goes on for very long is
+ * dumped into the dump file by the background thread itself, since the frozen window cannot show it.
+ * This class does not use JavaFX, the heartbeats are posted through a function (e.g. Platform::runLater), so it can
+ * watch any thread that runs posted tasks.
+ * The stalls are timed with System.nanoTime(), so a change of the clock (e.g. it is set by the network, or the
+ * computer wakes up from sleep) is never taken for a stall; the clock is only read for when a stall began.
+ */
+public class StallWatchdog {
+    // the most stalls the log keeps
+    public static final int LOG_SIZE = 64;
+
+    // how long (in millis) a stall goes on before the background thread dumps the log itself
+    private static final long DUMP_AFTER = 5000;
+
+    // posts a task onto the watched thread
+    private final Consumer<Runnable> post;
+
+    // how long (in millis) the watched thread may take to run a heartbeat before it counts as stalled
+    private final long threshold;
+
+    // where the log is dumped when a stall goes on for very long, or null
+    private final Path dumpFile;
+
+    // the watched thread, and the operations it is in, the innermost last (changed by the watched thread, and read
+    // by the background thread when it sees a stall)
+    private volatile Thread watched;
+    private final Deque<String> operations = new ArrayDeque<>();
+
+    // the last stalls, the oldest first
+    private final Deque<Stall> log = new ArrayDeque<>();
+
+    // the amount of stalls since the start, including the ones dropped from the log
+    private long stalls;
+
+    private Thread thread;
+
+    /**
+     * Initializes a watchdog. The thread is watched once start() is called on it.
+     * @param post - posts a task onto the watched thread (e.g. Platform::runLater)
+     * @param threshold - how long (in millis) the thread may not respond before it counts as stalled
+     * @param dumpFile - where the log is dumped when a stall goes on for very long, or null for nowhere
+     */
+    public StallWatchdog(Consumer<Runnable> post, long threshold, Path dumpFile) {
+        this.post = post;
+        this.threshold = threshold;
+        this.dumpFile = dumpFile;
+    }
+
+    /**
+     * Starts watching the current thread, on a background thread. Must be called on the thread to watch.
+     */
+    public synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+
+        this.watched = Thread.currentThread();
+        this.thread = new Thread(this::watch, "gui101-watchdog");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the background thread started by start().
+     */
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    /**
+     * Posts a heartbeat and waits for it, over and over, until the background thread is stopped.
+     */
+    private void watch() {
+        // the heartbeats are checked 10 times per threshold, so a stall is seen at most a tenth too late
+        long step = Math.max(1, this.threshold / 10);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Heartbeat heartbeat = new Heartbeat();
+                this.post.accept(heartbeat);
+
+                Stall stall = null;
+                boolean dumped = false;
+                while (!heartbeat.isDone()) {
+                    TimeUnit.MILLISECONDS.sleep(step);
+                    long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - heartbeat.posted);
+                    if (stall == null && waited >= this.threshold) {
+                        // the stack right now shows what the thread is stuck in
+                        stall = new Stall(heartbeat.postedAt, this.operation(), this.watched.getStackTrace());
+                        this.add(stall);
+                    } else if (stall != null && !dumped && waited >= DUMP_AFTER && this.dumpFile != null) {
+                        dumped = true;
+                        this.dumpQuietly();
+                    }
+                }
+
+                if (stall != null) {
+                    stall.setMillis(TimeUnit.NANOSECONDS.toMillis(heartbeat.ran - heartbeat.posted));
+                }
+                TimeUnit.MILLISECONDS.sleep(step);
+            }
+        } catch (InterruptedException e) {
+            // the watchdog was stopped
+        }
+    }
+
+    /**
+     * Tells the watchdog which operation the watched thread is in, so a stall during it is logged with its name.
+     * Operations can be nested, a stall is logged with all of them. Must be called on the watched thread.
+     * @param name - what the thread is doing (e.g. "Listing the notes")
+     * @return the operation, which ends once it is closed
+     */
+    public Operation begin(String name) {
+        synchronized (this.operations) {
+            this.operations.addLast(name);
+        }
+        return () -> {
+            synchronized (this.operations) {
+                this.operations.removeLastOccurrence(name);
+            }
+        };
+    }
+
+    /**
+     * @return the operations the watched thread is in, the outermost first, or "" if it is in none
+     */
+    private String operation() {
+        synchronized (this.operations) {
+            return String.join(" > ", this.operations);
+        }
+    }
+
+    /**
+     * Adds a stall to the log, and drops the oldest stall if the log is full.
+     */
+    private synchronized void add(Stall stall) {
+        if (this.log.size() == LOG_SIZE) {
+            this.log.removeFirst();
+        }
+        this.log.addLast(stall);
+        this.stalls++;
+    }
+
+    /**
+     * @return the stalls in the log, the oldest first
+     */
+    public synchronized List<Stall> getLog() {
+        return new ArrayList<>(this.log);
+    }
+
+    /**
+     * @return the log as text: every stall with when it began, how long it took, its operations and the stack of the
+     *         watched thread when the stall was seen
+     */
+    public String toText() {
+        List<Stall> log = this.getLog();
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%d stalls longer than %d ms since the start, the last %d of them:%n", this.getStalls(), this.threshold, log.size()));
+        for (Stall stall : log) {
+            text.append(System.lineSeparator()).append(stall.toText());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the log into a file, replacing the file.
+     * @param file - the file
+     * @throws IOException if the file cannot be written
+     */
+    public void dump(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(this.toText());
+        }
+    }
+
+    /**
+     * Dumps the log into the dump file, from the background thread.
+     */
+    private void dumpQuietly() {
+        try {
+            this.dump(this.dumpFile);
+        } catch (IOException e) {
+            // the log is still shown in the diagnostics window once the program responds again
+        }
+    }
+
+    /**
+     * @return the amount of stalls since the start, including the ones dropped from the log
+     */
+    public synchronized long getStalls() {
+        return this.stalls;
+    }
+
+    /**
+     * @return how long (in millis) the thread may not respond before it counts as stalled
+     */
+    public long getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * An operation of the watched thread, which try-with-resources ends.
+     */
+    public interface Operation extends AutoCloseable {
+        /**
+         * Ends the operation.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * A task posted onto the watched thread, which remembers when it was posted and when it ran.
+     */
+    private static final class Heartbeat implements Runnable {
+        // when the heartbeat was posted and ran (System.nanoTime()), and the date it was posted (in millis)
+        private final long posted = System.nanoTime(), postedAt = System.currentTimeMillis();
+        private volatile long ran;
+        private volatile boolean done;
+
+        @Override
+        public void run() {
+            this.ran = System.nanoTime();
+            this.done = true;
+        }
+
+        boolean isDone() {
+            return this.done;
+        }
+    }
+
+    /**
+     * A stall of the watched thread.
+     */
+    public static final class Stall {
+        private final long began;
+        private final String operation;
+        private final StackTraceElement[] stack;
+
+        // how long the stall took (in millis), or -1 while it goes on
+        private volatile long millis = -1;
+
+        Stall(long began, String operation, StackTraceElement[] stack) {
+            this.began = began;
+            this.operation = operation;
+            this.stack = stack;
+        }
+
+        /**
+         * @return the stall as text, with the stack of the watched thread one frame per line
+         */
+        public String toText() {
+            StringBuilder text = new StringBuilder();
+            String format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(this.began));
+            text.append(format).append("  ").append(this.millis < 0 ? "still stalled" : this.millis + " ms");
+            text.append("  ").append(this.operation.isEmpty() ? "(no operation)" : this.operation).append(System.lineSeparator());
+            for (StackTraceElement frame : this.stack) {
+                text.append("    at ").append(frame).append(System.lineSeparator());
+            }
+            return text.toString();
+        }
+
+        /**
+         * @return when the stall began (in millis)
+         */
+        public long getBegan() {
+            return this.began;
+        }
+
+        /**
+         * @return the operations the watched thread was in, or "" for none
+         */
+        public String getOperation() {
+            return this.operation;
+        }
+
+        /**
+         * @return the stack of the watched thread when the stall was seen
+         */
+        public StackTraceElement[] getStack() {
+            return this.stack;
+        }
+
+        /**
+         * @return how long the stall took (in millis), or -1 while it goes on
+         */
+        public long getMillis() {
+            return this.millis;
+        }
+
+        /**
+         * Sets how long the stall took
+         * @param millis - the length of the stall (in millis)
+         */
+        void setMillis(long millis) {
+            this.millis = millis;
+        }
+    }
+}
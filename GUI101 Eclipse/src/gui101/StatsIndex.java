@@ -0,0 +1,89 @@
+package gui101;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the totals of all notes: how many notes there are, and their words, characters and bytes.
+ * The totals are the sums of the counts in the metadata of every note (see NoteStats), added up once when the notes
+ * are listed, and afterwards only changed by the difference a saved or deleted note makes, so the notes are never
+ * read again for them.
+ * A note whose metadata has no counts yet (e.g. a note saved before they existed, or a large note that is counted in
+ * the background, see NoteStore.fingerprint()) keeps the counts it had, until it is counted.
+ * Notes are counted on the gui101-fingerprint thread while the JavaFX thread shows the totals, so the methods
+ * are synchronized.
+ */
+public class StatsIndex {
+    // the counts and the size of every note
+    private final Map<String, NoteStats> stats = new HashMap<>();
+    private final Map<String, Long> sizes = new HashMap<>();
+
+    private long words, characters, bytes;
+
+    /**
+     * Adds a note to the totals, or replaces its counts with those of its new metadata.
+     * @param meta - the metadata of the note
+     */
+    public synchronized void put(NoteMeta meta) {
+        NoteStats old = this.stats.getOrDefault(meta.getStrID(), NoteStats.EMPTY);
+        NoteStats counted = meta.getStats().isKnown() ? meta.getStats() : old;
+        this.words += counted.getWords() - old.getWords();
+        this.characters += counted.getCharacters() - old.getCharacters();
+        this.stats.put(meta.getStrID(), counted);
+
+        Long size = this.sizes.put(meta.getStrID(), meta.getSize());
+        this.bytes += meta.getSize() - (size == null ? 0 : size);
+    }
+
+    /**
+     * Removes a deleted note from the totals.
+     * @param noteID - the note ID
+     */
+    public synchronized void remove(String noteID) {
+        NoteStats old = this.stats.remove(noteID);
+        if (old != null) {
+            this.words -= old.getWords();
+            this.characters -= old.getCharacters();
+        }
+        Long size = this.sizes.remove(noteID);
+        if (size != null) {
+            this.bytes -= size;
+        }
+    }
+
+    /**
+     * @param noteID - the note ID
+     * @return the counts of the note, or NoteStats.UNKNOWN if it is not in the index
+     */
+    public synchronized NoteStats get(String noteID) {
+        return this.stats.getOrDefault(noteID, NoteStats.UNKNOWN);
+    }
+
+    /**
+     * @return the number of notes
+     */
+    public synchronized int getNotes() {
+        return this.sizes.size();
+    }
+
+    /**
+     * @return the words of all notes
+     */
+    public synchronized long getWords() {
+        return this.words;
+    }
+
+    /**
+     * @return the characters of all notes, without whitespace
+     */
+    public synchronized long getCharacters() {
+        return this.characters;
+    }
+
+    /**
+     * @return the size of all notes (in bytes)
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+}
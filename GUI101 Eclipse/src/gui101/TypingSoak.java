@@ -0,0 +1,358 @@
+package gui101;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A soak test of typing into the editor (edText), for a build server: it types into notes of different sizes at a
+ * steady rate for a while, measures how long every keystroke takes to reach the screen, and fails (exit code 1) if
+ * the 99th percentile got slower than a limit or than the last accepted run.
+ * Every keystroke does what the editor's key handlers in Controller do: the key pressed handler enables the save
+ * button, and the key released handler reads the html of the whole note (getHtmlText()), finds the sample of the
+ * note in it (NoteData.sampleOf()) and updates the note in the sorted notes list (NoteList.update()), which the
+ * filtered list of the window sees.
+ * The keystrokes arrive at their time no matter how busy the program is, like a user who keeps typing, and are
+ * handled one pulse at a time on a thread of their own, which stands in for the JavaFX Application Thread: a pulse
+ * handles every keystroke that arrived since the last pulse, then the screen shows them. Three latencies are counted
+ * (see LatencyHistogram):
+ *  - handler, how long the key handlers of one keystroke took
+ *  - pulse, how long one pulse took
+ *  - screen, from the moment a key was typed until the pulse that handled it was over, which includes waiting for the
+ *    pulses before it (so a slow pulse shows in every keystroke that waited for it, not only in one)
+ * It uses the lists of JavaFX, but never starts JavaFX, so it runs without a display.
+ *
+ * Usage: java -cp <classes> gui101.TypingSoak [--rate <keys/s>] [--sizes <KB,KB,...>] [--seconds <s>] [--notes <count>]
+ *        [--max-p99 <ms>] [--baseline <file>] [--tolerance <percent>]
+ */
+public class TypingSoak {
+    // the keystrokes typed during the first second of every note are not counted, while the JIT warms up
+    private static final long WARMUP = TimeUnit.SECONDS.toNanos(1);
+
+    // a p99 within this much (in nanos) of the baseline is never a regression, it is only noise of the machine
+    private static final long NOISE = TimeUnit.MICROSECONDS.toNanos(500);
+
+    // what the typist types, over and over
+    private static final String TEXT = "the quick brown fox jumps over the lazy dog. ";
+
+    private final PrintStream out;
+
+    // keystrokes per second, the sizes of the notes typed into (in KB), how long to type into each (in seconds),
+    // and the amount of other notes in the notes list
+    private int rate = 15;
+    private int[] sizes = {1, 64, 512};
+    private int seconds = 20;
+    private int notes = 1000;
+
+    // the limit of the screen latency p99 (in millis, 0 for none), and the file of the last accepted run with
+    // how much slower (in percent) a run may be than it
+    private double maxP99;
+    private Path baseline;
+    private double tolerance = 20;
+
+    /**
+     * Initializes the soak test with the default settings.
+     * @param out - where the report is printed
+     */
+    public TypingSoak(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        TypingSoak soak = new TypingSoak(System.out);
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        try {
+            for (int i = 0; i + 1 < arguments.size(); i += 2) {
+                String value = arguments.get(i + 1);
+                switch (arguments.get(i)) {
+                    case "--rate": soak.setRate(Integer.parseInt(value)); break;
+                    case "--sizes": soak.setSizes(Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray()); break;
+                    case "--seconds": soak.setSeconds(Integer.parseInt(value)); break;
+                    case "--notes": soak.setNotes(Integer.parseInt(value)); break;
+                    case "--max-p99": soak.setMaxP99(Double.parseDouble(value)); break;
+                    case "--baseline": soak.setBaseline(Paths.get(value)); break;
+                    case "--tolerance": soak.setTolerance(Double.parseDouble(value)); break;
+                    default: throw new IllegalArgumentException(arguments.get(i));
+                }
+            }
+            if (arguments.size() % 2 != 0 || soak.rate <= 0 || soak.seconds <= 0) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("usage: gui101.TypingSoak [--rate <keys/s>] [--sizes <KB,KB,...>] [--seconds <s>] [--notes <count>]");
+            System.err.println("                         [--max-p99 <ms>] [--baseline <file>] [--tolerance <percent>]");
+            System.exit(2);
+        }
+
+        try {
+            System.exit(soak.run() ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Types into a note of every size, prints the latencies of each, and checks the screen latency p99 against the
+     * limit and the baseline. The baseline is written by the first run, delete it to accept a slower program.
+     * @return whether no p99 was over the limit or regressed past the baseline
+     * @throws IOException if the baseline cannot be read or written
+     */
+    public boolean run() throws IOException {
+        this.out.println(String.format(Locale.ROOT, "typing %d keys/s for %d s into every note, with %d notes in the list",
+                this.rate, this.seconds, this.notes));
+
+        Properties accepted = this.readBaseline();
+        Properties measured = new Properties();
+        boolean passed = true;
+        for (int size : this.sizes) {
+            Result result = this.type(size);
+            long p99 = result.getScreen().valueAt(99);
+            measured.setProperty(size + ".p99", String.valueOf(p99));
+
+            this.out.println("note of " + size + " KB:");
+            this.out.println("  handler " + result.getHandler().toText());
+            this.out.println("  pulse   " + result.getPulse().toText());
+            this.out.println("  screen  " + result.getScreen().toText());
+
+            if (this.maxP99 > 0 && p99 > this.maxP99 * 1_000_000) {
+                this.out.println(String.format(Locale.ROOT, "  FAILED: screen p99 is over the limit of %.3f ms", this.maxP99));
+                passed = false;
+            }
+            String before = accepted == null ? null : accepted.getProperty(size + ".p99");
+            if (before != null) {
+                long limit = Math.max((long) (Long.parseLong(before) * (1 + this.tolerance / 100)), Long.parseLong(before) + NOISE);
+                if (p99 > limit) {
+                    this.out.println(String.format(Locale.ROOT, "  FAILED: screen p99 regressed from %.3f ms (more than %.0f%% slower)",
+                            Long.parseLong(before) / 1e6, this.tolerance));
+                    passed = false;
+                }
+            }
+        }
+
+        if (this.baseline != null && accepted == null) {
+            try (OutputStream out = Files.newOutputStream(this.baseline)) {
+                measured.store(out, "The screen latency p99 (in nanos) of every note size, see TypingSoak.java");
+            }
+            this.out.println("baseline written to " + this.baseline);
+        }
+        this.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    /**
+     * @return the accepted p99 of every note size from the baseline file, or null if there is none yet
+     */
+    private Properties readBaseline() throws IOException {
+        if (this.baseline == null) {
+            return null;
+        }
+
+        Properties accepted = new Properties();
+        try (InputStream in = Files.newInputStream(this.baseline)) {
+            accepted.load(in);
+        } catch (NoSuchFileException e) {
+            return null; // the first run writes it
+        }
+        return accepted;
+    }
+
+    /**
+     * Types into one note for the configured time.
+     * @param size - the size of the note (in KB)
+     * @return the latencies
+     */
+    private Result type(int size) {
+        // the notes list of a window: the sorted notes, and the notes the tag filter shows
+        Random random = new Random(size);
+        ObservableList<NoteData> list = FXCollections.observableArrayList();
+        NoteList noteList = new NoteList(list);
+        List<NoteData> others = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < this.notes; i++) {
+            others.add(new NoteData(now - (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(365)), "Note " + i));
+        }
+        noteList.addAll(others);
+        FilteredList<NoteData> shown = new FilteredList<>(list, note -> true);
+        shown.addListener((ListChangeListener<NoteData>) c -> { });
+
+        // the note being typed into, and the caret in the middle of it
+        StringBuilder html = document(size * 1024, random);
+        NoteData selected = new NoteData(now, NoteData.sampleOf(html.toString()));
+        noteList.add(selected);
+        int[] caret = {html.length() / 2};
+        caret[0] = html.lastIndexOf("</p>", caret[0]);
+        AtomicBoolean saveEnabled = new AtomicBoolean();
+        long[] count = {0};
+
+        Result result = new Result();
+        Queue<Long> typed = new ConcurrentLinkedQueue<>();
+        AtomicBoolean scheduled = new AtomicBoolean();
+        ExecutorService fx = Executors.newSingleThreadExecutor(task -> new Thread(task, "gui101-soak-fx"));
+        long start = System.nanoTime(), interval = TimeUnit.SECONDS.toNanos(1) / this.rate;
+        long keys = (long) this.seconds * this.rate;
+
+        Runnable pulse = () -> {
+            scheduled.set(false);
+            long pulseStart = System.nanoTime();
+            List<Long> handled = new ArrayList<>();
+
+            // only the keys typed before the pulse started, the keys typed during it wait for the next pulse
+            for (int pending = typed.size(); pending > 0; pending--) {
+                long key = typed.poll();
+                // the editor puts the key into the note before the handlers see it
+                char c = TEXT.charAt((int) (count[0]++ % TEXT.length()));
+                html.insert(caret[0]++, c);
+
+                long handlerStart = System.nanoTime();
+                saveEnabled.set(true); // the key pressed handler
+                String text = html.toString(); // getHtmlText()
+                String sample = NoteData.sampleOf(text);
+                noteList.update(selected, note -> note.setStrSample(sample));
+                if (key - start >= WARMUP) result.getHandler().record(System.nanoTime() - handlerStart);
+                handled.add(key);
+            }
+
+            long pulseEnd = System.nanoTime();
+            if (pulseStart - start >= WARMUP) result.getPulse().record(pulseEnd - pulseStart);
+            for (long key : handled) {
+                if (key - start >= WARMUP) result.getScreen().record(pulseEnd - key);
+            }
+        };
+
+        // the typist keeps to the rate, even while the pulses fall behind
+        for (long i = 0; i < keys; i++) {
+            long at = start + i * interval;
+            for (long wait = at - System.nanoTime(); wait > 0; wait = at - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            typed.add(at);
+            if (scheduled.compareAndSet(false, true)) {
+                fx.execute(pulse);
+            }
+        }
+
+        fx.shutdown();
+        try {
+            fx.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    /**
+     * @return the html of a note of about the given size (in bytes), in paragraphs of words like the editor writes them
+     */
+    private static StringBuilder document(int size, Random random) {
+        String[] words = TEXT.trim().split(" ");
+        StringBuilder html = new StringBuilder(size + 64);
+        html.append("<html dir=\"ltr\"><head></head><body contenteditable=\"true\">");
+        while (html.length() < size) {
+            html.append("<p>");
+            for (int i = 5 + random.nextInt(60); i > 0; i--) {
+                html.append(words[random.nextInt(words.length)]).append(i == 1 ? "." : " ");
+            }
+            html.append("</p>");
+        }
+        return html.append("</body></html>");
+    }
+
+    /**
+     * The latencies of typing into one note.
+     */
+    private static final class Result {
+        private final LatencyHistogram handler = new LatencyHistogram(), pulse = new LatencyHistogram(), screen = new LatencyHistogram();
+
+        LatencyHistogram getHandler() {
+            return this.handler;
+        }
+
+        LatencyHistogram getPulse() {
+            return this.pulse;
+        }
+
+        LatencyHistogram getScreen() {
+            return this.screen;
+        }
+    }
+
+    /**
+     * Sets how many keys are typed per second
+     * @param rate - the keystrokes per second
+     */
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Sets the sizes of the notes typed into
+     * @param sizes - the sizes (in KB)
+     */
+    public void setSizes(int[] sizes) {
+        this.sizes = sizes;
+    }
+
+    /**
+     * Sets how long to type into every note
+     * @param seconds - the time (in seconds)
+     */
+    public void setSeconds(int seconds) {
+        this.seconds = seconds;
+    }
+
+    /**
+     * Sets the amount of other notes in the notes list
+     * @param notes - the amount of notes
+     */
+    public void setNotes(int notes) {
+        this.notes = notes;
+    }
+
+    /**
+     * Sets the limit of the screen latency p99
+     * @param maxP99 - the limit (in millis), or 0 for none
+     */
+    public void setMaxP99(double maxP99) {
+        this.maxP99 = maxP99;
+    }
+
+    /**
+     * Sets the file of the last accepted run, which the first run writes
+     * @param baseline - the file, or null for none
+     */
+    public void setBaseline(Path baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * Sets how much slower than the baseline a run may be
+     * @param tolerance - the tolerance (in percent)
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+}
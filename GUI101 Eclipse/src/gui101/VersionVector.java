@@ -0,0 +1,137 @@
+package gui101;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The version of a note across the machines it is synced between (see NoteSync): how many times each replica (the
+ * notes directory of one machine) changed the note. Comparing the vectors of two versions tells whether one version
+ * is based on the other (it counts at least as many changes of every replica), or whether they were changed on two
+ * machines at the same time without knowing about each other, which is a conflict.
+ * A version vector never changes, increment() and merge() return a new one.
+ */
+public final class VersionVector {
+    // the vector of a note that was never changed
+    public static final VersionVector EMPTY = new VersionVector(new TreeMap<>());
+
+    /**
+     * How two versions of a note are related.
+     */
+    public enum Order {
+        // the versions are the same
+        EQUAL,
+        // this version is older, the other version is based on it
+        BEFORE,
+        // this version is newer, it is based on the other version
+        AFTER,
+        // the versions were changed at the same time, neither is based on the other
+        CONCURRENT
+    }
+
+    // the amount of changes of every replica, sorted so the text of a vector is always the same
+    private final TreeMap<String, Long> counters;
+
+    private VersionVector(TreeMap<String, Long> counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Reads a vector from its text (see toText()).
+     * @param text - the text, e.g. "a1b2:3,c3d4:1", or an empty text for the empty vector
+     * @return the vector
+     * @throws IllegalArgumentException if the text is not a vector
+     */
+    public static VersionVector parse(String text) {
+        TreeMap<String, Long> counters = new TreeMap<>();
+        for (String part : text.split(",")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+
+            int colon = part.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Not a version vector: " + text);
+            }
+            counters.put(part.substring(0, colon), Long.parseLong(part.substring(colon + 1)));
+        }
+        return new VersionVector(counters);
+    }
+
+    /**
+     * @return the vector as text, e.g. "a1b2:3,c3d4:1"
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> counter : this.counters.entrySet()) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            text.append(counter.getKey()).append(':').append(counter.getValue());
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param replica - the ID of a replica
+     * @return the amount of changes of the replica
+     */
+    public long get(String replica) {
+        return this.counters.getOrDefault(replica, 0L);
+    }
+
+    /**
+     * @param replica - the ID of the replica that changed the note
+     * @return the vector of the changed note
+     */
+    public VersionVector increment(String replica) {
+        TreeMap<String, Long> counters = new TreeMap<>(this.counters);
+        counters.merge(replica, 1L, Long::sum);
+        return new VersionVector(counters);
+    }
+
+    /**
+     * @param other - another vector
+     * @return the vector that is based on both vectors, the largest count of every replica
+     */
+    public VersionVector merge(VersionVector other) {
+        TreeMap<String, Long> counters = new TreeMap<>(this.counters);
+        other.counters.forEach((replica, count) -> counters.merge(replica, count, Math::max));
+        return new VersionVector(counters);
+    }
+
+    /**
+     * @param other - another vector
+     * @return how this version is related to the other version
+     */
+    public Order compare(VersionVector other) {
+        boolean less = false, more = false;
+        for (Map.Entry<String, Long> counter : this.counters.entrySet()) {
+            long theirs = other.get(counter.getKey());
+            less |= counter.getValue() < theirs;
+            more |= counter.getValue() > theirs;
+        }
+        for (Map.Entry<String, Long> counter : other.counters.entrySet()) {
+            less |= this.get(counter.getKey()) < counter.getValue();
+        }
+
+        if (less && more) {
+            return Order.CONCURRENT;
+        }
+        return less ? Order.BEFORE : more ? Order.AFTER : Order.EQUAL;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof VersionVector && this.counters.equals(((VersionVector) other).counters);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.counters.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + this.toText() + "]";
+    }
+}
@@ -0,0 +1,403 @@
+package gui101;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative numbers, used by the TagIndex to store which notes have a tag.
+ * The numbers are split into chunks of 65536 by their upper 16 bits, and each chunk is stored in the smaller of
+ * two forms (the same idea as Roaring bitmaps):
+ *  - a sorted array of the lower 16 bits, while the chunk has at most 4096 numbers (2 bytes per number)
+ *  - a bit set of 65536 bits, once the chunk has more numbers than that (8 KB per chunk)
+ * Sets are combined (and, or, andNot) chunk by chunk, so tags that only few notes have are cheap to combine
+ * even with tags that almost every note has.
+ */
+public class Bitmap {
+    // the largest amount of numbers a chunk stores as an array before it becomes a bit set
+    private static final int ARRAY_MAX = 4096;
+
+    // the upper 16 bits of each chunk, sorted, and the chunks themselves (only the first 'size' are used)
+    private int[] keys = new int[4];
+    private Chunk[] chunks = new Chunk[4];
+    private int size;
+
+    /**
+     * Adds a number to the set.
+     * @param value - the number, which must not be negative
+     */
+    public void add(int value) {
+        int key = value >>> 16;
+        int at = this.find(key);
+        if (at < 0) {
+            at = -at - 1;
+            this.insert(at, key, new ArrayChunk());
+        }
+        this.chunks[at] = this.chunks[at].add((char) value);
+    }
+
+    /**
+     * Removes a number from the set.
+     * @param value - the number
+     */
+    public void remove(int value) {
+        int at = this.find(value >>> 16);
+        if (at < 0) {
+            return;
+        }
+
+        Chunk chunk = this.chunks[at].remove((char) value);
+        if (chunk.count() == 0) {
+            // empty chunks are removed, so every chunk in the set has at least one number
+            System.arraycopy(this.keys, at + 1, this.keys, at, this.size - at - 1);
+            System.arraycopy(this.chunks, at + 1, this.chunks, at, this.size - at - 1);
+            this.chunks[--this.size] = null;
+        } else {
+            this.chunks[at] = chunk;
+        }
+    }
+
+    /**
+     * @param value - a number
+     * @return whether the number is in the set
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+
+        int at = this.find(value >>> 16);
+        return at >= 0 && this.chunks[at].contains((char) value);
+    }
+
+    /**
+     * @return the amount of numbers in the set
+     */
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < this.size; i++) {
+            count += this.chunks[i].count();
+        }
+        return count;
+    }
+
+    /**
+     * Calls the consumer with every number in the set, from the smallest to the largest.
+     * @param consumer - receives the numbers
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < this.size; i++) {
+            this.chunks[i].forEach(this.keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * @param other - another set
+     * @return a new set with the numbers that are in both sets
+     */
+    public Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0, j = 0;
+        while (i < this.size && j < other.size) {
+            if (this.keys[i] < other.keys[j]) {
+                i++;
+            } else if (this.keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.append(this.keys[i], this.chunks[i++].and(other.chunks[j++]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other - another set
+     * @return a new set with the numbers that are in either set
+     */
+    public Bitmap or(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0, j = 0;
+        while (i < this.size || j < other.size) {
+            if (j == other.size || (i < this.size && this.keys[i] < other.keys[j])) {
+                result.append(this.keys[i], this.chunks[i++].copy());
+            } else if (i == this.size || this.keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.chunks[j++].copy());
+            } else {
+                result.append(this.keys[i], this.chunks[i++].or(other.chunks[j++]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other - another set
+     * @return a new set with the numbers of this set that are not in the other set
+     */
+    public Bitmap andNot(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int j = 0;
+        for (int i = 0; i < this.size; i++) {
+            while (j < other.size && other.keys[j] < this.keys[i]) {
+                j++;
+            }
+
+            boolean shared = j < other.size && other.keys[j] == this.keys[i];
+            result.append(this.keys[i], shared ? this.chunks[i].andNot(other.chunks[j]) : this.chunks[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the chunk with the given upper 16 bits, or (-(insertion point) - 1) if there is none
+     */
+    private int find(int key) {
+        return Arrays.binarySearch(this.keys, 0, this.size, key);
+    }
+
+    /**
+     * Inserts a chunk at the given index, growing the arrays if needed.
+     */
+    private void insert(int at, int key, Chunk chunk) {
+        if (this.size == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, this.size * 2);
+            this.chunks = Arrays.copyOf(this.chunks, this.size * 2);
+        }
+
+        System.arraycopy(this.keys, at, this.keys, at + 1, this.size - at);
+        System.arraycopy(this.chunks, at, this.chunks, at + 1, this.size - at);
+        this.keys[at] = key;
+        this.chunks[at] = chunk;
+        this.size++;
+    }
+
+    /**
+     * Adds a chunk after the last chunk, unless it is empty. Used while building the result of a combination.
+     */
+    private void append(int key, Chunk chunk) {
+        if (chunk.count() > 0) {
+            this.insert(this.size, key, chunk);
+        }
+    }
+
+    /**
+     * The numbers of a set that share the same upper 16 bits. Only the lower 16 bits are stored, as chars.
+     * Adding and removing may change the form of the chunk, so the returned chunk replaces the old one.
+     */
+    private interface Chunk {
+        Chunk add(char value);
+
+        Chunk remove(char value);
+
+        boolean contains(char value);
+
+        int count();
+
+        void forEach(int high, IntConsumer consumer);
+
+        Chunk copy();
+
+        BitsChunk toBits();
+
+        default Chunk and(Chunk other) {
+            if (this instanceof ArrayChunk && other instanceof ArrayChunk) {
+                return ((ArrayChunk) this).and((ArrayChunk) other);
+            }
+            return this.toBits().combine(other.toBits(), 0).shrink();
+        }
+
+        default Chunk or(Chunk other) {
+            return this.toBits().combine(other.toBits(), 1).shrink();
+        }
+
+        default Chunk andNot(Chunk other) {
+            return this.toBits().combine(other.toBits(), 2).shrink();
+        }
+    }
+
+    /**
+     * A chunk stored as a sorted array of at most ARRAY_MAX values.
+     */
+    private static class ArrayChunk implements Chunk {
+        private char[] values = new char[4];
+        private int count;
+
+        @Override
+        public Chunk add(char value) {
+            int at = Arrays.binarySearch(this.values, 0, this.count, value);
+            if (at >= 0) {
+                return this;
+            }
+
+            if (this.count == ARRAY_MAX) {
+                // the array would be larger than the bit set, so the chunk changes its form
+                return this.toBits().add(value);
+            }
+
+            at = -at - 1;
+            if (this.count == this.values.length) {
+                this.values = Arrays.copyOf(this.values, Math.min(ARRAY_MAX, this.count * 2));
+            }
+            System.arraycopy(this.values, at, this.values, at + 1, this.count - at);
+            this.values[at] = value;
+            this.count++;
+            return this;
+        }
+
+        @Override
+        public Chunk remove(char value) {
+            int at = Arrays.binarySearch(this.values, 0, this.count, value);
+            if (at >= 0) {
+                System.arraycopy(this.values, at + 1, this.values, at, this.count - at - 1);
+                this.count--;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return Arrays.binarySearch(this.values, 0, this.count, value) >= 0;
+        }
+
+        @Override
+        public int count() {
+            return this.count;
+        }
+
+        @Override
+        public void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < this.count; i++) {
+                consumer.accept(high | this.values[i]);
+            }
+        }
+
+        @Override
+        public Chunk copy() {
+            ArrayChunk copy = new ArrayChunk();
+            copy.values = Arrays.copyOf(this.values, Math.max(1, this.count));
+            copy.count = this.count;
+            return copy;
+        }
+
+        @Override
+        public BitsChunk toBits() {
+            BitsChunk bits = new BitsChunk();
+            for (int i = 0; i < this.count; i++) {
+                bits.words[this.values[i] >>> 6] |= 1L << this.values[i];
+            }
+            bits.count = this.count;
+            return bits;
+        }
+
+        /**
+         * Intersects two arrays by walking through both of them once.
+         */
+        private Chunk and(ArrayChunk other) {
+            ArrayChunk result = new ArrayChunk();
+            result.values = new char[Math.max(1, Math.min(this.count, other.count))];
+            int i = 0, j = 0;
+            while (i < this.count && j < other.count) {
+                if (this.values[i] < other.values[j]) {
+                    i++;
+                } else if (this.values[i] > other.values[j]) {
+                    j++;
+                } else {
+                    result.values[result.count++] = this.values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A chunk stored as a bit set of 65536 bits.
+     */
+    private static class BitsChunk implements Chunk {
+        private final long[] words = new long[1024];
+        private int count;
+
+        @Override
+        public Chunk add(char value) {
+            long before = this.words[value >>> 6];
+            this.words[value >>> 6] |= 1L << value;
+            if (before != this.words[value >>> 6]) {
+                this.count++;
+            }
+            return this;
+        }
+
+        @Override
+        public Chunk remove(char value) {
+            long before = this.words[value >>> 6];
+            this.words[value >>> 6] &= ~(1L << value);
+            if (before != this.words[value >>> 6]) {
+                this.count--;
+            }
+            return this.shrink();
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return (this.words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        public int count() {
+            return this.count;
+        }
+
+        @Override
+        public void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < this.words.length; i++) {
+                long word = this.words[i];
+                while (word != 0) {
+                    consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        public Chunk copy() {
+            BitsChunk copy = new BitsChunk();
+            System.arraycopy(this.words, 0, copy.words, 0, this.words.length);
+            copy.count = this.count;
+            return copy;
+        }
+
+        @Override
+        public BitsChunk toBits() {
+            return this;
+        }
+
+        /**
+         * Combines two bit sets word by word into a new bit set.
+         * @param operation - 0 for and, 1 for or, 2 for and not
+         */
+        private BitsChunk combine(BitsChunk other, int operation) {
+            BitsChunk result = new BitsChunk();
+            for (int i = 0; i < this.words.length; i++) {
+                long word = operation == 0 ? this.words[i] & other.words[i]
+                        : operation == 1 ? this.words[i] | other.words[i]
+                        : this.words[i] & ~other.words[i];
+                result.words[i] = word;
+                result.count += Long.bitCount(word);
+            }
+            return result;
+        }
+
+        /**
+         * @return this chunk, or the same values as an array once there are few enough of them
+         */
+        private Chunk shrink() {
+            if (this.count > ARRAY_MAX) {
+                return this;
+            }
+
+            ArrayChunk array = new ArrayChunk();
+            array.values = new char[Math.max(1, this.count)];
+            this.forEach(0, value -> array.values[array.count++] = (char) value);
+            return array;
+        }
+    }
+}
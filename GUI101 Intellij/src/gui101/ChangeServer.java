@@ -0,0 +1,140 @@
+package gui101;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Lets other tools on the machine follow the changelog of the notes (see NoteChangelog) through a socket, instead of
+ * reading the changelog file themselves. It only listens on the local machine.
+ * A tool connects and sends one line, "FROM <offset>" (0 for the first event, or where the last event it handled
+ * ends), and then receives every event from there on as one line of text (see NoteChangelog.Event.toText()), the
+ * events that happen later too, until it closes the connection. A line "OK" is sent every few seconds while there
+ * is nothing new, so the tool can tell the connection is still alive. An offset where no event starts (e.g. one
+ * that is negative, or points into the middle of an event) is answered with a line "ERROR ..." and the connection
+ * is closed, since nothing could ever be read from there.
+ * Every connection reads the changelog file on its own, at its own pace, and only sends the next events once the
+ * tool took the ones before (the socket's send buffer is full otherwise, which makes the connection's thread wait).
+ * So a slow tool only holds up itself: it neither holds up saving the notes nor the other tools, and nothing piles
+ * up in memory for it.
+ */
+public class ChangeServer {
+    // the most events read from the changelog and sent at once
+    private static final int BATCH = 256;
+
+    // how long (in millis) a connection waits for new events before it checks the changelog file again (another
+    // process might have appended to it) and tells the tool it is still alive
+    private static final long IDLE = 2000;
+
+    private final NoteChangelog changelog;
+    private final ServerSocket serverSocket;
+
+    /**
+     * Starts listening on a port of the local machine. Connections are accepted once start() is called.
+     * @param changelog - the changelog to send
+     * @param port - the port, or 0 for any free port (see getPort())
+     * @throws IOException if the port cannot be opened
+     */
+    public ChangeServer(NoteChangelog changelog, int port) throws IOException {
+        this.changelog = changelog;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Accepts connections on a background thread, and serves every connection on a thread of its own.
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    Thread connection = new Thread(() -> this.serve(socket), "gui101-changes-connection");
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    // the server was stopped, or the connection failed before it was accepted
+                }
+            }
+        }, "gui101-changes");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections. Connections that are open are served until the tools close them.
+     */
+    public void stop() {
+        try {
+            this.serverSocket.close();
+        } catch (IOException e) {
+            // the server is stopped either way
+        }
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sends the events of the changelog to one tool, from the offset it asked for, until it closes the connection.
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            long offset;
+            try {
+                String request = in.readLine();
+                offset = Long.parseLong(request.substring("FROM ".length()).trim());
+            } catch (NullPointerException | IndexOutOfBoundsException | NumberFormatException e) {
+                out.write("ERROR expected FROM <offset>\n");
+                return;
+            }
+            if (!this.changelog.isBoundary(offset)) {
+                out.write("ERROR no event starts at " + offset + "\n");
+                return;
+            }
+
+            while (!s.isClosed()) {
+                long end = this.changelog.getEnd();
+                List<NoteChangelog.Event> events = this.changelog.read(offset, BATCH);
+                if (events.isEmpty()) {
+                    // wait for events appended after the read, even if this process's events already end past the
+                    // offset (e.g. the changelog file was replaced), or the connection would only spin
+                    long before = System.currentTimeMillis();
+                    this.changelog.await(Math.max(offset, end), IDLE);
+                    if (System.currentTimeMillis() - before >= IDLE) {
+                        out.write("OK\n");
+                        out.flush();
+                    }
+                    continue;
+                }
+
+                // the whole batch goes out at once, the write waits while the tool has not taken the last batch yet
+                for (NoteChangelog.Event event : events) {
+                    out.write(event.toText());
+                    out.write('\n');
+                }
+                out.flush();
+                offset = events.get(events.size() - 1).getNext();
+            }
+        } catch (InterruptedException e) {
+            // the connection's thread was stopped
+        } catch (IOException e) {
+            // the tool went away, or the changelog cannot be read right now and the tool connects again
+        }
+    }
+}
@@ -1,29 +1,69 @@
 package gui101;
 
 import javafx.application.Platform;
-import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.Node;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.RadioMenuItem;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.ToggleGroup;
+import javafx.scene.input.Clipboard;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.VBox;
 import javafx.scene.web.HTMLEditor;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import netscape.javascript.JSObject;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Stream;
+import java.util.function.Consumer;
 
 public class Controller implements Initializable {
     private float yOffset, xOffset;
@@ -34,7 +74,16 @@ public class Controller implements Initializable {
     private AnchorPane pnlTool;
 
     @FXML
-    private Button btnMinimize, btnMaximize, btnExit, btnSave, btnNew, btnDelete;
+    private Label lblNotebook;
+
+    @FXML
+    private Button btnMinimize, btnMaximize, btnExit, btnSave, btnNew, btnDelete, btnExport, btnImport, btnTags, btnDuplicates, btnLink, btnReplace;
+
+    @FXML
+    private TextField tfFilter, tfQuery;
+
+    @FXML
+    private ProgressBar pbTask;
 
     @FXML
     private HTMLEditor edText;
@@ -42,17 +91,161 @@ public class Controller implements Initializable {
     @FXML
     private ListView<NoteData> lvNotes;
 
+    @FXML
+    private ListView<NoteData> lvRelated, lvBacklinks, lvDamaged;
+
+    @FXML
+    private Tab tabBacklinks, tabIntegrity;
+
+    @FXML
+    private Label lblIntegrity;
+
+    // the word count of the selected note, and the totals of all notes, below the notes list
+    @FXML
+    private Label lblNoteStats, lblTotals;
+
+    @FXML
+    private NotePreview pvNote;
+
+    @FXML
+    private AnchorPane pnlPager;
+
+    @FXML
+    private Button btnPrevPage, btnNextPage;
+
+    @FXML
+    private Label lblPage;
+
+    @FXML
+    private AnchorPane pnlFind;
+
+    @FXML
+    private TextField tfFind;
+
+    @FXML
+    private Button btnFindPrev, btnFindNext, btnFindClose;
+
+    @FXML
+    private Label lblFind;
+
     private String selectedNoteID;
 
+    // the checksum the note in the editor had when it was loaded, so saving it never throws away the changes made to
+    // it in another window in the meantime, or null if it is not known
+    private String loadedChecksum;
+
+    // the notes of the notes directory, which this window shares with the other windows of the program
+    private NoteModel model;
+
     private ObservableList<NoteData> notes;
 
+    // keeps the notes sorted, every change to the notes list goes through it
+    private NoteList noteList;
+
+    // whether the notes list is being rearranged, while the selection changes only because a note moved,
+    // and the note that was selected in this window before
+    private boolean rearranging;
+    private NoteData rearranged;
+
+    // the tags of every note, and the notes that match the tag filter (tfFilter), or null if there is no filter
+    private TagIndex tagIndex;
+    private Bitmap filterMatches;
+
+    // the notes shown in the notes list, which are only the notes that match the tag filter
+    private FilteredList<NoteData> shownNotes;
+
+    // the fingerprints of every note, used to find near-duplicate notes
+    private DuplicateIndex duplicateIndex;
+
+    // the words of every note, used to find the notes related to the selected note (lvRelated)
+    private RelatedIndex relatedIndex;
+
+    // the notes are indexed and the related notes are found on their own background threads, one task at a time
+    private ExecutorService relatedIndexer, relatedFinder;
+
+    // counts the searches for related notes, so that only the result of the latest search is shown
+    private int relatedSearch;
+
+    // the links between the notes, used to show the notes that link to the selected note (lvBacklinks)
+    private LinkIndex linkIndex;
+
+    // the word counts and sizes of every note, and their totals (lblTotals)
+    private StatsIndex statsIndex;
+
+    // the word count of the note in the editor, kept up to date from the edits (see watchEdits()), or null
+    private NoteStats editedStats;
+
+    // the notes by the date they were last modified, used by the searches of tfQuery (see QueryEngine)
+    private DateIndex dateIndex;
+
+    private NoteStore store;
+
+    // checks the notes against their checksums in the background, the damaged notes are shown in lvDamaged
+    private NoteScrubber scrubber;
+
+    // the note being edited page by page, or null if the note is small enough to be edited as a whole
+    private LargeNote largeNote;
+
+    // the page of the large note shown in the editor, and whether the user changed it since it was shown
+    private int page;
+    private boolean pageEdited;
+
+    // the matches of the find bar (pnlFind) are counted on a background thread, one search at a time
+    private ExecutorService noteFinder;
+
+    // the notes are normalized and saved on a background thread, one save at a time, which the program waits for
+    // before it exits (it is not a daemon thread)
+    private ExecutorService saver;
+
+    // the note the saver saved last, and which checksum each of its saves replaced with which (only used by the saver)
+    private String savingNoteID;
+    private final Map<String, String> savedChecksums = new HashMap<>();
+
+    // counts the searches of the find bar, so that a search that is not needed anymore stops early
+    private volatile int findSearch;
+
+    // the notes the search (tfQuery) found so far, or null if there is no search, and how it was run (see QueryEngine)
+    private Set<String> queryMatches;
+    private QueryEngine.Plan queryPlan;
+
+    // the searches run on their own background thread, one at a time, and are counted so that a search that is not
+    // needed anymore stops early
+    private ExecutorService queryRunner;
+    private volatile int querySearch;
+
+    // the rows of the notes list painted from the last session (see NoteSession), as they were painted, until the
+    // notes are listed in the background and merged with them
+    private Map<String, NoteData> restoredRows;
+
+    // the amount of matches on each page of the note (one page for a note that is not large), or null,
+    // and the index of the highlighted match among all of them
+    private int[] findCounts;
+    private int findMatch;
+
     /**
      * Initializes the object instance with default values for the non-fxml
-     * attributes.
+     * attributes. The notes, indexes and note store are shared with the other windows on the same notebook.
+     * @param directory - the notes directory of the notebook the window shows (see Notebooks)
      */
-    public Controller() {
-         this.setNotes(FXCollections.observableArrayList());
+    public Controller(Path directory) {
+         this.setModel(NoteModel.of(directory));
+         this.setNotes(this.getModel().getNotes());
+         this.setNoteList(this.getModel().getNoteList());
+         this.setTagIndex(this.getModel().getTagIndex());
+         this.setDuplicateIndex(this.getModel().getDuplicateIndex());
+         this.setRelatedIndex(this.getModel().getRelatedIndex());
+         this.setLinkIndex(this.getModel().getLinkIndex());
+         this.setStatsIndex(this.getModel().getStatsIndex());
+         this.setDateIndex(this.getModel().getDateIndex());
+         this.relatedIndexer = Executors.newSingleThreadExecutor(task -> this.daemon(task, "gui101-related-index"));
+         this.relatedFinder = Executors.newSingleThreadExecutor(task -> this.daemon(task, "gui101-related-find"));
+         this.noteFinder = Executors.newSingleThreadExecutor(task -> this.daemon(task, "gui101-find"));
+         this.queryRunner = Executors.newSingleThreadExecutor(task -> this.daemon(task, "gui101-query"));
+         this.saver = Executors.newSingleThreadExecutor(task -> new Thread(task, "gui101-save"));
+         this.setShownNotes(new FilteredList<>(this.getNotes(), note -> this.isShown(note)));
          this.setSelectedNoteID("");
+         this.setStore(this.getModel().getStore());
+         this.setScrubber(this.getModel().getScrubber());
     }
 
     /**
@@ -72,10 +265,60 @@ public class Controller implements Initializable {
      */
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-       this.lvNotes.setItems(this.getNotes()); // assign the list of NoteData to the notes ListView
+       this.lvNotes.setItems(this.getShownNotes()); // assign the list of (filtered) NoteData to the notes ListView
 
         // change the default lvNotes' cell factory with the custom made NoteCell class
-       this.lvNotes.setCellFactory(param -> new NoteCell());
+       this.lvNotes.setCellFactory(param -> new NoteCell(this.getNoteList(), this.getModel().getThumbnails()));
+
+        // add a menu to the notes list that changes the order of the notes
+        ContextMenu sortMenu = new ContextMenu();
+        ToggleGroup sortGroup = new ToggleGroup();
+        for (NoteList.Order order : NoteList.Order.values()) {
+            RadioMenuItem item = new RadioMenuItem("Sort by " + order.getStrName());
+            item.setToggleGroup(sortGroup);
+            item.setSelected(order == this.getNoteList().getOrder());
+            item.setOnAction(v -> this.rearrange(() -> this.getNoteList().setOrder(order)));
+            sortMenu.getItems().add(item);
+        }
+
+        // the menu also opens the selected note in another window, which shares the notes with this one
+        MenuItem windowItem = new MenuItem("Open in New Window");
+        windowItem.setOnAction(v -> this.openWindow());
+
+        // and shows the moments the program froze (see StallWatchdog)
+        MenuItem diagnosticsItem = new MenuItem("Diagnostics...");
+        diagnosticsItem.setOnAction(v -> this.showDiagnostics());
+
+        // and shows how the search (tfQuery) was run
+        MenuItem explainItem = new MenuItem("Explain Search...");
+        explainItem.setOnAction(v -> this.explainQuery());
+
+        // and shows a thumbnail of every note below its sample (see NoteThumbnails), in every window of the notebook
+        CheckMenuItem thumbnailsItem = new CheckMenuItem("Show Thumbnails");
+        thumbnailsItem.setSelected(this.getModel().getThumbnails().isEnabled());
+        thumbnailsItem.setOnAction(v -> {
+            this.getModel().getThumbnails().setEnabled(thumbnailsItem.isSelected());
+            for (Controller window : this.getModel().getWindows()) {
+                window.lvNotes.refresh();
+            }
+        });
+        sortMenu.getItems().addAll(new SeparatorMenuItem(), windowItem, diagnosticsItem, explainItem, thumbnailsItem);
+        this.lvNotes.setContextMenu(sortMenu);
+
+        // show only the sample of each related note and backlink, and select the note in the notes list when it is clicked
+        this.lvRelated.setCellFactory(param -> this.sampleCell());
+        this.lvRelated.setOnMouseClicked(v -> this.selectNote(this.lvRelated.getSelectionModel().getSelectedItem()));
+        this.lvBacklinks.setCellFactory(param -> this.sampleCell());
+        this.lvBacklinks.setOnMouseClicked(v -> this.selectNote(this.lvBacklinks.getSelectionModel().getSelectedItem()));
+        this.lvDamaged.setCellFactory(param -> this.sampleCell());
+        this.lvDamaged.setOnMouseClicked(v -> this.selectNote(this.lvDamaged.getSelectionModel().getSelectedItem()));
+
+        // the damaged notes are the same in every window, and the integrity tab counts them whenever they change
+        this.lvDamaged.setItems(this.getModel().getDamaged());
+        this.lvDamaged.getItems().addListener((ListChangeListener<NoteData>) c -> this.showIntegrity());
+
+        // select the linked note whenever a link to another note is clicked in the preview
+        this.pvNote.setOnLink(noteID -> this.followLink(noteID));
 
         // add an event listener that calls the save function whenever btnSave is clicked
         this.btnSave.setOnAction(v -> this.save());
@@ -85,31 +328,83 @@ public class Controller implements Initializable {
 
         // add an event listener whenever a cell in lvNotes is clicked
         this.lvNotes.getSelectionModel().selectedItemProperty().addListener(((observable, oldValue, newValue) -> {
+            if (this.rearranging) {
+                return; // the selected note only moved in the list, it is selected again once it is in its new place
+            }
+
             /*
                 make sure there is still data inside the notes variable,
                 this is to assure the program that there is something to display,
                 when a specific cell in the list is selected
              */
-            if (this.getNotes().size() > 0) {
+            if (this.getNotes().size() > 0 && newValue != null) {
                 // change the selectedNoteID variable with the noteID in the selected cell in the list
                 this.setSelectedNoteID(newValue.getStrID());
 
-                // load the note onto the editor with the new selectedNoteID
-                this.loadNote(this.getSelectedNoteID());
+                // the find bar belongs to the note that was in the editor
+                this.closeFind();
+
+                /*
+                    show the note in the read-only preview, which is much faster than loading it into the editor,
+                    the note is only loaded into the editor once the user starts editing it
+                 */
+                try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Showing a note")) {
+                    this.previewNote(this.getSelectedNoteID());
+                }
             } else {
 
+
                 /*
                     if there is no data in the list, then an error has occurred,
                     and nothing should be displayed in the editor.
                  */
                 this.disableEditor();
                 this.clearEditor();
+                this.showEditor();
             }
+
+            // find the notes related to the selected note in the background, after the note is already shown
+            this.findRelated();
+
+            // show the notes that link to the selected note, which are already in the link index
+            this.showBacklinks();
+
+            // show the word count of the selected note, which is already in the stats index
+            this.showStats();
         }));
 
+        // start editing the previewed note whenever the user clicks on the preview or presses enter on it
+        this.pvNote.setOnMouseClicked(v -> this.startEditing());
+        this.pvNote.setOnKeyPressed(v -> {
+            if (v.getCode() == KeyCode.ENTER) this.startEditing();
+            else if (v.isControlDown() && v.getCode() == KeyCode.F) this.openFind();
+        });
+
+        // a paste of formatted text (CTRL+V or SHIFT+INSERT) is cleaned up before the editor sees it, see pasteHtml()
+        this.edText.addEventFilter(KeyEvent.KEY_PRESSED, v -> {
+            boolean paste = (v.isControlDown() && v.getCode() == KeyCode.V) || (v.isShiftDown() && v.getCode() == KeyCode.INSERT);
+            if (paste && this.pasteHtml()) v.consume();
+
+            // the edits are counted from now on, before the key changes the note (see watchEdits())
+            this.watchEdits();
+        });
+
         // add an event listener to the editor whenever the user presses a key while focusing on the editor
         this.edText.setOnKeyPressed(v -> {
+            // CTRL+F opens the find bar below the editor
+            if (v.isControlDown() && v.getCode() == KeyCode.F) {
+                this.openFind();
+                return;
+            }
+
+            // CTRL+PAGE UP and CTRL+PAGE DOWN move between the pages of a large note
+            if (this.getLargeNote() != null && v.isControlDown() && (v.getCode() == KeyCode.PAGE_UP || v.getCode() == KeyCode.PAGE_DOWN)) {
+                this.showPage(this.page + (v.getCode() == KeyCode.PAGE_UP ? -1 : 1));
+                return;
+            }
+
             this.enableSave(); // this makes sure that whatever key the users pressed, the save button is enabled
+            this.pageEdited = true; // the page of a large note has to be kept once the user leaves it
 
             if (v.isControlDown() && v.getCode() == KeyCode.S) // check if the user press CTRL+S
                 this.save(); // automatically save the note
@@ -117,29 +412,95 @@ public class Controller implements Initializable {
 
         // add an event listener to the editor whenever the user lifts a key after pressing it
         this.edText.setOnKeyReleased(v -> {
+            // update the word count of the note with what the key changed, without reading the whole note
+            this.countEdits();
+
+            // the note sample only comes from the first page of a large note
+            if (this.getLargeNote() != null && this.page != 0) {
+                return;
+            }
+
             /**
              * this changes the note sample whenever the user changes the first 20 characters in the editor,
              * after updating the note sample, refresh the notes list to update its GUI
              */
-            this.lvNotes.getSelectionModel().getSelectedItem().setStrSample(String.format("%.20s", this.edText.getHtmlText().replaceAll("</p>", "</p>\n").replaceAll("<[^>]*>", "").replaceAll("&[^;]*;", " ")));
-            this.lvNotes.refresh();
+            NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+            if (selected == null) {
+                return; // there is no note in the list to update
+            }
+
+            try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Typing")) {
+                String sample = NoteData.sampleOf(this.edText.getHtmlText());
+                this.rearrange(() -> this.getNoteList().update(selected, note -> note.setStrSample(sample)));
+            }
+        });
+
+        // filter the notes list whenever the user changes the tag filter
+        this.tfFilter.textProperty().addListener((observable, oldValue, newValue) -> this.applyFilter());
+
+        // search the notes whenever the user changes the search
+        this.tfQuery.textProperty().addListener((observable, oldValue, newValue) -> this.runQuery());
+
+        // add an event listener whenever the btnTags button is clicked
+        this.btnTags.setOnAction(v -> this.editTags());
+
+        // add an event listener whenever the btnDuplicates button is clicked
+        this.btnDuplicates.setOnAction(v -> this.reviewDuplicates());
+
+        // add an event listener whenever the btnLink button is clicked
+        this.btnLink.setOnAction(v -> this.insertLink());
+
+        // find the text in the note whenever the user changes the text in the find bar
+        this.tfFind.textProperty().addListener((observable, oldValue, newValue) -> this.findInNote());
+
+        // ENTER highlights the next match, SHIFT+ENTER the previous one, and ESCAPE closes the find bar
+        this.tfFind.setOnKeyPressed(v -> {
+            if (v.getCode() == KeyCode.ENTER) {
+                this.moveMatch(v.isShiftDown() ? -1 : 1);
+            } else if (v.getCode() == KeyCode.ESCAPE) {
+                this.closeFind();
+                this.edText.requestFocus();
+            }
+        });
+
+        // add event listeners that move between the matches of the find bar, and close it
+        this.btnFindPrev.setOnAction(v -> this.moveMatch(-1));
+        this.btnFindNext.setOnAction(v -> this.moveMatch(1));
+        this.btnFindClose.setOnAction(v -> {
+            this.closeFind();
+            this.edText.requestFocus();
         });
 
+        // add an event listener whenever the btnReplace button is clicked
+        this.btnReplace.setOnAction(v -> this.replaceInNotes());
+
+        // add event listeners that move between the pages of a large note
+        this.btnPrevPage.setOnAction(v -> this.showPage(this.page - 1));
+        this.btnNextPage.setOnAction(v -> this.showPage(this.page + 1));
+
         // add an event listener whenever the user clicks on the btnNew button
         this.btnNew.setOnAction(v -> {
             this.enableSave(); // enables the save button
             this.enableEditor(); // enables the editor
             this.enableDelete(); // enables the delete button
 
+            // a new note has no tags and no text, so it would be hidden by the tag filter and the search
+            this.tfFilter.setText("");
+            this.tfQuery.setText("");
+
             NoteData note = new NoteData(); // instantiate a new NoteData object
-            this.getNotes().add(note); // add the new NoteData object to the notes variable
+            this.getTagIndex().put(note.getStrID(), note.getTags()); // a new note has no tags yet
+            this.getNoteList().add(note); // add the new NoteData object at its place in the notes list
 
             // call the newNote function with the unique ID generated by the new NoteData object,
             // and create the necessary file
             this.newNote(note.getStrID());
 
-            // select the newest note in the list to load it into the editor
-            this.lvNotes.getSelectionModel().selectLast();
+            // select the new note in the list and load it into the editor, since the user wants to write in it
+            this.lvNotes.getSelectionModel().select(note);
+            this.lvNotes.scrollTo(note);
+            this.lvNotes.refresh();
+            this.startEditing();
         });
 
         // adds an event listener whenever the btnDelete button is clicked
@@ -149,12 +510,419 @@ public class Controller implements Initializable {
             this.disableDelete(); // disables the delete button
 
             // call the delete function and delete the file with the same name as the selectedNoteID
-            this.delete();
+            try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Deleting a note")) {
+                this.delete();
+            }
+        });
+
+        // add an event listener whenever the btnExport button is clicked
+        this.btnExport.setOnAction(v -> this.export());
+
+        // add an event listener whenever the btnImport button is clicked
+        this.btnImport.setOnAction(v -> this.importNotes());
+
+        // show the name of the notebook in the toolbar, clicking it switches to another notebook
+        String notebook = Notebooks.load().nameOf(this.getModel().getDirectory());
+        this.lblNotebook.setText(notebook == null ? this.getModel().getDirectory().getFileName().toString() : notebook);
+        this.lblNotebook.setOnMouseClicked(v -> this.showNotebooks(v.getScreenX(), v.getScreenY()));
+
+        // the other windows rearrange the shared notes list too, and keep the selection of this window while they do
+        this.getModel().getWindows().add(this);
+
+        // the first window opens the notes, the windows opened after it show the notes it already listed
+        if (!this.getModel().isLoaded()) {
+            /*
+                finish the changes that were interrupted if the program crashed, then remove the snapshots and
+                temporary files it left behind, unless another program (e.g. another copy of this program, or the
+                command line) has the notes open right now
+             */
+            this.open();
+            this.getModel().setLoaded(true);
+
+            // paint the notes list and open the note of the last session right away, from the session file alone,
+            // so the user can go on where they stopped before the notes are listed
+            NoteSession session = NoteSession.read(this.getStore());
+            if (session != null) {
+                try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Restoring the last session")) {
+                    this.restore(session);
+                }
+            }
+
+            // list the pre-existing notes inside the 'notes' subdirectory in the background, and merge them into
+            // the notes list, the background work starts once they are listed
+            this.listNotes();
+        } else {
+            this.startBackgroundWork();
+        }
+    }
+
+    /**
+     * Starts the work the notes need in the background, once they are listed (the first window starts it).
+     */
+    private void startBackgroundWork() {
+        // start checking the notes for damage in the background
+        this.startScrubber();
+        this.showIntegrity();
+
+        // start syncing the notes with the sync server in the background, if the program was started with one
+        this.startSync();
+
+        // shrink the notes saved before they were normalized, once, in the background
+        this.startCleaner();
+    }
+
+    /**
+     * Shows what the window showed when the program was closed: the rows of the notes list around the note at its
+     * top, and the selected note in the preview, or in the editor with the caret and the scroll bar where they were.
+     * The rows are only the ones saved in the session, the other notes are added once they are listed.
+     * @param session - the last session of the notes
+     */
+    private void restore(NoteSession session) {
+        // remember the rows as they are painted, the user might change them before the notes are listed
+        this.restoredRows = new HashMap<>();
+        for (NoteData row : session.getRows()) {
+            NoteData copy = new NoteData(row.getDate(), row.getStrSample());
+            copy.setModified(row.getModified());
+            copy.setTags(row.getTags());
+            this.restoredRows.put(row.getStrID(), copy);
+            this.getTagIndex().put(row.getStrID(), row.getTags());
+        }
+        this.getNoteList().addAll(session.getRows());
+
+        NoteData top = session.getTopNoteID() == null ? null : this.getNoteList().get(session.getTopNoteID());
+        if (top != null) {
+            this.lvNotes.scrollTo(top);
+        }
+
+        // selecting the note shows it in the preview, which only reads that note
+        NoteData selected = session.getSelectedNoteID() == null ? null : this.getNoteList().get(session.getSelectedNoteID());
+        if (selected == null) {
+            return;
+        }
+        this.lvNotes.getSelectionModel().select(selected);
+        if (session.isEditing() && this.pvNote.isVisible()) {
+            this.startEditing();
+            if (this.getLargeNote() != null && session.getPage() > 0) {
+                this.showPage(session.getPage());
+            }
+
+            // the editor loads the note first, the caret can only be placed after that
+            Platform.runLater(() -> this.restoreEditor(session.getCaret(), session.getScroll()));
+        }
+    }
+
+    /**
+     * Writes what the window shows into the session of the notes (see NoteSession), when the window is closed.
+     * The last window that is closed decides what the next start shows.
+     */
+    private void saveSession() {
+        NoteSession session = new NoteSession();
+        NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+        session.setSelectedNoteID(selected == null ? null : selected.getStrID());
+
+        // the note was being edited if it is in the editor instead of the preview
+        if (selected != null && this.edText.isVisible() && !this.edText.isDisable()) {
+            session.setEditing(true);
+            session.setPage(this.getLargeNote() == null ? 0 : this.page);
+            Node view = this.edText.lookup(".web-view");
+            if (view instanceof WebView) {
+                // the caret is counted in characters of text, which stays right as long as the note is not changed
+                Object caret = ((WebView) view).getEngine().executeScript("(function () {"
+                        + "var selection = window.getSelection();"
+                        + "if (selection.rangeCount == 0) return -1;"
+                        + "var range = document.createRange();"
+                        + "range.selectNodeContents(document.body);"
+                        + "range.setEnd(selection.focusNode, selection.focusOffset);"
+                        + "return range.toString().length;"
+                        + "})()");
+                Object scroll = ((WebView) view).getEngine().executeScript("window.pageYOffset");
+                session.setCaret(caret instanceof Number ? ((Number) caret).intValue() : -1);
+                session.setScroll(scroll instanceof Number ? ((Number) scroll).doubleValue() : 0.0);
+            }
+        }
+
+        // the rows start at the first row the notes list shows, which is the first visible cell
+        List<NoteData> shown = this.getShownNotes();
+        int first = shown.size();
+        for (Node node : this.lvNotes.lookupAll(".list-cell")) {
+            if (node instanceof NoteCell && node.isVisible() && !((NoteCell) node).isEmpty()) {
+                first = Math.min(first, ((NoteCell) node).getIndex());
+            }
+        }
+        if (first < shown.size()) {
+            session.setTopNoteID(shown.get(first).getStrID());
+            session.getRows().addAll(shown.subList(first, Math.min(first + NoteSession.MAX_ROWS, shown.size())));
+        }
+        if (selected != null && !session.getRows().contains(selected)) {
+            session.getRows().add(selected);
+        }
+
+        try {
+            session.write(this.getStore());
+        } catch (IOException e) {
+            // the next start lists the notes without the last session, like the first start
+        }
+    }
+
+    /**
+     * Places the caret of the editor and scrolls it to where they were in the last session.
+     * @param caret - the caret offset in characters of text, or -1
+     * @param scroll - how far the editor was scrolled down (in pixels)
+     */
+    private void restoreEditor(int caret, double scroll) {
+        Node view = this.edText.lookup(".web-view");
+        if (!(view instanceof WebView)) {
+            return; // the caret stays at the start of the note
+        }
+
+        ((WebView) view).getEngine().executeScript("(function (caret, scroll) {"
+                + "var walker = document.createTreeWalker(document.body, NodeFilter.SHOW_TEXT, null, false);"
+                + "for (var node = walker.nextNode(); caret >= 0 && node; node = walker.nextNode()) {"
+                + "if (caret <= node.length) { window.getSelection().collapse(node, caret); break; }"
+                + "caret -= node.length; }"
+                + "window.scrollTo(0, scroll);"
+                + "})(" + caret + ", " + scroll + ");");
+        this.edText.requestFocus();
+    }
+
+    /**
+     * Opens the notes directory for the program, which finishes the changes to the notes that a crash interrupted
+     * (from the journal of the note store), unless another program already has the directory open.
+     */
+    private void open() {
+        try {
+            this.getStore().open();
+        } catch (IOException e) {
+            // if the changes cannot be finished, show an alert window, they are tried again on the next start
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle("Failed to Recover");
+            a.setHeaderText("Yikes!");
+            a.setContentText("Some changes from before the program closed can't be finished right now, we'll try again next time.");
+            a.showAndWait();
+        }
+    }
+
+    /**
+     * Opens another program window on the same notes, which shows the selected note of this window.
+     * Both windows can edit notes at the same time, a note that is saved in one window while the other one is
+     * editing it is never overwritten without asking (see save()).
+     */
+    private void openWindow() {
+        NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+        try {
+            Controller window = Main.openWindow(new Stage(), this.getModel().getDirectory());
+
+            // place the new window a little below and to the right of this one, so both can be seen
+            window.getStage().setX(this.getStage().getX() + 30);
+            window.getStage().setY(this.getStage().getY() + 30);
+            window.selectNote(selected);
+        } catch (IOException e) {
+            // if the window cannot be loaded, show an alert window
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Failed to Open a Window");
+            a.setHeaderText("Hmm?");
+            a.setContentText("We can't open another window right now, try again later.");
+            a.showAndWait();
+        }
+    }
+
+    /**
+     * Shows the diagnostics window, with the log of the moments the program froze: when, for how long, what it was
+     * doing and where it was stuck (see StallWatchdog). The log can be saved into a file, e.g. to attach it to a bug
+     * report.
+     */
+    private void showDiagnostics() {
+        StallWatchdog watchdog = Main.getWatchdog();
+        TextArea taLog = new TextArea(watchdog.toText());
+        taLog.setEditable(false);
+
+        ButtonType saveLog = new ButtonType("Save Log...");
+        Alert a = new Alert(Alert.AlertType.INFORMATION, "", saveLog, ButtonType.CLOSE);
+        a.setTitle("Diagnostics");
+        a.setHeaderText(watchdog.getStalls() == 0 ? "The program didn't freeze so far."
+                : "The program froze " + watchdog.getStalls() + " times for more than " + watchdog.getThreshold() + " ms.");
+        a.getDialogPane().setContent(taLog);
+        if (!a.showAndWait().filter(b -> b == saveLog).isPresent()) {
+            return; // the user closed the window
+        }
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Save Log");
+        chooser.setInitialFileName("stalls.log");
+        File file = chooser.showSaveDialog(this.getStage());
+        if (file == null) {
+            return; // the user closed the dialog
+        }
+
+        try {
+            watchdog.dump(file.toPath());
+        } catch (IOException e) {
+            // if the log cannot be written, show an alert window
+            Alert failed = new Alert(Alert.AlertType.INFORMATION);
+            failed.setTitle("Failed to Save the Log");
+            failed.setHeaderText("Uh Oh!");
+            failed.setContentText("We can't save the log there right now, try again later.");
+            failed.showAndWait();
+        }
+    }
+
+    /**
+     * Shows the notebooks below the notebook name (lblNotebook): every notebook to switch to, the one of this window
+     * checked, and an item that creates a new notebook.
+     * @param x - where the menu is shown on the screen
+     * @param y - where the menu is shown on the screen
+     */
+    private void showNotebooks(double x, double y) {
+        // the notebooks are read again every time, the command line might have created one in the meantime
+        Notebooks notebooks = Notebooks.load();
+        String current = notebooks.nameOf(this.getModel().getDirectory());
+
+        ContextMenu menu = new ContextMenu();
+        ToggleGroup group = new ToggleGroup();
+        for (String name : notebooks.getNames()) {
+            RadioMenuItem item = new RadioMenuItem(NoteCipher.isEncrypted(notebooks.directoryOf(name)) ? name + " (encrypted)" : name);
+            item.setToggleGroup(group);
+            item.setSelected(name.equals(current));
+            item.setOnAction(v -> this.switchNotebook(notebooks, name));
+            menu.getItems().add(item);
+        }
+
+        MenuItem newItem = new MenuItem("New Notebook...");
+        newItem.setOnAction(v -> this.newNotebook(notebooks, false));
+        MenuItem encryptedItem = new MenuItem("New Encrypted Notebook...");
+        encryptedItem.setOnAction(v -> this.newNotebook(notebooks, true));
+        menu.getItems().addAll(new SeparatorMenuItem(), newItem, encryptedItem);
+        menu.show(this.lblNotebook, x, y);
+    }
+
+    /**
+     * Asks the user for the name of a new notebook (and the password of an encrypted one), creates it and
+     * switches to it.
+     * @param notebooks - the notebooks, as they were shown
+     * @param encrypted - true to create an encrypted notebook (see NoteCipher)
+     */
+    private void newNotebook(Notebooks notebooks, boolean encrypted) {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle(encrypted ? "New Encrypted Notebook" : "New Notebook");
+        dialog.setHeaderText("Name the new notebook");
+        dialog.setContentText("Name:");
+        Optional<String> name = dialog.showAndWait();
+        if (!name.isPresent()) {
+            return; // the user cancelled
+        }
+
+        // the password is chosen before the notebook is created, so cancelling never leaves an unencrypted one behind
+        Optional<char[]> password = encrypted ? new PasswordDialog(name.get().trim(), true).showAndWait() : Optional.empty();
+        if (encrypted && !password.isPresent()) {
+            return; // the user cancelled
+        }
+
+        try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Creating a notebook")) {
+            // the notebook is only listed once it is encrypted, so a failed encryption leaves no notebook behind
+            notebooks.add(name.get(), directory -> {
+                if (password.isPresent()) {
+                    NoteCipher.encrypt(directory, password.get());
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            // the name is empty or taken, show an alert window
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Failed to Create a Notebook");
+            a.setHeaderText("Hold on!");
+            a.setContentText("Every notebook needs a name of its own, and there's already a notebook with that name.");
+            a.showAndWait();
+            return;
+        } catch (IOException e) {
+            // if the notebooks cannot be written, show an alert window
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Failed to Create a Notebook");
+            a.setHeaderText("Uh Oh!");
+            a.setContentText("We can't create the notebook right now, try again later.");
+            a.showAndWait();
+            return;
+        } finally {
+            password.ifPresent(chars -> Arrays.fill(chars, ' '));
+        }
+        this.switchNotebook(notebooks, name.get().trim());
+    }
+
+    /**
+     * Replaces this window with a window on another notebook, at the same place. The note being edited is saved
+     * first, and if it cannot be saved the window stays, unless the user throws the changes away. The notebook of
+     * this window is closed a few minutes after its last window (see NoteModel.released()).
+     * The notebook becomes the active notebook, which the program opens the next time it starts.
+     * @param notebooks - the notebooks, as they were shown
+     * @param name - the name of the notebook
+     */
+    private void switchNotebook(Notebooks notebooks, String name) {
+        Path directory = notebooks.directoryOf(name);
+        if (directory == null || directory.toAbsolutePath().normalize().equals(this.getModel().getDirectory())) {
+            return; // the window shows the notebook already
+        }
+        if (!PasswordDialog.unlock(name, directory)) {
+            return; // the notebook is encrypted, and the user did not unlock it
+        }
+
+        // the window is replaced once the note is saved, which is always on the JavaFX Application Thread
+        CompletableFuture<Boolean> saved = this.btnSave.isDisable() ? CompletableFuture.completedFuture(true) : this.save();
+        saved.thenAccept(ok -> {
+            if (!ok) {
+                // the changes would be lost with the window, so the user decides
+                Alert a = new Alert(Alert.AlertType.CONFIRMATION);
+                a.setTitle("Discard Changes?");
+                a.setHeaderText("Wait a second!");
+                a.setContentText("This note was not saved, do you want to switch notebooks and throw your changes away?");
+                Optional<ButtonType> answer = a.showAndWait();
+                if (!answer.isPresent() || answer.get() != ButtonType.OK) {
+                    return; // the window stays, with the changes in the editor
+                }
+            }
+
+            try {
+                notebooks.setActive(name);
+            } catch (IOException e) {
+                // the window is switched anyway, only the next start opens the notebook it opened before
+            }
+
+            try {
+                Controller window = Main.openWindow(new Stage(), directory);
+                window.getStage().setX(this.getStage().getX());
+                window.getStage().setY(this.getStage().getY());
+                window.getStage().setMaximized(this.getStage().isMaximized());
+                this.getStage().close();
+            } catch (IOException e) {
+                // if the window cannot be loaded, show an alert window
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setTitle("Failed to Switch Notebooks");
+                a.setHeaderText("Hmm?");
+                a.setContentText("We can't open the notebook right now, try again later.");
+                a.showAndWait();
+            }
         });
+    }
 
-        // load the pre-existing notes inside the 'notes' subdirectory,
-        // and add each note file into the note list
-        this.loadNotes();
+    /**
+     * Forgets the window once it is closed, and exits the program once the last window of every notebook is closed.
+     */
+    private void closed() {
+        // the next start shows what this window showed
+        this.saveSession();
+        this.getModel().getWindows().remove(this);
+
+        // let the background threads of the window finish what they are doing, and end
+        this.relatedIndexer.shutdown();
+        this.relatedFinder.shutdown();
+        this.noteFinder.shutdown();
+        this.querySearch++; // a search that is still running stops
+        this.queryRunner.shutdown();
+        this.saver.shutdown(); // the notes that are still being saved are written before the program exits
+        this.getModel().updateOpenNotes();
+
+        if (NoteModel.windowCount() == 0) {
+            Platform.exit(); // make sure the program fully closed by exiting the executable
+        } else {
+            this.getModel().released(); // the notebook is closed after a while if this was its last window
+        }
     }
 
     /**
@@ -174,12 +942,11 @@ public class Controller implements Initializable {
         /**
          * add an event listener to whenever the user clicks the btnExit button.
          * this code makes sure that all actions currently going on in the program
-         * (e.g. creating a new file, delete a file, updating a file), are over before the program exits
+         * (e.g. creating a new file, delete a file, updating a file), are over before the window closes,
+         * the program exits once its last window is closed
          */
-        this.btnExit.setOnAction(v -> Platform.runLater(() -> {
-            this.stage.close(); // close the program window
-            Platform.exit(); // make sure the program fully closed by exiting the executable
-        }));
+        this.btnExit.setOnAction(v -> Platform.runLater(() -> this.stage.close()));
+        this.stage.setOnHidden(v -> this.closed());
 
         // add an event listener to whenever the user clicks the btnMinimize button,
         // this sets the maximized attribute of the stage to false
@@ -236,6 +1003,7 @@ public class Controller implements Initializable {
      */
     public void setSelectedNoteID(String selectedNoteID) {
         this.selectedNoteID = selectedNoteID;
+        this.getModel().updateOpenNotes(); // the cleaner leaves the selected notes alone
     }
 
     /**
@@ -246,6 +1014,37 @@ public class Controller implements Initializable {
         this.notes = notes;
     }
 
+    /**
+     * Sets the notes this window shares with the other windows
+     * @param model - the note model
+     */
+    public void setModel(NoteModel model) {
+        this.model = model;
+    }
+
+    /**
+     * @return the notes this window shares with the other windows
+     */
+    public NoteModel getModel() {
+        return this.model;
+    }
+
+    /**
+     * Sets the store that reads and writes the note files
+     * @param store - the note store
+     */
+    public void setStore(NoteStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets the large note that is edited page by page
+     * @param largeNote - the large note, or null if the note is edited as a whole
+     */
+    public void setLargeNote(LargeNote largeNote) {
+        this.largeNote = largeNote;
+    }
+
     /**
      * @return returns the stage/window assigned to the object
      */
@@ -275,137 +1074,1537 @@ public class Controller implements Initializable {
     }
 
     /**
-     * @return returns the notes list assigned to the object
+     * Sets the sorted notes list
+     * @param noteList - the sorted notes list
      */
-    public ObservableList<NoteData> getNotes() {
-        return this.notes;
+    public void setNoteList(NoteList noteList) {
+        this.noteList = noteList;
     }
 
     /**
-     * Enables the save button (btnSave)
+     * @return returns the sorted notes list, which keeps the notes in order
      */
-    private void enableSave() {
-        this.btnSave.setOpacity(1);
-        this.btnSave.setDisable(false);
+    public NoteList getNoteList() {
+        return this.noteList;
     }
 
     /**
-     * Enables the editor (edText)
+     * Sets the tag index
+     * @param tagIndex - the tag index
      */
-    private void enableEditor() {
-        this.edText.setDisable(false);
+    public void setTagIndex(TagIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
+    /**
+     * @return returns the index of the tags of every note
+     */
+    public TagIndex getTagIndex() {
+        return this.tagIndex;
+    }
+
+    /**
+     * Sets the notes shown in the notes list
+     * @param shownNotes - the filtered notes
+     */
+    public void setShownNotes(FilteredList<NoteData> shownNotes) {
+        this.shownNotes = shownNotes;
+    }
+
+    /**
+     * @return returns the notes shown in the notes list, which match the tag filter
+     */
+    public FilteredList<NoteData> getShownNotes() {
+        return this.shownNotes;
+    }
+
+    /**
+     * Sets the duplicate index
+     * @param duplicateIndex - the duplicate index
+     */
+    public void setDuplicateIndex(DuplicateIndex duplicateIndex) {
+        this.duplicateIndex = duplicateIndex;
+    }
+
+    /**
+     * @return returns the index of the fingerprints of every note
+     */
+    public DuplicateIndex getDuplicateIndex() {
+        return this.duplicateIndex;
+    }
+
+    /**
+     * Sets the related notes index
+     * @param relatedIndex - the related notes index
+     */
+    public void setRelatedIndex(RelatedIndex relatedIndex) {
+        this.relatedIndex = relatedIndex;
+    }
+
+    /**
+     * @return returns the index of the words of every note
+     */
+    public RelatedIndex getRelatedIndex() {
+        return this.relatedIndex;
+    }
+
+    /**
+     * Sets the link index
+     * @param linkIndex - the link index
+     */
+    public void setLinkIndex(LinkIndex linkIndex) {
+        this.linkIndex = linkIndex;
+    }
+
+    /**
+     * Sets the stats index
+     * @param statsIndex - the stats index
+     */
+    public void setStatsIndex(StatsIndex statsIndex) {
+        this.statsIndex = statsIndex;
+    }
+
+    /**
+     * Sets the date index
+     * @param dateIndex - the date index
+     */
+    public void setDateIndex(DateIndex dateIndex) {
+        this.dateIndex = dateIndex;
+    }
+
+    /**
+     * Sets the scrubber that checks the notes for damage
+     * @param scrubber - the scrubber
+     */
+    public void setScrubber(NoteScrubber scrubber) {
+        this.scrubber = scrubber;
+    }
+
+    /**
+     * @return returns the index of the links between the notes
+     */
+    public LinkIndex getLinkIndex() {
+        return this.linkIndex;
+    }
+
+    /**
+     * @return returns the word counts and sizes of every note, and their totals
+     */
+    public StatsIndex getStatsIndex() {
+        return this.statsIndex;
+    }
+
+    /**
+     * @return returns the notes by the date they were last modified
+     */
+    public DateIndex getDateIndex() {
+        return this.dateIndex;
+    }
+
+    /**
+     * @return returns the scrubber that checks the notes for damage
+     */
+    public NoteScrubber getScrubber() {
+        return this.scrubber;
+    }
+
+    /**
+     * @return returns the notes list assigned to the object
+     */
+    public ObservableList<NoteData> getNotes() {
+        return this.notes;
+    }
+
+    /**
+     * @return returns the store that reads and writes the note files
+     */
+    public NoteStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * @return returns the large note that is edited page by page, or null if the note is edited as a whole
+     */
+    public LargeNote getLargeNote() {
+        return this.largeNote;
+    }
+
+    /**
+     * Enables the save button (btnSave)
+     */
+    private void enableSave() {
+        this.btnSave.setOpacity(1);
+        this.btnSave.setDisable(false);
+    }
+
+    /**
+     * Enables the editor (edText)
+     */
+    private void enableEditor() {
+        this.edText.setDisable(false);
     }
 
     /**
      * Enables the delete button (btnDelete)
      */
-    public void enableDelete() {
-        this.btnDelete.setDisable(false);
+    public void enableDelete() {
+        this.btnDelete.setDisable(false);
+    }
+
+    /**
+     * Disables the save button (btnSave)
+     */
+    private void disableSave() {
+        this.btnSave.setOpacity(0);
+        this.btnSave.setDisable(true);
+    }
+
+    /**
+     * Disables the editor (edText)
+     */
+    private void disableEditor() {
+        this.edText.setDisable(true);
+    }
+
+    /**
+     * Disables the delete button (btnDelete)
+     */
+    public void disableDelete() {
+        this.btnDelete.setDisable(true);
+    }
+
+    /**
+     * Clears the editor (edText)
+     */
+    public void clearEditor() {
+        this.edText.setHtmlText("");
+        this.editedStats = null;
+        this.showStats();
+    }
+
+    /**
+     * Starts counting the edits of the note in the editor, unless they are counted already: a script in the
+     * editor's page watches its text change, and adds up the words and characters each change added or removed.
+     * The page is replaced whenever a note or a page is loaded, so this runs again before every key press.
+     */
+    private void watchEdits() {
+        Node view = this.edText.lookup(".web-view");
+        if (!(view instanceof WebView) || this.editedStats == null) {
+            return; // the counts are only shown for notes that were counted when they were saved
+        }
+
+        // only the text that changed is counted, a change inside a word may count it twice until the note is saved
+        ((WebView) view).getEngine().executeScript("(function () {"
+                + "if (window.gui101Edits) return;"
+                + "var edits = window.gui101Edits = [0, 0];"
+                + "function count(text, sign) {"
+                + "var words = 0, characters = 0, inWord = false;"
+                + "for (var i = 0; i < text.length; i++) {"
+                + "if (/\\s/.test(text.charAt(i))) { inWord = false; } else { characters++; if (!inWord) { words++; inWord = true; } }"
+                + "}"
+                + "edits[0] += sign * words; edits[1] += sign * characters;"
+                + "}"
+                + "new MutationObserver(function (records) {"
+                + "var added = [], changed = [];"
+                + "records.forEach(function (record) {"
+                + "if (record.type == 'childList') {"
+                + "for (var i = 0; i < record.addedNodes.length; i++) { added.push(record.addedNodes[i]); count(record.addedNodes[i].textContent, 1); }"
+                + "for (var i = 0; i < record.removedNodes.length; i++) { count(record.removedNodes[i].textContent, -1); }"
+                + "} else if (added.indexOf(record.target) == -1 && changed.indexOf(record.target) == -1) {"
+                + "changed.push(record.target); count(record.oldValue || '', -1); count(record.target.data, 1);"
+                + "}"
+                + "});"
+                + "}).observe(document.body, { childList: true, subtree: true, characterData: true, characterDataOldValue: true });"
+                + "})();");
+    }
+
+    /**
+     * Adds the words and characters the edits since the last key added or removed to the word count of the note
+     * in the editor, and shows it.
+     */
+    private void countEdits() {
+        Node view = this.edText.lookup(".web-view");
+        if (!(view instanceof WebView) || this.editedStats == null) {
+            return;
+        }
+
+        Object edits = ((WebView) view).getEngine().executeScript("(function () {"
+                + "var edits = window.gui101Edits;"
+                + "if (!edits) return null;"
+                + "var counted = edits[0] + ' ' + edits[1];"
+                + "edits[0] = 0; edits[1] = 0;"
+                + "return counted;"
+                + "})()");
+        if (edits instanceof String && !"0 0".equals(edits)) {
+            String[] counted = ((String) edits).split(" ");
+            NoteStats delta = new NoteStats(Long.parseLong(counted[0]), Long.parseLong(counted[1]));
+            NoteStats stats = this.editedStats.plus(delta);
+            this.editedStats = new NoteStats(Math.max(0, stats.getWords()), Math.max(0, stats.getCharacters()));
+            this.showStats();
+        }
+    }
+
+    /**
+     * Shows the word count of the selected note (as it is in the editor, while it is edited) and the totals of all
+     * notes below the notes list. The totals count the note in the editor as it is, before it is saved.
+     */
+    private void showStats() {
+        NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+        NoteStats saved = selected == null ? NoteStats.UNKNOWN : this.getStatsIndex().get(selected.getStrID());
+        boolean editing = selected != null && this.editedStats != null && this.edText.isVisible() && !this.edText.isDisable();
+        NoteStats shown = editing ? this.editedStats : saved;
+
+        if (shown.isKnown()) {
+            this.lblNoteStats.setText(String.format("%,d words, %,d characters, %d min read",
+                    shown.getWords(), shown.getCharacters(), shown.getReadingMinutes()));
+        } else {
+            this.lblNoteStats.setText(selected == null ? "" : "Counting the words...");
+        }
+
+        long words = this.getStatsIndex().getWords();
+        if (editing && saved.isKnown()) {
+            words += this.editedStats.getWords() - saved.getWords();
+        }
+        long bytes = this.getStatsIndex().getBytes();
+        String size = bytes < 1024 * 1024 ? String.format("%.1f KB", bytes / 1024.0) : String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        this.lblTotals.setText(String.format("%,d notes, %,d words, %s", this.getStatsIndex().getNotes(), words, size));
+    }
+
+    /**
+     * Saves the data into a specific file.
+     * The filename format is: <the selected note id>.note
+     * The file is also saved in the sub directory "notes"
+     * The html of the editor is normalized (see HtmlNormalizer) and written on a background thread (saver), one save
+     * at a time, so saving a long note never freezes the window. A large note is saved right away instead, since its
+     * pages are copied from the note file the editor still reads from.
+     * @return completes on the JavaFX Application Thread once the note is saved, with true, or with false if it could
+     *         not be saved or the user did not want to replace the changes of another window
+     */
+    private CompletableFuture<Boolean> save() {
+        if (this.getLargeNote() != null) {
+            try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Saving a large note")) {
+                return CompletableFuture.completedFuture(this.saveLarge());
+            }
+        }
+
+        // the save button comes back if the user types again while the note is being saved
+        this.disableSave();
+        return this.save(this.getSelectedNoteID(), this.edText.getHtmlText(), this.loadedChecksum);
+    }
+
+    /**
+     * Normalizes and saves the html of a note on the background thread (saver), then updates the window.
+     * @param noteID - the note ID, the user might select another note before the save is done
+     * @param html - the html of the editor
+     * @param expected - the checksum the note had when it was loaded, or null to save it no matter what
+     * @return completes on the JavaFX Application Thread once the note is saved, with true, or with false if it was not
+     */
+    private CompletableFuture<Boolean> save(String noteID, String html, String expected) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        this.saver.execute(() -> {
+            /*
+                a save that is still waiting for the window (see saved()) already replaced the checksum this one
+                expects, so the note is expected to have the checksum that save wrote
+             */
+            String current = expected;
+            if (!noteID.equals(this.savingNoteID)) {
+                this.savingNoteID = noteID;
+                this.savedChecksums.clear();
+            } else if (current != null && this.savedChecksums.containsKey(current)) {
+                current = this.savedChecksums.get(current);
+            }
+
+            NoteMeta meta = null;
+            IOException error = null;
+            try {
+                // the line breaks after each paragraph that make the note file more readable are added by the normalizer
+                meta = this.getStore().write(noteID, HtmlNormalizer.document().normalize(html), current);
+
+                // every checksum an earlier save of the note replaced is now replaced by this one
+                String checksum = meta.getChecksum();
+                this.savedChecksums.replaceAll((from, to) -> checksum);
+                if (expected != null) this.savedChecksums.put(expected, checksum);
+                if (current != null) this.savedChecksums.put(current, checksum);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            NoteMeta saved = meta;
+            IOException failed = error;
+            Platform.runLater(() -> {
+                if (failed == null) {
+                    // the note in the editor is now the saved note, unless another note was loaded in the meantime
+                    if (noteID.equals(this.getSelectedNoteID()) && Objects.equals(expected, this.loadedChecksum)) {
+                        this.loadedChecksum = saved.getChecksum();
+                    }
+                    this.saved(noteID, saved, false);
+                    done.complete(true);
+                } else if (failed instanceof NoteStore.ConflictException) {
+                    // ask the user whether their changes should replace the changes made in the other window
+                    Alert a = new Alert(Alert.AlertType.CONFIRMATION);
+                    a.setTitle("Save Anyway?");
+                    a.setHeaderText("Hold on!");
+                    a.setContentText("This note was changed in another window since you opened it, do you want to replace those changes with yours?");
+                    Optional<ButtonType> answer = a.showAndWait();
+                    if (answer.isPresent() && answer.get() == ButtonType.OK) {
+                        if (noteID.equals(this.getSelectedNoteID())) this.loadedChecksum = null; // save the note no matter what
+                        this.save(noteID, html, null).thenAccept(done::complete);
+                    } else {
+                        if (noteID.equals(this.getSelectedNoteID())) this.enableSave(); // the changes are still not saved
+                        done.complete(false);
+                    }
+                } else {
+                    // if the file does not exist or some other error occurred, show an alert window
+                    Alert a = new Alert(Alert.AlertType.WARNING);
+                    a.setTitle("Failed to Save");
+                    a.setHeaderText("Uh Oh!");
+                    a.setContentText("I don't think we can save this note right now, try again later.");
+
+                    // show the alert window but make the program window wait for the users response before enabling
+                    // the main program window again
+                    a.showAndWait();
+                    if (noteID.equals(this.getSelectedNoteID())) this.enableSave();
+                    done.complete(false);
+                }
+            });
+        });
+        return done;
+    }
+
+    /**
+     * Saves the large note in the editor. It only has one page in the editor, so the edited pages are written from
+     * memory and the rest is copied from the old note file.
+     * @return whether the note was saved
+     */
+    private boolean saveLarge() {
+        try {
+            this.keepPage();
+            LargeNote note = this.getLargeNote();
+            NoteMeta meta = this.getStore().write(this.getSelectedNoteID(), note::writeTo, this.loadedChecksum);
+            note.committed();
+
+            // the note in the editor is now the saved note
+            this.loadedChecksum = meta.getChecksum();
+            this.saved(this.getSelectedNoteID(), meta, true);
+
+            // disable the save button
+            this.disableSave();
+            return true;
+        } catch (NoteStore.ConflictException e) {
+            /*
+                the parts of a large note that the user did not change are copied from the note file, which is
+                not the file the note was loaded from anymore, so the note cannot replace it
+             */
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle("Failed to Save");
+            a.setHeaderText("Hold on!");
+            a.setContentText("This note was changed in another window since you opened it, copy your changes and open it again.");
+            a.showAndWait();
+            return false;
+        } catch (IOException e) {
+            // if the file does not exist or some other error occurred, show an alert window
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle("Failed to Save");
+            a.setHeaderText("Uh Oh!");
+            a.setContentText("I don't think we can save this note right now, try again later.");
+
+            // show the alert window but make the program window wait for the users response before enabling
+            // the main program window again
+            a.showAndWait();
+            return false;
+        }
+    }
+
+    /**
+     * Updates the notes list and the indexes after a note was saved.
+     * @param noteID - the note ID
+     * @param meta - the metadata of the saved note
+     * @param large - whether the note is a large note, which is fingerprinted in the background
+     */
+    private void saved(String noteID, NoteMeta meta, boolean large) {
+        /*
+            update the note's fingerprint and links, a large note is read for them in the background since it
+            is not in memory, only the links that were added or removed change the link index
+         */
+        if (large) {
+            this.fingerprintNotes(Collections.singletonList(noteID));
+        } else {
+            this.getDuplicateIndex().put(noteID, meta.getFingerprint());
+            this.getLinkIndex().put(noteID, meta.getLinks());
+        }
+
+        /*
+            the totals change by the difference the save made, a large note keeps its old counts until it is counted
+            in the background, and the note in the editor takes the exact counts of the save unless it changed since
+         */
+        this.getStatsIndex().put(meta);
+        this.getDateIndex().put(noteID, meta.getModified());
+        if (noteID.equals(this.getSelectedNoteID()) && this.btnSave.isDisable() && meta.getStats().isKnown()) {
+            this.editedStats = meta.getStats();
+        }
+        this.getModel().getWindows().forEach(Controller::showStats);
+
+        // update the note's words in the background, from the word counts of the save (a large note is read for them)
+        this.indexRelated(Collections.singletonList(meta));
+
+        // the saved note has a new checksum, so it is not damaged anymore
+        this.undamaged(noteID);
+
+        // the other windows that show the note in their preview show the saved note
+        for (Controller window : this.getModel().getWindows()) {
+            if (window != this) window.changed(Collections.singletonList(noteID));
+        }
+
+        // the saved note was just modified, so it moves to its new place in the notes list
+        NoteData note = this.getNoteList().get(noteID);
+        if (note != null) {
+            long modified = meta.getModified();
+            this.rearrange(() -> this.getNoteList().update(note, n -> n.setModified(modified)));
+        }
+    }
+
+    /**
+     * Deletes the file associated with the selected note ID.
+     * The filename format is: <the selected note id>.note
+     * The file deleted is from the sub directory "notes"
+     */
+    private void delete() {
+        try {
+            // delete the note file with the selectedNoteID (and its metadata)
+            this.getStore().delete(this.getSelectedNoteID());
+
+            // the notes that are being listed in the background might still contain it
+            if (this.getModel().getDeletedWhileListing() != null) {
+                this.getModel().getDeletedWhileListing().add(this.getSelectedNoteID());
+            }
+
+            // update the notes list by removing the note that the user wants to delete (the selected note)
+            NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+            if (selected != null && selected.getStrID().equals(this.getSelectedNoteID())) {
+                this.getNoteList().remove(selected); // find the note in the sorted list and remove it
+                this.getTagIndex().remove(selected.getStrID()); // the note's tags do not count anymore
+                this.getDuplicateIndex().remove(selected.getStrID()); // the note is nobody's duplicate anymore
+                this.unindexRelated(selected.getStrID()); // the note is not related to anything anymore
+                this.getLinkIndex().remove(selected.getStrID()); // the note's links are gone with it
+                this.getStatsIndex().remove(selected.getStrID()); // the note's words do not count anymore
+                this.getDateIndex().remove(selected.getStrID()); // and searches do not find it anymore
+                this.getModel().getWindows().forEach(Controller::showStats);
+                this.undamaged(selected.getStrID()); // a deleted note cannot be damaged
+                this.lvNotes.refresh(); // refresh the notes list, the group headers might have changed
+            }
+        } catch (IOException e) {
+            // if the file does not exist or some other error occurred, show an alert window
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle("Failed to Delete");
+            a.setHeaderText("Wenkwonk!");
+            a.setContentText("We can't delete this note right now, try again later.");
+
+            // show the alert window but make the program window wait for the users response before enabling
+            // the main program window again
+            a.showAndWait();
+        }
+    }
+
+    /**
+     * Exports all notes into a single ZIP or JSON lines archive chosen by the user.
+     * The export runs in the background on a snapshot of the "notes" subdirectory, so the user can keep
+     * editing while it runs, and the progress is shown in the progress bar (pbTask).
+     */
+    private void export() {
+        // ask the user where the archive should be saved, the chosen extension decides the archive format
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export Notes");
+        chooser.setInitialFileName("notes.zip");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("ZIP Archive (*.zip)", "*.zip"));
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON Lines (*.jsonl)", "*.jsonl"));
+        File file = chooser.showSaveDialog(this.getStage());
+        if (file == null) {
+            return; // the user closed the dialog
+        }
+
+        // ask the user whether the notes should also be converted into plain text or Markdown
+        CheckBox cbText = new CheckBox("Include plain text");
+        CheckBox cbMarkdown = new CheckBox("Include Markdown");
+        Alert options = new Alert(Alert.AlertType.CONFIRMATION);
+        options.setTitle("Export Notes");
+        options.setHeaderText("Anything else?");
+        options.getDialogPane().setContent(new VBox(10, cbText, cbMarkdown));
+        if (!options.showAndWait().filter(b -> b == ButtonType.OK).isPresent()) {
+            return; // the user cancelled the export
+        }
+
+        NoteExporter exporter = new NoteExporter(NoteExporter.formatOf(file.toPath()));
+        exporter.setIncludeText(cbText.isSelected());
+        exporter.setIncludeMarkdown(cbMarkdown.isSelected());
+        exporter.setCipher(this.getStore().getCipher());
+
+        try {
+            // open the snapshot right away, this is the moment in time the archive will show
+            NoteSnapshot snapshot = this.getStore().openSnapshot();
+
+            this.runTask(new Task<Long>() {
+                @Override
+                protected Long call() throws Exception {
+                    try {
+                        return exporter.export(snapshot, file.toPath(), (done, total, message) -> {
+                            this.updateMessage(message);
+                            this.updateProgress(done, total);
+                        });
+                    } finally {
+                        // the snapshot is no longer needed once the archive is written (or the export failed)
+                        Controller.this.getStore().closeSnapshot(snapshot);
+                    }
+                }
+            }, "Failed to Export", "We can't export your notes right now, try again later.", count -> {
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setTitle("Export Finished");
+                a.setHeaderText("All done!");
+                a.setContentText("Exported " + count + " notes to " + file + ".");
+                a.show();
+            });
+        } catch (IOException e) {
+            // if the snapshot cannot be created, show an alert window
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle("Failed to Export");
+            a.setHeaderText("Yikes!");
+            a.setContentText("We can't export your notes right now, try again later.");
+            a.showAndWait();
+        }
+    }
+
+    /**
+     * Imports a folder or ZIP archive of .html, .md and .txt files chosen by the user as new notes.
+     * The import runs in the background, and the new notes are added to the notes list in batches
+     * as soon as they are written.
+     */
+    private void importNotes() {
+        // ask the user whether they want to import a folder or an archive
+        ButtonType folder = new ButtonType("Folder");
+        ButtonType archive = new ButtonType("ZIP Archive");
+        Alert choice = new Alert(Alert.AlertType.CONFIRMATION, "Where are the notes you want to import?", folder, archive, ButtonType.CANCEL);
+        choice.setTitle("Import Notes");
+        choice.setHeaderText("Moving in?");
+        ButtonType chosen = choice.showAndWait().orElse(ButtonType.CANCEL);
+
+        File source;
+        if (chosen == folder) {
+            DirectoryChooser chooser = new DirectoryChooser();
+            chooser.setTitle("Import Notes");
+            source = chooser.showDialog(this.getStage());
+        } else if (chosen == archive) {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle("Import Notes");
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("ZIP Archive (*.zip)", "*.zip"));
+            source = chooser.showOpenDialog(this.getStage());
+        } else {
+            return; // the user cancelled the import
+        }
+
+        if (source == null) {
+            return; // the user closed the dialog
+        }
+
+        NoteImporter importer = new NoteImporter(this.getStore());
+
+        // add each batch of new notes to the notes list with a single change, on the JavaFX Application Thread
+        importer.setOnBatch(batch -> {
+            // the importer already fingerprinted the notes and found their links, in their metadata which was just written
+            List<NoteMeta> imported = new ArrayList<>();
+            for (NoteData note : batch) {
+                try {
+                    NoteMeta meta = this.getStore().meta(note.getStrID());
+                    imported.add(meta);
+                    this.getDuplicateIndex().put(note.getStrID(), meta.getFingerprint());
+                    this.getLinkIndex().put(note.getStrID(), meta.getLinks());
+                    this.getStatsIndex().put(meta);
+                    this.getDateIndex().put(note.getStrID(), meta.getModified());
+                } catch (IOException e) {
+                    // the note is fingerprinted again the next time the notes are loaded
+                }
+            }
+
+            // index the words of the new notes on their own thread, so the import does not wait for it
+            this.indexRelated(imported);
+
+            Platform.runLater(() -> {
+                // imported notes have no tags, but the filter has to know them (e.g. for NOT)
+                batch.forEach(note -> this.getTagIndex().put(note.getStrID(), note.getTags()));
+                this.queryFilter();
+                this.rearrange(() -> this.getNoteList().addAll(batch));
+                this.showStats();
+            });
+        });
+
+        this.runTask(new Task<List<String>>() {
+            @Override
+            protected List<String> call() throws Exception {
+                return importer.importFrom(source.toPath(), (done, total, message) -> {
+                    this.updateMessage(message);
+                    this.updateProgress(done, total);
+                });
+            }
+        }, "Failed to Import", "We can't import these notes right now, try again later.", failed -> {
+            if (!failed.isEmpty()) {
+                // if some of the files cannot be imported, show an alert window with their names
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setTitle("Failed to Import a Note");
+                a.setHeaderText("Oop!");
+                a.setContentText("We can't import these files right now:\n" + String.join("\n", failed));
+                a.show();
+            }
+        });
+    }
+
+    /**
+     * Changes the notes list while keeping the selected note selected, even if it moved to another place.
+     * The selection listener ignores the changes, so the note is not reloaded into the editor or preview.
+     * The notes list is shared by every window, so every window keeps its own selected note.
+     * @param change - changes the notes list through the NoteList (or the filter of the shown notes)
+     */
+    private void rearrange(Runnable change) {
+        List<Controller> windows = new ArrayList<>(this.getModel().getWindows());
+        windows.forEach(Controller::beforeRearrange);
+        try {
+            change.run();
+        } finally {
+            windows.forEach(Controller::afterRearrange);
+        }
+    }
+
+    /**
+     * Remembers the selected note of the window before the notes list is rearranged (by this or another window).
+     */
+    private void beforeRearrange() {
+        this.rearranged = this.lvNotes.getSelectionModel().getSelectedItem();
+        this.rearranging = true;
+    }
+
+    /**
+     * Selects the note that was selected before the notes list was rearranged again, at its new place.
+     */
+    private void afterRearrange() {
+        NoteData selected = this.rearranged;
+        this.rearranged = null;
+        try {
+            // select the note again at its new place
+            if (selected != null && this.lvNotes.getSelectionModel().getSelectedItem() != selected) {
+                this.lvNotes.getSelectionModel().select(selected);
+                this.lvNotes.scrollTo(selected);
+            }
+        } finally {
+            this.rearranging = false;
+        }
+
+        if (selected != null && this.lvNotes.getSelectionModel().getSelectedItem() != selected) {
+            // the selected note is not shown anymore (it does not match the tag filter), so nothing is selected
+            this.lvNotes.getSelectionModel().clearSelection();
+            this.disableEditor();
+            this.clearEditor();
+            this.showEditor();
+        }
+
+        // refresh the notes list, the group headers depend on the notes around each note
+        this.lvNotes.refresh();
+    }
+
+    /**
+     * @param note - a note in the notes list
+     * @return whether the note matches the tag filter and was found by the search, and should be shown in the notes list
+     */
+    private boolean isShown(NoteData note) {
+        return this.getTagIndex().matches(this.filterMatches, note.getStrID())
+                && (this.queryMatches == null || this.queryMatches.contains(note.getStrID()));
+    }
+
+    /**
+     * Finds the notes that match the tag filter (tfFilter) in the tag index.
+     * @return whether the filter is valid, an invalid filter keeps the notes of the last valid filter
+     */
+    private boolean queryFilter() {
+        try {
+            this.filterMatches = this.getTagIndex().query(this.tfFilter.getText());
+            this.tfFilter.getStyleClass().remove("invalid");
+            return true;
+        } catch (IllegalArgumentException e) {
+            // the user is probably still typing, so the filter is only marked as invalid
+            if (!this.tfFilter.getStyleClass().contains("invalid")) {
+                this.tfFilter.getStyleClass().add("invalid");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Shows only the notes that match the tag filter (tfFilter) in the notes list.
+     */
+    private void applyFilter() {
+        if (this.queryFilter()) {
+            // a new predicate makes the filtered list check every note again, which only looks them up in the result
+            this.rearrange(() -> this.getShownNotes().setPredicate(note -> this.isShown(note)));
+        }
+    }
+
+    /**
+     * Searches the notes for the search the user typed (tfQuery) on a background thread, and shows the notes it
+     * finds in the notes list as they are found. The search is planned here (see QueryEngine.plan()), so only the
+     * notes of its cheapest index are looked at, and every batch of matches is added to the notes of the search,
+     * which makes the filtered list check only those notes again.
+     * A search that is not valid is only marked as invalid, like the tag filter.
+     */
+    private void runQuery() {
+        int search = ++this.querySearch;
+        NoteQuery query;
+        try {
+            query = NoteQuery.parse(this.tfQuery.getText());
+            this.tfQuery.getStyleClass().remove("invalid");
+        } catch (IllegalArgumentException e) {
+            // the user is probably still typing, so the search is only marked as invalid
+            if (!this.tfQuery.getStyleClass().contains("invalid")) {
+                this.tfQuery.getStyleClass().add("invalid");
+            }
+            return;
+        }
+
+        if (query.isEmpty()) {
+            this.queryMatches = null;
+            this.queryPlan = null;
+            this.rearrange(() -> this.getShownNotes().setPredicate(note -> this.isShown(note)));
+            return;
+        }
+
+        // the plan takes the notes of the tags from the tag index, which only changes on this thread
+        NoteStore store = this.getStore();
+        QueryEngine engine = new QueryEngine(this.getDateIndex(), this.getRelatedIndex(), this.getTagIndex(),
+                noteID -> HtmlConverter.text().convert(store.read(noteID)));
+        QueryEngine.Plan plan = engine.plan(query);
+
+        // the notes list is empty until the first matches are found
+        Set<String> matches = new HashSet<>();
+        this.queryMatches = matches;
+        this.queryPlan = plan;
+        this.rearrange(() -> this.getShownNotes().setPredicate(note -> this.isShown(note)));
+
+        this.queryRunner.execute(() -> engine.run(plan, batch -> Platform.runLater(() -> {
+            if (search != this.querySearch) {
+                return; // another search started in the meantime
+            }
+
+            matches.addAll(batch);
+            this.rearrange(() -> {
+                for (String noteID : batch) {
+                    NoteData note = this.getNoteList().get(noteID);
+                    if (note != null) {
+                        this.getNoteList().changed(note); // the filtered list checks the note again, and shows it
+                    }
+                }
+            });
+        }), () -> search != this.querySearch));
+    }
+
+    /**
+     * Shows how the last search (tfQuery) was run: the index that gave the notes to look at, the order the other
+     * terms were checked in, and how many notes each step looked at and let through, and how long it took.
+     */
+    private void explainQuery() {
+        QueryEngine.Plan plan = this.queryPlan;
+        Alert a = new Alert(Alert.AlertType.INFORMATION);
+        a.setTitle("Explain Search");
+        if (plan == null) {
+            a.setHeaderText("Nothing to explain yet.");
+            a.setContentText("Type a search above the notes list first, e.g. meeting after:2026-01-01 -draft");
+        } else {
+            TextArea taPlan = new TextArea(plan.explain());
+            taPlan.setEditable(false);
+            taPlan.setStyle("-fx-font-family: monospace;"); // the steps are lined up in columns
+            a.setHeaderText(String.format("The search found %,d notes%s.", plan.getMatches(),
+                    plan.isFinished() ? "" : " so far"));
+            a.getDialogPane().setContent(taPlan);
+        }
+        a.showAndWait();
+    }
+
+    /**
+     * Asks the user for the tags of the selected note and saves them into the note's metadata.
+     * The notes list is updated right away, without reading any note.
+     */
+    private void editTags() {
+        NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+        if (selected == null) {
+            return; // there is no note to tag
+        }
+
+        // ask for the tags, separated by commas
+        TextInputDialog dialog = new TextInputDialog(String.join(", ", selected.getTags()));
+        dialog.setTitle("Tags");
+        dialog.setHeaderText("Tag this note");
+        dialog.setContentText("Tags (separated by commas):");
+        Optional<String> text = dialog.showAndWait();
+        if (!text.isPresent()) {
+            return; // the user cancelled
+        }
+
+        Set<String> tags = TagIndex.parseTags(text.get());
+        try {
+            this.getStore().tag(selected.getStrID(), tags);
+        } catch (IOException e) {
+            // if the metadata cannot be written, show an alert window
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle("Failed to Tag");
+            a.setHeaderText("Yikes!");
+            a.setContentText("We can't save the tags of this note right now, try again later.");
+            a.showAndWait();
+            return;
+        }
+
+        // update the index and the filter result, then let the filtered list check only this note again
+        this.getTagIndex().put(selected.getStrID(), tags);
+        this.queryFilter();
+        this.rearrange(() -> {
+            selected.setTags(tags);
+            this.getNoteList().changed(selected);
+        });
+    }
+
+    /**
+     * Fingerprints the notes that have no fingerprint or links yet on a background thread, and adds them to the
+     * duplicate index and the link index.
+     * This runs without the progress bar, since the user does not wait for it.
+     * @param noteIDs - the IDs of the notes to fingerprint
+     */
+    private void fingerprintNotes(List<String> noteIDs) {
+        if (noteIDs.isEmpty()) {
+            return;
+        }
+
+        NoteStore store = this.getStore();
+        DuplicateIndex index = this.getDuplicateIndex();
+        LinkIndex links = this.getLinkIndex();
+        StatsIndex stats = this.getStatsIndex();
+        List<Controller> windows = this.getModel().getWindows();
+        Thread thread = new Thread(() -> {
+            for (String noteID : noteIDs) {
+                try {
+                    NoteMeta meta = store.fingerprint(noteID);
+                    index.put(noteID, meta.getFingerprint());
+                    links.put(noteID, meta.getLinks());
+                    stats.put(meta);
+                } catch (IOException e) {
+                    // the note cannot be read (e.g. it was deleted), it is simply not fingerprinted
+                }
+            }
+
+            // the totals count the notes that were counted just now
+            Platform.runLater(() -> new ArrayList<>(windows).forEach(Controller::showStats));
+        }, "gui101-fingerprint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Puts the words of notes into the related notes index, on the indexing thread, from the word counts in their
+     * metadata. Only a note whose metadata has no word counts for its current content (e.g. a note saved before they
+     * existed, or a large note) is read, and its counts are written into its metadata so it is never read for them
+     * again (see NoteStore.fingerprint()).
+     * The notes related to the selected note are found again afterwards, since they might have changed.
+     * @param metas - the metadata of the notes to index
+     */
+    private void indexRelated(List<NoteMeta> metas) {
+        if (metas.isEmpty()) {
+            return;
+        }
+
+        NoteStore store = this.getStore();
+        RelatedIndex index = this.getRelatedIndex();
+        this.relatedIndexer.execute(() -> {
+            for (NoteMeta meta : metas) {
+                String noteID = meta.getStrID();
+                try {
+                    Map<String, Integer> terms = meta.getTerms();
+                    index.put(noteID, terms != null ? terms : store.fingerprint(noteID).getTerms());
+                } catch (IOException e) {
+                    // the note cannot be read (e.g. it was deleted), so it is not related to anything
+                    index.remove(noteID);
+                }
+            }
+            Platform.runLater(this::findRelated);
+        });
+    }
+
+    /**
+     * Removes a note from the related notes index, on the indexing thread so it happens after the note was indexed.
+     * @param noteID - the note ID
+     */
+    private void unindexRelated(String noteID) {
+        RelatedIndex index = this.getRelatedIndex();
+        this.relatedIndexer.execute(() -> index.remove(noteID));
+    }
+
+    /**
+     * Finds the notes related to the selected note on a background thread, and shows them in the related notes
+     * list (lvRelated). The note is shown in the preview or editor before this runs, so it never waits for it.
+     */
+    private void findRelated() {
+        NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+        int search = ++this.relatedSearch;
+        if (selected == null) {
+            this.lvRelated.getItems().clear();
+            return;
+        }
+
+        RelatedIndex index = this.getRelatedIndex();
+        String noteID = selected.getStrID();
+        this.relatedFinder.execute(() -> {
+            List<String> found = index.find(noteID, RelatedIndex.RESULTS);
+            Platform.runLater(() -> {
+                if (search != this.relatedSearch) {
+                    return; // another note was selected in the meantime
+                }
+
+                // turn the note IDs into the notes of the notes list, the most related note first
+                this.lvRelated.getItems().setAll(this.notesOf(found));
+            });
+        });
+    }
+
+    /**
+     * Shows the notes that link to the selected note in the backlinks list (lvBacklinks).
+     */
+    private void showBacklinks() {
+        NoteData selected = this.lvNotes.getSelectionModel().getSelectedItem();
+        List<NoteData> backlinks = selected == null ? Collections.emptyList()
+                : this.notesOf(this.getLinkIndex().backlinksOf(selected.getStrID()));
+        this.lvBacklinks.getItems().setAll(backlinks);
+        this.tabBacklinks.setText(backlinks.isEmpty() ? "Backlinks" : "Backlinks (" + backlinks.size() + ")");
+    }
+
+    /**
+     * Selects the note a clicked link points to in the notes list, which shows it in the preview.
+     * @param noteID - the ID of the linked note
+     */
+    private void followLink(String noteID) {
+        // the note is found by its ID at once, instead of looking through the notes list
+        NoteData note = this.getNoteList().get(noteID);
+        if (note == null) {
+            // if the linked note does not exist anymore, show an alert window
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Failed to Follow Link");
+            a.setHeaderText("Oop!");
+            a.setContentText("We can't find the linked note, it might've been deleted.");
+            a.showAndWait();
+            return;
+        }
+        this.selectNote(note);
+    }
+
+    /**
+     * Asks the user for the title or ID of another note, and adds a link to it where the cursor is in the editor.
+     */
+    private void insertLink() {
+        if (this.lvNotes.getSelectionModel().getSelectedItem() == null) {
+            return; // there is no note to add the link to
+        }
+        this.startEditing(); // links are added in the editor, not in the preview
+
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Link");
+        dialog.setHeaderText("Link to another note");
+        dialog.setContentText("Title or ID of the note:");
+        Optional<String> text = dialog.showAndWait();
+        if (!text.isPresent() || text.get().trim().isEmpty()) {
+            return; // the user cancelled
+        }
+
+        NoteData target = this.findNote(text.get().trim());
+        if (target == null) {
+            // if no note has the title or ID, show an alert window
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Failed to Link");
+            a.setHeaderText("Hmm?");
+            a.setContentText("None of your notes has the title or ID \"" + text.get().trim() + "\".");
+            a.showAndWait();
+            return;
+        }
+
+        String link = LinkIndex.linkTo(target.getStrID(), target.getStrSample());
+        Node view = this.edText.lookup(".web-view");
+        if (view instanceof WebView) {
+            // the HTMLEditor is a web page, so the link is inserted at the cursor the same way its buttons change the text
+            String script = link.replace("\\", "\\\\").replace("'", "\\'");
+            ((WebView) view).getEngine().executeScript("document.execCommand('insertHTML', false, '" + script + "');");
+        } else {
+            String html = this.edText.getHtmlText();
+            int end = html.toLowerCase(Locale.ROOT).lastIndexOf("</body>");
+            this.edText.setHtmlText(end == -1 ? html + link : html.substring(0, end) + link + html.substring(end));
+        }
+
+        // the link is only in the editor until the note is saved
+        this.enableSave();
+        this.pageEdited = true;
+    }
+
+    /**
+     * Pastes the formatted text (html) of the clipboard at the cursor, after normalizing it on a background thread
+     * (see HtmlNormalizer), so a paste from a web page or a word processor only brings along the formatting the
+     * editor can show, instead of its classes, styles, scripts and comments.
+     * @return whether the paste is handled here, otherwise (e.g. for plain text) the editor pastes as usual
+     */
+    private boolean pasteHtml() {
+        Clipboard clipboard = Clipboard.getSystemClipboard();
+        Node view = this.edText.lookup(".web-view");
+        if (!clipboard.hasHtml() || !(view instanceof WebView)) {
+            return false;
+        }
+
+        String html = clipboard.getHtml(), noteID = this.getSelectedNoteID();
+        CompletableFuture.supplyAsync(() -> HtmlNormalizer.fragment().normalize(html)).thenAccept(clean -> Platform.runLater(() -> {
+            if (!noteID.equals(this.getSelectedNoteID())) {
+                return; // the user opened another note in the meantime
+            }
+
+            // the line breaks are left out, like when a note is loaded, and the rest is inserted the way insertLink() does
+            String script = clean.replace("\r", "").replace("\n", "").replace("\\", "\\\\").replace("'", "\\'")
+                    .replace("\u2028", "\\u2028").replace("\u2029", "\\u2029");
+            ((WebView) view).getEngine().executeScript("document.execCommand('insertHTML', false, '" + script + "');");
+            this.enableSave();
+            this.pageEdited = true;
+        }));
+        return true;
+    }
+
+    /**
+     * Finds a note by its ID, or else by its title (ignoring case), or else by the start of its title.
+     * @param text - the ID or title the user typed
+     * @return the note, or null if there is none
+     */
+    private NoteData findNote(String text) {
+        NoteData note = this.getNoteList().get(text);
+        if (note != null) {
+            return note;
+        }
+
+        String lower = text.toLowerCase(Locale.ROOT);
+        NoteData start = null;
+        for (NoteData candidate : this.getNotes()) {
+            String title = candidate.getStrSample().trim().toLowerCase(Locale.ROOT);
+            if (title.equals(lower)) {
+                return candidate;
+            } else if (start == null && title.startsWith(lower)) {
+                start = candidate;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @param noteIDs - note IDs
+     * @return the notes with the IDs in the notes list, in the same order (notes that are not in the list are left out)
+     */
+    private List<NoteData> notesOf(Collection<String> noteIDs) {
+        List<NoteData> found = new ArrayList<>();
+        for (String noteID : noteIDs) {
+            NoteData note = this.getNoteList().get(noteID);
+            if (note != null) found.add(note);
+        }
+        return found;
+    }
+
+    /**
+     * Selects a note in the notes list (e.g. a clicked related note or backlink), which shows it in the preview.
+     * @param note - the note, or null
+     */
+    private void selectNote(NoteData note) {
+        if (note == null) {
+            return;
+        }
+
+        // the note might not match the tag filter or the search, so they are cleared to show it
+        if (!this.isShown(note)) {
+            this.tfFilter.setText("");
+            this.tfQuery.setText("");
+        }
+        this.lvNotes.getSelectionModel().select(note);
+        this.lvNotes.scrollTo(note);
+    }
+
+    /**
+     * Starts the scrubber, which reads the notes slowly in the background and compares them with their checksums.
+     * What it finds is shown in the integrity tab (lvDamaged) on the JavaFX Application Thread.
+     */
+    private void startScrubber() {
+        // the scrubber is shared by every window, so what it finds is shown in every window
+        List<Controller> windows = this.getModel().getWindows();
+        this.getScrubber().setOnFound((noteID, status) -> Platform.runLater(() -> new ArrayList<>(windows).forEach(w -> w.scrubbed(noteID, status))));
+        this.getScrubber().setOnPass(() -> Platform.runLater(() -> new ArrayList<>(windows).forEach(Controller::showIntegrity)));
+        this.getScrubber().start();
+    }
+
+    /**
+     * Starts the cleaner, which normalizes the html of every note once (see NoteCleaner), unless it did already.
+     * The notes it writes keep their dates, only their samples and indexes are updated on the JavaFX Application Thread.
+     */
+    private void startCleaner() {
+        // the cleaner is shared by every window, so the first window that is open updates the shared notes list
+        List<Controller> windows = this.getModel().getWindows();
+        this.getModel().getCleaner().setOnBatch(batch -> Platform.runLater(() -> {
+            if (!windows.isEmpty()) windows.get(0).replaced(batch);
+        }));
+        this.getModel().getCleaner().start();
+    }
+
+    /**
+     * Starts syncing the notes with the sync server the program was started with (the system property
+     * "gui101.syncServer", e.g. -Dgui101.syncServer=localhost:7070), in the background.
+     * The notes a sync round changes are updated in the notes list on the JavaFX Application Thread.
+     */
+    private void startSync() {
+        NoteSync sync = this.getModel().getSync();
+        if (sync == null) {
+            return; // the notes are not synced
+        }
+
+        // the sync is shared by every window, so the first window that is open updates the shared notes list
+        List<Controller> windows = this.getModel().getWindows();
+        sync.setOnChanged(changes -> Platform.runLater(() -> {
+            if (!windows.isEmpty()) windows.get(0).synced(changes);
+        }));
+        sync.start();
+    }
+
+    /**
+     * Updates the notes list and the indexes after a sync round wrote or deleted notes, only for those notes.
+     * A note that is being edited stays as it is, saving it asks the user whether to replace the synced version.
+     * @param changes - the notes the sync round changed
+     */
+    private void synced(NoteSync.Changes changes) {
+        List<String> noteIDs = new ArrayList<>();
+        for (NoteMeta meta : changes.getChanged()) {
+            noteIDs.add(meta.getStrID());
+            this.getTagIndex().put(meta.getStrID(), meta.getTags());
+            this.getDuplicateIndex().put(meta.getStrID(), meta.getFingerprint());
+            this.getLinkIndex().put(meta.getStrID(), meta.getLinks());
+            this.getStatsIndex().put(meta);
+            this.getDateIndex().put(meta.getStrID(), meta.getModified());
+            this.undamaged(meta.getStrID());
+        }
+        for (String noteID : changes.getDeleted()) {
+            this.getTagIndex().remove(noteID);
+            this.getDuplicateIndex().remove(noteID);
+            this.unindexRelated(noteID);
+            this.getLinkIndex().remove(noteID);
+            this.getStatsIndex().remove(noteID);
+            this.getDateIndex().remove(noteID);
+            this.undamaged(noteID);
+        }
+        this.getModel().getWindows().forEach(Controller::showStats);
+        this.indexRelated(changes.getChanged());
+
+        // the synced tags can change which notes match the tag filter of every window
+        List<Controller> windows = new ArrayList<>(this.getModel().getWindows());
+        windows.forEach(Controller::queryFilter);
+
+        // new notes are added at their place, changed notes move to their new place, deleted notes are removed
+        this.rearrange(() -> {
+            for (NoteMeta meta : changes.getChanged()) {
+                NoteData note = this.getNoteList().get(meta.getStrID());
+                if (note == null) {
+                    this.getNoteList().add(meta.toNoteData());
+                    continue;
+                }
+
+                this.getNoteList().update(note, n -> {
+                    n.setStrSample(meta.getStrSample());
+                    n.setModified(meta.getModified());
+                    n.setTags(meta.getTags());
+                });
+                this.getNoteList().changed(note); // the filtered list checks the tags of the note again
+            }
+            for (String noteID : changes.getDeleted()) {
+                NoteData note = this.getNoteList().get(noteID);
+                if (note != null) this.getNoteList().remove(note);
+            }
+        });
+
+        // every window shows the new text of its selected note, unless it is editing it
+        windows.forEach(window -> window.changed(noteIDs));
+    }
+
+    /**
+     * Shows a damaged note in the integrity tab (lvDamaged), or removes a repaired note from it.
+     * @param noteID - the note ID
+     * @param status - what the scrubber found out about the note
+     */
+    private void scrubbed(String noteID, NoteScrubber.Status status) {
+        NoteData note = this.getNoteList().get(noteID);
+        if (note == null) {
+            return; // the note was deleted in the meantime
+        }
+
+        if (status == NoteScrubber.Status.DAMAGED) {
+            if (!this.lvDamaged.getItems().contains(note)) this.lvDamaged.getItems().add(note);
+        } else {
+            this.lvDamaged.getItems().remove(note);
+        }
+
+        // show the repaired note, unless the user is editing it
+        if (status == NoteScrubber.Status.REPAIRED && noteID.equals(this.getSelectedNoteID()) && this.pvNote.isVisible()) {
+            this.previewNote(noteID);
+        }
+        this.showIntegrity();
+    }
+
+    /**
+     * Removes a note from the integrity tab (lvDamaged) of every window, since it was saved or deleted.
+     * @param noteID - the note ID
+     */
+    private void undamaged(String noteID) {
+        this.lvDamaged.getItems().removeIf(note -> note.getStrID().equals(noteID));
     }
 
     /**
-     * Disables the save button (btnSave)
+     * Shows the amount of damaged notes on the integrity tab, and what the scrubber did so far when none is damaged.
      */
-    private void disableSave() {
-        this.btnSave.setOpacity(0);
-        this.btnSave.setDisable(true);
+    private void showIntegrity() {
+        int damaged = this.lvDamaged.getItems().size();
+        this.tabIntegrity.setText(damaged == 0 ? "Integrity" : "Integrity (" + damaged + ")");
+
+        NoteScrubber scrubber = this.getScrubber();
+        this.lblIntegrity.setText(String.format("No damaged notes.%nChecked %d notes (%.1f MB) in %d passes, repaired %d.",
+                scrubber.getNotesChecked(), scrubber.getMegabytesChecked(), scrubber.getPasses(), scrubber.getRepaired()));
     }
 
     /**
-     * Disables the editor (edText)
+     * @return a cell of a small notes list (lvRelated, lvBacklinks, lvDamaged), which only shows the sample of its note
      */
-    private void disableEditor() {
-        this.edText.setDisable(true);
+    private ListCell<NoteData> sampleCell() {
+        return new ListCell<NoteData>() {
+            @Override
+            protected void updateItem(NoteData item, boolean empty) {
+                super.updateItem(item, empty);
+                this.setText(item == null || empty ? null : item.getStrSample().trim());
+            }
+        };
     }
 
     /**
-     * Disables the delete button (btnDelete)
+     * Creates a daemon thread for a background task, so that it never keeps the program from exiting.
+     * @param task - what the thread runs
+     * @param name - the name of the thread
+     * @return the thread
      */
-    public void disableDelete() {
-        this.btnDelete.setDisable(true);
+    private Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
     }
 
     /**
-     * Clears the editor (edText)
+     * Finds the clusters of near-duplicate notes in the background, and shows them in the review panel.
      */
-    public void clearEditor() {
-        this.edText.setHtmlText("");
+    private void reviewDuplicates() {
+        DuplicateIndex index = this.getDuplicateIndex();
+        this.runTask(new Task<List<List<String>>>() {
+            @Override
+            protected List<List<String>> call() {
+                return index.clusters();
+            }
+        }, "Failed to Find Duplicates", "We can't look for near-duplicate notes right now, try again later.", clusters -> {
+            // turn the note IDs into the notes of the notes list
+            List<List<NoteData>> found = new ArrayList<>();
+            for (List<String> ids : clusters) {
+                List<NoteData> cluster = new ArrayList<>();
+                for (String noteID : ids) {
+                    NoteData note = this.getNoteList().get(noteID);
+                    if (note != null) cluster.add(note);
+                }
+
+                // the newest note comes first, since it is the one that is kept
+                cluster.sort(Comparator.comparing(NoteData::getModified).reversed());
+                if (cluster.size() > 1) found.add(cluster);
+            }
+
+            if (found.isEmpty()) {
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setTitle("No Duplicates");
+                a.setHeaderText("Nice!");
+                a.setContentText("None of your notes are near-duplicates of each other.");
+                a.showAndWait();
+                return;
+            }
+
+            DuplicateReview review = new DuplicateReview(found);
+            review.setOnMerge(cluster -> this.resolveDuplicates(cluster, true));
+            review.setOnKeepNewest(cluster -> this.resolveDuplicates(cluster, false));
+            review.showAndWait();
+        });
     }
 
     /**
-     * Saves the data into a specific file.
-     * The filename format is: <the selected note id>.note
-     * The file is also saved in the sub directory "notes"
+     * Keeps only the newest note of a cluster of near-duplicate notes, and deletes the rest.
+     * @param cluster - the notes, the newest note first
+     * @param merge - whether the text and tags of the other notes are added to the newest note before they are deleted
+     * @return whether every other note was deleted
      */
-    private void save() {
-        // create a Path variable that leads to the notes file with the current selectedNoteID
-        // that the user plans to update
-        Path path = Paths.get("notes/" + this.getSelectedNoteID() + ".note");
+    private boolean resolveDuplicates(List<NoteData> cluster, boolean merge) {
+        NoteData keep = cluster.get(0);
+        List<NoteData> copies = cluster.subList(1, cluster.size());
+
+        // the notes are about to change, so none of them may stay in the editor
+        if (cluster.contains(this.lvNotes.getSelectionModel().getSelectedItem())) {
+            this.lvNotes.getSelectionModel().clearSelection();
+        }
 
-        /**
-         * Put the following code in a try-catch statement in case the path that was created does not exist
-         * (the file does not exist)
-         */
         try {
-            /**
-             * assign the texts in the editor to a temporary variable,
-             * since the texts inside the editor is actually written in the HTML (see https://www.w3schools.com/html/)
-             * language and then rendered in the editor GUI, we have to do some pre-processing on the data in order to
-             * make the note file more readable.
-             */
-            String temp = this.edText.getHtmlText().replaceAll("</p>", "</p>\n");
+            if (merge) {
+                // add the body of every other note to the end of the newest note, separated by horizontal lines
+                String html = this.getStore().read(keep.getStrID());
+                Set<String> tags = new TreeSet<>(keep.getTags());
+                StringBuilder bodies = new StringBuilder();
+                for (NoteData copy : copies) {
+                    bodies.append("<hr>\n").append(NoteImporter.bodyOf(this.getStore().read(copy.getStrID()))).append("\n");
+                    tags.addAll(copy.getTags());
+                }
 
-            // save the texts in the temp variable to the path/file the program has created
-            Files.write(path, temp.getBytes());
+                int end = html.toLowerCase(Locale.ROOT).lastIndexOf("</body>");
+                html = end == -1 ? html + bodies : html.substring(0, end) + bodies + html.substring(end);
+
+                NoteMeta written = this.getStore().write(keep.getStrID(), html);
+                NoteMeta meta = tags.equals(keep.getTags()) ? written : this.getStore().tag(keep.getStrID(), tags);
+
+                // update the merged note everywhere it is listed
+                this.getTagIndex().put(keep.getStrID(), tags);
+                this.getDuplicateIndex().put(keep.getStrID(), meta.getFingerprint());
+                this.getLinkIndex().put(keep.getStrID(), meta.getLinks());
+                this.getStatsIndex().put(meta);
+                this.getDateIndex().put(keep.getStrID(), meta.getModified());
+                this.indexRelated(Collections.singletonList(meta));
+                this.queryFilter();
+                this.rearrange(() -> {
+                    this.getNoteList().update(keep, note -> {
+                        note.setModified(meta.getModified());
+                        note.setTags(tags);
+                    });
+                    this.getNoteList().changed(keep);
+                });
+            }
 
-            // disable the save button
-            this.disableSave();
+            for (NoteData copy : copies) {
+                this.getStore().delete(copy.getStrID());
+
+                // forget the deleted note everywhere it is listed
+                this.getNoteList().remove(copy);
+                this.getTagIndex().remove(copy.getStrID());
+                this.getDuplicateIndex().remove(copy.getStrID());
+                this.unindexRelated(copy.getStrID());
+                this.getLinkIndex().remove(copy.getStrID());
+                this.getStatsIndex().remove(copy.getStrID());
+                this.getDateIndex().remove(copy.getStrID());
+            }
+            this.getModel().getWindows().forEach(Controller::showStats);
+            this.lvNotes.refresh();
+            return true;
         } catch (IOException e) {
-            // if the file does not exist or some other error occurred, show an alert window
+            // if a note cannot be read, written or deleted, show an alert window
             Alert a = new Alert(Alert.AlertType.WARNING);
-            a.setTitle("Failed to Save");
+            a.setTitle(merge ? "Failed to Merge" : "Failed to Delete");
             a.setHeaderText("Uh Oh!");
-            a.setContentText("I don't think we can save this note right now, try again later.");
-
-            // show the alert window but make the program window wait for the users response before enabling
-            // the main program window again
+            a.setContentText("We can't clean up these notes right now, some of them might've been deleted or moved.");
             a.showAndWait();
+            this.lvNotes.refresh();
+            return false;
         }
     }
 
     /**
-     * Deletes the file associated with the selected note ID.
-     * The filename format is: <the selected note id>.note
-     * The file deleted is from the sub directory "notes"
+     * Runs a task on a background thread while showing its progress in the progress bar (pbTask).
+     * @param task - the task to run
+     * @param failTitle - the title of the alert window shown when the task fails
+     * @param failText - the text of the alert window shown when the task fails
+     * @param onDone - called on the JavaFX Application Thread with the result of the task when it succeeds
+     * @param <T> - the type of the task's result
      */
-    private void delete() {
-        // create a Path variable that leads to the notes file with the current selectedNoteID
-        // that the user plans to delete
-        Path path = Paths.get("notes/" + this.getSelectedNoteID() + ".note");
+    private <T> void runTask(Task<T> task, String failTitle, String failText, Consumer<T> onDone) {
+        // show the progress bar and make it follow the task's progress
+        this.pbTask.progressProperty().bind(task.progressProperty());
+        this.pbTask.setVisible(true);
+
+        task.setOnSucceeded(v -> {
+            this.hideProgress();
+            onDone.accept(task.getValue());
+        });
+
+        task.setOnFailed(v -> {
+            this.hideProgress();
+
+            // if the task failed, show an alert window
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle(failTitle);
+            a.setHeaderText("Yikes!");
+            a.setContentText(failText);
+            a.show();
+        });
+
+        task.setOnCancelled(v -> this.hideProgress());
+
+        // run the task on a daemon thread, so that it never keeps the program from exiting
+        Thread thread = new Thread(task, "gui101-task");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hides the progress bar (pbTask)
+     */
+    private void hideProgress() {
+        this.pbTask.progressProperty().unbind();
+        this.pbTask.setVisible(false);
+    }
+
+    /**
+     * Shows a note in the read-only preview (pvNote) instead of the editor (edText).
+     * @param noteID - the note ID associated with a specific file.
+     */
+    public void previewNote(String noteID) {
+        this.getScrubber().interactive(); // the scrubber leaves the disk to the preview for a moment
         try {
-            // delete the path/file
-            Files.delete(path);
-
-            // update the notes list by removing the note that the user wants to delete
-            for (int i = 0; i < this.getNotes().size(); i++) {
-                // look for the NoteData with a similar noteID to the selectedNoteID
-                if (this.getNotes().get(i).getStrID().equals(this.getSelectedNoteID())) {
-                    this.getNotes().remove(i); // remove the NoteCell with the selectedNoteID from the notes data
-                    this.lvNotes.refresh(); // refresh the notes list
-                    break; // exit the loop after finding the specified note
-                }
+            this.enableDelete(); // enable the delete button
+
+            // render the note in the preview and put the preview in front of the editor,
+            // only the first page of a large note is rendered
+            if (LargeNote.isLarge(this.getStore().sizeOf(noteID))) {
+                this.pvNote.render(LargeNote.open(this.getStore(), noteID).pageHtml(0));
+            } else {
+                this.pvNote.render(this.getStore().read(noteID));
             }
+            this.pvNote.setVisible(true);
+            this.edText.setVisible(false);
         } catch (IOException e) {
-            // if the file does not exist or some other error occurred, show an alert window
-            Alert a = new Alert(Alert.AlertType.WARNING);
-            a.setTitle("Failed to Delete");
-            a.setHeaderText("Wenkwonk!");
-            a.setContentText("We can't delete this note right now, try again later.");
+            // the editor shows the same alert window if the note cannot be loaded
+            this.showEditor();
+            this.loadNote(noteID);
+        }
+    }
 
-            // show the alert window but make the program window wait for the users response before enabling
-            // the main program window again
-            a.showAndWait();
+    /**
+     * Loads the selected note into the editor (edText) and hides the preview (pvNote), so that the user can edit it.
+     */
+    public void startEditing() {
+        if (this.edText.isVisible() && !this.edText.isDisable()) {
+            return; // the note is already being edited
+        }
+
+        this.showEditor();
+        try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Loading a note into the editor")) {
+            this.loadNote(this.getSelectedNoteID());
         }
+        this.edText.requestFocus();
+    }
+
+    /**
+     * Shows the editor (edText) and hides the preview (pvNote)
+     */
+    private void showEditor() {
+        this.pvNote.setVisible(false);
+        this.edText.setVisible(true);
     }
 
     /**
@@ -414,30 +2613,44 @@ public class Controller implements Initializable {
      * @param noteID - the note ID associated with a specific file.
      */
     public void loadNote(String noteID) {
-        // create a Path variable that leads to the notes file with the current selectedNoteID
-        // that the user plans to load
-        Path path = Paths.get("notes/" + noteID + ".note");
-        String line; // initialize a variable that will contain the read lines in the note
+        this.getScrubber().interactive(); // the scrubber leaves the disk to the editor for a moment
         try {
             this.enableDelete(); // enable the delete button
-            // instantiate a BufferedReader that will read the note file (given by the path variable) line by line
-            BufferedReader bufferedReader = Files.newBufferedReader(path);
 
-            // clear the editor of its contents
-            this.clearEditor();
+            this.pageEdited = false;
 
-            /*
-                while there are still lines we can read in the file, keep reading line after line and append each line
-                into the editor
-             */
-            while((line = bufferedReader.readLine()) != null) {
-                this.edText.setHtmlText(this.edText.getHtmlText() + line); // append the read line into the editor
+            // the checksum is read before the note, a note saved in between is a conflict when this note is saved
+            NoteMeta meta = this.getStore().meta(noteID);
+            this.loadedChecksum = meta.getChecksum();
+            this.editedStats = meta.getStats().isKnown() ? meta.getStats() : null;
+            if (LargeNote.isLarge(this.getStore().sizeOf(noteID))) {
+                // a large note is split into pages, and only the first page is loaded into the editor
+                this.setLargeNote(LargeNote.open(this.getStore(), noteID));
+                this.showPage(0);
+            } else {
+                this.setLargeNote(null);
+
+                /*
+                    read the whole note file and put it into the editor at once, the line breaks are removed since
+                    they were only added to make the note file more readable
+                 */
+                this.edText.setHtmlText(this.getStore().read(noteID).replace("\r", "").replace("\n", ""));
             }
 
-            // close the reader
-            bufferedReader.close();
+            // show the page buttons (pnlPager) below the editor only for large notes
+            this.layOutEditor();
+
             // enable the editor
             this.enableEditor();
+
+            // count the edits once the editor shows the note
+            Platform.runLater(this::watchEdits);
+            this.showStats();
+
+            // the matches of the find bar are in the note that was just loaded
+            if (this.pnlFind.isVisible()) {
+                this.findInNote();
+            }
         } catch (IOException e) {
             // disable the delete button
             this.disableDelete();
@@ -454,22 +2667,298 @@ public class Controller implements Initializable {
         }
     }
 
+    /**
+     * Places the page buttons (pnlPager) and the find bar (pnlFind) below the editor (edText), the page buttons
+     * are only shown for large notes.
+     */
+    private void layOutEditor() {
+        boolean paged = this.getLargeNote() != null;
+        this.pnlPager.setVisible(paged);
+        AnchorPane.setBottomAnchor(this.pnlFind, paged ? 30.0 : 0.0);
+        AnchorPane.setBottomAnchor(this.edText, (paged ? 30.0 : 0.0) + (this.pnlFind.isVisible() ? 35.0 : 0.0));
+    }
+
+    /**
+     * Opens the find bar (pnlFind) below the editor, the note is loaded into the editor first since the matches
+     * are highlighted there.
+     */
+    private void openFind() {
+        if (this.lvNotes.getSelectionModel().getSelectedItem() == null) {
+            return; // there is no note to find the text in
+        }
+        this.startEditing();
+
+        this.pnlFind.setVisible(true);
+        this.layOutEditor();
+        this.tfFind.requestFocus();
+        this.tfFind.selectAll();
+        this.findInNote();
+    }
+
+    /**
+     * Closes the find bar (pnlFind), a search that is still running is thrown away.
+     */
+    private void closeFind() {
+        if (!this.pnlFind.isVisible()) {
+            return;
+        }
+
+        this.pnlFind.setVisible(false);
+        this.findSearch++;
+        this.findCounts = null;
+        this.layOutEditor();
+    }
+
+    /**
+     * Counts the matches of the find bar's text (tfFind) in the note on a background thread, page by page for a
+     * large note, so typing in the find bar never waits for a note of many megabytes.
+     * Every change to the text starts a new search, and an older search stops at its next page.
+     * Afterwards the first match on the page in the editor (or else the first match of the note) is highlighted.
+     */
+    private void findInNote() {
+        String query = this.tfFind.getText();
+        int search = ++this.findSearch;
+        this.findCounts = null;
+        this.tfFind.getStyleClass().remove("invalid");
+        if (query.isEmpty() || !this.edText.isVisible()) {
+            this.lblFind.setText("");
+            return;
+        }
+
+        // the page in the editor is searched the way it is now, the other pages of a large note are read by the note
+        String shown = this.edText.getHtmlText();
+        LargeNote note = this.getLargeNote();
+        int page = note == null ? 0 : this.page;
+        int pages = note == null ? 1 : note.getPageCount();
+        this.lblFind.setText("Finding...");
+
+        this.noteFinder.execute(() -> {
+            int[] counts = new int[pages];
+            for (int p = 0; p < pages; p++) {
+                if (search != this.findSearch) {
+                    return; // the user typed on, so this search is not needed anymore
+                }
+
+                try {
+                    String html = p == page ? shown : note.readPage(p);
+                    counts[p] = TextSearch.count(HtmlConverter.text().convert(html), query, false);
+                } catch (IOException e) {
+                    // the page cannot be read right now, so it has no matches
+                }
+            }
+
+            Platform.runLater(() -> {
+                if (search != this.findSearch) {
+                    return; // another search started in the meantime
+                }
+
+                // start at the first match on the page in the editor, if it has one
+                this.findCounts = counts;
+                this.findMatch = 0;
+                if (counts[page] > 0) {
+                    for (int p = 0; p < page; p++) this.findMatch += counts[p];
+                }
+                this.showMatch();
+            });
+        });
+    }
+
+    /**
+     * Highlights the next or previous match of the find bar, going around at the end of the note.
+     * @param step - 1 for the next match, -1 for the previous one
+     */
+    private void moveMatch(int step) {
+        if (this.findCounts != null) {
+            this.findMatch += step;
+            this.showMatch();
+        }
+    }
+
+    /**
+     * Shows which match is highlighted in the find bar, and highlights it in the editor,
+     * after showing the page the match is on.
+     */
+    private void showMatch() {
+        int total = 0;
+        for (int count : this.findCounts) total += count;
+        if (total == 0) {
+            this.lblFind.setText("No matches");
+            if (!this.tfFind.getStyleClass().contains("invalid")) {
+                this.tfFind.getStyleClass().add("invalid");
+            }
+            return;
+        }
+
+        // find the page of the match, and which match it is on that page
+        this.findMatch = Math.floorMod(this.findMatch, total);
+        int page = 0, match = this.findMatch;
+        while (match >= this.findCounts[page]) {
+            match -= this.findCounts[page++];
+        }
+        this.lblFind.setText((this.findMatch + 1) + " of " + total);
+
+        if (this.getLargeNote() != null && page != this.page) {
+            this.showPage(page);
+
+            // the editor loads the new page first, the match can only be highlighted after that
+            int onPage = match;
+            Platform.runLater(() -> this.highlight(onPage));
+        } else {
+            this.highlight(match);
+        }
+    }
+
+    /**
+     * Selects a match of the find bar's text in the editor, which highlights it and scrolls to it.
+     * @param match - the index of the match on the page in the editor
+     */
+    private void highlight(int match) {
+        Node view = this.edText.lookup(".web-view");
+        if (!(view instanceof WebView)) {
+            return; // the editor cannot be searched, only the amount of matches is shown
+        }
+
+        // the HTMLEditor is a web page, so its own find is used: it starts at the top of the page and finds the
+        // text once for every match before the one to highlight
+        // (the text is handed to the page as a string member of the window, instead of being written into the script,
+        // so whatever was typed, e.g. a quote or a line break, is only ever searched for)
+        WebEngine engine = ((WebView) view).getEngine();
+        JSObject window = (JSObject) engine.executeScript("window");
+        window.setMember("gui101Find", this.tfFind.getText());
+        engine.executeScript("(function (query, match) {"
+                + "var selection = window.getSelection();"
+                + "selection.collapse(document.body, 0);"
+                + "for (var i = 0; i <= match; i++) { if (!window.find(query, false, false, false)) return; }"
+                + "})(window.gui101Find, " + match + ");");
+    }
+
+    /**
+     * Opens the find and replace window (ReplaceDialog), which replaces a text in every note.
+     * The note in the editor is saved first, so that the replacement neither misses nor overwrites its changes.
+     */
+    private void replaceInNotes() {
+        CompletableFuture<Boolean> saved = this.btnSave.isDisable() ? CompletableFuture.completedFuture(true) : this.save();
+
+        // the window opens once the note is saved, which is always on the JavaFX Application Thread
+        saved.thenAccept(ok -> {
+            if (!ok) {
+                return; // the replacement would overwrite the changes that are not saved
+            }
+
+            ReplaceDialog dialog = new ReplaceDialog(this.getStore());
+            dialog.setOnReplaced(batch -> this.replaced(batch));
+            dialog.showAndWait();
+        });
+    }
+
+    /**
+     * Updates the notes list and the indexes after the find and replace window (or the cleaner) changed a batch of notes.
+     * @param batch - the metadata of the changed notes
+     */
+    private void replaced(List<NoteMeta> batch) {
+        List<String> noteIDs = new ArrayList<>();
+        for (NoteMeta meta : batch) {
+            noteIDs.add(meta.getStrID());
+            this.getDuplicateIndex().put(meta.getStrID(), meta.getFingerprint());
+            this.getLinkIndex().put(meta.getStrID(), meta.getLinks());
+            this.getStatsIndex().put(meta);
+            this.getDateIndex().put(meta.getStrID(), meta.getModified());
+            this.undamaged(meta.getStrID());
+        }
+        this.indexRelated(batch);
+        this.getModel().getWindows().forEach(Controller::showStats);
+
+        // the sample and date of each changed note might have changed, which can move it in the notes list
+        this.rearrange(() -> {
+            for (NoteMeta meta : batch) {
+                NoteData note = this.getNoteList().get(meta.getStrID());
+                if (note != null) this.getNoteList().update(note, n -> {
+                    n.setStrSample(meta.getStrSample());
+                    n.setModified(meta.getModified());
+                });
+            }
+        });
+
+        // show the new text of the selected note, if it was changed
+        if (noteIDs.contains(this.getSelectedNoteID()) && this.lvNotes.getSelectionModel().getSelectedItem() != null) {
+            this.closeFind();
+            this.previewNote(this.getSelectedNoteID());
+        }
+        this.showBacklinks();
+
+        // the other windows show the new text of their selected note too, unless they are editing it
+        for (Controller window : this.getModel().getWindows()) {
+            if (window != this) window.changed(noteIDs);
+        }
+    }
+
+    /**
+     * Shows the new text of the selected note in the preview (pvNote), after it was changed in another window.
+     * A note that is being edited stays as it is, saving it asks the user whether to replace those changes.
+     * @param noteIDs - the IDs of the changed notes
+     */
+    private void changed(Collection<String> noteIDs) {
+        if (noteIDs.contains(this.getSelectedNoteID()) && this.pvNote.isVisible() && this.lvNotes.getSelectionModel().getSelectedItem() != null) {
+            this.closeFind();
+            this.previewNote(this.getSelectedNoteID());
+        }
+        this.showBacklinks();
+    }
+
+    /**
+     * Shows another page of the large note in the editor (edText), after keeping the edits of the current page.
+     * @param page - the index of the page to show
+     */
+    private void showPage(int page) {
+        if (page < 0 || page >= this.getLargeNote().getPageCount()) {
+            return; // there is no page before the first or after the last one
+        }
+
+        this.getScrubber().interactive();
+        try {
+            this.keepPage();
+
+            // load the page into the editor, without the line breaks like a whole note
+            this.edText.setHtmlText(this.getLargeNote().pageHtml(page).replace("\r", "").replace("\n", ""));
+            this.page = page;
+            this.pageEdited = false;
+
+            // update the page buttons
+            this.lblPage.setText("Part " + (page + 1) + " of " + this.getLargeNote().getPageCount());
+            this.btnPrevPage.setDisable(page == 0);
+            this.btnNextPage.setDisable(page == this.getLargeNote().getPageCount() - 1);
+        } catch (IOException e) {
+            // if the page cannot be read, show an alert window
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Failed to Load");
+            a.setHeaderText("Oop!");
+            a.setContentText("We can't load this part of the note right now, it might've been deleted or moved.");
+            a.showAndWait();
+        }
+    }
+
+    /**
+     * Keeps the edits of the page in the editor (edText) in the large note, until the note is saved.
+     */
+    private void keepPage() {
+        if (this.getLargeNote() != null && this.pageEdited) {
+            this.getLargeNote().update(this.page, this.edText.getHtmlText());
+            this.pageEdited = false;
+        }
+    }
+
     /**
      * Creates a new note file under the "notes" subdirectory.
      * The filename format is: <the note id>.note
      * @param noteID - the note id/filename to use in creating the file
      */
     private void newNote(String noteID) {
-        // create a Path variable that leads to the notes file with the noteID
-        // that the user created
-        Path path = Paths.get("notes/" + noteID + ".note");
-        
         try {
-            // create the necessary directories that the note file will be under
-            Files.createDirectories(path.getParent());
-
-            // create the note file and add empty content into it
-            Files.write(path, "".getBytes());
+            // create the note file (and the directories it will be under) with empty content
+            NoteMeta meta = this.getStore().create(noteID);
+            this.getStatsIndex().put(meta);
+            this.getDateIndex().put(noteID, meta.getModified());
+            this.showStats();
         } catch (IOException e) {
             // if the directory or file cannot be created, or some other error occurred, show an alert window
             Alert a = new Alert(Alert.AlertType.INFORMATION);
@@ -484,80 +2973,63 @@ public class Controller implements Initializable {
     }
 
     /**
-     * Lists all notes within the "notes" subdirectory and places them in a NoteHead
-     * inside the notes list (lvNotes).
-     * The note title/sample is read from 20 characters within the first line of each file.
+     * Lists all notes within the "notes" subdirectory on a background thread, and places them in a NoteHead
+     * inside the notes list (lvNotes) once they are read (see loadNotes()).
+     * The note title/sample and date are read from the metadata file of each note.
      */
-    public void loadNotes() {
-        // create a Path variable that leads to the directory that contains the notes files
-        Path path = Paths.get("notes/");
-
-        // create a builder that will contain the files that encountered an error while reading them
-        StringBuilder builder = new StringBuilder();
-        try {
-            // create a stream of Paths that lead to each individual file in the "notes" directory
-            Stream<Path> list = Files.list(path);
-
-            // filter each path to make sure that the path only leads to '.note' files
-            list.filter(p -> !Files.isDirectory(p) && p.toString().lastIndexOf(".note") != -1)
-                .forEach(p -> { // loop through each file that were kept in the list
-                    // get the noteID that the new NoteData will have, this noteID can be extracted from the file name
-                    String strID = p.toString().substring(6, p.toString().lastIndexOf(".note"));
-
-                    // instantiate a default NoteData object
-                    NoteData note = new NoteData();
-                    note.setStrID(strID); // set the noteID extracted from the file name to the new NoteData object
-
-                    // create a BasicFileAttributes variable in order to extract metadata from the file
-                    BasicFileAttributes attr;
-                    String line;  // initialize a variable that will contain the read lines in the note
-
+    private void listNotes() {
+        NoteStore store = this.getStore();
+        this.getModel().setDeletedWhileListing(new HashSet<>());
+        Thread thread = new Thread(() -> {
+            // contains the files that encountered an error while reading them
+            StringBuilder builder = new StringBuilder();
+            List<NoteMeta> listed = new ArrayList<>();
+            boolean failed = false;
+            try {
+                // loop through the ID of each '.note' file in the "notes" directory
+                for (String strID : store.list()) {
                     try {
-                        // instantiate a BufferedReader that will read the note file (given by the path variable) line by line
-                        BufferedReader bufferedReader = Files.newBufferedReader(p);
-
-                        // read the first line in the note file, to extract the note sample
-                        if((line = bufferedReader.readLine()) != null) {
-                            /*
-                            since the texts in the note file are actually in the HTML language, we remove the html components
-                            in the first 20 characters in order to extract the true note sample
-                             */
-                            note.setStrSample(String.format("%.20s", line.replaceAll("</p>", "</p>\n").replaceAll("<[^>]*>", "")));
-                        } else {
-                            // if the file contains nothing (e.g. a newly created note), we give a blank note sample
-                            note.setStrSample(" ");
-                        }
-
-                        // close the BufferedReader to allow other programs to access the file
-                        bufferedReader.close();
-
-                        // get the metadata of the file
-                        attr = Files.readAttributes(p, BasicFileAttributes.class);
-
-                        // set the date in the new NoteData with the creation time metadata of the file
-                        note.setDate(attr.creationTime().toMillis());
-
-                        // add the new NoteData to the notes variable which will then show up in the notes list
-                        this.getNotes().add(note);
+                        /*
+                            read the note's metadata, which contains the note sample and the date the note was
+                            created, if the metadata is missing it is rebuilt from the first line of the note file
+                         */
+                        listed.add(store.meta(strID));
                     } catch (IOException e) {
                         // if an error occurred while reading the file, append the file name onto the builder variable
-                        builder.append(p).append("\n");
+                        builder.append(store.pathOf(strID)).append("\n");
                     }
-                });
+                }
+            } catch (IOException e) {
+                failed = true; // the directory cannot be read
+            }
 
-            if (builder.length() > 0) {
-                // if there are files in the directory but all of them cannot be read,
-                // or some other error occurred, show an alert window
-                Alert a = new Alert(Alert.AlertType.INFORMATION);
-                a.setTitle("Failed to Load a Note");
-                a.setHeaderText("Oop!");
-                a.setContentText("We can't load these notes right now:\n" + builder.toString());
+            boolean unlisted = failed;
+            Platform.runLater(() -> {
+                try (StallWatchdog.Operation operation = Main.getWatchdog().begin("Listing the notes")) {
+                    this.loadNotes(listed, builder.toString(), unlisted);
+                }
+            });
+        }, "gui101-list");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-                // show the alert window but make the program window wait for the users response before enabling
-                // the main program window again
-                a.showAndWait();
-            }
-        } catch (IOException e) {
+    /**
+     * Merges the listed notes into the notes list, which might show the rows of the last session already (see
+     * restore()). A row the user did not change since it was painted is updated if the note changed since the session
+     * was saved (e.g. through the command line), and removed if the note is gone. A row the user changed is newer than
+     * its listed metadata, and stays as it is.
+     * @param listed - the metadata of every note that could be read
+     * @param failed - the files of the notes that could not be read, one per line
+     * @param unlisted - whether the notes could not be listed at all
+     */
+    private void loadNotes(List<NoteMeta> listed, String failed, boolean unlisted) {
+        Set<String> deleted = this.getModel().getDeletedWhileListing();
+        this.getModel().setDeletedWhileListing(null);
+        Map<String, NoteData> restored = this.restoredRows == null ? Collections.emptyMap() : this.restoredRows;
+        this.restoredRows = null;
+
+        if (unlisted) {
             // if the directory cannot be read, or some other error occurred, show an alert window
             Alert a = new Alert(Alert.AlertType.INFORMATION);
             a.setTitle("Failed to List Notes");
@@ -567,6 +3039,101 @@ public class Controller implements Initializable {
             // show the alert window but make the program window wait for the users response before enabling
             // the main program window again
             a.showAndWait();
+            this.startBackgroundWork();
+            return;
         }
+
+        List<NoteData> loaded = new ArrayList<>();
+        List<String> unprinted = new ArrayList<>();
+        Set<String> listedIDs = new HashSet<>();
+        this.rearrange(() -> {
+            for (NoteMeta meta : listed) {
+                String strID = meta.getStrID();
+                listedIDs.add(strID);
+                if (deleted.contains(strID)) {
+                    continue; // the user deleted the note while it was being listed
+                }
+
+                NoteData row = this.getNoteList().get(strID);
+                if (row == null) {
+                    // add a new NoteData to the loaded notes, which will then show up in the notes list
+                    loaded.add(meta.toNoteData());
+                    this.getTagIndex().put(strID, meta.getTags());
+                } else if (restored.containsKey(strID) && unchanged(row, restored.get(strID)) && !unchanged(meta.toNoteData(), row)) {
+                    // the note changed since the last session, and the user did not change its row since
+                    this.getNoteList().update(row, note -> {
+                        note.setStrSample(meta.getStrSample());
+                        note.setDate(meta.getCreated());
+                        note.setModified(meta.getModified());
+                        note.setTags(meta.getTags());
+                    });
+                    this.getTagIndex().put(strID, meta.getTags());
+                }
+
+                // add the note's fingerprint and links to their indexes, or read the note for them later
+                if (meta.getFingerprint() != null) {
+                    this.getDuplicateIndex().put(strID, meta.getFingerprint());
+                }
+                if (meta.getLinks() != null) {
+                    this.getLinkIndex().put(strID, meta.getLinks());
+                }
+                if (meta.getFingerprint() == null || meta.getLinks() == null || !meta.getStats().isKnown()) {
+                    unprinted.add(strID);
+                }
+
+                // add the note's counts to the totals, which only change by the differences from now on
+                this.getStatsIndex().put(meta);
+                this.getDateIndex().put(strID, meta.getModified());
+            }
+
+            // the rows of notes that were deleted since the last session are removed, unless the user saved them again
+            for (Map.Entry<String, NoteData> entry : restored.entrySet()) {
+                NoteData row = this.getNoteList().get(entry.getKey());
+                if (!listedIDs.contains(entry.getKey()) && row != null && unchanged(row, entry.getValue())) {
+                    this.getNoteList().remove(row);
+                    this.getTagIndex().remove(entry.getKey());
+                }
+            }
+
+            // sort the loaded notes once and add them to the notes list with a single change
+            this.getNoteList().addAll(loaded);
+        });
+
+        // fingerprint (and count) the notes that were saved before fingerprints, links or counts existed
+        this.fingerprintNotes(unprinted);
+        this.getModel().getWindows().forEach(Controller::showStats);
+
+        // index the words of every note in the background, from the word counts in their metadata
+        List<NoteMeta> indexed = new ArrayList<>();
+        for (NoteMeta meta : listed) {
+            if (!deleted.contains(meta.getStrID())) {
+                indexed.add(meta);
+            }
+        }
+        this.indexRelated(indexed);
+
+        if (failed.length() > 0) {
+            // if there are files in the directory but all of them cannot be read,
+            // or some other error occurred, show an alert window
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Failed to Load a Note");
+            a.setHeaderText("Oop!");
+            a.setContentText("We can't load these notes right now:\n" + failed);
+
+            // show the alert window but make the program window wait for the users response before enabling
+            // the main program window again
+            a.showAndWait();
+        }
+
+        // the notes are listed, so the work on them can start in the background
+        this.startBackgroundWork();
+    }
+
+    /**
+     * @return whether a row of the notes list still shows what another row showed (its sample, dates and tags)
+     */
+    private static boolean unchanged(NoteData row, NoteData other) {
+        return Objects.equals(row.getStrSample(), other.getStrSample()) && Objects.equals(row.getDate(), other.getDate())
+                && Objects.equals(row.getModified(), other.getModified()) && Objects.equals(row.getTags(), other.getTags());
     }
 }
@@ -0,0 +1,165 @@
+package gui101;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds clusters of near-duplicate notes from their MinHash fingerprints, without comparing every pair of notes.
+ * Each fingerprint is cut into 16 bands of 4 values, and the note is put into one bucket per band (locality
+ * sensitive hashing). Notes only become candidates if they share a bucket, which two notes with a similarity
+ * of 0.8 almost always do, and two notes with a similarity of 0.3 only with a chance of about 12%.
+ * The candidates are then checked with their whole fingerprints.
+ * Notes are added, changed and removed one at a time, so the index is kept up to date whenever a note is saved.
+ * The gui101-fingerprint thread adds fingerprints while the review of duplicates clusters them on a task thread,
+ * which is why the methods are synchronized.
+ */
+public class DuplicateIndex {
+    public static final int BANDS = 16, ROWS = MinHash.HASHES / BANDS;
+
+    // the least similarity of two notes in the same cluster
+    public static final double SIMILARITY = 0.8;
+
+    private final Map<String, int[]> fingerprints = new HashMap<>();
+    private final Map<Long, Set<String>> buckets = new HashMap<>();
+
+    /**
+     * Adds a note to the index, or replaces the fingerprint of a note that is already in it.
+     * @param noteID - the note ID
+     * @param fingerprint - the note's fingerprint, or null if the note has none (it is removed from the index)
+     */
+    public synchronized void put(String noteID, int[] fingerprint) {
+        this.remove(noteID);
+        if (fingerprint == null) {
+            return;
+        }
+
+        this.fingerprints.put(noteID, fingerprint);
+        for (int band = 0; band < BANDS; band++) {
+            this.buckets.computeIfAbsent(bucketOf(band, fingerprint), k -> new LinkedHashSet<>()).add(noteID);
+        }
+    }
+
+    /**
+     * Removes a note from the index.
+     * @param noteID - the note ID
+     */
+    public synchronized void remove(String noteID) {
+        int[] old = this.fingerprints.remove(noteID);
+        if (old == null) {
+            return;
+        }
+
+        for (int band = 0; band < BANDS; band++) {
+            Long bucket = bucketOf(band, old);
+            Set<String> notes = this.buckets.get(bucket);
+            if (notes != null) {
+                notes.remove(noteID);
+                if (notes.isEmpty()) {
+                    this.buckets.remove(bucket);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param noteID - a note ID
+     * @return whether the note has a fingerprint in the index
+     */
+    public synchronized boolean contains(String noteID) {
+        return this.fingerprints.containsKey(noteID);
+    }
+
+    /**
+     * Finds the clusters of near-duplicate notes.
+     * In every bucket with more than one note, each note joins the cluster of the first note it is similar enough
+     * to, so a bucket of m notes only needs about m comparisons when its notes are all alike.
+     * @return the clusters (each with at least 2 note IDs), the largest cluster first
+     */
+    public synchronized List<List<String>> clusters() {
+        Map<String, String> parents = new HashMap<>();
+
+        for (Set<String> bucket : this.buckets.values()) {
+            if (bucket.size() < 2) {
+                continue;
+            }
+
+            List<String> leaders = new ArrayList<>();
+            for (String noteID : bucket) {
+                int[] fingerprint = this.fingerprints.get(noteID);
+                String leader = null;
+                for (String candidate : leaders) {
+                    if (MinHash.similarity(fingerprint, this.fingerprints.get(candidate)) >= SIMILARITY) {
+                        leader = candidate;
+                        break;
+                    }
+                }
+
+                if (leader == null) {
+                    leaders.add(noteID);
+                } else {
+                    union(parents, leader, noteID);
+                }
+            }
+        }
+
+        // collect the notes of each cluster under its root
+        Map<String, List<String>> clusters = new HashMap<>();
+        for (String noteID : parents.keySet()) {
+            clusters.computeIfAbsent(find(parents, noteID), k -> new ArrayList<>()).add(noteID);
+        }
+
+        List<List<String>> found = new ArrayList<>();
+        for (List<String> cluster : clusters.values()) {
+            if (cluster.size() > 1) {
+                found.add(cluster);
+            }
+        }
+        found.sort((a, b) -> b.size() - a.size());
+        return found;
+    }
+
+    /**
+     * @return the bucket of a band of a fingerprint, the band number is part of it so bands never share buckets
+     */
+    private static Long bucketOf(int band, int[] fingerprint) {
+        long hash = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+            hash = hash * 0x100000001B3L + fingerprint[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Finds the root of a note's cluster (union-find), shortening the path to the root on the way.
+     */
+    private static String find(Map<String, String> parents, String noteID) {
+        String root = noteID;
+        while (parents.containsKey(root) && !parents.get(root).equals(root)) {
+            root = parents.get(root);
+        }
+
+        // point every note on the way directly to the root
+        String node = noteID;
+        while (!node.equals(root)) {
+            String next = parents.get(node);
+            parents.put(node, root);
+            node = next;
+        }
+        parents.putIfAbsent(root, root);
+        return root;
+    }
+
+    /**
+     * Puts two notes into the same cluster.
+     */
+    private static void union(Map<String, String> parents, String a, String b) {
+        String rootA = find(parents, a), rootB = find(parents, b);
+        if (!rootA.equals(rootB)) {
+            parents.put(rootB, rootA);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package gui101;
+
+import javafx.collections.FXCollections;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The review panel of the near-duplicate notes, a window that lists every cluster of notes that are almost the same.
+ * The user can merge the notes of a cluster into its newest note, or keep only the newest note and delete the rest.
+ * The panel itself does not change any note, it calls the actions given by the Controller.
+ */
+public class DuplicateReview extends Dialog<ButtonType> {
+    private ListView<List<NoteData>> lvClusters;
+    private Button btnMerge, btnKeepNewest;
+
+    // the actions of the buttons, they return whether the cluster was handled and can be removed from the panel
+    private Predicate<List<NoteData>> onMerge, onKeepNewest;
+
+    /**
+     * Initializes the panel with the clusters to review.
+     * @param clusters - the clusters, each sorted from the newest note to the oldest
+     */
+    public DuplicateReview(List<List<NoteData>> clusters) {
+        super();
+        this.setTitle("Near-Duplicate Notes");
+        this.setHeaderText("These notes are almost the same.\nMerge them into the newest note, or keep only the newest note.");
+
+        // list every cluster, a cluster shows the sample and date of each of its notes
+        this.setLvClusters(new ListView<>(FXCollections.observableArrayList(clusters)));
+        this.getLvClusters().setPrefSize(420.0, 300.0);
+        this.getLvClusters().setCellFactory(param -> new ClusterCell());
+
+        this.setBtnMerge(new Button("Merge"));
+        this.setBtnKeepNewest(new Button("Keep Newest"));
+        this.getBtnMerge().setOnAction(v -> this.handle(this.getOnMerge()));
+        this.getBtnKeepNewest().setOnAction(v -> this.handle(this.getOnKeepNewest()));
+
+        // the buttons only work on a selected cluster
+        this.getBtnMerge().setDisable(true);
+        this.getBtnKeepNewest().setDisable(true);
+        this.getLvClusters().getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
+            this.getBtnMerge().setDisable(newValue == null);
+            this.getBtnKeepNewest().setDisable(newValue == null);
+        });
+
+        this.getDialogPane().setContent(new VBox(10.0, this.getLvClusters(), new HBox(10.0, this.getBtnMerge(), this.getBtnKeepNewest())));
+        this.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+    }
+
+    /**
+     * Runs an action on the selected cluster, and removes the cluster from the panel if the action handled it.
+     * @param action - the action of the clicked button
+     */
+    private void handle(Predicate<List<NoteData>> action) {
+        List<NoteData> cluster = this.getLvClusters().getSelectionModel().getSelectedItem();
+        if (cluster != null && action != null && action.test(cluster)) {
+            this.getLvClusters().getItems().remove(cluster);
+        }
+    }
+
+    /**
+     * @return the list of clusters
+     */
+    public ListView<List<NoteData>> getLvClusters() {
+        return lvClusters;
+    }
+
+    /**
+     * @return the button that merges the selected cluster
+     */
+    public Button getBtnMerge() {
+        return btnMerge;
+    }
+
+    /**
+     * @return the button that keeps only the newest note of the selected cluster
+     */
+    public Button getBtnKeepNewest() {
+        return btnKeepNewest;
+    }
+
+    /**
+     * @return the action that merges a cluster
+     */
+    public Predicate<List<NoteData>> getOnMerge() {
+        return onMerge;
+    }
+
+    /**
+     * @return the action that keeps only the newest note of a cluster
+     */
+    public Predicate<List<NoteData>> getOnKeepNewest() {
+        return onKeepNewest;
+    }
+
+    /**
+     * Sets the list of clusters
+     * @param lvClusters - the list view
+     */
+    public void setLvClusters(ListView<List<NoteData>> lvClusters) {
+        this.lvClusters = lvClusters;
+    }
+
+    /**
+     * Sets the button that merges the selected cluster
+     * @param btnMerge - the button
+     */
+    public void setBtnMerge(Button btnMerge) {
+        this.btnMerge = btnMerge;
+    }
+
+    /**
+     * Sets the button that keeps only the newest note of the selected cluster
+     * @param btnKeepNewest - the button
+     */
+    public void setBtnKeepNewest(Button btnKeepNewest) {
+        this.btnKeepNewest = btnKeepNewest;
+    }
+
+    /**
+     * Sets the action that merges a cluster
+     * @param onMerge - returns whether the cluster was merged
+     */
+    public void setOnMerge(Predicate<List<NoteData>> onMerge) {
+        this.onMerge = onMerge;
+    }
+
+    /**
+     * Sets the action that keeps only the newest note of a cluster
+     * @param onKeepNewest - returns whether the other notes were deleted
+     */
+    public void setOnKeepNewest(Predicate<List<NoteData>> onKeepNewest) {
+        this.onKeepNewest = onKeepNewest;
+    }
+
+    /**
+     * Shows a cluster as the amount of notes followed by the sample and date of each note.
+     */
+    private static class ClusterCell extends ListCell<List<NoteData>> {
+        @Override
+        protected void updateItem(List<NoteData> item, boolean empty) {
+            super.updateItem(item, empty);
+
+            if (item == null || empty) {
+                this.setText(null);
+                return;
+            }
+
+            StringBuilder text = new StringBuilder(item.size() + " notes");
+            for (NoteData note : item) {
+                text.append("\n    ").append(note.getStrSample().trim())
+                        .append("  (").append(note.getDateFormat().format(new Date(note.getModified()))).append(")");
+            }
+            this.setText(text.toString());
+        }
+    }
+}
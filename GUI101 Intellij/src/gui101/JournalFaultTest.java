@@ -0,0 +1,123 @@
+package gui101;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A test of the journal (see NoteJournal) when a change fails midway, for a build server: it fails (exit code 1) if
+ * a failed change is lost, or keeps the journal from being emptied once the note is whole again.
+ * A change that fails after it began (e.g. the disk is full while the metadata is written) might leave the note file
+ * replaced but its metadata not, so the journal must keep the change until it is done again. But it must still stop
+ * counting as running, or no checkpoint ever happens again and the journal grows forever.
+ * The test makes saves fail by putting a directory where a temporary file goes: the note's, which fails the save
+ * before the note is touched, and the metadata's, which fails it after the note file was replaced. It then checks
+ * that the journal kept the failed saves, that saving the note again lets the journal be emptied, that deleting a
+ * note that is already gone is not an error, and that opening the notes again recovers the half saved note so that
+ * the note and its metadata agree.
+ * It runs in a temporary directory, which it removes afterwards.
+ *
+ * Usage: java -cp <classes> gui101.JournalFaultTest
+ */
+public class JournalFaultTest {
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("gui101-journal");
+        try {
+            run(directory);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        System.out.println(failures == 0 ? "PASS" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs the checks on a store in the given directory.
+     */
+    private static void run(Path directory) throws IOException {
+        NoteStore store = new NoteStore(directory);
+        store.open();
+        Path journal = store.getJournal().getFile();
+        long now = System.currentTimeMillis();
+
+        // a save that works leaves its change in the journal, which is far from the size of a checkpoint
+        store.write("saved", "<p>saved</p>", now, now);
+        check("a save is in the journal", sizeOf(journal) > 0);
+
+        // a directory where the temporary file of the note goes makes the next save fail before the note is touched
+        Path noteTemp = directory.resolve("failed" + NoteStore.NOTE + NoteStore.TEMP);
+        Files.createDirectories(noteTemp);
+        check("the save into a directory fails", fails(store, "failed", "<p>failed</p>", now));
+        store.getJournal().checkpoint();
+        check("the failed save is kept in the journal", sizeOf(journal) > 0);
+
+        // once the note is saved, the failed save does not matter anymore and the journal can be emptied
+        Files.delete(noteTemp);
+        store.write("failed", "<p>saved after all</p>", now, now);
+        store.getJournal().checkpoint();
+        check("saving the note again lets the journal be emptied", sizeOf(journal) == 0);
+
+        // a directory where the temporary file of the metadata goes makes the save fail after the note was replaced
+        Path metaTemp = directory.resolve("half" + NoteStore.META + NoteStore.TEMP);
+        store.write("half", "<p>old</p>", now, now);
+        Files.createDirectories(metaTemp);
+        check("the save of the metadata into a directory fails", fails(store, "half", "<p>new</p>", now + 1));
+
+        // a note that another window already deleted is deleted without an error
+        try {
+            store.delete("missing");
+            check("deleting a deleted note works", true);
+        } catch (IOException e) {
+            check("deleting a deleted note works", false);
+        }
+
+        store.close();
+        check("the half saved note is kept in the journal", sizeOf(journal) > 0);
+
+        // opening the notes again saves the note again from the journal, and then empties it
+        Files.delete(metaTemp);
+        store = new NoteStore(directory);
+        store.open();
+        NoteMeta meta = store.readMeta("half");
+        check("the half saved note is saved again", store.read("half").equals("<p>new</p>"));
+        check("the note and its metadata agree", meta != null && store.checksumOfNote("half").equals(meta.getChecksum()));
+        check("the recovery empties the journal", sizeOf(journal) == 0);
+        store.close();
+    }
+
+    /**
+     * @return the size of the journal, which is 0 if a checkpoint deleted it
+     */
+    private static long sizeOf(Path journal) throws IOException {
+        return Files.exists(journal) ? Files.size(journal) : 0;
+    }
+
+    /**
+     * @return whether saving a note fails
+     */
+    private static boolean fails(NoteStore store, String noteID, String html, long modified) {
+        try {
+            store.write(noteID, html, modified, modified);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Prints the result of a check, and counts it if it failed.
+     */
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "ok     " : "FAILED ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
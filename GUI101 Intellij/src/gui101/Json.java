@@ -0,0 +1,73 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Small helpers for writing JSON text without loading a JSON library.
+ * Only strings need escaping, numbers and booleans are written as they are.
+ */
+final class Json {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Json() {
+    }
+
+    /**
+     * Quotes and escapes a string so that it can be used as a JSON value.
+     * @param text - the text to quote
+     * @return the JSON string (including the surrounding quotes)
+     */
+    static String quote(String text) {
+        StringBuilder out = new StringBuilder(text.length() + 2);
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            escape(out, text.charAt(i));
+        }
+        return out.append('"').toString();
+    }
+
+    /**
+     * Quotes and escapes everything that can be read from the reader, without holding all of it in memory.
+     * @param in - the text to quote
+     * @param out - where the JSON string (including the surrounding quotes) is written
+     * @throws IOException if reading or writing fails
+     */
+    static void quote(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[8192];
+        StringBuilder escaped = new StringBuilder(buffer.length + 64);
+        int read;
+
+        out.write('"');
+        while ((read = in.read(buffer)) != -1) {
+            escaped.setLength(0);
+            for (int i = 0; i < read; i++) {
+                escape(escaped, buffer[i]);
+            }
+            out.append(escaped);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Appends a single character, escaped if JSON requires it.
+     * @param out - where the character is written
+     * @param c - the character
+     */
+    private static void escape(StringBuilder out, char c) {
+        switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                } else {
+                    out.append(c);
+                }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package gui101;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A note that is too large to be edited as one document, split into pages of about 64 KB each.
+ * Only the page that is shown in the editor is held in memory, every other page is read from the note file
+ * when it is needed. Pages end at the end of a paragraph (the line breaks that HtmlNormalizer adds after every "</p>"),
+ * so each page can be edited on its own.
+ * When the note is saved, only the pages that were edited are taken from memory, the unchanged pages are
+ * copied from the old note file through the file channel without being decoded.
+ * The note file is read through the note store (see NoteStore.openContent()), so a large note in an encrypted notebook
+ * only decrypts the chunks of the page that is read.
+ */
+public class LargeNote {
+    // notes larger than this (in bytes) are edited page by page
+    public static final long THRESHOLD = 1024 * 1024;
+
+    // the size (in bytes) a page grows to before it ends at the next paragraph
+    public static final int PAGE_SIZE = 64 * 1024;
+
+    private static final byte[] BODY = "<body".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BODY_END = "</body>".getBytes(StandardCharsets.US_ASCII);
+
+    private final NoteStore store;
+    private final String noteID;
+    private String header, footer;
+
+    // where each page starts in the note file (in bytes), the last value is where the last page ends
+    private long[] offsets, savedOffsets;
+
+    // the pages that were edited since the note was last saved
+    // (pages are also read by the find bar on a background thread, while the user edits another page)
+    private final Map<Integer, String> edited = new ConcurrentHashMap<>();
+
+    /**
+     * Initializes a large note over its file, the file must be scanned with scan() before it is used.
+     * @param store - the note store the note is in
+     * @param noteID - the note ID
+     */
+    private LargeNote(NoteStore store, String noteID) {
+        this.store = store;
+        this.noteID = noteID;
+    }
+
+    /**
+     * @param size - the size of a note file (in bytes)
+     * @return whether the note is large enough to be edited page by page
+     */
+    public static boolean isLarge(long size) {
+        return size > THRESHOLD;
+    }
+
+    /**
+     * Opens a large note by scanning its file once for the page boundaries.
+     * @param store - the note store the note is in
+     * @param noteID - the note ID
+     * @return the opened note
+     * @throws IOException if the file cannot be read
+     */
+    public static LargeNote open(NoteStore store, String noteID) throws IOException {
+        LargeNote note = new LargeNote(store, noteID);
+        note.scan();
+        return note;
+    }
+
+    /**
+     * Finds the html around the body (which is repeated on every page) and the page boundaries inside the body.
+     * @throws IOException if the file cannot be read
+     */
+    private void scan() throws IOException {
+        try (FileChannel channel = this.store.openContent(this.noteID)) {
+            long size = channel.size();
+
+            // the header ends after the body tag, which is always near the start of the file
+            byte[] start = read(channel, 0, (int) Math.min(size, 4096));
+            int body = indexOf(start, BODY, 0);
+            int bodyStart = body == -1 ? 0 : indexOf(start, new byte[] { '>' }, body) + 1;
+            this.header = new String(start, 0, bodyStart, StandardCharsets.UTF_8);
+
+            // the footer starts at the closing body tag, which is always near the end of the file
+            long tailStart = Math.max(bodyStart, size - 4096);
+            byte[] tail = read(channel, tailStart, (int) (size - tailStart));
+            int bodyEnd = lastIndexOf(tail, BODY_END);
+            long footerStart = bodyEnd == -1 ? size : tailStart + bodyEnd;
+            this.footer = new String(tail, (int) (footerStart - tailStart), (int) (size - footerStart), StandardCharsets.UTF_8);
+
+            this.offsets = this.findPages(channel, bodyStart, footerStart);
+        }
+    }
+
+    /**
+     * Streams through the body once and ends a page at the first line break after PAGE_SIZE bytes.
+     * If a page reaches twice the size without a line break, it ends after the next tag instead.
+     * Both are single byte characters, so a page never ends in the middle of a UTF-8 character.
+     * @return the page offsets
+     */
+    private long[] findPages(FileChannel channel, long bodyStart, long bodyEnd) throws IOException {
+        long[] found = new long[16];
+        int count = 0;
+        found[count++] = bodyStart;
+
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        long position = bodyStart, pageStart = bodyStart;
+        while (position < bodyEnd) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), bodyEnd - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+
+            for (int i = 0; i < read; i++) {
+                long length = position + i + 1 - pageStart;
+                byte b = buffer.get(i);
+                if ((length >= PAGE_SIZE && b == '\n') || (length >= PAGE_SIZE * 2 && b == '>')) {
+                    if (count == found.length) found = Arrays.copyOf(found, count * 2);
+                    pageStart = position + i + 1;
+                    found[count++] = pageStart;
+                }
+            }
+            position += read;
+        }
+
+        // the end of the last page, unless the last page would be empty
+        if (found[count - 1] != bodyEnd || count == 1) {
+            if (count == found.length) found = Arrays.copyOf(found, count + 1);
+            found[count++] = bodyEnd;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * @return the amount of pages
+     */
+    public int getPageCount() {
+        return this.offsets.length - 1;
+    }
+
+    /**
+     * Reads the body html of a page, from memory if it was edited or from the note file otherwise.
+     * @param page - the page index
+     * @return the html of the page, without the header and footer
+     * @throws IOException if the page cannot be read
+     */
+    public String readPage(int page) throws IOException {
+        String html = this.edited.get(page);
+        if (html != null) {
+            return html;
+        }
+
+        try (FileChannel channel = this.store.openContent(this.noteID)) {
+            return new String(read(channel, this.offsets[page], (int) (this.offsets[page + 1] - this.offsets[page])), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param page - the page index
+     * @return the html of a page as a complete document, which can be loaded into the editor
+     * @throws IOException if the page cannot be read
+     */
+    public String pageHtml(int page) throws IOException {
+        return this.header + this.readPage(page) + this.footer;
+    }
+
+    /**
+     * Keeps the edited html of a page until the note is saved.
+     * @param page - the page index
+     * @param editorHtml - the html of the page as returned by the editor
+     */
+    public void update(int page, String editorHtml) {
+        // keep only the normalized body, which ends each paragraph with a line break the same way save() does
+        String body = HtmlNormalizer.fragment().normalize(NoteImporter.bodyOf(editorHtml));
+        if (!body.isEmpty() && !body.endsWith("\n")) {
+            body += "\n";
+        }
+        this.edited.put(page, body);
+    }
+
+    /**
+     * @return whether any page was edited since the note was last saved
+     */
+    public boolean isEdited() {
+        return !this.edited.isEmpty();
+    }
+
+    /**
+     * Writes the whole note into a new file: the edited pages from memory, and the unchanged pages copied from
+     * the current note file. The new page offsets are used once committed() is called.
+     * @param out - the new note file
+     * @throws IOException if the note cannot be written
+     */
+    public void writeTo(FileChannel out) throws IOException {
+        long[] written = new long[this.offsets.length];
+        try (FileChannel in = this.store.openContent(this.noteID)) {
+            out.write(ByteBuffer.wrap(this.header.getBytes(StandardCharsets.UTF_8)));
+
+            for (int page = 0; page < this.getPageCount(); page++) {
+                written[page] = out.position();
+                String html = this.edited.get(page);
+                if (html != null) {
+                    ByteBuffer bytes = ByteBuffer.wrap(html.getBytes(StandardCharsets.UTF_8));
+                    while (bytes.hasRemaining()) out.write(bytes);
+                } else {
+                    long position = this.offsets[page], end = this.offsets[page + 1];
+                    while (position < end) {
+                        position += in.transferTo(position, end - position, out);
+                    }
+                }
+            }
+
+            written[this.getPageCount()] = out.position();
+            out.write(ByteBuffer.wrap(this.footer.getBytes(StandardCharsets.UTF_8)));
+        }
+        this.savedOffsets = written;
+    }
+
+    /**
+     * Called after the file written by writeTo() replaced the note file, the edited pages are now on disk.
+     */
+    public void committed() {
+        if (this.savedOffsets != null) {
+            this.offsets = this.savedOffsets;
+            this.savedOffsets = null;
+        }
+        this.edited.clear();
+    }
+
+    /**
+     * Reads a range of the file.
+     */
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * @return the first index of the needle in the bytes at or after from, or -1
+     */
+    private static int indexOf(byte[] bytes, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the last index of the needle in the bytes, or -1
+     */
+    private static int lastIndexOf(byte[] bytes, byte[] needle) {
+        outer:
+        for (int i = bytes.length - needle.length; i >= 0; i--) {
+            for (int j = 0; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
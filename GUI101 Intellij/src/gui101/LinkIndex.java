@@ -0,0 +1,126 @@
+package gui101;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of which notes link to which notes, in both directions, so the notes that link to a note (its
+ * backlinks) are found without reading any note.
+ * A link is an html link whose address is "note:" followed by the ID of the linked note, e.g.
+ * <a href="note:1b4e28ba-2fa1-11d2-883f-0016d3cca427">Groceries</a>.
+ * The links of each note are also stored in its metadata, so the index is built from the metadata when the notes
+ * are loaded, and afterwards only the links that were added to or removed from a saved note are changed.
+ * The links are put by the gui101-fingerprint thread and read by the JavaFX thread to show the backlinks of the
+ * selected note, so the methods lock the index.
+ */
+public class LinkIndex {
+    // the address of a link to a note starts with this
+    public static final String SCHEME = "note:";
+
+    // matches the address of every link to a note in the html, the note ID is the first group
+    private static final Pattern LINK = Pattern.compile("href\\s*=\\s*[\"']" + SCHEME + "([^\"']+)[\"']", Pattern.CASE_INSENSITIVE);
+
+    // the notes each note links to, and the notes that link to each note
+    private final Map<String, Set<String>> links = new HashMap<>();
+    private final Map<String, Set<String>> backlinks = new HashMap<>();
+
+    /**
+     * Adds a note to the index, or replaces the links of a note that is already in it.
+     * Only the added and removed links change the backlinks of other notes.
+     * @param noteID - the note ID
+     * @param targets - the IDs of the notes the note links to
+     */
+    public synchronized void put(String noteID, Set<String> targets) {
+        Set<String> old = this.links.getOrDefault(noteID, Collections.emptySet());
+
+        for (String target : old) {
+            if (!targets.contains(target)) {
+                this.unlink(noteID, target);
+            }
+        }
+        for (String target : targets) {
+            if (!old.contains(target)) {
+                this.backlinks.computeIfAbsent(target, k -> new HashSet<>()).add(noteID);
+            }
+        }
+
+        if (targets.isEmpty()) {
+            this.links.remove(noteID);
+        } else {
+            this.links.put(noteID, new HashSet<>(targets));
+        }
+    }
+
+    /**
+     * Removes a note and its links from the index. The links other notes have to it are kept, since they are
+     * still in the html of those notes.
+     * @param noteID - the note ID
+     */
+    public synchronized void remove(String noteID) {
+        Set<String> old = this.links.remove(noteID);
+        if (old != null) {
+            for (String target : old) {
+                this.unlink(noteID, target);
+            }
+        }
+    }
+
+    /**
+     * Removes a note from the backlinks of a note it does not link to anymore.
+     */
+    private void unlink(String noteID, String target) {
+        Set<String> sources = this.backlinks.get(target);
+        if (sources != null) {
+            sources.remove(noteID);
+            if (sources.isEmpty()) {
+                this.backlinks.remove(target);
+            }
+        }
+    }
+
+    /**
+     * @param noteID - a note ID
+     * @return the IDs of the notes the note links to
+     */
+    public synchronized Set<String> linksOf(String noteID) {
+        return new TreeSet<>(this.links.getOrDefault(noteID, Collections.emptySet()));
+    }
+
+    /**
+     * @param noteID - a note ID
+     * @return the IDs of the notes that link to the note
+     */
+    public synchronized Set<String> backlinksOf(String noteID) {
+        return new TreeSet<>(this.backlinks.getOrDefault(noteID, Collections.emptySet()));
+    }
+
+    /**
+     * Finds the links to other notes in the html of a note.
+     * @param html - the html of the note
+     * @return the IDs of the linked notes
+     */
+    public static Set<String> parseLinks(String html) {
+        Set<String> found = new TreeSet<>();
+        Matcher matcher = LINK.matcher(html);
+        while (matcher.find()) {
+            found.add(matcher.group(1).trim());
+        }
+        return found;
+    }
+
+    /**
+     * @param noteID - the ID of the note to link to
+     * @param title - the text of the link
+     * @return the html of a link to the note
+     */
+    public static String linkTo(String noteID, String title) {
+        String text = NoteImporter.escape(title.trim());
+        return "<a href=\"" + SCHEME + noteID + "\">" + (text.isEmpty() ? noteID : text) + "</a>";
+    }
+}
@@ -1,38 +1,81 @@
 package gui101;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 public class Main extends Application {
+    // watches the JavaFX Application Thread for the moments the program freezes, which are logged once it took longer
+    // than -Dgui101.stallMillis=<ms> (250 by default) to respond, and dumped into "stalls.log" if it stays frozen
+    private static final StallWatchdog WATCHDOG = new StallWatchdog(Platform::runLater,
+            Long.getLong("gui101.stallMillis", 250), Paths.get("stalls.log"));
 
     @Override
     public void start(Stage primaryStage) throws Exception{
+        // start watching for freezes before the first window lists the notes
+        WATCHDOG.start();
+
+        // show the first program window on the active notebook, more windows and notebooks can be opened from it
+        // (the other notebooks are only opened once they are switched to)
+        // (an encrypted notebook is unlocked first, the program opens the default notebook if the user does not)
+        Notebooks notebooks = Notebooks.load();
+        Path directory = notebooks.getActiveDirectory();
+        if (!PasswordDialog.unlock(notebooks.getActive(), directory)) {
+            directory = Notebooks.DEFAULT_DIRECTORY;
+        }
+        openWindow(primaryStage, directory);
+    }
+
+    /**
+     * Shows a program window in a stage. Every window has its own Controller, but the windows on the same notebook
+     * share its notes (see NoteModel).
+     * @param stage - the stage of the window
+     * @param directory - the notes directory of the notebook the window shows (see Notebooks)
+     * @return the controller of the window
+     * @throws IOException if the fxml file cannot be loaded
+     */
+    public static Controller openWindow(Stage stage, Path directory) throws IOException {
         // assign the fxml file path into an FXMLLoader variable
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("Main.fxml"));
+        FXMLLoader loader = new FXMLLoader(Main.class.getResource("Main.fxml"));
+
+        // the controller of the window is created for its notebook
+        loader.setControllerFactory(type -> new Controller(directory));
 
         // after loading the fxml file into memory, assign it into a Parent variable
         Parent root = loader.load();
 
         // set the stage title
-        primaryStage.setTitle("Hello World");
+        stage.setTitle("Hello World");
 
         // set the stage scene with a root loaded by the Parent variable
-        primaryStage.setScene(new Scene(root));
+        stage.setScene(new Scene(root));
 
         // initialize the style of the stage window with an undecorated one (one without a toolbar)
-        primaryStage.initStyle(StageStyle.UNDECORATED);
+        stage.initStyle(StageStyle.UNDECORATED);
 
         // show the stage window
-        primaryStage.show();
+        stage.show();
 
         // set the stage for the FXML controller
-        loader.<Controller>getController().setStage(primaryStage);
+        Controller controller = loader.getController();
+        controller.setStage(stage);
+        return controller;
     }
 
+    /**
+     * @return the watchdog of the JavaFX Application Thread, which every window tells what it is doing
+     */
+    public static StallWatchdog getWatchdog() {
+        return WATCHDOG;
+    }
 
     public static void main(String[] args) {
         launch(args); // start the program
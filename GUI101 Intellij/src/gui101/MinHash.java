@@ -0,0 +1,124 @@
+package gui101;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fingerprints the visible text of a note, so that notes with almost the same text have almost the same fingerprint.
+ * The text is split into shingles (every run of 3 words), and the fingerprint keeps the smallest value of each of
+ * 64 different hash functions over the shingles (MinHash). The share of equal values in two fingerprints is an
+ * estimate of how many shingles the two notes share (their Jaccard similarity), without comparing the notes.
+ */
+public final class MinHash {
+    // the amount of hash functions, which is the length of a fingerprint
+    public static final int HASHES = 64;
+
+    // the amount of words in a shingle
+    private static final int SHINGLE = 3;
+
+    // the seed of every hash function
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < HASHES; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(seed);
+        }
+    }
+
+    private MinHash() {
+    }
+
+    /**
+     * Fingerprints the visible text of a note.
+     * @param html - the html of the note
+     * @return the fingerprint, or null if the note has no words to fingerprint
+     */
+    public static int[] of(String html) {
+        List<String> words = HtmlConverter.wordsOf(HtmlConverter.text().convert(html));
+        if (words.isEmpty()) {
+            return null;
+        }
+
+        int[] fingerprint = new int[HASHES];
+        Arrays.fill(fingerprint, Integer.MAX_VALUE);
+
+        // a note shorter than a shingle is a single shingle
+        int shingles = Math.max(1, words.size() - SHINGLE + 1);
+        for (int i = 0; i < shingles; i++) {
+            long shingle = 0;
+            for (int j = i; j < Math.min(words.size(), i + SHINGLE); j++) {
+                shingle = shingle * 31 + words.get(j).hashCode();
+            }
+
+            for (int k = 0; k < HASHES; k++) {
+                int value = (int) (mix(shingle ^ SEEDS[k]) >>> 33);
+                if (value < fingerprint[k]) {
+                    fingerprint[k] = value;
+                }
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @param a - a fingerprint
+     * @param b - another fingerprint
+     * @return the estimated share of shingles the two notes have in common, from 0 to 1
+     */
+    public static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return equal / (double) HASHES;
+    }
+
+    /**
+     * @param fingerprint - a fingerprint
+     * @return the fingerprint as hexadecimal text, to store it in the note's metadata
+     */
+    public static String toText(int[] fingerprint) {
+        StringBuilder text = new StringBuilder(HASHES * 8);
+        for (int value : fingerprint) {
+            String hex = Integer.toHexString(value);
+            for (int i = hex.length(); i < 8; i++) {
+                text.append('0');
+            }
+            text.append(hex);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param text - a fingerprint as returned by toText(), or null
+     * @return the fingerprint, or null if the text is missing or not a fingerprint
+     */
+    public static int[] fromText(String text) {
+        if (text == null || text.length() != HASHES * 8) {
+            return null;
+        }
+
+        try {
+            int[] fingerprint = new int[HASHES];
+            for (int i = 0; i < HASHES; i++) {
+                fingerprint[i] = Integer.parseUnsignedInt(text.substring(i * 8, i * 8 + 8), 16);
+            }
+            return fingerprint;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Scrambles the bits of a number (the finalizer of SplitMix64), used as the hash function.
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -2,7 +2,11 @@ package gui101;
 
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
@@ -10,18 +14,34 @@ import java.util.Date;
 
 public class NoteCell extends ListCell<NoteData> {
     private AnchorPane pnlCell;
-    private Label lblSample, lblDate;
+    private Label lblSample, lblDate, lblGroup, lblTags;
+
+    // the thumbnail of the note below its sample, and the gray box shown in its place until it is made
+    private ImageView ivThumbnail;
+    private Rectangle rctPlaceholder;
+
+    // the sorted notes the cell shows, used to find the date shown and whether the cell starts a group
+    private NoteList noteList;
+
+    // makes the thumbnails of the notes in the background (see NoteThumbnails)
+    private NoteThumbnails thumbnails;
 
     /**
      * Initializes Note data with default values for each attribute and initializes
      * the positioning and specific styles for the components in the list cell.
+     * @param noteList - the sorted notes shown in the list
+     * @param thumbnails - the thumbnails of the notes, shown below the note samples if they are enabled
      */
-    public NoteCell() {
+    public NoteCell(NoteList noteList, NoteThumbnails thumbnails) {
         super();
+        this.setNoteList(noteList);
+        this.setThumbnails(thumbnails);
 
-        // instantiate the Labels that will be displayed (note sample label and date label)
+        // instantiate the Labels that will be displayed (note sample, date, group header and tags labels)
         this.setLblSample(new Label());
         this.setLblDate(new Label());
+        this.setLblGroup(new Label());
+        this.setLblTags(new Label());
 
         // update the note sample label with the parameters below
         this.getLblSample().setFont(Font.font("System", FontWeight.BOLD, 14)); // update the text style
@@ -47,13 +67,60 @@ public class NoteCell extends ListCell<NoteData> {
         this.getLblDate().setMinSize(63.0, 20.0);
         this.getLblDate().setMaxSize(63.0, 20.0);
 
-        // update the cells main contain with an AnchorPane that contains the note sample and date labels
-        this.setPnlCell(new AnchorPane(this.getLblDate(), this.getLblSample()));
+        // update the group header label, which is only shown above the first note of each group (e.g. Today)
+        this.getLblGroup().setFont(Font.font("System", FontWeight.BOLD, 10));
+        this.getLblGroup().setLayoutX(0.0);
+        this.getLblGroup().setLayoutY(0.0);
+        this.getLblGroup().setPrefSize(188.0, 20.0);
+        this.getLblGroup().getStyleClass().add("note-group");
+
+        // update the tags label, which is only shown below the note sample if the note has tags
+        this.getLblTags().setFont(new Font("System", 9));
+        this.getLblTags().setLayoutX(10.0);
+        this.getLblTags().setPrefSize(178.0, 14.0);
+        this.getLblTags().getStyleClass().add("note-tags");
+
+        // update the thumbnail, which is only shown below the note sample (and the tags) if thumbnails are enabled,
+        // the placeholder lies under it, so it shows until the thumbnail is made
+        this.setIvThumbnail(new ImageView());
+        this.getIvThumbnail().setLayoutX(10.0);
+        this.getIvThumbnail().setFitWidth(NoteThumbnails.WIDTH);
+        this.getIvThumbnail().setFitHeight(NoteThumbnails.HEIGHT);
+        this.setRctPlaceholder(new Rectangle(NoteThumbnails.WIDTH, NoteThumbnails.HEIGHT));
+        this.getRctPlaceholder().setLayoutX(10.0);
+        this.getRctPlaceholder().setFill(Color.gray(0.9));
+
+        // update the cells main contain with an AnchorPane that contains the note sample, date, group and tags labels
+        this.setPnlCell(new AnchorPane(this.getLblDate(), this.getLblSample(), this.getLblGroup(), this.getLblTags(),
+                this.getRctPlaceholder(), this.getIvThumbnail()));
+        this.layOut(false, false, false);
+    }
+
+    /**
+     * Shows or hides the group header above the note, the tags below the note sample and the thumbnail below both.
+     * The cell grows to make room for the header and the thumbnail, the note sample moves up to make room for the
+     * tags.
+     * @param grouped - whether the header is shown
+     * @param tagged - whether the tags are shown
+     * @param thumbnail - whether the thumbnail (or its placeholder) is shown
+     */
+    private void layOut(boolean grouped, boolean tagged, boolean thumbnail) {
+        double top = (grouped ? 20.0 : 0.0) - (tagged ? 7.0 : 0.0);
+        this.getLblGroup().setVisible(grouped);
+        this.getLblTags().setVisible(tagged);
+        this.getIvThumbnail().setVisible(thumbnail);
+        this.getRctPlaceholder().setVisible(thumbnail);
+        this.getLblSample().setLayoutY(15.0 + top);
+        this.getLblDate().setLayoutY(13.0 + top);
+        this.getLblTags().setLayoutY(33.0 + top);
+        this.getIvThumbnail().setLayoutY(grouped ? 62.0 : 42.0);
+        this.getRctPlaceholder().setLayoutY(grouped ? 62.0 : 42.0);
 
         // update the width and height of the AnchorPane in the cell
-        this.getPnlCell().setPrefSize(160.0, 50.0);
-        this.getPnlCell().setMinSize(160.0, 50.0);
-        this.getPnlCell().setMaxSize(160.0, 50.0);
+        double height = (grouped ? 70.0 : 50.0) + (thumbnail ? NoteThumbnails.HEIGHT + 6.0 : 0.0);
+        this.getPnlCell().setPrefSize(160.0, height);
+        this.getPnlCell().setMinSize(160.0, height);
+        this.getPnlCell().setMaxSize(160.0, height);
     }
 
     /**
@@ -72,13 +139,37 @@ public class NoteCell extends ListCell<NoteData> {
             // set the text of the note sample
             this.getLblSample().setText(item.getStrSample());
             
-            // set the text of the date sample, with the given format in the NoteData
-            this.getLblDate().setText(item.getDateFormat().format(new Date(item.getDate())));
+            // set the text of the date sample (the date the notes are sorted by), with the given format in the NoteData
+            this.getLblDate().setText(item.getDateFormat().format(new Date(this.getNoteList().getOrder().dateOf(item))));
+
+            // show the tags of the note, e.g. "#work #urgent"
+            StringBuilder tags = new StringBuilder();
+            for (String tag : item.getTags()) {
+                tags.append('#').append(tag).append(' ');
+            }
+            this.getLblTags().setText(tags.toString().trim());
+
+            // show the group header if this is the first note of its group among the notes shown in the list
+            String group = this.getNoteList().groupAt(this.getListView().getItems(), this.getIndex());
+            this.getLblGroup().setText(group == null ? "" : group);
+            this.layOut(group != null, tags.length() > 0, this.getThumbnails().isEnabled());
+
+            // show the thumbnail if it was made already, otherwise the placeholder shows until it is made in the
+            // background, so scrolling never waits for a thumbnail
+            if (this.getThumbnails().isEnabled()) {
+                Image thumbnail = this.getThumbnails().request(this, item, image -> this.getIvThumbnail().setImage(image));
+                this.getIvThumbnail().setImage(thumbnail);
+            } else {
+                this.getThumbnails().cancel(this);
+                this.getIvThumbnail().setImage(null);
+            }
 
             // set the cell's graphic with the AnchorPane created in the constructor
             this.setGraphic(this.pnlCell);
         } else {
-            // if no item was added/the item was null, set no graphic in the cell
+            // if no item was added/the item was null, set no graphic in the cell (and forget its thumbnail)
+            this.getThumbnails().cancel(this);
+            this.getIvThumbnail().setImage(null);
             this.setGraphic(null);
         }
     }
@@ -97,6 +188,48 @@ public class NoteCell extends ListCell<NoteData> {
         return lblDate;
     }
 
+    /**
+     * @return the Label display for the header of the note's group
+     */
+    public Label getLblGroup() {
+        return lblGroup;
+    }
+
+    /**
+     * @return the Label display for the note's tags
+     */
+    public Label getLblTags() {
+        return lblTags;
+    }
+
+    /**
+     * @return the ImageView display for the note's thumbnail
+     */
+    public ImageView getIvThumbnail() {
+        return ivThumbnail;
+    }
+
+    /**
+     * @return the gray box shown until the note's thumbnail is made
+     */
+    public Rectangle getRctPlaceholder() {
+        return rctPlaceholder;
+    }
+
+    /**
+     * @return the sorted notes shown in the list
+     */
+    public NoteList getNoteList() {
+        return noteList;
+    }
+
+    /**
+     * @return the thumbnails of the notes
+     */
+    public NoteThumbnails getThumbnails() {
+        return thumbnails;
+    }
+
     /**
      * @return the Label display for the note's sample text/title
      */
@@ -112,6 +245,54 @@ public class NoteCell extends ListCell<NoteData> {
         this.lblDate = lblDate;
     }
 
+    /**
+     * Sets the label group instance
+     * @param lblGroup - the label instance
+     */
+    public void setLblGroup(Label lblGroup) {
+        this.lblGroup = lblGroup;
+    }
+
+    /**
+     * Sets the label tags instance
+     * @param lblTags - the label instance
+     */
+    public void setLblTags(Label lblTags) {
+        this.lblTags = lblTags;
+    }
+
+    /**
+     * Sets the thumbnail image view instance
+     * @param ivThumbnail - the image view instance
+     */
+    public void setIvThumbnail(ImageView ivThumbnail) {
+        this.ivThumbnail = ivThumbnail;
+    }
+
+    /**
+     * Sets the thumbnail placeholder instance
+     * @param rctPlaceholder - the rectangle instance
+     */
+    public void setRctPlaceholder(Rectangle rctPlaceholder) {
+        this.rctPlaceholder = rctPlaceholder;
+    }
+
+    /**
+     * Sets the thumbnails of the notes
+     * @param thumbnails - the thumbnails
+     */
+    public void setThumbnails(NoteThumbnails thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
+    /**
+     * Sets the sorted notes shown in the list
+     * @param noteList - the sorted notes
+     */
+    public void setNoteList(NoteList noteList) {
+        this.noteList = noteList;
+    }
+
     /**
      * Sets the label sample instance
      * @param lblSample - the label instance
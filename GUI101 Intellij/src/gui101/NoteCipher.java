@@ -0,0 +1,710 @@
+package gui101;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts the notes of an encrypted notebook (see Notebooks) with AES-GCM, which both hides a note and tells when
+ * it was changed by anyone without the key.
+ * A note file is encrypted in chunks of 64 KB, each with a tag of its own, instead of in one piece, so a page of a
+ * large note (see LargeNote) is read by decrypting only the chunks it is in, and a note can be written through a
+ * channel without ever holding all of it in memory. The file is laid out as:
+ *  - a header: "GNE1" and 8 random bytes, new for every file, which start the nonce of every chunk
+ *  - the chunks: up to 64 KB of encrypted html each, followed by its 16 byte tag. Every chunk is full except the
+ *    last one, and the nonce of a chunk holds its index and whether it is the last one, so chunks cannot be
+ *    swapped, repeated or cut off the end of the file without the tag telling
+ * The metadata file of a note is encrypted the same way but on its own, so listing the notes only decrypts the
+ * small metadata files, never the notes themselves.
+ * The notes are encrypted with a random key, which is kept in the file ".key" of the notebook, encrypted with a key
+ * derived from the password of the notebook (PBKDF2). Deriving that key is slow on purpose, so it is done once,
+ * when the notebook is unlocked, and the unlocked key is kept in memory until the program exits.
+ */
+public class NoteCipher {
+    public static final String KEY_FILE = ".key";
+
+    // the size of the html in a chunk (every chunk but the last one is full), and the size of its tag (in bytes)
+    public static final int CHUNK = 64 * 1024;
+    private static final int TAG = 16;
+
+    // the header of a file: the magic bytes and the random start of the nonces
+    private static final byte[] MAGIC = "GNE1".getBytes(StandardCharsets.US_ASCII);
+    private static final int PREFIX = 8, HEADER = MAGIC.length + PREFIX;
+
+    // the index of the last chunk has this bit set in its nonce
+    private static final int LAST = 0x80000000;
+
+    // the password of a notebook is stretched this many times, and salted with this many random bytes
+    private static final int ITERATIONS = 210_000, SALT = 16;
+
+    // the key file is encrypted with this as additional data, so it is never mistaken for a note
+    private static final byte[] KEY_DATA = "gui101 notebook key".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // every thread keeps its cipher, since finding one is slower than encrypting a small note with it
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<>();
+
+    // the keys of the notebooks unlocked since the program started, by the absolute notes directory
+    private static final Map<Path, NoteCipher> UNLOCKED = new ConcurrentHashMap<>();
+
+    private final SecretKey key;
+
+    /**
+     * Initializes a cipher with the key of a notebook.
+     * @param key - the AES key the notes are encrypted with
+     */
+    private NoteCipher(SecretKey key) {
+        this.key = key;
+    }
+
+    /**
+     * @param directory - a notes directory
+     * @return whether the notebook in the directory is encrypted
+     */
+    public static boolean isEncrypted(Path directory) {
+        return Files.exists(directory.resolve(KEY_FILE));
+    }
+
+    /**
+     * @param directory - a notes directory
+     * @return the cipher of the notebook, if it was unlocked since the program started, or null
+     */
+    public static NoteCipher unlocked(Path directory) {
+        return UNLOCKED.get(directory.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Makes a new notebook an encrypted one, by creating a random key and writing it into the key file, encrypted
+     * with the password. The notebook is unlocked right away.
+     * @param directory - the notes directory of the notebook, which must not have any notes yet
+     * @param password - the password of the notebook
+     * @return the cipher of the notebook
+     * @throws IllegalStateException if the notebook is encrypted already or has notes already
+     * @throws IOException if the key file cannot be written
+     */
+    public static NoteCipher encrypt(Path directory, char[] password) throws IOException {
+        Files.createDirectories(directory);
+        if (isEncrypted(directory)) {
+            throw new IllegalStateException("The notebook is encrypted already");
+        }
+        try (DirectoryStream<Path> notes = Files.newDirectoryStream(directory, "*" + NoteStore.NOTE)) {
+            if (notes.iterator().hasNext()) {
+                throw new IllegalStateException("Only a notebook without notes can be encrypted");
+            }
+        }
+
+        byte[] salt = random(SALT), nonce = random(12), key = random(32);
+        Properties properties = new Properties();
+        properties.setProperty("version", "1");
+        properties.setProperty("iterations", Integer.toString(ITERATIONS));
+        properties.setProperty("salt", Base64.getEncoder().encodeToString(salt));
+        properties.setProperty("nonce", Base64.getEncoder().encodeToString(nonce));
+        try {
+            byte[] wrapped = crypt(Cipher.ENCRYPT_MODE, derive(password, salt, ITERATIONS), nonce, KEY_DATA, key, 0, key.length);
+            properties.setProperty("key", Base64.getEncoder().encodeToString(wrapped));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("The key of the notebook cannot be encrypted", e);
+        }
+
+        // the key file is replaced in one step, like the metadata, since a half written key loses every note
+        Path file = directory.resolve(KEY_FILE);
+        Path temp = file.resolveSibling(KEY_FILE + NoteStore.TEMP);
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "The encrypted key of the notebook, see NoteCipher.java");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        NoteCipher cipher = new NoteCipher(new SecretKeySpec(key, "AES"));
+        UNLOCKED.put(directory.toAbsolutePath().normalize(), cipher);
+        return cipher;
+    }
+
+    /**
+     * Unlocks an encrypted notebook by decrypting its key with the password. The key is kept until the program
+     * exits, so the notebook is only unlocked once (see unlocked()).
+     * @param directory - the notes directory of the notebook
+     * @param password - the password of the notebook
+     * @return the cipher of the notebook, or null if the password is wrong
+     * @throws IOException if the key file cannot be read or is damaged
+     */
+    public static NoteCipher unlock(Path directory, char[] password) throws IOException {
+        NoteCipher unlocked = unlocked(directory);
+        if (unlocked != null) {
+            return unlocked;
+        }
+
+        Path file = directory.resolve(KEY_FILE);
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+
+        byte[] salt, nonce, wrapped;
+        int iterations;
+        try {
+            iterations = Integer.parseInt(properties.getProperty("iterations"));
+            salt = Base64.getDecoder().decode(properties.getProperty("salt"));
+            nonce = Base64.getDecoder().decode(properties.getProperty("nonce"));
+            wrapped = Base64.getDecoder().decode(properties.getProperty("key"));
+        } catch (NullPointerException | IllegalArgumentException e) {
+            throw new IOException("Corrupt key file " + file, e);
+        }
+
+        byte[] key;
+        try {
+            key = crypt(Cipher.DECRYPT_MODE, derive(password, salt, iterations), nonce, KEY_DATA, wrapped, 0, wrapped.length);
+        } catch (AEADBadTagException e) {
+            return null; // the key derived from a wrong password does not match the tag
+        } catch (GeneralSecurityException e) {
+            throw new IOException("The key of the notebook cannot be decrypted", e);
+        }
+
+        NoteCipher cipher = new NoteCipher(new SecretKeySpec(key, "AES"));
+        UNLOCKED.put(directory.toAbsolutePath().normalize(), cipher);
+        return cipher;
+    }
+
+    /**
+     * @return the key derived from a password (PBKDF2 with HMAC-SHA256)
+     */
+    private static SecretKey derive(char[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, 256);
+        try {
+            return new SecretKeySpec(SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded(), "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Encrypts the content of a note file in memory, e.g. the html of a note that is saved, which goes into the
+     * journal and the note file the same way.
+     * @param plain - the content
+     * @return the encrypted file
+     * @throws IOException if the content cannot be encrypted
+     */
+    public byte[] encrypt(byte[] plain) throws IOException {
+        byte[] header = header();
+        int chunks = Math.max(1, (plain.length + CHUNK - 1) / CHUNK);
+        ByteBuffer file = ByteBuffer.allocate(HEADER + plain.length + chunks * TAG);
+        file.put(header);
+        for (int i = 0; i < chunks; i++) {
+            int offset = i * CHUNK;
+            file.put(this.seal(header, i, i == chunks - 1, plain, offset, Math.min(CHUNK, plain.length - offset)));
+        }
+        return file.array();
+    }
+
+    /**
+     * Decrypts a whole file in memory, e.g. a metadata file.
+     * @param file - the encrypted file
+     * @return the content
+     * @throws IOException if the file is not encrypted, is damaged, or was encrypted with another key
+     */
+    public byte[] decrypt(byte[] file) throws IOException {
+        byte[] header = headerOf(Arrays.copyOf(file, Math.min(file.length, HEADER)), file.length);
+        int chunks = (int) chunksOf(file.length);
+        ByteBuffer plain = ByteBuffer.allocate((int) plainSizeOf(file.length));
+        for (int i = 0; i < chunks; i++) {
+            long offset = HEADER + (long) i * (CHUNK + TAG);
+            plain.put(this.open(header, i, i == chunks - 1, file, (int) offset, (int) Math.min(CHUNK + TAG, file.length - offset)));
+        }
+        return plain.array();
+    }
+
+    /**
+     * Opens an encrypted file for reading. The channel reads the content, decrypting a chunk when it is first
+     * read from, and can read from anywhere in the content (e.g. a page of a LargeNote). It cannot be written.
+     * @param file - the encrypted file
+     * @return the channel over the content of the file
+     * @throws IOException if the file cannot be opened or is not encrypted
+     */
+    public FileChannel open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new DecryptingChannel(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an encrypted file, or replaces it, for writing. The channel encrypts every chunk once it is full,
+     * and writes the last chunk when it is closed, so it can only be written from start to end and cannot be read.
+     * @param file - the encrypted file
+     * @return the channel the content of the file is written into
+     * @throws IOException if the file cannot be created
+     */
+    public FileChannel create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            return new EncryptingChannel(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param size - the size of an encrypted file (in bytes)
+     * @return the size of its content (in bytes), without the header and the tags
+     */
+    public static long plainSizeOf(long size) {
+        return Math.max(0, size - HEADER - chunksOf(size) * TAG);
+    }
+
+    /**
+     * @return the amount of chunks in an encrypted file of the given size, a file always has at least one
+     */
+    private static long chunksOf(long size) {
+        return Math.max(1, (Math.max(0, size - HEADER) + CHUNK + TAG - 1) / (CHUNK + TAG));
+    }
+
+    /**
+     * @return a new header, with the random start of the nonces of a new file
+     */
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER).put(MAGIC).put(random(PREFIX)).array();
+    }
+
+    /**
+     * @return the header, if it is the header of an encrypted file of the given size
+     */
+    private static byte[] headerOf(byte[] header, long size) throws IOException {
+        if (size < HEADER + TAG || !Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+            throw new IOException("The file is not an encrypted note");
+        }
+        return header;
+    }
+
+    /**
+     * @return the nonce of a chunk: the random start from the header, the index of the chunk and whether it is the
+     *         last one
+     */
+    private static byte[] nonceOf(byte[] header, int index, boolean last) {
+        return ByteBuffer.allocate(12).put(header, MAGIC.length, PREFIX).putInt(last ? index | LAST : index).array();
+    }
+
+    /**
+     * Encrypts a chunk, which is bound to the header of its file.
+     * @return the encrypted chunk, followed by its tag
+     */
+    private byte[] seal(byte[] header, int index, boolean last, byte[] plain, int offset, int length) throws IOException {
+        try {
+            return crypt(Cipher.ENCRYPT_MODE, this.key, nonceOf(header, index, last), header, plain, offset, length);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("The note cannot be encrypted", e);
+        }
+    }
+
+    /**
+     * Decrypts a chunk, and checks its tag.
+     * @return the content of the chunk
+     */
+    private byte[] open(byte[] header, int index, boolean last, byte[] sealed, int offset, int length) throws IOException {
+        try {
+            return crypt(Cipher.DECRYPT_MODE, this.key, nonceOf(header, index, last), header, sealed, offset, length);
+        } catch (AEADBadTagException e) {
+            throw new IOException("The note is damaged, or was encrypted with another key", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("The note cannot be decrypted", e);
+        }
+    }
+
+    /**
+     * Encrypts or decrypts with AES-GCM.
+     */
+    private static byte[] crypt(int mode, SecretKey key, byte[] nonce, byte[] data, byte[] input, int offset, int length) throws GeneralSecurityException {
+        Cipher cipher = CIPHERS.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            CIPHERS.set(cipher);
+        }
+        cipher.init(mode, key, new GCMParameterSpec(TAG * 8, nonce));
+        cipher.updateAAD(data);
+        return cipher.doFinal(input, offset, length);
+    }
+
+    /**
+     * @return random bytes
+     */
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads from a channel at a position until the buffer is full.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("The encrypted note ends too early");
+            }
+        }
+    }
+
+    /**
+     * The content of an encrypted file, read through a channel. The chunk that was read last is kept decrypted, so
+     * reading a file in small pieces decrypts every chunk only once.
+     */
+    private final class DecryptingChannel extends FileChannel {
+        private final FileChannel file;
+        private final long fileSize, size, chunks;
+        private final byte[] header = new byte[HEADER];
+        private long position;
+
+        // the chunk that was read last, decrypted
+        private int index = -1;
+        private byte[] plain;
+
+        DecryptingChannel(FileChannel file) throws IOException {
+            this.file = file;
+            this.fileSize = file.size();
+            if (this.fileSize >= HEADER) {
+                readFully(file, ByteBuffer.wrap(this.header), 0);
+            }
+            headerOf(this.header, this.fileSize);
+            this.size = plainSizeOf(this.fileSize);
+            this.chunks = chunksOf(this.fileSize);
+        }
+
+        /**
+         * @return the content of a chunk, which is decrypted unless it was read last
+         */
+        private byte[] chunk(int index) throws IOException {
+            if (index != this.index) {
+                long offset = HEADER + (long) index * (CHUNK + TAG);
+                ByteBuffer sealed = ByteBuffer.allocate((int) Math.min(CHUNK + TAG, this.fileSize - offset));
+                readFully(this.file, sealed, offset);
+                this.plain = NoteCipher.this.open(this.header, index, index == this.chunks - 1, sealed.array(), 0, sealed.capacity());
+                this.index = index;
+            }
+            return this.plain;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst, long position) throws IOException {
+            if (position < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            if (position >= this.size) {
+                return -1;
+            }
+
+            int read = 0;
+            while (dst.hasRemaining() && position < this.size) {
+                byte[] plain = this.chunk((int) (position / CHUNK));
+                int offset = (int) (position % CHUNK), length = Math.min(dst.remaining(), plain.length - offset);
+                dst.put(plain, offset, length);
+                position += length;
+                read += length;
+            }
+            return read;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst) throws IOException {
+            int read = this.read(dst, this.position);
+            if (read > 0) {
+                this.position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int read = this.read(dsts[i]);
+                if (read == -1) {
+                    return total == 0 ? -1 : total;
+                }
+                total += read;
+                if (dsts[i].hasRemaining()) break;
+            }
+            return total;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(CHUNK, count)));
+            long done = 0;
+            while (done < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - done));
+                int read = this.read(buffer, position + done);
+                if (read <= 0) break;
+                buffer.flip();
+                while (buffer.hasRemaining()) target.write(buffer);
+                done += read;
+            }
+            return done;
+        }
+
+        @Override
+        public synchronized long position() {
+            return this.position;
+        }
+
+        @Override
+        public synchronized FileChannel position(long newPosition) {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            this.position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return this.size;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+            // nothing was written
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException("An encrypted note cannot be mapped");
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return this.file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return this.file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            this.file.close();
+        }
+    }
+
+    /**
+     * The content of a new encrypted file, written through a channel. The content is kept until a chunk is full,
+     * and the chunk is only encrypted once more content follows it, since the last chunk is encrypted differently.
+     * Closing the channel writes the last chunk and forces the file to the disk, the file is not whole before.
+     */
+    private final class EncryptingChannel extends FileChannel {
+        private final FileChannel file;
+        private final byte[] header = header();
+        private final byte[] chunk = new byte[CHUNK];
+        private int filled, index;
+        private long written;
+
+        EncryptingChannel(FileChannel file) throws IOException {
+            this.file = file;
+            this.writeFully(ByteBuffer.wrap(this.header));
+        }
+
+        /**
+         * Encrypts the chunk and writes it into the file.
+         */
+        private void seal(boolean last) throws IOException {
+            this.writeFully(ByteBuffer.wrap(NoteCipher.this.seal(this.header, this.index, last, this.chunk, 0, this.filled)));
+            this.index++;
+            this.filled = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                this.file.write(buffer);
+            }
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            while (src.hasRemaining()) {
+                if (this.filled == CHUNK) {
+                    this.seal(false);
+                }
+                int n = Math.min(src.remaining(), CHUNK - this.filled);
+                src.get(this.chunk, this.filled, n);
+                this.filled += n;
+            }
+            this.written += length;
+            return length;
+        }
+
+        @Override
+        public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += this.write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src, long position) throws IOException {
+            if (position != this.written) {
+                throw new UnsupportedOperationException("An encrypted note is written from start to end");
+            }
+            return this.write(src);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            if (position != this.position()) {
+                throw new UnsupportedOperationException("An encrypted note is written from start to end");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(CHUNK, count)));
+            long done = 0;
+            while (done < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - done));
+                int read = src.read(buffer);
+                if (read <= 0) break;
+                buffer.flip();
+                done += this.write(buffer);
+            }
+            return done;
+        }
+
+        @Override
+        public synchronized long position() {
+            return this.written;
+        }
+
+        @Override
+        public synchronized FileChannel position(long newPosition) {
+            if (newPosition != this.written) {
+                throw new UnsupportedOperationException("An encrypted note is written from start to end");
+            }
+            return this;
+        }
+
+        @Override
+        public synchronized long size() {
+            return this.written;
+        }
+
+        @Override
+        public synchronized FileChannel truncate(long size) {
+            if (size < this.written) {
+                throw new UnsupportedOperationException("An encrypted note is written from start to end");
+            }
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            // only the full chunks are in the file yet, the last chunk is written when the channel is closed
+            this.file.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new NonReadableChannelException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new NonReadableChannelException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            throw new NonReadableChannelException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new NonReadableChannelException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException("An encrypted note cannot be mapped");
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return this.file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return this.file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            try {
+                synchronized (this) {
+                    this.seal(true);
+                }
+                this.file.force(true);
+            } finally {
+                this.file.close();
+            }
+        }
+    }
+}
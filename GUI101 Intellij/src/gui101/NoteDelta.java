@@ -0,0 +1,77 @@
+package gui101;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes a new version of a note as the difference to an older version (its base), compressed, so syncing a note
+ * only sends what changed (see NoteSync).
+ * An edit in the editor changes one part of a note at a time, so the difference is the length of the start and the
+ * end that both versions share, followed by the bytes in between that are new. A note without a base (e.g. a new
+ * note) is encoded against an empty base, which is simply the whole note, compressed.
+ */
+final class NoteDelta {
+    private NoteDelta() {
+    }
+
+    /**
+     * @param base - the older version that the other side already has, or an empty array
+     * @param target - the new version
+     * @return the compressed difference
+     */
+    static byte[] encode(byte[] base, byte[] target) {
+        // the shared start, then the shared end of what is left of both versions
+        int prefix = 0, limit = Math.min(base.length, target.length);
+        while (prefix < limit && base[prefix] == target[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix && base[base.length - 1 - suffix] == target[target.length - 1 - suffix]) {
+            suffix++;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (target.length - prefix - suffix) / 2);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)))) {
+            out.writeInt(prefix);
+            out.writeInt(suffix);
+            out.write(target, prefix, target.length - prefix - suffix);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing into memory cannot fail", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param base - the same base the difference was encoded against
+     * @param delta - the compressed difference
+     * @return the new version
+     * @throws IOException if the difference is corrupt or does not fit the base
+     */
+    static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(delta)))) {
+            int prefix = in.readInt(), suffix = in.readInt();
+            if (prefix < 0 || suffix < 0 || prefix + suffix > base.length) {
+                throw new IOException("The difference does not fit its base");
+            }
+
+            ByteArrayOutputStream middle = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                middle.write(buffer, 0, read);
+            }
+
+            byte[] target = new byte[prefix + middle.size() + suffix];
+            System.arraycopy(base, 0, target, 0, prefix);
+            System.arraycopy(middle.toByteArray(), 0, target, prefix, middle.size());
+            System.arraycopy(base, base.length - suffix, target, prefix + middle.size(), suffix);
+            return target;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package gui101;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the notes shown in the notes list (lvNotes) sorted, and splits them into groups (e.g. Today, This Week).
+ * The list is sorted once when the order is chosen, after that every change only finds the place of the changed
+ * note with a binary search, instead of sorting the whole list again. Every note has its own place in the order,
+ * since notes with the same date or title are ordered by their ID, so a note can always be found the same way.
+ * Notes must only be changed through update() while they are in the list, otherwise their place is lost.
+ * The notes are also kept by their ID, so a note can be found from its ID (e.g. the target of a link) at once.
+ */
+public class NoteList {
+    /**
+     * The orders the notes can be sorted in.
+     */
+    public enum Order {
+        MODIFIED("Date Modified"), CREATED("Date Created"), TITLE("Title");
+
+        private final String strName;
+
+        Order(String strName) {
+            this.strName = strName;
+        }
+
+        /**
+         * @return the name of the order, shown in the sort menu
+         */
+        public String getStrName() {
+            return this.strName;
+        }
+
+        /**
+         * @param note - a note
+         * @return the date the note is sorted and grouped by (the title order shows the date modified)
+         */
+        public long dateOf(NoteData note) {
+            return this == CREATED ? note.getDate() : note.getModified();
+        }
+
+        /**
+         * @return compares the notes in this order, the newest or alphabetically first note comes first
+         */
+        private Comparator<NoteData> comparator() {
+            Comparator<NoteData> order;
+            if (this == TITLE) {
+                order = Comparator.comparing(note -> note.getStrSample().trim().toLowerCase(Locale.ROOT));
+            } else {
+                order = Comparator.comparingLong(this::dateOf).reversed();
+            }
+            return order.thenComparing(NoteData::getStrID);
+        }
+    }
+
+    private final ObservableList<NoteData> notes;
+    private Order order;
+    private Comparator<NoteData> comparator;
+
+    // every note in the list by its ID
+    private final Map<String, NoteData> byID = new HashMap<>();
+
+    /**
+     * Initializes the sorted list over the list shown in the notes list, sorted by the date modified.
+     * @param notes - the list of the notes list (lvNotes)
+     */
+    public NoteList(ObservableList<NoteData> notes) {
+        this.notes = notes;
+        this.setOrder(Order.MODIFIED);
+    }
+
+    /**
+     * Adds a note at its place in the order.
+     * @param note - the note to add
+     * @return the index of the note
+     */
+    public int add(NoteData note) {
+        int index = -Collections.binarySearch(this.notes, note, this.comparator) - 1;
+        this.notes.add(index, note);
+        this.byID.put(note.getStrID(), note);
+        return index;
+    }
+
+    /**
+     * Adds many notes at once (e.g. an import batch). The notes are sorted among themselves and merged with the
+     * sorted list in a single pass, which replaces the list with a single change.
+     * @param batch - the notes to add
+     */
+    public void addAll(Collection<NoteData> batch) {
+        if (batch.size() == 1) {
+            this.add(batch.iterator().next());
+            return;
+        }
+
+        List<NoteData> added = new ArrayList<>(batch);
+        added.sort(this.comparator);
+        added.forEach(note -> this.byID.put(note.getStrID(), note));
+
+        List<NoteData> merged = new ArrayList<>(this.notes.size() + added.size());
+        int i = 0, j = 0;
+        while (i < this.notes.size() && j < added.size()) {
+            merged.add(this.comparator.compare(this.notes.get(i), added.get(j)) <= 0 ? this.notes.get(i++) : added.get(j++));
+        }
+        merged.addAll(this.notes.subList(i, this.notes.size()));
+        merged.addAll(added.subList(j, added.size()));
+        this.notes.setAll(merged);
+    }
+
+    /**
+     * Removes a note from the list.
+     * @param note - the note to remove
+     * @return whether the note was in the list
+     */
+    public boolean remove(NoteData note) {
+        int index = this.indexOf(note);
+        if (index < 0) {
+            return false;
+        }
+
+        this.notes.remove(index);
+        this.byID.remove(note.getStrID());
+        return true;
+    }
+
+    /**
+     * Changes a note and moves it to its new place in the order, if the change moved it at all.
+     * @param note - the note to change
+     * @param change - changes the note (e.g. its date modified or its sample)
+     * @return the new index of the note
+     */
+    public int update(NoteData note, Consumer<NoteData> change) {
+        // the note has to be found while it is still in its old place
+        int index = this.indexOf(note);
+        change.accept(note);
+        if (index < 0) {
+            return this.add(note);
+        }
+
+        // most changes do not move the note (e.g. saving the newest note again), which only needs its neighbours
+        boolean afterPrevious = index == 0 || this.comparator.compare(this.notes.get(index - 1), note) < 0;
+        boolean beforeNext = index == this.notes.size() - 1 || this.comparator.compare(note, this.notes.get(index + 1)) < 0;
+        if (afterPrevious && beforeNext) {
+            return index;
+        }
+
+        this.notes.remove(index);
+        return this.add(note);
+    }
+
+    /**
+     * @param note - a note
+     * @return the index of the note, or a negative number if it is not in the list
+     */
+    public int indexOf(NoteData note) {
+        int index = Collections.binarySearch(this.notes, note, this.comparator);
+        return index >= 0 && this.notes.get(index) == note ? index : -1;
+    }
+
+    /**
+     * @param noteID - a note ID
+     * @return the note with the ID, or null if it is not in the list
+     */
+    public NoteData get(String noteID) {
+        return this.byID.get(noteID);
+    }
+
+    /**
+     * Tells the lists that depend on the notes list (e.g. the filtered notes) that a note changed without moving,
+     * by replacing the note with itself.
+     * @param note - the changed note
+     */
+    public void changed(NoteData note) {
+        int index = this.indexOf(note);
+        if (index >= 0) {
+            this.notes.set(index, note);
+        }
+    }
+
+    /**
+     * Finds the group a note belongs to, which is only shown above the first note of each group.
+     * @param shown - the notes shown in the list, in this order (e.g. only the notes that match a filter)
+     * @param index - the index of a note in the shown notes
+     * @return the name of the note's group, or null if the note before it is in the same group
+     */
+    public String groupAt(List<NoteData> shown, int index) {
+        if (index < 0 || index >= shown.size()) {
+            return null;
+        }
+
+        String group = this.groupOf(shown.get(index));
+        return index > 0 && group.equals(this.groupOf(shown.get(index - 1))) ? null : group;
+    }
+
+    /**
+     * @param note - a note
+     * @return the name of the group the note belongs to in the current order
+     */
+    private String groupOf(NoteData note) {
+        if (this.order == Order.TITLE) {
+            // notes sorted by title are grouped by their first letter
+            String title = note.getStrSample().trim();
+            return title.isEmpty() || !Character.isLetter(title.charAt(0)) ? "#" : title.substring(0, 1).toUpperCase(Locale.ROOT);
+        }
+
+        Calendar day = Calendar.getInstance();
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+
+        long date = this.order.dateOf(note);
+        if (date >= day.getTimeInMillis()) return "Today";
+
+        day.add(Calendar.DAY_OF_MONTH, -1);
+        if (date >= day.getTimeInMillis()) return "Yesterday";
+
+        day.add(Calendar.DAY_OF_MONTH, 1);
+        day.set(Calendar.DAY_OF_WEEK, day.getFirstDayOfWeek());
+        if (date >= day.getTimeInMillis()) return "This Week";
+
+        day.setTimeInMillis(System.currentTimeMillis());
+        day.set(Calendar.DAY_OF_MONTH, 1);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        if (date >= day.getTimeInMillis()) return "This Month";
+
+        return "Older";
+    }
+
+    /**
+     * @return the order the notes are sorted in
+     */
+    public Order getOrder() {
+        return this.order;
+    }
+
+    /**
+     * Sorts the notes in another order, this is the only time the whole list is sorted.
+     * @param order - the new order
+     */
+    public void setOrder(Order order) {
+        this.order = order;
+        this.comparator = order.comparator();
+        FXCollections.sort(this.notes, this.comparator);
+    }
+}
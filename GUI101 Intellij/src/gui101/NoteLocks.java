@@ -0,0 +1,313 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the writers of a notes directory out of each other's way, both inside the process (e.g. two program windows,
+ * or a window and the scrubber) and between processes (e.g. two copies of the program, or the program and the
+ * command line), through the lock file of the directory ("notes/.lock").
+ * Only writers lock: a note and its metadata are always replaced by an atomic move (see NoteStore), so a reader sees
+ * either the old or the new file and never waits for anybody.
+ * Every note belongs to one of STRIPES stripes, picked by the hash of its ID. A writer holds the lock of its note's
+ * stripe, which is a ReentrantLock inside the process and an exclusive lock on one byte of the lock file between
+ * processes, so two writers only wait for each other when they change the same note (or, rarely, two notes of the
+ * same stripe), instead of every write waiting for every other write.
+ * Three more bytes of the lock file are used by the processes to find out about each other:
+ *  - the instance byte, which every process that opened the directory holds a shared lock on (see attach()), so a
+ *    process can tell whether it is the only one, e.g. before it finishes the changes of a crash
+ *  - the journal byte, which a process holds a shared lock on while it has changes in the journal that are not
+ *    forced to the disk yet, so no other process empties the journal before they are (see NoteJournal)
+ *  - the changes byte, which a process holds an exclusive lock on while it appends to the changelog, so the events of
+ *    two processes never end up inside each other (see NoteChangelog)
+ * The locks of a process are released by the operating system when it exits, even if it crashes.
+ * The lock file is locked with tryLock() and a short wait between tries, instead of a blocking lock: the operating
+ * system only knows which process holds a lock, not which thread, so two processes whose threads wait for different
+ * notes of each other look like a deadlock to it, and a blocking lock fails ("Resource deadlock avoided").
+ * A byte that another NoteLocks of the same process holds (e.g. of a notebook that was closed while a stopped writer
+ * was still finishing, and is opened again right away) is waited for the same way as one of another process.
+ */
+public class NoteLocks {
+    public static final String FILE = ".lock";
+
+    // the amount of stripes the notes are spread over
+    public static final int STRIPES = 1024;
+
+    // the bytes of the lock file: the instance byte, the journal byte, the changes byte, and the first byte of the stripes
+    private static final long INSTANCE = 0, JOURNAL = 1, CHANGES = 2, NOTES = 16;
+
+    // the longest wait (in millis) between two tries to lock a byte that another process holds
+    private static final long MAX_WAIT = 16;
+
+    private final Path directory, file;
+
+    // the lock file, opened by the first lock
+    private FileChannel channel;
+
+    // the lock of every stripe inside the process, and its lock in the lock file while a thread holds it
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final FileLock[] held = new FileLock[STRIPES];
+
+    // the locks on the instance byte and the journal byte, or null
+    private FileLock instance, journal;
+
+    // whether close() was called while a thread held the lock of a note, the last unlock closes the file then
+    private boolean closing;
+
+    /**
+     * Initializes the locks of a notes directory. The lock file is created by the first lock.
+     * @param directory - the directory that contains the note files
+     */
+    public NoteLocks(Path directory) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE);
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks a note for writing, waiting for the writers of the same stripe in this process and in other processes.
+     * A thread that holds the lock of a note may lock it again, e.g. when one change of the store calls another.
+     * @param noteID - the note ID
+     * @return the held lock, which is released once it is closed
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public Held lock(String noteID) throws IOException {
+        int stripe = (noteID.hashCode() & 0x7fffffff) % STRIPES;
+        ReentrantLock lock = this.stripes[stripe];
+        lock.lock();
+
+        // only the first lock of the thread locks the lock file, a process may lock each byte only once
+        if (lock.getHoldCount() == 1) {
+            try {
+                this.held[stripe] = this.lockFile(NOTES + stripe, false);
+            } catch (IOException | RuntimeException e) {
+                lock.unlock();
+                throw e;
+            }
+        }
+        return () -> this.unlock(stripe);
+    }
+
+    /**
+     * Releases the lock of a stripe taken by lock().
+     */
+    private void unlock(int stripe) {
+        ReentrantLock lock = this.stripes[stripe];
+        if (lock.getHoldCount() == 1) {
+            try {
+                this.held[stripe].release();
+            } catch (IOException e) {
+                // the lock file was closed, which released the lock already
+            }
+            this.held[stripe] = null;
+        }
+        lock.unlock();
+
+        synchronized (this) {
+            if (this.closing && !this.isLocked()) {
+                try {
+                    this.closeFile();
+                } catch (IOException e) {
+                    // the file is closed when the program exits
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells the other processes that this process uses the directory, until it exits.
+     * If no other process uses it, this process has the directory to itself until share() is called, and the
+     * processes that start in the meantime wait for it.
+     * @return whether this process is the only one that uses the directory, and must call share() afterwards
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public synchronized boolean attach() throws IOException {
+        if (this.instance != null) {
+            return false; // the process already uses the directory
+        }
+
+        this.instance = this.tryLock(INSTANCE, false);
+        if (this.instance != null) {
+            return true;
+        }
+        this.instance = this.lockFile(INSTANCE, true);
+        return false;
+    }
+
+    /**
+     * Lets other processes use the directory again, after attach() found that this process was the only one.
+     * @throws IOException if the lock file cannot be locked
+     */
+    public synchronized void share() throws IOException {
+        if (this.instance != null && !this.instance.isShared()) {
+            this.instance.release();
+            this.instance = null;
+            this.instance = this.lockFile(INSTANCE, true);
+        }
+    }
+
+    /**
+     * Tells the other processes that this process has changes in the journal that are not forced to the disk yet,
+     * waiting while another process empties the journal.
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public synchronized void holdJournal() throws IOException {
+        if (this.journal == null) {
+            this.journal = this.lockFile(JOURNAL, true);
+        }
+    }
+
+    /**
+     * Tries to take the journal for this process alone, once its own changes are forced to the disk.
+     * @return whether no other process has changes in the journal that are not forced, the journal may only be
+     *         emptied then, and releaseJournal() must be called afterwards
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public synchronized boolean ownJournal() throws IOException {
+        this.releaseJournal();
+        this.journal = this.tryLock(JOURNAL, false);
+        return this.journal != null;
+    }
+
+    /**
+     * Releases the journal byte held by holdJournal() or ownJournal().
+     * @throws IOException if the lock cannot be released
+     */
+    public synchronized void releaseJournal() throws IOException {
+        if (this.journal != null) {
+            FileLock journal = this.journal;
+            this.journal = null;
+            journal.release();
+        }
+    }
+
+    /**
+     * Locks the changelog for appending, waiting for the other processes that append to it. Only one thread of the
+     * process appends to the changelog (see NoteChangelog), so there is no lock inside the process.
+     * @return the held lock, which is released once it is closed
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public Held lockChanges() throws IOException {
+        FileLock lock = this.lockFile(CHANGES, false);
+        return () -> {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // the lock file was closed, which released the lock already
+            }
+        };
+    }
+
+    /**
+     * Locks a byte of the lock file, trying again with a growing wait while another process holds it.
+     */
+    private FileLock lockFile(long position, boolean shared) throws IOException {
+        long wait = 1;
+        while (true) {
+            FileLock lock = this.tryLock(position, shared);
+            if (lock != null) {
+                return lock;
+            }
+
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the lock file");
+            }
+            wait = Math.min(wait * 2, MAX_WAIT);
+        }
+    }
+
+    /**
+     * Tries to lock a byte of the lock file once.
+     * @return the lock, or null if another process holds the byte, or another NoteLocks of this process does (the
+     *         file channels of a process share their locks, so the JVM refuses the overlapping lock then)
+     */
+    private FileLock tryLock(long position, boolean shared) throws IOException {
+        try {
+            return this.channel().tryLock(position, 1, shared);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the lock file, which is opened (and created with the directory) the first time
+     */
+    private synchronized FileChannel channel() throws IOException {
+        if (this.channel == null) {
+            Files.createDirectories(this.directory);
+            this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return this.channel;
+    }
+
+    /**
+     * Releases the instance byte and the journal byte and closes the lock file, while the notes directory is not used
+     * (see NoteStore.close()), so the other processes no longer see it open by this process. The next lock opens the
+     * lock file again. While a thread holds the lock of a note (e.g. a background thread that was just stopped), the
+     * file stays open, since closing it releases its locks, and it is closed once that thread releases the lock.
+     * @throws IOException if the lock file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (this.isLocked()) {
+            this.closing = true;
+            return;
+        }
+        this.closeFile();
+    }
+
+    /**
+     * @return whether a thread holds the lock of a note
+     */
+    private boolean isLocked() {
+        for (ReentrantLock stripe : this.stripes) {
+            if (stripe.isLocked()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the lock file, which releases every lock of the process on it.
+     */
+    private synchronized void closeFile() throws IOException {
+        this.closing = false;
+        this.instance = null;
+        this.journal = null;
+        if (this.channel != null) {
+            FileChannel channel = this.channel;
+            this.channel = null;
+            channel.close(); // releases every lock of the process on the file
+        }
+    }
+
+    /**
+     * @return the lock file of the directory
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * A lock held by a writer, which try-with-resources releases.
+     */
+    public interface Held extends AutoCloseable {
+        /**
+         * Releases the lock.
+         */
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,371 @@
+package gui101;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The metadata of a single note, stored next to the note in a "<note id>.meta" file.
+ * The metadata holds everything the notes list needs, so listing the notes never has to read the notes themselves.
+ */
+public class NoteMeta {
+    private String strID, strSample;
+    private long lnCreated, lnModified, lnSize;
+    private Set<String> tags;
+    private int[] fingerprint;
+    private Set<String> links;
+    private String checksum;
+    private NoteStats stats;
+    private Map<String, Integer> terms;
+
+    /**
+     * Initializes empty metadata for a note.
+     * @param strID - the note ID the metadata belongs to
+     */
+    public NoteMeta(String strID) {
+        this.setStrID(strID);
+        this.setStrSample(" ");
+        this.setTags(new TreeSet<>());
+        this.setStats(NoteStats.UNKNOWN);
+    }
+
+    /**
+     * Reads the metadata of a note from its file.
+     * @param strID - the note ID the metadata belongs to
+     * @param path - the metadata file
+     * @return the metadata
+     * @throws IOException if the file does not exist or cannot be read
+     */
+    public static NoteMeta read(String strID, Path path) throws IOException {
+        return read(strID, path, null);
+    }
+
+    /**
+     * Reads the metadata of a note from its file, which is encrypted in an encrypted notebook (see NoteCipher).
+     * @param strID - the note ID the metadata belongs to
+     * @param path - the metadata file
+     * @param cipher - the cipher of the notebook, or null if the notebook is not encrypted
+     * @return the metadata
+     * @throws IOException if the file does not exist, cannot be read or cannot be decrypted
+     */
+    public static NoteMeta read(String strID, Path path, NoteCipher cipher) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = cipher == null ? Files.newBufferedReader(path, StandardCharsets.UTF_8)
+                : new StringReader(new String(cipher.decrypt(Files.readAllBytes(path)), StandardCharsets.UTF_8))) {
+            properties.load(reader);
+        }
+
+        try {
+            NoteMeta meta = new NoteMeta(strID);
+            meta.setCreated(Long.parseLong(properties.getProperty("created")));
+            meta.setModified(Long.parseLong(properties.getProperty("modified")));
+            meta.setSize(Long.parseLong(properties.getProperty("size")));
+            meta.setStrSample(properties.getProperty("sample", " "));
+            meta.setTags(TagIndex.parseTags(properties.getProperty("tags", "")));
+            meta.setFingerprint(MinHash.fromText(properties.getProperty("minhash")));
+
+            // metadata written before links existed has no links yet, which is not the same as having none
+            String links = properties.getProperty("links");
+            meta.setLinks(links == null ? null : parseList(links));
+            meta.setChecksum(properties.getProperty("checksum"));
+
+            // metadata written before the counts existed has none, the note is counted once in the background
+            String words = properties.getProperty("words"), characters = properties.getProperty("chars");
+            if (words != null && characters != null) {
+                meta.setStats(new NoteStats(Long.parseLong(words), Long.parseLong(characters)));
+            }
+
+            // the word counts belong to the content that had the checksum they were counted for, they are counted
+            // again once the note changed without them (e.g. it was replaced by a note file from elsewhere)
+            String terms = properties.getProperty("terms");
+            if (terms != null && Objects.equals(properties.getProperty("terms.checksum"), meta.getChecksum())) {
+                meta.setTerms(parseTerms(terms));
+            }
+            return meta;
+        } catch (NumberFormatException e) {
+            // a missing or broken value means the file is corrupt, which the caller handles like a missing file
+            throw new IOException("Corrupt metadata in " + path, e);
+        }
+    }
+
+    /**
+     * Writes the metadata into its file. The file is replaced in one step, so it is never half written.
+     * @param path - the metadata file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        this.write(path, null);
+    }
+
+    /**
+     * Writes the metadata into its file, encrypted in an encrypted notebook (see NoteCipher). The file is replaced
+     * in one step, so it is never half written.
+     * @param path - the metadata file
+     * @param cipher - the cipher of the notebook, or null if the notebook is not encrypted
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path, NoteCipher cipher) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        if (cipher == null) {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                this.toProperties().store(writer, null);
+            }
+        } else {
+            StringWriter writer = new StringWriter();
+            this.toProperties().store(writer, null);
+            Files.write(temp, cipher.encrypt(writer.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the metadata as properties, which is the format of the metadata file
+     */
+    protected Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("created", Long.toString(this.getCreated()));
+        properties.setProperty("modified", Long.toString(this.getModified()));
+        properties.setProperty("size", Long.toString(this.getSize()));
+        properties.setProperty("sample", this.getStrSample());
+        properties.setProperty("tags", String.join(",", this.getTags()));
+        if (this.getFingerprint() != null) {
+            properties.setProperty("minhash", MinHash.toText(this.getFingerprint()));
+        }
+        if (this.getLinks() != null) {
+            properties.setProperty("links", String.join(",", this.getLinks()));
+        }
+        if (this.getChecksum() != null) {
+            properties.setProperty("checksum", this.getChecksum());
+        }
+        if (this.getStats().isKnown()) {
+            properties.setProperty("words", Long.toString(this.getStats().getWords()));
+            properties.setProperty("chars", Long.toString(this.getStats().getCharacters()));
+        }
+        if (this.getTerms() != null) {
+            // e.g. "budget:2 meeting:1", the words only have letters and digits (see HtmlConverter.wordsOf())
+            StringBuilder terms = new StringBuilder();
+            new TreeMap<>(this.getTerms()).forEach((word, count) -> terms.append(word).append(':').append(count).append(' '));
+            properties.setProperty("terms", terms.toString().trim());
+            if (this.getChecksum() != null) {
+                properties.setProperty("terms.checksum", this.getChecksum());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Splits a comma separated list of the metadata file (e.g. the links).
+     */
+    private static Set<String> parseList(String text) {
+        Set<String> items = new TreeSet<>();
+        for (String item : text.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Reads the word counts of the metadata file (e.g. "budget:2 meeting:1").
+     */
+    private static Map<String, Integer> parseTerms(String text) {
+        Map<String, Integer> terms = new TreeMap<>();
+        for (String term : text.split(" ")) {
+            int colon = term.lastIndexOf(':');
+            if (colon > 0) {
+                terms.put(term.substring(0, colon), Integer.parseInt(term.substring(colon + 1)));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @return a NoteData with the note ID, sample and dates of this metadata, to display in the notes list
+     */
+    public NoteData toNoteData() {
+        NoteData note = new NoteData(this.getCreated(), this.getStrSample());
+        note.setStrID(this.getStrID());
+        note.setModified(this.getModified());
+        note.setTags(this.getTags());
+        return note;
+    }
+
+    /**
+     * @return the note ID the metadata belongs to
+     */
+    public String getStrID() {
+        return strID;
+    }
+
+    /**
+     * @return the note sample/title
+     */
+    public String getStrSample() {
+        return strSample;
+    }
+
+    /**
+     * @return the date the note was created (in millis)
+     */
+    public long getCreated() {
+        return lnCreated;
+    }
+
+    /**
+     * @return the date the note was last saved (in millis)
+     */
+    public long getModified() {
+        return lnModified;
+    }
+
+    /**
+     * @return the size of the note file (in bytes)
+     */
+    public long getSize() {
+        return lnSize;
+    }
+
+    /**
+     * @return the tags of the note
+     */
+    public Set<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return the MinHash fingerprint of the note's text, or null if the note has none yet
+     */
+    public int[] getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the IDs of the notes this note links to, or null if the note was not searched for links yet
+     */
+    public Set<String> getLinks() {
+        return links;
+    }
+
+    /**
+     * @return the checksum of the note file (see NoteStore.checksumOf()), or null if the note has none yet
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the word count and character count of the note's text, or NoteStats.UNKNOWN if it was not counted yet
+     */
+    public NoteStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return how often the note uses each word the related notes index looks at (see RelatedIndex.termsOf()),
+     *         or null if the words were not counted for the current content of the note yet
+     */
+    public Map<String, Integer> getTerms() {
+        return terms;
+    }
+
+    /**
+     * Sets the note ID the metadata belongs to
+     * @param strID - the note ID
+     */
+    public void setStrID(String strID) {
+        this.strID = strID;
+    }
+
+    /**
+     * Sets the note sample/title
+     * @param strSample - the note sample
+     */
+    public void setStrSample(String strSample) {
+        this.strSample = strSample;
+    }
+
+    /**
+     * Sets the date the note was created
+     * @param lnCreated - the date (in millis)
+     */
+    public void setCreated(long lnCreated) {
+        this.lnCreated = lnCreated;
+    }
+
+    /**
+     * Sets the date the note was last saved
+     * @param lnModified - the date (in millis)
+     */
+    public void setModified(long lnModified) {
+        this.lnModified = lnModified;
+    }
+
+    /**
+     * Sets the size of the note file
+     * @param lnSize - the size (in bytes)
+     */
+    public void setSize(long lnSize) {
+        this.lnSize = lnSize;
+    }
+
+    /**
+     * Sets the tags of the note
+     * @param tags - the tags
+     */
+    public void setTags(Set<String> tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * Sets the MinHash fingerprint of the note's text
+     * @param fingerprint - the fingerprint, or null
+     */
+    public void setFingerprint(int[] fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Sets the IDs of the notes this note links to
+     * @param links - the note IDs, or null
+     */
+    public void setLinks(Set<String> links) {
+        this.links = links;
+    }
+
+    /**
+     * Sets the checksum of the note file
+     * @param checksum - the checksum, or null
+     */
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * Sets the word count and character count of the note's text
+     * @param stats - the counts, or NoteStats.UNKNOWN
+     */
+    public void setStats(NoteStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Sets how often the note uses each word the related notes index looks at
+     * @param terms - the word counts, or null
+     */
+    public void setTerms(Map<String, Integer> terms) {
+        this.terms = terms;
+    }
+}
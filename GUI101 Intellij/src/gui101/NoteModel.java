@@ -0,0 +1,365 @@
+package gui101;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The notes of a notes directory as the program windows see them: the notes list, the indexes, the note store, the
+ * scrubber, the cleaner, the sync and the change server. There is one model per notes directory in the program, which
+ * every window (Controller) on that directory shares, so a note saved, tagged or deleted in one window changes the
+ * notes list of every window at once, and the notes are only listed and indexed once, by the first window.
+ * Each window keeps its own selection, editor, tag filter and find bar.
+ * Every notebook (see Notebooks) has a model of its own, which is only created once a window opens the notebook.
+ * Once the last window of a notebook is closed (e.g. the user switched to another notebook), the model waits a few
+ * minutes for another window, and then closes: it stops its background threads, closes the files of its note store
+ * and is forgotten, so its notes list and indexes are freed. A window that opens the notebook later lists it again.
+ * The model is only used on the JavaFX Application Thread, like the windows (only the open notes are also read by the
+ * cleaner's thread).
+ */
+public class NoteModel {
+    // the model of every notes directory that is open (see close())
+    private static final Map<Path, NoteModel> MODELS = new HashMap<>();
+
+    // how long (in minutes) a model without windows stays open, in case a window opens the notebook again
+    private static final long IDLE = 5;
+
+    // waits for the models without windows to be idle long enough, on a daemon thread
+    private static final ScheduledExecutorService CLOSER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "gui101-notebook-closer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the absolute notes directory, which the model is known by
+    private final Path directory;
+
+    private final ObservableList<NoteData> notes;
+
+    // keeps the notes sorted, every change to the notes list goes through it
+    private final NoteList noteList;
+
+    private final TagIndex tagIndex;
+    private final DuplicateIndex duplicateIndex;
+    private final RelatedIndex relatedIndex;
+    private final LinkIndex linkIndex;
+    private final StatsIndex statsIndex;
+    private final DateIndex dateIndex;
+    private final NoteStore store;
+    private final NoteScrubber scrubber;
+
+    // normalizes the notes saved before the HtmlNormalizer existed, once, and leaves the open notes alone
+    private final NoteCleaner cleaner;
+
+    // the thumbnails of the notes, shared by the notes lists of every window
+    private final NoteThumbnails thumbnails;
+
+    // syncs the notes with the sync server the program was started with (see getSync()), or null
+    private final NoteSync sync;
+
+    // sends the changelog to the tools on the port the program was started with (see getChangeServer()), or null
+    // (both only for the default notebook, so the notes of the other notebooks never end up on its sync server)
+    private final ChangeServer changeServer;
+
+    // the notes the scrubber found damaged, shown in the integrity tab of every window
+    private final ObservableList<NoteData> damaged;
+
+    // the windows that show the notes, in the order they were opened
+    private final List<Controller> windows = new ArrayList<>();
+
+    // the notes selected in the windows, replaced as a whole whenever a selection changes
+    private volatile Set<String> openNotes = Collections.emptySet();
+
+    // whether the first window already listed the notes (or started listing them in the background)
+    private boolean loaded;
+
+    // the notes deleted while the first window lists the notes in the background, which the listing might still
+    // contain, or null once they are listed
+    private Set<String> deletedWhileListing;
+
+    /**
+     * Initializes the model of a notes directory, with an empty notes list.
+     * @param directory - the directory that contains the note files
+     */
+    private NoteModel(Path directory) {
+        boolean main = directory.equals(Notebooks.DEFAULT_DIRECTORY.toAbsolutePath().normalize());
+        this.directory = directory;
+        this.notes = FXCollections.observableArrayList();
+        this.noteList = new NoteList(this.notes);
+        this.tagIndex = new TagIndex();
+        this.duplicateIndex = new DuplicateIndex();
+        this.relatedIndex = new RelatedIndex();
+        this.linkIndex = new LinkIndex();
+        this.statsIndex = new StatsIndex();
+        this.dateIndex = new DateIndex();
+        this.store = new NoteStore(directory);
+        this.scrubber = new NoteScrubber(this.store);
+        this.cleaner = new NoteCleaner(this.store);
+        this.cleaner.setSkip(noteID -> this.openNotes.contains(noteID));
+        this.thumbnails = new NoteThumbnails(this.store);
+        this.sync = main ? syncOf(this.store, System.getProperty("gui101.syncServer")) : null;
+        this.changeServer = main ? changeServerOf(this.store, System.getProperty("gui101.changesPort")) : null;
+        this.damaged = FXCollections.observableArrayList();
+    }
+
+    /**
+     * @return the started change server on the port of the system property "gui101.changesPort", or null if the
+     *         property is missing, is not a port, or the port cannot be opened
+     */
+    private static ChangeServer changeServerOf(NoteStore store, String port) {
+        if (port == null || port.isEmpty()) {
+            return null;
+        }
+
+        try {
+            ChangeServer server = new ChangeServer(store.getChangelog(), Integer.parseInt(port.trim()));
+            server.start();
+            return server;
+        } catch (IOException | IllegalArgumentException e) {
+            return null; // the changelog can still be read from its file
+        }
+    }
+
+    /**
+     * @return the sync with the server of the system property "gui101.syncServer" (as "host:port"), or null if
+     *         the property is missing or is not "host:port"
+     */
+    private static NoteSync syncOf(NoteStore store, String server) {
+        if (server == null || server.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new NoteSync(store, server);
+        } catch (IllegalArgumentException e) {
+            return null; // the notes are simply not synced, like without the property
+        }
+    }
+
+    /**
+     * @param directory - a notes directory
+     * @return the model of the directory, which is created by the first window that is opened on it
+     */
+    public static NoteModel of(Path directory) {
+        return MODELS.computeIfAbsent(directory.toAbsolutePath().normalize(), NoteModel::new);
+    }
+
+    /**
+     * @return the amount of windows open on any notebook, the program exits once there are none
+     */
+    public static int windowCount() {
+        int count = 0;
+        for (NoteModel model : MODELS.values()) {
+            count += model.getWindows().size();
+        }
+        return count;
+    }
+
+    /**
+     * Closes the model once it stayed without windows for a few minutes, called after a window of it was closed.
+     */
+    public void released() {
+        if (!this.windows.isEmpty()) {
+            return;
+        }
+
+        // the model is checked again on the JavaFX Application Thread, a window might have opened it in the meantime
+        CLOSER.schedule(() -> Platform.runLater(() -> {
+            if (this.windows.isEmpty() && MODELS.get(this.directory) == this) this.close();
+        }), IDLE, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops the background threads of the notes (the scrubber, the cleaner, the thumbnails, the sync and the change
+     * server), closes the files of the note store and forgets the model, so its notes list and indexes can be freed.
+     * The notes saved by the windows that were closed last are written already, since the model was idle for minutes.
+     */
+    public void close() {
+        MODELS.remove(this.directory, this);
+        this.scrubber.stop();
+        this.cleaner.stop();
+        this.thumbnails.stop();
+        if (this.sync != null) this.sync.stop();
+        if (this.changeServer != null) this.changeServer.stop();
+
+        try {
+            this.store.close();
+        } catch (IOException e) {
+            // the files are closed when the program exits
+        }
+    }
+
+    /**
+     * @return the notes directory of the model, as an absolute path
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return the notes in the notes list
+     */
+    public ObservableList<NoteData> getNotes() {
+        return this.notes;
+    }
+
+    /**
+     * @return the sorted notes list
+     */
+    public NoteList getNoteList() {
+        return this.noteList;
+    }
+
+    /**
+     * @return the tags of every note
+     */
+    public TagIndex getTagIndex() {
+        return this.tagIndex;
+    }
+
+    /**
+     * @return the fingerprints of every note
+     */
+    public DuplicateIndex getDuplicateIndex() {
+        return this.duplicateIndex;
+    }
+
+    /**
+     * @return the words of every note
+     */
+    public RelatedIndex getRelatedIndex() {
+        return this.relatedIndex;
+    }
+
+    /**
+     * @return the links between the notes
+     */
+    public LinkIndex getLinkIndex() {
+        return this.linkIndex;
+    }
+
+    /**
+     * @return the word counts and sizes of every note, and their totals
+     */
+    public StatsIndex getStatsIndex() {
+        return this.statsIndex;
+    }
+
+    /**
+     * @return the notes sorted by the date they were last modified
+     */
+    public DateIndex getDateIndex() {
+        return this.dateIndex;
+    }
+
+    /**
+     * @return the store of the note files
+     */
+    public NoteStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * @return the scrubber that checks the notes in the background
+     */
+    public NoteScrubber getScrubber() {
+        return this.scrubber;
+    }
+
+    /**
+     * @return the cleaner that normalizes the notes once in the background
+     */
+    public NoteCleaner getCleaner() {
+        return this.cleaner;
+    }
+
+    /**
+     * @return the thumbnails of the notes shown in the notes list
+     */
+    public NoteThumbnails getThumbnails() {
+        return this.thumbnails;
+    }
+
+    /**
+     * Finds the notes selected in the windows again, after a window selected another note or was closed.
+     */
+    public void updateOpenNotes() {
+        Set<String> open = new HashSet<>();
+        for (Controller window : this.windows) {
+            open.add(window.getSelectedNoteID());
+        }
+        this.openNotes = Collections.unmodifiableSet(open);
+        this.cleaner.retry(); // the notes the cleaner left alone while they were open are cleaned now
+    }
+
+    /**
+     * @return the sync that replicates the notes with the sync server, or null if the program was started without one
+     */
+    public NoteSync getSync() {
+        return this.sync;
+    }
+
+    /**
+     * @return the server that sends the changelog to other tools, or null if the program was started without one
+     */
+    public ChangeServer getChangeServer() {
+        return this.changeServer;
+    }
+
+    /**
+     * @return the notes the scrubber found damaged
+     */
+    public ObservableList<NoteData> getDamaged() {
+        return this.damaged;
+    }
+
+    /**
+     * @return the windows that show the notes, a window adds itself when it opens and removes itself when it closes
+     */
+    public List<Controller> getWindows() {
+        return this.windows;
+    }
+
+    /**
+     * @return whether the notes were already listed by the first window
+     */
+    public boolean isLoaded() {
+        return this.loaded;
+    }
+
+    /**
+     * Sets whether the notes were already listed by the first window
+     * @param loaded - whether the notes were listed
+     */
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /**
+     * @return the notes deleted while the notes are listed in the background, or null if they are not being listed
+     */
+    public Set<String> getDeletedWhileListing() {
+        return this.deletedWhileListing;
+    }
+
+    /**
+     * Sets the notes deleted while the notes are listed in the background
+     * @param deletedWhileListing - an empty set when the listing starts, null once it is done
+     */
+    public void setDeletedWhileListing(Set<String> deletedWhileListing) {
+        this.deletedWhileListing = deletedWhileListing;
+    }
+}
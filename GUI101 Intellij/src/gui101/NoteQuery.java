@@ -0,0 +1,220 @@
+package gui101;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A search the user typed, e.g. meeting "next week" after:2026-01-01 -draft, made of terms that a note must all match:
+ * - a word (meeting), which the text of the note must contain as a whole word
+ * - a phrase in quotes ("next week"), which the text of the note must contain
+ * - after:YYYY-MM-DD, the note was modified on that day or later
+ * - before:YYYY-MM-DD, the note was modified before that day
+ * - tag:name, the note has the tag
+ * - id:noteID, the note is that note
+ * A term with a minus in front of it (-draft) is one the note must not match.
+ * The terms are only parsed here, QueryEngine decides in which order they are checked.
+ */
+public class NoteQuery {
+    /**
+     * What a term looks for.
+     */
+    public enum Kind {
+        WORD, PHRASE, AFTER, BEFORE, TAG, ID
+    }
+
+    /**
+     * One term of a search.
+     */
+    public static class Term {
+        private final Kind kind;
+        private final String value;
+        private final long date;
+        private final boolean negated;
+
+        /**
+         * Initializes a term.
+         * @param kind - what the term looks for
+         * @param value - the word, phrase, tag or note ID in lower case, or the day of a date term
+         * @param date - the first moment of the day of a date term (in milliseconds), 0 for other terms
+         * @param negated - true if the note must not match the term
+         */
+        public Term(Kind kind, String value, long date, boolean negated) {
+            this.kind = kind;
+            this.value = value;
+            this.date = date;
+            this.negated = negated;
+        }
+
+        /**
+         * @return what the term looks for
+         */
+        public Kind getKind() {
+            return this.kind;
+        }
+
+        /**
+         * @return the word, phrase, tag or note ID, or the day of a date term (e.g. "2026-01-01")
+         */
+        public String getValue() {
+            return this.value;
+        }
+
+        /**
+         * @return the first moment of the day of a date term (in milliseconds)
+         */
+        public long getDate() {
+            return this.date;
+        }
+
+        /**
+         * @return whether the note must not match the term
+         */
+        public boolean isNegated() {
+            return this.negated;
+        }
+
+        /**
+         * @return the term as it is typed (e.g. -tag:draft), which the explanation of a search shows
+         */
+        @Override
+        public String toString() {
+            String typed;
+            switch (this.kind) {
+                case PHRASE: typed = "\"" + this.value + "\""; break;
+                case WORD: typed = this.value; break;
+                default: typed = this.kind.name().toLowerCase(Locale.ROOT) + ":" + this.value; break;
+            }
+            return (this.negated ? "-" : "") + typed;
+        }
+    }
+
+    private final String text;
+    private final List<Term> terms;
+
+    /**
+     * Initializes a parsed search.
+     * @param text - the search as the user typed it
+     * @param terms - its terms
+     */
+    private NoteQuery(String text, List<Term> terms) {
+        this.text = text;
+        this.terms = Collections.unmodifiableList(terms);
+    }
+
+    /**
+     * Parses a search. Terms are separated by spaces, a phrase is between double quotes.
+     * A word that the notes split into more words (e.g. "e-mail", see HtmlConverter.wordsOf()) is looked for as a
+     * phrase, like the text of the note would have it.
+     * @param text - the search
+     * @return the parsed search, without terms if the search is blank
+     * @throws IllegalArgumentException if the search is not valid (e.g. a quote is not closed or a date is wrong)
+     */
+    public static NoteQuery parse(String text) {
+        List<Term> terms = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            boolean negated = text.charAt(i) == '-';
+            if (negated) {
+                i++;
+            }
+
+            if (i < text.length() && text.charAt(i) == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end == -1) {
+                    throw new IllegalArgumentException("The quote at " + (i + 1) + " is not closed");
+                }
+                String phrase = words(text.substring(i + 1, end));
+                if (!phrase.isEmpty()) {
+                    terms.add(new Term(phrase.indexOf(' ') == -1 ? Kind.WORD : Kind.PHRASE, phrase, 0, negated));
+                }
+                i = end + 1;
+                continue;
+            }
+
+            int end = i;
+            while (end < text.length() && !Character.isWhitespace(text.charAt(end))) end++;
+            String token = text.substring(i, end);
+            i = end;
+            if (token.isEmpty()) {
+                throw new IllegalArgumentException("A minus must be followed by a term");
+            }
+            terms.add(term(token, negated));
+        }
+        return new NoteQuery(text, terms);
+    }
+
+    /**
+     * @return the term of a token that is not in quotes (e.g. "after:2026-01-01" or "meeting")
+     */
+    private static Term term(String token, boolean negated) {
+        int colon = token.indexOf(':');
+        String key = colon == -1 ? "" : token.substring(0, colon).toLowerCase(Locale.ROOT);
+        String value = token.substring(colon + 1);
+        switch (key) {
+            case "after":
+            case "before":
+                try {
+                    LocalDate day = LocalDate.parse(value);
+                    long date = day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    return new Term(key.equals("after") ? Kind.AFTER : Kind.BEFORE, day.toString(), date, negated);
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("'" + value + "' is not a date like 2026-01-31");
+                }
+            case "tag":
+                if (value.isEmpty()) {
+                    throw new IllegalArgumentException("'" + token + "' has no tag");
+                }
+                return new Term(Kind.TAG, value.toLowerCase(Locale.ROOT), 0, negated);
+            case "id":
+                if (value.isEmpty()) {
+                    throw new IllegalArgumentException("'" + token + "' has no note ID");
+                }
+                return new Term(Kind.ID, value, 0, negated);
+            default:
+                // anything else (e.g. "10:30" or "http://...") is text, like the notes have it
+                String words = words(token);
+                if (words.isEmpty()) {
+                    throw new IllegalArgumentException("'" + token + "' has no letters or digits to look for");
+                }
+                return new Term(words.indexOf(' ') == -1 ? Kind.WORD : Kind.PHRASE, words, 0, negated);
+        }
+    }
+
+    /**
+     * @return the words of a text in lower case, with one space between them (e.g. "e mail" for "E-Mail")
+     */
+    private static String words(String text) {
+        return String.join(" ", HtmlConverter.wordsOf(text));
+    }
+
+    /**
+     * @return the search as the user typed it
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * @return the terms, in the order they were typed
+     */
+    public List<Term> getTerms() {
+        return this.terms;
+    }
+
+    /**
+     * @return whether the search has no terms, which every note matches
+     */
+    public boolean isEmpty() {
+        return this.terms.isEmpty();
+    }
+}
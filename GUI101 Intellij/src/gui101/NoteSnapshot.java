@@ -0,0 +1,182 @@
+package gui101;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * A point-in-time copy of the "notes" directory that is taken without stopping the editor.
+ * Opening a snapshot only creates an empty directory, the note files are then hard linked (or copied, if the
+ * file system does not support links) into it in the background by capture().
+ * Any note that is changed or deleted before the background pass reaches it is preserved by the writer
+ * first (copy-on-write), and notes created after the snapshot was opened are left out, so the snapshot
+ * always shows the notes exactly as they were when open() was called.
+ * This only works because notes are replaced with an atomic move when saved, which gives the saved file a
+ * new inode instead of changing the one the snapshot links to.
+ */
+public class NoteSnapshot implements AutoCloseable {
+    private static final String PREFIX = ".snapshot-";
+
+    private final Path notesDir, snapshotDir;
+
+    // the note IDs that have already been handled, mapped to whether they are part of the snapshot
+    private final Map<String, Boolean> handled = new ConcurrentHashMap<>();
+
+    /**
+     * Initializes a snapshot that copies notesDir into snapshotDir
+     * @param notesDir - the directory that contains the note files
+     * @param snapshotDir - the (empty) directory that will contain the snapshot
+     */
+    private NoteSnapshot(Path notesDir, Path snapshotDir) {
+        this.notesDir = notesDir;
+        this.snapshotDir = snapshotDir;
+    }
+
+    /**
+     * Opens a new snapshot of the notes directory. The moment this method returns is the point in time
+     * the snapshot shows.
+     * The snapshot directory is created inside the notes directory so that hard links stay on the same file system.
+     * @param notesDir - the directory that contains the note files
+     * @return the opened snapshot
+     * @throws IOException if the snapshot directory cannot be created
+     */
+    public static NoteSnapshot open(Path notesDir) throws IOException {
+        Files.createDirectories(notesDir);
+        return new NoteSnapshot(notesDir, notesDir.resolve(PREFIX + UUID.randomUUID()));
+    }
+
+    /**
+     * Removes the snapshot directories that were left behind by an export that never finished (e.g. the
+     * program crashed while exporting).
+     * @param notesDir - the directory that contains the note files
+     */
+    public static void cleanUp(Path notesDir) {
+        if (!Files.isDirectory(notesDir)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(notesDir, PREFIX + "*")) {
+            for (Path dir : stream) {
+                deleteRecursively(dir);
+            }
+        } catch (IOException e) {
+            // leftover snapshots only waste disk space, they will be removed on the next start
+        }
+    }
+
+    /**
+     * Copies every note that was not preserved by a writer yet into the snapshot.
+     * This runs outside the JavaFX Application Thread.
+     * @throws IOException if the notes directory cannot be listed or a note cannot be copied
+     */
+    public void capture() throws IOException {
+        Files.createDirectories(this.snapshotDir);
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.notesDir, "*" + NoteStore.NOTE)) {
+            for (Path p : stream) {
+                this.include(NoteStore.idOf(p));
+            }
+        }
+    }
+
+    /**
+     * Called by a writer right before it changes or deletes a note, so that the old version of the note is
+     * kept in the snapshot.
+     * @param noteID - the note ID that is about to change
+     * @throws IOException if the note cannot be copied into the snapshot
+     */
+    public void preserve(String noteID) throws IOException {
+        this.include(noteID);
+    }
+
+    /**
+     * Called by a writer right after it creates a new note, so that the snapshot ignores it.
+     * @param noteID - the note ID that was created
+     */
+    public void exclude(String noteID) {
+        this.handled.putIfAbsent(noteID, Boolean.FALSE);
+    }
+
+    /**
+     * Copies a single note into the snapshot, unless it was already handled.
+     * The method is synchronized so that a writer never replaces a note while the background pass is
+     * linking it, the lock is held for the duration of one link.
+     * @param noteID - the note ID to copy
+     * @throws IOException if the note cannot be copied
+     */
+    private synchronized void include(String noteID) throws IOException {
+        if (this.handled.containsKey(noteID)) {
+            return;
+        }
+
+        // the note's metadata is kept together with the note
+        Files.createDirectories(this.snapshotDir);
+        this.link(noteID + NoteStore.META);
+        this.link(noteID + NoteStore.NOTE);
+        this.handled.put(noteID, Boolean.TRUE);
+    }
+
+    /**
+     * Hard links (or copies) a single file from the notes directory into the snapshot, if it exists.
+     * @param name - the file name
+     * @throws IOException if the file cannot be copied
+     */
+    private void link(String name) throws IOException {
+        Path source = this.notesDir.resolve(name);
+        Path target = this.snapshotDir.resolve(name);
+        if (!Files.exists(source)) {
+            return;
+        }
+
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            // the file system does not support hard links, so fall back to a real copy
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the directory that contains the snapshot's note files
+     */
+    public Path getDirectory() {
+        return this.snapshotDir;
+    }
+
+    /**
+     * Deletes the snapshot directory. The original notes are not touched.
+     */
+    @Override
+    public void close() {
+        deleteRecursively(this.snapshotDir);
+    }
+
+    /**
+     * Deletes a directory and everything inside it, ignoring files that cannot be deleted.
+     * @param dir - the directory to delete
+     */
+    static void deleteRecursively(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    // ignore the file, the directory is cleaned up on the next start
+                }
+            });
+        } catch (IOException e) {
+            // ignore the directory, it is cleaned up on the next start
+        }
+    }
+}
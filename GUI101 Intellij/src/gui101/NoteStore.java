@@ -0,0 +1,872 @@
+package gui101;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the note files inside a notes directory.
+ * Every note is stored as two files:
+ *  - "<note id>.note", the html written by the editor
+ *  - "<note id>.meta", the metadata (NoteMeta) used to list the notes without reading them
+ * Notes and metadata are always written to a temporary file first and then moved in place, so a crash
+ * never leaves a half written file behind.
+ * Every note that is written or deleted is recorded in the journal (NoteJournal) first, so that recover() can
+ * finish the changes a crash interrupted the next time the notes are opened, and every change is added to the
+ * changelog (NoteChangelog) afterwards, so other tools can follow the changes.
+ * Every change locks its note (see NoteLocks), so the program windows, the scrubber and other processes on the same
+ * directory only wait for each other when they change the same note, while reading a note never waits.
+ * In an encrypted notebook (see NoteCipher) the note files, their metadata and the html in the journal are encrypted,
+ * and every note is read and written through this class, so the rest of the program only ever sees the html.
+ */
+public class NoteStore {
+    public static final String NOTE = ".note", META = ".meta", TEMP = ".tmp";
+
+    private final Path directory;
+
+    // the locks of the notes directory, which every change of a note holds
+    private final NoteLocks locks;
+
+    // the write-ahead journal of the notes directory
+    private final NoteJournal journal;
+
+    // the events of every change to the notes, which other tools follow (see ChangeServer)
+    private final NoteChangelog changelog;
+
+    // the snapshots that are currently open, writers have to preserve notes in them before changing a note
+    private final List<NoteSnapshot> snapshots = new CopyOnWriteArrayList<>();
+
+    // encrypts the files of an encrypted notebook, or null if the notebook is not encrypted
+    private final NoteCipher cipher;
+
+    /**
+     * Initializes a store over the given notes directory. The directory is created when the first note is written.
+     * An encrypted notebook must be unlocked first (see NoteCipher.unlock()).
+     * @param directory - the directory that contains the note files
+     * @throws IllegalStateException if the notebook is encrypted and was not unlocked
+     */
+    public NoteStore(Path directory) {
+        this.cipher = NoteCipher.unlocked(directory);
+        if (this.cipher == null && NoteCipher.isEncrypted(directory)) {
+            throw new IllegalStateException("The notebook in " + directory + " is encrypted and was not unlocked");
+        }
+
+        this.directory = directory;
+        this.locks = new NoteLocks(directory);
+        this.journal = new NoteJournal(directory, this.locks);
+        this.changelog = new NoteChangelog(directory, this.locks);
+    }
+
+    /**
+     * Opens the notes directory for this process, which the other processes see until this process exits.
+     * If no other process has the directory open, the changes a crash interrupted are finished first (recover())
+     * and the files it left behind are removed (cleanUp()), while processes that open the directory in the
+     * meantime wait. Otherwise the process that opened it first already did that, and the temporary files in the
+     * directory might belong to its changes that are running right now.
+     * @return the IDs of the notes that were changed again, or null if another process has the directory open
+     * @throws IOException if the directory cannot be opened, or a change cannot be done again (the directory is
+     *         open anyway, and the temporary files are kept so the next start tries again)
+     */
+    public List<String> open() throws IOException {
+        if (!this.locks.attach()) {
+            return null;
+        }
+
+        try {
+            List<String> noteIDs = this.recover();
+            this.cleanUp();
+            return noteIDs;
+        } finally {
+            this.locks.share();
+        }
+    }
+
+    /**
+     * @param noteID - the note ID
+     * @return the path of the note's html file
+     */
+    public Path pathOf(String noteID) {
+        return this.directory.resolve(noteID + NOTE);
+    }
+
+    /**
+     * @param noteID - the note ID
+     * @return the path of the note's metadata file
+     */
+    public Path metaPathOf(String noteID) {
+        return this.directory.resolve(noteID + META);
+    }
+
+    /**
+     * @param file - a note file
+     * @return the note ID, extracted from the file name
+     */
+    public static String idOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - NOTE.length());
+    }
+
+    /**
+     * Lists the IDs of all notes in the directory, in the order the file system returns them.
+     * @return the note IDs, or an empty list if the directory does not exist yet
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<String> list() throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (!Files.isDirectory(this.directory)) {
+            return ids;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + NOTE)) {
+            for (Path p : stream) {
+                if (Files.isRegularFile(p)) {
+                    ids.add(idOf(p));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the html of a note.
+     * @param noteID - the note ID
+     * @return the html of the note
+     * @throws IOException if the note does not exist or cannot be read
+     */
+    public String read(String noteID) throws IOException {
+        return new String(this.readBytes(noteID), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the content of a note file, decrypted in an encrypted notebook.
+     * @param noteID - the note ID
+     * @return the html of the note, as bytes
+     * @throws IOException if the note does not exist or cannot be read
+     */
+    public byte[] readBytes(String noteID) throws IOException {
+        byte[] bytes = Files.readAllBytes(this.pathOf(noteID));
+        return this.cipher == null ? bytes : this.cipher.decrypt(bytes);
+    }
+
+    /**
+     * Opens the content of a note file for reading through a channel, e.g. to read a part of a large note without
+     * the rest of it. In an encrypted notebook the channel decrypts the note as it is read.
+     * @param noteID - the note ID
+     * @return the channel, which the caller closes
+     * @throws IOException if the note does not exist or cannot be opened
+     */
+    public FileChannel openContent(String noteID) throws IOException {
+        return this.cipher == null ? FileChannel.open(this.pathOf(noteID), StandardOpenOption.READ) : this.cipher.open(this.pathOf(noteID));
+    }
+
+    /**
+     * Opens the html of a note for reading as text, without holding all of it in memory.
+     * @param noteID - the note ID
+     * @return the reader, which the caller closes
+     * @throws IOException if the note does not exist or cannot be opened
+     */
+    public BufferedReader openReader(String noteID) throws IOException {
+        return new BufferedReader(Channels.newReader(this.openContent(noteID), StandardCharsets.UTF_8.newDecoder(), -1));
+    }
+
+    /**
+     * @param noteID - the note ID
+     * @return the size of the note's html (in bytes), which in an encrypted notebook is smaller than the file
+     * @throws IOException if the note does not exist
+     */
+    public long sizeOf(String noteID) throws IOException {
+        long size = Files.size(this.pathOf(noteID));
+        return this.cipher == null ? size : NoteCipher.plainSizeOf(size);
+    }
+
+    /**
+     * Creates a new, empty note.
+     * @param noteID - the ID of the new note
+     * @return the metadata of the new note
+     * @throws IOException if the note cannot be created
+     */
+    public NoteMeta create(String noteID) throws IOException {
+        long now = System.currentTimeMillis();
+        return this.write(noteID, "", now, now);
+    }
+
+    /**
+     * Saves the html of a note. The creation date of an existing note is kept.
+     * @param noteID - the note ID
+     * @param html - the html to save
+     * @return the updated metadata of the note
+     * @throws IOException if the note cannot be written
+     */
+    public NoteMeta write(String noteID, String html) throws IOException {
+        return this.write(noteID, html, (String) null);
+    }
+
+    /**
+     * Saves the html of a note, unless the note was changed since it was read (e.g. in another program window or
+     * by another process), which would throw those changes away.
+     * @param noteID - the note ID
+     * @param html - the html to save
+     * @param expected - the checksum the note had when it was read, or null to save it no matter what
+     * @return the updated metadata of the note
+     * @throws ConflictException if the note has another checksum now
+     * @throws IOException if the note cannot be written
+     */
+    public NoteMeta write(String noteID, String html, String expected) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            this.check(noteID, expected);
+
+            long now = System.currentTimeMillis();
+            NoteMeta old = this.previousMeta(noteID);
+            return this.write(noteID, html, old == null ? now : old.getCreated(), now);
+        }
+    }
+
+    /**
+     * Saves the html of a note with the given dates (e.g. the dates of an imported file).
+     * The tags of an existing note are kept, since they are not part of its html.
+     * @param noteID - the note ID
+     * @param html - the html to save
+     * @param created - the date the note was created (in millis)
+     * @param modified - the date the note was last changed (in millis)
+     * @return the updated metadata of the note
+     * @throws IOException if the note cannot be written
+     */
+    public NoteMeta write(String noteID, String html, long created, long modified) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            return this.writeLocked(noteID, html, created, modified);
+        }
+    }
+
+    /**
+     * Saves the html of a note with the given dates, while its lock is held.
+     */
+    private NoteMeta writeLocked(String noteID, String html, long created, long modified) throws IOException {
+        // record the html in the journal first, so the note can be written again if the program crashes midway
+        // (in an encrypted notebook the journal holds the same encrypted bytes as the note file)
+        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        byte[] stored = this.cipher == null ? bytes : this.cipher.encrypt(bytes);
+        long change = this.journal.write(noteID, stored, created, modified);
+
+        boolean exists;
+        NoteMeta meta;
+        try {
+            Path path = this.pathOf(noteID);
+            Path temp = path.resolveSibling(path.getFileName() + TEMP);
+            Files.write(temp, stored);
+
+            // give the file the note's dates, the creation time can only be changed on some file systems
+            Files.getFileAttributeView(temp, BasicFileAttributeView.class)
+                    .setTimes(FileTime.fromMillis(modified), null, FileTime.fromMillis(created));
+
+            // keep the old version of the note in every open snapshot (or leave the note out, if it is new)
+            exists = Files.exists(path);
+            NoteMeta old = exists ? this.previousMeta(noteID) : null;
+            this.beforeChange(noteID, exists);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            meta = new NoteMeta(noteID);
+            if (old != null) {
+                meta.setTags(old.getTags());
+            }
+            meta.setCreated(created);
+            meta.setModified(modified);
+            meta.setSize(bytes.length);
+            meta.setStrSample(sampleOf(html));
+            meta.setFingerprint(MinHash.of(html));
+            meta.setLinks(LinkIndex.parseLinks(html));
+            meta.setStats(NoteStats.of(html));
+            meta.setTerms(RelatedIndex.termsOf(html));
+            meta.setChecksum(checksumOf(bytes));
+            meta.write(this.metaPathOf(noteID), this.cipher);
+        } catch (IOException | RuntimeException e) {
+            this.journal.abort(change); // e.g. the disk is full, the journal keeps the html until it is written again
+            throw e;
+        }
+
+        this.journal.done(change);
+        this.changelog.append(exists ? NoteChangelog.Type.SAVED : NoteChangelog.Type.CREATED, noteID, meta.getChecksum(), bytes.length);
+        return meta;
+    }
+
+    /**
+     * Saves a note whose content is written straight into the note file's channel (e.g. a LargeNote), instead
+     * of being held in memory as one string. The metadata is rebuilt from the written file, without a fingerprint
+     * or links (see fingerprint()).
+     * @param noteID - the note ID
+     * @param writer - writes the content of the note
+     * @return the updated metadata of the note
+     * @throws IOException if the note cannot be written
+     */
+    public NoteMeta write(String noteID, ContentWriter writer) throws IOException {
+        return this.write(noteID, writer, null);
+    }
+
+    /**
+     * Saves a note whose content is written straight into the note file's channel, unless the note was changed
+     * since it was read (see write(String, String, String)).
+     * @param noteID - the note ID
+     * @param writer - writes the content of the note
+     * @param expected - the checksum the note had when it was read, or null to save it no matter what
+     * @return the updated metadata of the note
+     * @throws ConflictException if the note has another checksum now
+     * @throws IOException if the note cannot be written
+     */
+    public NoteMeta write(String noteID, ContentWriter writer, String expected) throws IOException {
+        return this.write(noteID, writer, expected, false);
+    }
+
+    /**
+     * Writes a note again without changing what the user sees (e.g. its normalized html, see NoteCleaner), so it
+     * keeps the date it was last changed and its place in the notes list. It is not written if it was changed
+     * since it was read.
+     * @param noteID - the note ID
+     * @param html - the new html of the note
+     * @param expected - the checksum the note had when it was read
+     * @return the updated metadata of the note
+     * @throws ConflictException if the note has another checksum now
+     * @throws IOException if the note cannot be written
+     */
+    public NoteMeta rewrite(String noteID, String html, String expected) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            this.check(noteID, expected);
+
+            long now = System.currentTimeMillis();
+            NoteMeta old = this.previousMeta(noteID);
+            return this.writeLocked(noteID, html, old == null ? now : old.getCreated(), old == null ? now : old.getModified());
+        }
+    }
+
+    /**
+     * Writes a note again straight into the note file's channel, keeping the date it was last changed
+     * (see rewrite(String, String, String)).
+     * @param noteID - the note ID
+     * @param writer - writes the new content of the note
+     * @param expected - the checksum the note had when it was read
+     * @return the updated metadata of the note
+     * @throws ConflictException if the note has another checksum now
+     * @throws IOException if the note cannot be written
+     */
+    public NoteMeta rewrite(String noteID, ContentWriter writer, String expected) throws IOException {
+        return this.write(noteID, writer, expected, true);
+    }
+
+    /**
+     * Writes a note straight into the note file's channel, and gives it either the current date or the date it was
+     * last changed before.
+     */
+    private NoteMeta write(String noteID, ContentWriter writer, String expected, boolean keepModified) throws IOException {
+        Files.createDirectories(this.directory);
+
+        // the temporary file belongs to the note, so it is written while the note is locked too
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            this.check(noteID, expected);
+
+            Path path = this.pathOf(noteID);
+            Path temp = path.resolveSibling(path.getFileName() + TEMP);
+            try (FileChannel out = this.cipher == null
+                    ? FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                    : this.cipher.create(temp)) {
+                writer.writeTo(out);
+
+                // the content is too large for the journal, so the temporary file is forced to the disk instead
+                out.force(true);
+            }
+
+            // the metadata takes the date from the file (see reindex())
+            NoteMeta old = keepModified ? this.previousMeta(noteID) : null;
+            if (old != null) {
+                Files.setLastModifiedTime(temp, FileTime.fromMillis(old.getModified()));
+            }
+            return this.replace(noteID, temp);
+        }
+    }
+
+    /**
+     * Throws a ConflictException if a note does not have the expected checksum anymore.
+     * A note without a checksum (saved before checksums existed) or without metadata is never a conflict.
+     */
+    private void check(String noteID, String expected) throws ConflictException {
+        if (expected == null) {
+            return;
+        }
+
+        NoteMeta current = this.previousMeta(noteID);
+        if (current != null && current.getChecksum() != null && !current.getChecksum().equals(expected)) {
+            throw new ConflictException(noteID);
+        }
+    }
+
+    /**
+     * Replaces a note with a temporary file that is already on the disk, and rebuilds its metadata.
+     */
+    private NoteMeta replace(String noteID, Path temp) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            long change = this.journal.replace(noteID);
+
+            boolean exists;
+            NoteMeta meta;
+            try {
+                Path path = this.pathOf(noteID);
+                exists = Files.exists(path);
+                this.beforeChange(noteID, exists);
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                meta = this.reindex(noteID);
+            } catch (IOException | RuntimeException e) {
+                this.journal.abort(change);
+                throw e;
+            }
+
+            this.journal.done(change);
+            this.changelog.append(exists ? NoteChangelog.Type.SAVED : NoteChangelog.Type.CREATED, noteID, meta.getChecksum(), meta.getSize());
+            return meta;
+        }
+    }
+
+    /**
+     * Replaces the tags of a note. Only the metadata is written, the note itself does not change.
+     * @param noteID - the note ID
+     * @param tags - the new tags
+     * @return the updated metadata of the note
+     * @throws IOException if the metadata cannot be read or written
+     */
+    public NoteMeta tag(String noteID, Set<String> tags) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            NoteMeta meta = this.meta(noteID);
+            meta.setTags(tags);
+
+            // open snapshots still need the old metadata
+            this.beforeChange(noteID, true);
+            meta.write(this.metaPathOf(noteID), this.cipher);
+            this.changelog.append(NoteChangelog.Type.TAGGED, noteID, meta.getChecksum(), meta.getSize());
+            return meta;
+        }
+    }
+
+    /**
+     * Stores the checksum of a note that has none yet (e.g. a note saved before checksums existed), the first time
+     * the NoteScrubber reads it. A note saved in the meantime already has the checksum of its new content, which
+     * is kept.
+     * @param noteID - the note ID
+     * @param checksum - the checksum of the note file
+     * @return the updated metadata of the note
+     * @throws IOException if the metadata cannot be read or written
+     */
+    public NoteMeta checksum(String noteID, String checksum) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            NoteMeta meta = this.meta(noteID);
+            if (meta.getChecksum() == null) {
+                meta.setChecksum(checksum);
+                this.beforeChange(noteID, true);
+                meta.write(this.metaPathOf(noteID), this.cipher);
+            }
+            return meta;
+        }
+    }
+
+    /**
+     * Fingerprints the text of a note whose metadata has no fingerprint, links, counts or word counts (e.g. a note
+     * saved before they existed, or a note written with a ContentWriter), and writes them into the metadata.
+     * The note is read only once for all of them.
+     * @param noteID - the note ID
+     * @return the updated metadata of the note
+     * @throws IOException if the note cannot be read or the metadata cannot be written
+     */
+    public NoteMeta fingerprint(String noteID) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            NoteMeta meta = this.meta(noteID);
+            String html = this.read(noteID);
+            meta.setFingerprint(MinHash.of(html));
+            meta.setLinks(LinkIndex.parseLinks(html));
+            meta.setStats(NoteStats.of(html));
+            meta.setTerms(RelatedIndex.termsOf(html));
+            meta.write(this.metaPathOf(noteID), this.cipher);
+            return meta;
+        }
+    }
+
+    /**
+     * Deletes a note and its metadata. A note that is already deleted (e.g. by another window) stays deleted.
+     * @param noteID - the note ID
+     * @throws IOException if the note cannot be deleted
+     */
+    public void delete(String noteID) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            long change = this.journal.delete(noteID);
+
+            try {
+                // the note might already be deleted, e.g. by another window or process, which is what was wanted
+                this.beforeChange(noteID, true);
+                Files.deleteIfExists(this.pathOf(noteID));
+                Files.deleteIfExists(this.metaPathOf(noteID));
+            } catch (IOException | RuntimeException e) {
+                this.journal.abort(change);
+                throw e;
+            }
+
+            this.journal.done(change);
+            this.changelog.append(NoteChangelog.Type.DELETED, noteID, "", 0);
+        }
+    }
+
+    /**
+     * Finishes the changes a crash interrupted, using the journal, and then empties the journal.
+     * A written note is written again from the html in the journal, a note replaced by its temporary file is
+     * replaced again if the file is still there, and a deleted note is deleted again.
+     * Only the journal is read, so this takes as long as the journal is, no matter how many notes there are.
+     * Must run before the notes are listed and before cleanUp(), which removes the temporary files, and only while
+     * no other process has the directory open (see open()), since its running changes are not done yet either.
+     * @return the IDs of the notes that were changed again
+     * @throws IOException if a change cannot be done again, the journal is kept so the next start tries again
+     */
+    public List<String> recover() throws IOException {
+        List<String> noteIDs = new ArrayList<>();
+        for (NoteJournal.Change change : this.journal.unfinished()) {
+            String noteID = change.getNoteID();
+            Path path = this.pathOf(noteID);
+
+            // each change is done again the usual way, so it is in the journal again until the checkpoint below
+            switch (change.getType()) {
+                case NoteJournal.WRITE:
+                    this.write(noteID, new String(this.contentOf(change), StandardCharsets.UTF_8), change.getCreated(), change.getModified());
+                    break;
+                case NoteJournal.REPLACE:
+                    Path temp = path.resolveSibling(path.getFileName() + TEMP);
+                    if (Files.exists(temp)) {
+                        this.replace(noteID, temp);
+                    } else if (Files.exists(path)) {
+                        this.reindex(noteID); // the note was already moved in place, its metadata might not be
+                    }
+                    break;
+                case NoteJournal.DELETE:
+                    if (Files.exists(path)) {
+                        this.delete(noteID);
+                    } else {
+                        Files.deleteIfExists(this.metaPathOf(noteID));
+                    }
+                    break;
+                default:
+                    continue;
+            }
+            noteIDs.add(noteID);
+        }
+
+        this.journal.checkpoint();
+        return noteIDs;
+    }
+
+    /**
+     * Reads the metadata of a note. If the metadata file is missing or broken, it is rebuilt from the note itself.
+     * @param noteID - the note ID
+     * @return the metadata of the note
+     * @throws IOException if neither the metadata nor the note can be read
+     */
+    public NoteMeta meta(String noteID) throws IOException {
+        try {
+            return this.readMeta(noteID);
+        } catch (IOException e) {
+            return this.reindex(noteID);
+        }
+    }
+
+    /**
+     * Rebuilds the metadata of a note from the note file and writes it.
+     * The creation date and the tags are taken from the old metadata when it can still be read, since most file
+     * systems cannot keep the creation date of a file that was replaced, and the tags are only in the metadata.
+     * @param noteID - the note ID
+     * @return the rebuilt metadata
+     * @throws IOException if the note cannot be read or the metadata cannot be written
+     */
+    public NoteMeta reindex(String noteID) throws IOException {
+        try (NoteLocks.Held held = this.locks.lock(noteID)) {
+            return this.reindexLocked(noteID);
+        }
+    }
+
+    /**
+     * Rebuilds the metadata of a note from the note file and writes it, while its lock is held.
+     */
+    private NoteMeta reindexLocked(String noteID) throws IOException {
+        Path path = this.pathOf(noteID);
+        BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
+
+        NoteMeta old = this.previousMeta(noteID);
+        NoteMeta meta = new NoteMeta(noteID);
+        meta.setCreated(old == null ? attr.creationTime().toMillis() : old.getCreated());
+        if (old != null) {
+            meta.setTags(old.getTags());
+        }
+        meta.setModified(attr.lastModifiedTime().toMillis());
+        meta.setSize(this.cipher == null ? attr.size() : NoteCipher.plainSizeOf(attr.size()));
+
+        // only the first line is needed for the note sample, but the whole note is read for its checksum
+        try (BufferedReader reader = this.openReader(noteID)) {
+            String line = reader.readLine();
+            meta.setStrSample(line == null ? " " : sampleOf(line));
+        }
+        meta.setChecksum(this.checksumOfNote(noteID));
+
+        meta.write(this.metaPathOf(noteID), this.cipher);
+        return meta;
+    }
+
+    /**
+     * Reads the metadata of a note, without rebuilding it if it is missing or broken (see meta()).
+     * @param noteID - the note ID
+     * @return the metadata of the note
+     * @throws IOException if the metadata does not exist or cannot be read
+     */
+    public NoteMeta readMeta(String noteID) throws IOException {
+        return NoteMeta.read(noteID, this.metaPathOf(noteID), this.cipher);
+    }
+
+    /**
+     * @param change - a note written in the journal (see NoteJournal.copiesOf())
+     * @return the html of the note as bytes, decrypted in an encrypted notebook
+     * @throws IOException if the html cannot be decrypted
+     */
+    public byte[] contentOf(NoteJournal.Change change) throws IOException {
+        return this.cipher == null ? change.getHtml() : this.cipher.decrypt(change.getHtml());
+    }
+
+    /**
+     * @param bytes - the content of a note file
+     * @return the checksum (CRC-32) of the content, as 8 hexadecimal digits
+     */
+    public static String checksumOf(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * Reads a file in blocks for its checksum, so a large note is never held in memory.
+     * @param path - a note file
+     * @return the checksum (CRC-32) of the file, as 8 hexadecimal digits
+     * @throws IOException if the file cannot be read
+     */
+    public static String checksumOf(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            return checksumOf(in);
+        }
+    }
+
+    /**
+     * Reads a note in blocks for its checksum, the checksum of its html even in an encrypted notebook.
+     * @param noteID - the note ID
+     * @return the checksum (CRC-32) of the note, as 8 hexadecimal digits
+     * @throws IOException if the note cannot be read
+     */
+    public String checksumOfNote(String noteID) throws IOException {
+        try (FileChannel in = this.openContent(noteID)) {
+            return checksumOf(in);
+        }
+    }
+
+    /**
+     * Reads a channel to its end in blocks for its checksum.
+     */
+    private static String checksumOf(FileChannel in) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+        }
+        return String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * Extracts the note sample from the first line of the html, the same way the notes list always has.
+     * @param html - the html of the note
+     * @return the note sample, or a blank sample for an empty note
+     */
+    public static String sampleOf(String html) {
+        int end = html.indexOf('\n');
+        String line = end == -1 ? html : html.substring(0, end);
+        return line.isEmpty() ? " " : String.format("%.20s", line.replaceAll("</p>", "</p>\n").replaceAll("<[^>]*>", ""));
+    }
+
+    /**
+     * @param noteID - the note ID
+     * @return the metadata the note had before it is changed, or null if it has no readable metadata
+     */
+    private NoteMeta previousMeta(String noteID) {
+        try {
+            return this.readMeta(noteID);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens a snapshot of the notes that is kept consistent while notes are being written.
+     * The snapshot must be closed with closeSnapshot() once it is no longer needed.
+     * @return the snapshot
+     * @throws IOException if the snapshot cannot be created
+     */
+    public NoteSnapshot openSnapshot() throws IOException {
+        NoteSnapshot snapshot = NoteSnapshot.open(this.directory);
+        this.snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Closes a snapshot opened by openSnapshot() and deletes its files.
+     * @param snapshot - the snapshot to close
+     */
+    public void closeSnapshot(NoteSnapshot snapshot) {
+        this.snapshots.remove(snapshot);
+        snapshot.close();
+    }
+
+    /**
+     * Tells every open snapshot that a note is about to change.
+     * @param noteID - the note ID
+     * @param exists - whether the note already exists (it is preserved) or is new (it is left out)
+     */
+    private void beforeChange(String noteID, boolean exists) {
+        for (NoteSnapshot snapshot : this.snapshots) {
+            if (!exists) {
+                snapshot.exclude(noteID);
+                continue;
+            }
+
+            try {
+                snapshot.preserve(noteID);
+            } catch (IOException e) {
+                // the snapshot will pick up the new version of the note instead, the write itself should not fail
+            }
+        }
+    }
+
+    /**
+     * Removes what was left behind by a crash: unfinished snapshots and temporary files.
+     * Must only be called while no other process has the directory open (see open()).
+     */
+    public void cleanUp() {
+        NoteSnapshot.cleanUp(this.directory);
+        if (!Files.isDirectory(this.directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + TEMP)) {
+            for (Path p : stream) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException e) {
+            // leftover temporary files only waste disk space, they will be removed on the next start
+        }
+    }
+
+    /**
+     * Closes the files the store keeps open, the changelog, the journal and the lock file, once the notes directory
+     * is not used anymore (e.g. a notebook that nobody looked at for a while, see NoteModel). The other processes no
+     * longer see the directory open by this process. A file that is still in use by a change stays open.
+     * The files are opened again by the next change, but a directory that is used again is rather opened (open())
+     * by a new store.
+     * @throws IOException if a file cannot be closed
+     */
+    public void close() throws IOException {
+        this.changelog.close();
+        try {
+            this.journal.close();
+        } finally {
+            this.locks.close();
+        }
+    }
+
+    /**
+     * @return the changelog of the notes directory
+     */
+    public NoteChangelog getChangelog() {
+        return this.changelog;
+    }
+
+    /**
+     * @return the locks of the notes directory
+     */
+    public NoteLocks getLocks() {
+        return this.locks;
+    }
+
+    /**
+     * @return the write-ahead journal of the notes directory
+     */
+    public NoteJournal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * @return the directory that contains the note files
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return whether the notebook is encrypted
+     */
+    public boolean isEncrypted() {
+        return this.cipher != null;
+    }
+
+    /**
+     * @return the cipher of the encrypted notebook, or null if the notebook is not encrypted
+     */
+    public NoteCipher getCipher() {
+        return this.cipher;
+    }
+
+    /**
+     * Thrown when a note is saved over changes that were made since it was read, e.g. in another program window.
+     */
+    public static class ConflictException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String noteID;
+
+        /**
+         * @param noteID - the ID of the note that was changed
+         */
+        public ConflictException(String noteID) {
+            super("The note " + noteID + " was changed since it was read");
+            this.noteID = noteID;
+        }
+
+        /**
+         * @return the ID of the note that was changed
+         */
+        public String getNoteID() {
+            return this.noteID;
+        }
+    }
+
+    /**
+     * Writes the content of a note into the channel of the note file. In an encrypted notebook the channel encrypts
+     * the content, and can only be written from start to end.
+     */
+    public interface ContentWriter {
+        /**
+         * @param out - the channel of the (temporary) note file
+         * @throws IOException if the content cannot be written
+         */
+        void writeTo(FileChannel out) throws IOException;
+    }
+}
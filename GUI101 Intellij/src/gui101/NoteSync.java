@@ -0,0 +1,777 @@
+package gui101;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Replicates the notes of a notes directory between machines, through a sync server (see SyncServer).
+ * Every notes directory is a replica with an ID of its own, and every note has a version vector (see VersionVector)
+ * that counts the changes of every replica. A sync round:
+ *  - asks the server which notes changed since the last round (PULL)
+ *  - finds the notes that changed here since the last round, and sends them in batches (PUSH), each as the
+ *    difference to the version the server already has (see NoteDelta)
+ *  - fetches the notes that changed on the server, in batches, as the difference to the version this replica has
+ *    (FETCH), and writes them into the note store
+ * The requests of a round are sent one after the other without waiting for the responses (see SyncProtocol), so a
+ * round takes about as long as the data takes to transfer, not one round trip per note.
+ * A note that was changed here and on another machine at the same time is resolved by the server, the same way on
+ * every machine, and the losing version becomes a conflict copy that is synced like any other note.
+ * A note that is changed here while it is fetched is left alone, the next round pushes it instead.
+ * What was synced last is kept in the "notes/.sync" directory: the replica ID and the sync position, and for every
+ * note its version vector, checksum and tags, and its content (the base of the next difference).
+ */
+public class NoteSync {
+    public static final String DIRECTORY = ".sync";
+
+    // the amount of notes in one request
+    public static final int BATCH = 64;
+
+    // how long (in millis) the background thread waits between two rounds, and for a response of the server
+    private static final long PERIOD = TimeUnit.SECONDS.toMillis(30), TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+
+    // metadata written less than this long (in millis) before the last round is checked again, for file systems
+    // with a coarse modification time
+    private static final long SLACK = 2000;
+
+    private static final String REPLICA = "replica.properties", STATE = ".state", BASE = ".base";
+
+    private final NoteStore store;
+    private final String host;
+    private final int port;
+    private final Path directory;
+
+    // what the last round got
+    private final AtomicLong pushed = new AtomicLong(), pulled = new AtomicLong(), conflicts = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong(), bytesReceived = new AtomicLong(), bytesRaw = new AtomicLong();
+
+    // called with the notes every round changed here, on the sync thread
+    private volatile Consumer<Changes> onChanged;
+
+    // the error of the last round that failed, or null
+    private volatile IOException lastError;
+
+    private Thread thread;
+
+    /**
+     * Initializes the sync of a note store with a sync server.
+     * @param store - the note store
+     * @param server - the server, as "host:port"
+     * @throws IllegalArgumentException if the server is not "host:port", or the notebook is encrypted (the server
+     *         would see its notes)
+     */
+    public NoteSync(NoteStore store, String server) {
+        if (store.isEncrypted()) {
+            throw new IllegalArgumentException("An encrypted notebook is never synced");
+        }
+
+        int colon = server.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("The sync server must be host:port, not " + server);
+        }
+
+        this.store = store;
+        this.host = server.substring(0, colon);
+        this.port = Integer.parseInt(server.substring(colon + 1));
+        this.directory = store.getDirectory().resolve(DIRECTORY);
+        this.setOnChanged(changes -> { });
+    }
+
+    /**
+     * Syncs over and over on a background thread, with a pause after each round.
+     */
+    public synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+
+        this.thread = new Thread(() -> {
+            try {
+                while (true) {
+                    try {
+                        Changes changes = this.sync();
+                        this.lastError = null;
+                        if (!changes.isEmpty()) {
+                            this.getOnChanged().accept(changes);
+                        }
+                    } catch (IOException e) {
+                        // the server cannot be reached right now, the next round tries again
+                        this.lastError = e;
+                    }
+                    Thread.sleep(PERIOD);
+                }
+            } catch (InterruptedException e) {
+                // the sync was stopped
+            }
+        }, "gui101-sync");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the background thread started by start().
+     */
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    /**
+     * Runs one sync round.
+     * @return the notes the round changed in the note store
+     * @throws IOException if the server cannot be reached or the notes cannot be read or written; what was synced
+     *         before the error is kept, the next round goes on from there
+     */
+    public synchronized Changes sync() throws IOException {
+        Files.createDirectories(this.directory);
+        Properties replica = this.readProperties(this.directory.resolve(REPLICA));
+        if (replica.getProperty("id") == null) {
+            replica.setProperty("id", UUID.randomUUID().toString().replace("-", "").substring(0, 12));
+            this.writeProperties(replica, this.directory.resolve(REPLICA));
+        }
+        String replicaID = replica.getProperty("id");
+        long epoch = Long.parseLong(replica.getProperty("epoch", "0"));
+        long since = Long.parseLong(replica.getProperty("since", "0"));
+        long lastScan = Long.parseLong(replica.getProperty("lastScan", "0"));
+
+        this.pushed.set(0);
+        this.pulled.set(0);
+        this.conflicts.set(0);
+        this.bytesSent.set(0);
+        this.bytesReceived.set(0);
+        this.bytesRaw.set(0);
+
+        long scan = System.currentTimeMillis();
+        Changes changes = new Changes();
+        try (Connection connection = new Connection()) {
+            CompletableFuture<byte[]> pull = connection.send(SyncProtocol.PULL, SyncProtocol.body(out -> {
+                out.writeLong(epoch);
+                out.writeLong(since);
+            }));
+
+            // the local changes go out while the server answers the pull
+            Map<String, SyncProtocol.Record> pushes = this.scan(replicaID, lastScan);
+            Map<String, String> overwritable = new HashMap<>();
+            Set<String> fetches = new LinkedHashSet<>();
+            this.push(connection, new ArrayList<>(pushes.values()), overwritable, fetches);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(connection.await(pull)));
+            long serverEpoch = in.readLong(), serverSeq = in.readLong();
+            int count = in.readInt();
+
+            if (serverEpoch != epoch) {
+                // the server started over, so it gets every note this replica has, with its vector
+                this.push(connection, this.everything(pushes.keySet()), overwritable, fetches);
+            }
+
+            for (int i = 0; i < count; i++) {
+                String noteID = in.readUTF();
+                VersionVector vector = vectorOf(in.readUTF());
+                in.readUTF(); // the checksum, the fetch compares it
+                boolean deleted = in.readBoolean();
+
+                Properties state = this.readState(noteID);
+                if (state == null) {
+                    if (!deleted) {
+                        fetches.add(noteID);
+                    }
+                    continue;
+                }
+
+                VersionVector.Order order = vector.compare(this.vectorOf(state));
+                if (order == VersionVector.Order.AFTER || order == VersionVector.Order.CONCURRENT) {
+                    fetches.add(noteID);
+                }
+            }
+
+            this.fetch(connection, new ArrayList<>(fetches), overwritable, changes);
+
+            replica.setProperty("epoch", Long.toString(serverEpoch));
+            replica.setProperty("since", Long.toString(serverSeq));
+            replica.setProperty("lastScan", Long.toString(scan));
+            this.writeProperties(replica, this.directory.resolve(REPLICA));
+        }
+        return changes;
+    }
+
+    /**
+     * Finds the notes that changed here since the last round: notes whose content or tags are not the ones synced
+     * last, and notes that were synced but are deleted now. Only the metadata written since the last round is read.
+     * @return the changes to push, by note ID
+     */
+    private Map<String, SyncProtocol.Record> scan(String replicaID, long lastScan) throws IOException {
+        Map<String, SyncProtocol.Record> pushes = new LinkedHashMap<>();
+        Set<String> noteIDs = new HashSet<>(this.store.list());
+
+        for (String noteID : noteIDs) {
+            Properties state = this.readState(noteID);
+            boolean synced = state != null && !Boolean.parseBoolean(state.getProperty("deleted"));
+            try {
+                if (synced && Files.getLastModifiedTime(this.store.metaPathOf(noteID)).toMillis() < lastScan - SLACK) {
+                    continue;
+                }
+
+                NoteMeta meta = this.store.meta(noteID);
+                byte[] content = Files.readAllBytes(this.store.pathOf(noteID));
+                String checksum = NoteStore.checksumOf(content), tags = String.join(",", meta.getTags());
+                if (synced && checksum.equals(state.getProperty("checksum")) && tags.equals(state.getProperty("tags"))) {
+                    continue;
+                }
+
+                VersionVector vector = state == null ? VersionVector.EMPTY : this.vectorOf(state);
+                pushes.put(noteID, this.recordOf(noteID, vector.increment(replicaID), meta, content, synced));
+            } catch (NoSuchFileException e) {
+                // the note was deleted in the meantime, the next round sends that
+            }
+        }
+
+        // a note that was synced and is gone now was deleted here
+        if (Files.isDirectory(this.directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + STATE)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    String noteID = name.substring(0, name.length() - STATE.length());
+                    Properties state = this.readState(noteID);
+                    if (noteIDs.contains(noteID) || state == null || Boolean.parseBoolean(state.getProperty("deleted"))) {
+                        continue;
+                    }
+
+                    SyncProtocol.Record tombstone = new SyncProtocol.Record();
+                    tombstone.setNoteID(noteID);
+                    tombstone.setVector(this.vectorOf(state).increment(replicaID));
+                    tombstone.setDeleted(true);
+                    tombstone.setModified(System.currentTimeMillis());
+                    pushes.put(noteID, tombstone);
+                }
+            }
+        }
+        return pushes;
+    }
+
+    /**
+     * @return every note that was not pushed already, with the vector it was synced with, sent whole
+     */
+    private List<SyncProtocol.Record> everything(Set<String> pushed) throws IOException {
+        List<SyncProtocol.Record> records = new ArrayList<>();
+        for (String noteID : this.store.list()) {
+            Properties state = this.readState(noteID);
+            if (pushed.contains(noteID) || state == null) {
+                continue;
+            }
+
+            try {
+                records.add(this.recordOf(noteID, this.vectorOf(state), this.store.meta(noteID), Files.readAllBytes(this.store.pathOf(noteID)), false));
+            } catch (NoSuchFileException e) {
+                // the note was deleted in the meantime, the next round sends that
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return a note to push, as the difference to the content synced last if there is one
+     */
+    private SyncProtocol.Record recordOf(String noteID, VersionVector vector, NoteMeta meta, byte[] content, boolean withBase) throws IOException {
+        Properties state = this.readState(noteID);
+        byte[] base = new byte[0];
+        String baseChecksum = "";
+        Path basePath = this.directory.resolve(noteID + BASE);
+        if (withBase && state != null && Files.exists(basePath)) {
+            base = Files.readAllBytes(basePath);
+            baseChecksum = NoteStore.checksumOf(base);
+        }
+
+        SyncProtocol.Record record = new SyncProtocol.Record();
+        record.setNoteID(noteID);
+        record.setVector(vector);
+        record.setCreated(meta.getCreated());
+        record.setModified(meta.getModified());
+        record.setTags(String.join(",", meta.getTags()));
+        record.setChecksum(NoteStore.checksumOf(content));
+        record.setBaseChecksum(baseChecksum);
+        record.setDelta(NoteDelta.encode(base, content));
+        this.bytesRaw.addAndGet(content.length);
+        return record;
+    }
+
+    /**
+     * Pushes notes in batches without waiting in between, then goes through what the server decided for each.
+     * A note the server has no base for is pushed again whole, a note that lost a conflict is fetched.
+     */
+    private void push(Connection connection, List<SyncProtocol.Record> records, Map<String, String> overwritable, Set<String> fetches) throws IOException {
+        List<CompletableFuture<byte[]>> responses = new ArrayList<>();
+        for (int from = 0; from < records.size(); from += BATCH) {
+            List<SyncProtocol.Record> batch = records.subList(from, Math.min(from + BATCH, records.size()));
+            responses.add(connection.send(SyncProtocol.PUSH, SyncProtocol.body(out -> {
+                out.writeInt(batch.size());
+                for (SyncProtocol.Record record : batch) {
+                    record.writeTo(out);
+                }
+            })));
+        }
+
+        List<SyncProtocol.Record> full = new ArrayList<>();
+        for (int b = 0; b < responses.size(); b++) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(connection.await(responses.get(b))));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                SyncProtocol.Record record = records.get(b * BATCH + i);
+                byte result = in.readByte();
+                VersionVector vector = vectorOf(in.readUTF());
+
+                // a note that won a conflict was kept by the server, one that lost it was kept as a conflict copy
+                if (result == SyncProtocol.WON || result == SyncProtocol.LOST) {
+                    this.conflicts.incrementAndGet();
+                }
+                switch (result) {
+                    case SyncProtocol.WON:
+                    case SyncProtocol.ACCEPTED:
+                        this.pushed.incrementAndGet();
+                        this.synced(record, vector);
+                        break;
+                    case SyncProtocol.LOST:
+                        // the note itself is replaced by the server's version
+                        overwritable.put(record.getNoteID(), record.isDeleted() ? null : record.getChecksum() + "/" + record.getTags());
+                        fetches.add(record.getNoteID());
+                        break;
+                    case SyncProtocol.NEED_FULL:
+                        if (record.getBaseChecksum().isEmpty()) {
+                            throw new IOException("The server cannot take " + record.getNoteID());
+                        }
+                        full.add(this.wholeOf(record));
+                        break;
+                    default:
+                        throw new IOException("Unknown push result " + result);
+                }
+            }
+        }
+
+        if (!full.isEmpty()) {
+            this.push(connection, full, overwritable, fetches);
+        }
+    }
+
+    /**
+     * @return a pushed note again, with its whole content instead of a difference
+     */
+    private SyncProtocol.Record wholeOf(SyncProtocol.Record record) throws IOException {
+        byte[] base = Files.readAllBytes(this.directory.resolve(record.getNoteID() + BASE));
+        SyncProtocol.Record whole = new SyncProtocol.Record();
+        whole.setNoteID(record.getNoteID());
+        whole.setVector(record.getVector());
+        whole.setCreated(record.getCreated());
+        whole.setModified(record.getModified());
+        whole.setTags(record.getTags());
+        whole.setChecksum(record.getChecksum());
+        whole.setDelta(NoteDelta.encode(new byte[0], NoteDelta.apply(base, record.getDelta())));
+        return whole;
+    }
+
+    /**
+     * Remembers that the server has a pushed note, so the next round sends the difference to this version.
+     */
+    private void synced(SyncProtocol.Record record, VersionVector vector) throws IOException {
+        Path basePath = this.directory.resolve(record.getNoteID() + BASE);
+        if (record.isDeleted()) {
+            Files.deleteIfExists(basePath);
+        } else {
+            byte[] base = record.getBaseChecksum().isEmpty() || !Files.exists(basePath) ? new byte[0] : Files.readAllBytes(basePath);
+            this.writeFile(basePath, NoteDelta.apply(base, record.getDelta()));
+        }
+        this.writeState(record.getNoteID(), vector, record.isDeleted(), record.getChecksum(), record.getTags());
+    }
+
+    /**
+     * Fetches notes in batches without waiting in between, then writes them into the note store.
+     */
+    private void fetch(Connection connection, List<String> noteIDs, Map<String, String> overwritable, Changes changes) throws IOException {
+        List<CompletableFuture<byte[]>> responses = new ArrayList<>();
+        for (int from = 0; from < noteIDs.size(); from += BATCH) {
+            List<String> batch = noteIDs.subList(from, Math.min(from + BATCH, noteIDs.size()));
+            List<String> bases = new ArrayList<>();
+            for (String noteID : batch) {
+                Properties state = this.readState(noteID);
+                boolean hasBase = state != null && Files.exists(this.directory.resolve(noteID + BASE));
+                bases.add(hasBase ? state.getProperty("checksum", "") : "");
+            }
+
+            responses.add(connection.send(SyncProtocol.FETCH, SyncProtocol.body(out -> {
+                out.writeInt(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    out.writeUTF(batch.get(i));
+                    out.writeUTF(bases.get(i));
+                }
+            })));
+        }
+
+        List<String> again = new ArrayList<>();
+        for (CompletableFuture<byte[]> response : responses) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(connection.await(response)));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                if (!in.readBoolean()) {
+                    continue; // the note is not on the server (anymore)
+                }
+
+                SyncProtocol.Record record = SyncProtocol.Record.readFrom(in);
+                if (!this.apply(record, overwritable, changes)) {
+                    again.add(record.getNoteID());
+                }
+            }
+        }
+
+        // a note whose base was changed in the meantime is fetched whole
+        if (!again.isEmpty()) {
+            for (String noteID : again) {
+                Files.deleteIfExists(this.directory.resolve(noteID + BASE));
+            }
+            this.fetch(connection, again, overwritable, changes);
+        }
+    }
+
+    /**
+     * Writes a fetched note into the note store, unless the note was changed here in the meantime.
+     * @return false if the note has to be fetched whole, since the base it was sent against is not here anymore
+     */
+    private boolean apply(SyncProtocol.Record record, Map<String, String> overwritable, Changes changes) throws IOException {
+        String noteID = record.getNoteID();
+        try (NoteLocks.Held held = this.store.getLocks().lock(noteID)) {
+            Properties state = this.readState(noteID);
+
+            // the version the note may have here to be replaced: the version synced last, or the version that lost
+            String expected = state == null || Boolean.parseBoolean(state.getProperty("deleted")) ? null
+                    : state.getProperty("checksum") + "/" + state.getProperty("tags");
+            expected = overwritable.getOrDefault(noteID, expected);
+
+            NoteMeta local = Files.exists(this.store.pathOf(noteID)) ? this.store.meta(noteID) : null;
+            String current = local == null ? null : NoteStore.checksumOf(this.store.pathOf(noteID)) + "/" + String.join(",", local.getTags());
+            if (!Objects.equals(current, expected)) {
+                return true; // changed here in the meantime, the next round pushes it
+            }
+
+            Path basePath = this.directory.resolve(noteID + BASE);
+            if (record.isDeleted()) {
+                if (local != null) {
+                    this.store.delete(noteID);
+                    changes.getDeleted().add(noteID);
+                }
+                Files.deleteIfExists(basePath);
+                this.writeState(noteID, record.getVector(), true, "", "");
+                this.pulled.incrementAndGet();
+                return true;
+            }
+
+            byte[] base = new byte[0];
+            if (!record.getBaseChecksum().isEmpty()) {
+                base = Files.exists(basePath) ? Files.readAllBytes(basePath) : new byte[0];
+                if (!NoteStore.checksumOf(base).equals(record.getBaseChecksum())) {
+                    return false;
+                }
+            }
+            byte[] content = NoteDelta.apply(base, record.getDelta());
+            if (!NoteStore.checksumOf(content).equals(record.getChecksum())) {
+                throw new IOException("The fetched content of " + noteID + " does not match its checksum");
+            }
+            this.bytesRaw.addAndGet(content.length);
+
+            NoteMeta meta = this.store.write(noteID, new String(content, StandardCharsets.UTF_8), record.getCreated(), record.getModified());
+            Set<String> tags = TagIndex.parseTags(record.getTags());
+            if (!tags.equals(meta.getTags())) {
+                meta = this.store.tag(noteID, tags);
+            }
+
+            this.writeFile(basePath, content);
+            this.writeState(noteID, record.getVector(), false, meta.getChecksum(), String.join(",", meta.getTags()));
+            changes.getChanged().add(meta);
+            this.pulled.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * @return the sync state of a note, or null if it was never synced
+     */
+    private Properties readState(String noteID) throws IOException {
+        Path path = this.directory.resolve(noteID + STATE);
+        return Files.exists(path) ? this.readProperties(path) : null;
+    }
+
+    /**
+     * Writes the sync state of a note.
+     */
+    private void writeState(String noteID, VersionVector vector, boolean deleted, String checksum, String tags) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("vector", vector.toText());
+        state.setProperty("deleted", Boolean.toString(deleted));
+        state.setProperty("checksum", checksum);
+        state.setProperty("tags", tags);
+        this.writeProperties(state, this.directory.resolve(noteID + STATE));
+    }
+
+    /**
+     * @return the version vector of a sync state
+     */
+    private VersionVector vectorOf(Properties state) throws IOException {
+        return vectorOf(state.getProperty("vector", ""));
+    }
+
+    /**
+     * @return a version vector read from its text
+     */
+    private static VersionVector vectorOf(String text) throws IOException {
+        try {
+            return VersionVector.parse(text);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private Properties readProperties(Path path) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Writes a properties file, replacing it in one step like the metadata of a note.
+     */
+    private void writeProperties(Properties properties, Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + NoteStore.TEMP);
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a file, replacing it in one step.
+     */
+    private void writeFile(Path path, byte[] bytes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + NoteStore.TEMP);
+        Files.write(temp, bytes);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the amount of notes the last round pushed
+     */
+    public long getPushed() {
+        return this.pushed.get();
+    }
+
+    /**
+     * @return the amount of notes the last round wrote or deleted here
+     */
+    public long getPulled() {
+        return this.pulled.get();
+    }
+
+    /**
+     * @return the amount of conflicts the last round ran into
+     */
+    public long getConflicts() {
+        return this.conflicts.get();
+    }
+
+    /**
+     * @return the amount of bytes the last round sent
+     */
+    public long getBytesSent() {
+        return this.bytesSent.get();
+    }
+
+    /**
+     * @return the amount of bytes the last round received
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived.get();
+    }
+
+    /**
+     * @return the size of the notes the last round sent and received, before they were turned into differences
+     */
+    public long getBytesRaw() {
+        return this.bytesRaw.get();
+    }
+
+    /**
+     * @return the error of the last round on the background thread, or null if it succeeded
+     */
+    public IOException getLastError() {
+        return this.lastError;
+    }
+
+    /**
+     * @return the function called with the notes every round on the background thread changed here
+     */
+    public Consumer<Changes> getOnChanged() {
+        return this.onChanged;
+    }
+
+    /**
+     * Sets the function called with the notes every round on the background thread changed here, on that thread
+     * @param onChanged - the function
+     */
+    public void setOnChanged(Consumer<Changes> onChanged) {
+        this.onChanged = onChanged;
+    }
+
+    /**
+     * The notes a sync round changed in the note store.
+     */
+    public static final class Changes {
+        private final List<NoteMeta> changed = new ArrayList<>();
+        private final List<String> deleted = new ArrayList<>();
+
+        /**
+         * @return the metadata of the notes that were written
+         */
+        public List<NoteMeta> getChanged() {
+            return this.changed;
+        }
+
+        /**
+         * @return the IDs of the notes that were deleted
+         */
+        public List<String> getDeleted() {
+            return this.deleted;
+        }
+
+        /**
+         * @return whether the round changed nothing
+         */
+        public boolean isEmpty() {
+            return this.changed.isEmpty() && this.deleted.isEmpty();
+        }
+    }
+
+    /**
+     * A connection to the sync server. Requests are sent right away, and a reader thread completes their responses
+     * in the order they arrive, which is the order they were sent in.
+     */
+    private final class Connection implements Closeable {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final ArrayDeque<CompletableFuture<byte[]>> waiting = new ArrayDeque<>();
+
+        Connection() throws IOException {
+            this.socket = new Socket();
+            this.socket.connect(new InetSocketAddress(NoteSync.this.host, NoteSync.this.port), (int) TIMEOUT);
+            this.socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            Thread reader = new Thread(() -> this.read(in), "gui101-sync-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Sends a request.
+         * @return the body of its response, once it arrives
+         */
+        synchronized CompletableFuture<byte[]> send(byte type, byte[] body) throws IOException {
+            CompletableFuture<byte[]> response = new CompletableFuture<>();
+            this.waiting.add(response);
+            SyncProtocol.writeFrame(this.out, type, body);
+            this.out.flush();
+            NoteSync.this.bytesSent.addAndGet(5 + body.length);
+            return response;
+        }
+
+        /**
+         * Waits for the response to a request.
+         */
+        byte[] await(CompletableFuture<byte[]> response) throws IOException {
+            try {
+                return response.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new IOException("The sync server does not answer");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the sync server");
+            }
+        }
+
+        /**
+         * Completes the responses as they arrive, until the connection is closed.
+         */
+        private void read(DataInputStream in) {
+            IOException failure = new IOException("The sync server closed the connection");
+            try {
+                SyncProtocol.Frame frame;
+                while ((frame = SyncProtocol.readFrame(in)) != null) {
+                    NoteSync.this.bytesReceived.addAndGet(5 + frame.getBody().length);
+                    CompletableFuture<byte[]> response;
+                    synchronized (this) {
+                        response = this.waiting.poll();
+                    }
+                    if (response == null) {
+                        throw new IOException("The sync server sent a response nobody asked for");
+                    }
+
+                    if (frame.getType() == SyncProtocol.OK) {
+                        response.complete(frame.getBody());
+                    } else {
+                        String message = new DataInputStream(new ByteArrayInputStream(frame.getBody())).readUTF();
+                        response.completeExceptionally(new IOException("The sync server failed: " + message));
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            synchronized (this) {
+                for (CompletableFuture<byte[]> response : this.waiting) {
+                    response.completeExceptionally(failure);
+                }
+                this.waiting.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.socket.close();
+        }
+    }
+}
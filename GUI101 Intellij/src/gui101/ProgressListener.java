@@ -0,0 +1,16 @@
+package gui101;
+
+/**
+ * Receives progress updates from long running operations (e.g. exporting notes) that run
+ * outside the JavaFX Application Thread.
+ * Implementations must not assume which thread they are called from.
+ */
+public interface ProgressListener {
+    /**
+     * Called whenever the operation has made some progress.
+     * @param done - the amount of work that is already finished
+     * @param total - the total amount of work, or -1 if it is not known yet
+     * @param message - a short description of what is currently happening
+     */
+    void progress(long done, long total, String message);
+}
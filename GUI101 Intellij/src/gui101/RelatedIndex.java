@@ -0,0 +1,391 @@
+package gui101;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Finds the notes that are about the same things as a note, by comparing the words they use (TF-IDF).
+ * Every note is a sparse vector with one weight per word it uses: words the note uses often weigh more, and words
+ * that many notes use weigh less, so two notes are related when they share words that are rare in the other notes.
+ * The vectors are kept in primitive arrays (a number per word, a count per word in the note), together with a
+ * posting list per word with the notes that use it, so a search only looks at the notes that share a word with
+ * the note instead of comparing it with every note.
+ * Notes are added, changed and removed one at a time, so the index is kept up to date whenever a note is saved.
+ * Only the gui101-related-index thread changes the index, but the posting lists are read at the same time by the
+ * gui101-related-find and gui101-query threads, which is why the methods are synchronized.
+ */
+public class RelatedIndex {
+    // the amount of related notes found for a note
+    public static final int RESULTS = 10;
+
+    // the amount of words of a note that are looked up, only the heaviest words of a long note matter
+    private static final int QUERY_WORDS = 32;
+
+    // words shorter than this (e.g. "a", "of") say nothing about what a note is about
+    private static final int MIN_LENGTH = 3;
+
+    // the weight of a word that is in a note 0, 1, 2... times (1 + log of the count), so it is never computed twice
+    private static final float[] WEIGHTS = new float[256];
+
+    static {
+        for (int count = 1; count < WEIGHTS.length; count++) {
+            WEIGHTS[count] = (float) (1 + Math.log(count));
+        }
+    }
+
+    // the number of every word, and how many notes use each word
+    private final Map<String, Integer> words = new HashMap<>();
+    private int[] frequencies = new int[1024];
+
+    // the posting list of each word: the ordinals of the notes that use it, and how often each of them uses it
+    private int[][] postingNotes = new int[1024][];
+    private char[][] postingCounts = new char[1024][];
+    private int[] postingSizes = new int[1024];
+
+    // the ordinal of every note ID, and the note ID, words, word counts and vector length of every ordinal
+    // (a changed note gets a new ordinal, its old ordinal stays in the posting lists until they are compacted)
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private String[] ids = new String[1024];
+    private int[][] noteWords = new int[1024][];
+    private char[][] noteCounts = new char[1024][];
+    private float[] lengths = new float[1024];
+    private int size, stale;
+
+    // the notes that were indexed but have no words (they are in no posting list, but the index knows them)
+    private final Set<String> wordless = new HashSet<>();
+
+    /**
+     * Counts how often a note uses each word that the index looks at. The counts are kept in the metadata of the
+     * note when it is saved (see NoteMeta.getTerms()), so the index is filled from the metadata when the notes are
+     * listed, and only a note whose metadata has no counts yet is read for them.
+     * @param html - the html of the note
+     * @return the count of every word of the note, in lower case
+     */
+    public static Map<String, Integer> termsOf(String html) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : HtmlConverter.wordsOf(HtmlConverter.text().convert(html))) {
+            if (word.length() >= MIN_LENGTH) {
+                counts.merge(word, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Adds a note to the index, or replaces the words of a note that is already in it.
+     * @param noteID - the note ID
+     * @param html - the html of the note
+     */
+    public void put(String noteID, String html) {
+        this.put(noteID, termsOf(html));
+    }
+
+    /**
+     * Adds a note to the index with the counts of its words (see termsOf()), or replaces the words of a note that
+     * is already in it.
+     * @param noteID - the note ID
+     * @param counts - how often the note uses each word
+     */
+    public synchronized void put(String noteID, Map<String, Integer> counts) {
+        this.remove(noteID);
+        if (counts.isEmpty()) {
+            this.wordless.add(noteID);
+            return; // a note without words is related to nothing
+        }
+
+        int[] numbers = new int[counts.size()];
+        char[] times = new char[counts.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            numbers[i] = this.numberOf(count.getKey());
+            times[i++] = (char) Math.min(count.getValue(), Character.MAX_VALUE);
+        }
+        this.add(noteID, numbers, times);
+    }
+
+    /**
+     * Removes a note from the index.
+     * @param noteID - the note ID
+     */
+    public synchronized void remove(String noteID) {
+        this.wordless.remove(noteID);
+        Integer ordinal = this.ordinals.remove(noteID);
+        if (ordinal == null) {
+            return;
+        }
+
+        for (int word : this.noteWords[ordinal]) {
+            this.frequencies[word]--;
+        }
+        this.ids[ordinal] = null;
+        this.noteWords[ordinal] = null;
+        this.noteCounts[ordinal] = null;
+
+        // once most of the posting lists are old ordinals, the lists are built again without them
+        if (++this.stale > this.ordinals.size() && this.stale > 1024) {
+            this.compact();
+        }
+    }
+
+    /**
+     * @param noteID - a note ID
+     * @return whether the note is in the index
+     */
+    public synchronized boolean contains(String noteID) {
+        return this.ordinals.containsKey(noteID);
+    }
+
+    /**
+     * @param noteID - a note ID
+     * @param word - a word, in lower case
+     * @return whether the note uses the word (false if the note or the word is not in the index)
+     */
+    public synchronized boolean uses(String noteID, String word) {
+        Integer ordinal = this.ordinals.get(noteID);
+        Integer number = this.words.get(word);
+        if (ordinal == null || number == null) {
+            return false;
+        }
+
+        for (int used : this.noteWords[ordinal]) {
+            if (used == number) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param word - a word, in lower case
+     * @return how many notes use the word
+     */
+    public synchronized int frequency(String word) {
+        Integer number = this.words.get(word);
+        return number == null ? 0 : this.frequencies[number];
+    }
+
+    /**
+     * @param word - a word, in lower case
+     * @return a copy of the posting list of the word: the IDs of the notes that use it, in the order they were indexed
+     */
+    public synchronized List<String> notesWith(String word) {
+        Integer number = this.words.get(word);
+        if (number == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> found = new ArrayList<>(this.frequencies[number]);
+        for (int p = 0; p < this.postingSizes[number]; p++) {
+            String noteID = this.ids[this.postingNotes[number][p]];
+            if (noteID != null) {
+                found.add(noteID); // not an old ordinal of a changed note
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the number of notes in the index, including the notes without words
+     */
+    public synchronized int size() {
+        return this.ordinals.size() + this.wordless.size();
+    }
+
+    /**
+     * @param word - a word, in lower case
+     * @return whether the word is long enough to be in the index, shorter words are never indexed
+     */
+    public static boolean indexes(String word) {
+        return word.length() >= MIN_LENGTH;
+    }
+
+    /**
+     * Finds the notes most related to a note, by the cosine similarity of their vectors.
+     * Only the heaviest words of the note are looked up, and words that more than half of the notes use are skipped,
+     * since they barely change the ranking but have the longest posting lists.
+     * @param noteID - the note ID
+     * @param limit - the largest amount of notes to find
+     * @return the IDs of the related notes, the most related note first (empty if the note is not in the index)
+     */
+    public synchronized List<String> find(String noteID, int limit) {
+        Integer ordinal = this.ordinals.get(noteID);
+        if (ordinal == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // weigh the words of the note, and keep the heaviest ones
+        int[] numbers = this.noteWords[ordinal];
+        char[] times = this.noteCounts[ordinal];
+        Integer[] order = new Integer[numbers.length];
+        float[] weights = new float[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            order[i] = i;
+            weights[i] = weight(times[i]) * this.idf(numbers[i]);
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(weights[b], weights[a]));
+
+        // add up the weights each note shares with the note, going through the posting list of each word
+        float[] scores = new float[this.size];
+        int common = this.ordinals.size() / 2;
+        for (int i = 0; i < Math.min(QUERY_WORDS, order.length); i++) {
+            int word = numbers[order[i]];
+            if (this.frequencies[word] < 2 || (this.frequencies[word] > common && this.ordinals.size() > 10)) {
+                continue; // nobody else uses the word, or almost everybody does
+            }
+
+            float weight = weights[order[i]] * this.idf(word);
+            int[] notes = this.postingNotes[word];
+            char[] counts = this.postingCounts[word];
+            for (int p = 0; p < this.postingSizes[word]; p++) {
+                scores[notes[p]] += weight * weight(counts[p]);
+            }
+        }
+
+        // keep the best scores in a heap whose smallest score is on top, so each note is compared only once
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, (a, b) -> Float.compare(scores[a], scores[b]));
+        for (int other = 0; other < this.size; other++) {
+            if (scores[other] == 0 || other == ordinal || this.ids[other] == null) {
+                continue; // the note itself, a note that shares nothing, or an old ordinal of a changed note
+            }
+
+            scores[other] /= this.lengths[other];
+            if (best.size() < limit) {
+                best.add(other);
+            } else if (scores[other] > scores[best.peek()]) {
+                best.poll();
+                best.add(other);
+            }
+        }
+
+        List<String> found = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            found.add(this.ids[best.poll()]);
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    /**
+     * Gives a note a new ordinal and adds it to the posting lists of its words.
+     */
+    private void add(String noteID, int[] numbers, char[] times) {
+        if (this.size == this.ids.length) {
+            int grown = this.size * 2;
+            this.ids = Arrays.copyOf(this.ids, grown);
+            this.noteWords = Arrays.copyOf(this.noteWords, grown);
+            this.noteCounts = Arrays.copyOf(this.noteCounts, grown);
+            this.lengths = Arrays.copyOf(this.lengths, grown);
+        }
+
+        int ordinal = this.size++;
+        this.ordinals.put(noteID, ordinal);
+        this.ids[ordinal] = noteID;
+        this.noteWords[ordinal] = numbers;
+        this.noteCounts[ordinal] = times;
+
+        for (int i = 0; i < numbers.length; i++) {
+            this.frequencies[numbers[i]]++;
+            this.post(numbers[i], ordinal, times[i]);
+        }
+
+        // the length uses the word weights of this moment, they are brought up to date when the lists are compacted
+        this.lengths[ordinal] = this.lengthOf(numbers, times);
+    }
+
+    /**
+     * Adds a note to the end of the posting list of a word, the lists stay sorted since ordinals only grow.
+     */
+    private void post(int word, int ordinal, char count) {
+        int at = this.postingSizes[word];
+        if (this.postingNotes[word] == null) {
+            this.postingNotes[word] = new int[4];
+            this.postingCounts[word] = new char[4];
+        } else if (at == this.postingNotes[word].length) {
+            this.postingNotes[word] = Arrays.copyOf(this.postingNotes[word], at * 2);
+            this.postingCounts[word] = Arrays.copyOf(this.postingCounts[word], at * 2);
+        }
+        this.postingNotes[word][at] = ordinal;
+        this.postingCounts[word][at] = count;
+        this.postingSizes[word]++;
+    }
+
+    /**
+     * Builds every posting list again from the notes in the index, which gives the notes new ordinals without gaps.
+     */
+    private void compact() {
+        String[] oldIDs = this.ids;
+        int[][] oldWords = this.noteWords;
+        char[][] oldCounts = this.noteCounts;
+        int oldSize = this.size;
+
+        int capacity = Math.max(1024, this.ordinals.size() * 2);
+        this.ids = new String[capacity];
+        this.noteWords = new int[capacity][];
+        this.noteCounts = new char[capacity][];
+        this.lengths = new float[capacity];
+        this.size = 0;
+        this.stale = 0;
+        this.ordinals.clear();
+        Arrays.fill(this.frequencies, 0);
+        Arrays.fill(this.postingSizes, 0);
+
+        for (int ordinal = 0; ordinal < oldSize; ordinal++) {
+            if (oldIDs[ordinal] != null) {
+                this.add(oldIDs[ordinal], oldWords[ordinal], oldCounts[ordinal]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of a word, a new word gets the next number
+     */
+    private int numberOf(String word) {
+        Integer number = this.words.get(word);
+        if (number == null) {
+            number = this.words.size();
+            this.words.put(word, number);
+
+            if (number == this.frequencies.length) {
+                int grown = number * 2;
+                this.frequencies = Arrays.copyOf(this.frequencies, grown);
+                this.postingNotes = Arrays.copyOf(this.postingNotes, grown);
+                this.postingCounts = Arrays.copyOf(this.postingCounts, grown);
+                this.postingSizes = Arrays.copyOf(this.postingSizes, grown);
+            }
+        }
+        return number;
+    }
+
+    /**
+     * @return the inverse document frequency of a word, which is higher the fewer notes use the word
+     */
+    private float idf(int word) {
+        return (float) Math.log(1 + this.ordinals.size() / (double) Math.max(1, this.frequencies[word]));
+    }
+
+    /**
+     * @return the length of a note's vector, which the scores are divided by so long notes do not win every search
+     */
+    private float lengthOf(int[] numbers, char[] times) {
+        double sum = 0;
+        for (int i = 0; i < numbers.length; i++) {
+            double weight = weight(times[i]) * this.idf(numbers[i]);
+            sum += weight * weight;
+        }
+        return (float) Math.max(Math.sqrt(sum), 1e-6);
+    }
+
+    /**
+     * @return the weight of a word that is in a note the given amount of times
+     */
+    private static float weight(char count) {
+        return count < WEIGHTS.length ? WEIGHTS[count] : (float) (1 + Math.log(count));
+    }
+}
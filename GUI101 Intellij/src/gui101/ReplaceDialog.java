@@ -0,0 +1,390 @@
+package gui101;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The find and replace window, which replaces a text in every note at once.
+ * The user first finds the notes that contain the text and sees a preview of the matches, then replaces them all.
+ * Both steps run in the background (see NoteReplacer), show their progress and speed, and can be stopped midway.
+ * The window only writes the notes, the Controller updates the notes list through onReplaced.
+ */
+public class ReplaceDialog extends Dialog<ButtonType> {
+    private final NoteStore store;
+
+    private TextField tfFind, tfReplace;
+    private CheckBox cbMatchCase;
+    private Button btnFind, btnReplaceAll, btnStop;
+    private ListView<NoteReplacer.Match> lvMatches;
+    private ProgressBar pbProgress;
+    private Label lblStatus;
+
+    // the search or replacement that is running, or null
+    private Task<?> running;
+
+    // the replacer of the last search, which the replacement uses so it replaces exactly what was previewed
+    private NoteReplacer replacer;
+
+    // called on the JavaFX Application Thread with the metadata of the notes changed by each batch
+    private Consumer<List<NoteMeta>> onReplaced;
+
+    /**
+     * Initializes the window over the notes of a note store.
+     * @param store - the note store
+     */
+    public ReplaceDialog(NoteStore store) {
+        super();
+        this.store = store;
+        this.setTitle("Find and Replace");
+        this.setHeaderText("Replace a text in every note.\nOnly the text of the notes changes, never their formatting or links.");
+
+        this.setTfFind(new TextField());
+        this.getTfFind().setPromptText("Find");
+        this.setTfReplace(new TextField());
+        this.getTfReplace().setPromptText("Replace with");
+        this.setCbMatchCase(new CheckBox("Match case"));
+
+        // the preview of the matches, one note per row
+        this.setLvMatches(new ListView<>());
+        this.getLvMatches().setPrefSize(460.0, 240.0);
+        this.getLvMatches().setCellFactory(param -> new MatchCell());
+
+        this.setBtnFind(new Button("Find"));
+        this.setBtnReplaceAll(new Button("Replace All"));
+        this.setBtnStop(new Button("Stop"));
+        this.getBtnFind().setOnAction(v -> this.find());
+        this.getBtnReplaceAll().setOnAction(v -> this.replaceAll());
+        this.getBtnStop().setOnAction(v -> {
+            if (this.running != null) this.running.cancel();
+        });
+
+        this.setPbProgress(new ProgressBar(0));
+        this.getPbProgress().setPrefWidth(460.0);
+        this.setLblStatus(new Label(" "));
+
+        // a new search is needed whenever the text or options change, so the replacement matches the preview
+        this.getTfFind().textProperty().addListener((observable, oldValue, newValue) -> this.forget());
+        this.getTfReplace().textProperty().addListener((observable, oldValue, newValue) -> this.forget());
+        this.getCbMatchCase().selectedProperty().addListener((observable, oldValue, newValue) -> this.forget());
+        this.update();
+
+        this.getDialogPane().setContent(new VBox(10.0,
+                new HBox(10.0, this.getTfFind(), this.getTfReplace(), this.getCbMatchCase()),
+                new HBox(10.0, this.getBtnFind(), this.getBtnReplaceAll(), this.getBtnStop()),
+                this.getLvMatches(), this.getPbProgress(), this.getLblStatus()));
+        this.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+
+        // closing the window stops whatever is running, the notes changed so far stay changed
+        this.setOnCloseRequest(v -> {
+            if (this.running != null) this.running.cancel();
+        });
+    }
+
+    /**
+     * Finds the notes that contain the text in the background, and shows them in the preview.
+     */
+    private void find() {
+        if (this.getTfFind().getText().isEmpty()) {
+            return;
+        }
+
+        NoteReplacer replacer = new NoteReplacer(this.store, this.getTfFind().getText(), this.getTfReplace().getText(), this.getCbMatchCase().isSelected());
+        this.getLvMatches().getItems().clear();
+        this.run(new Task<List<NoteReplacer.Match>>() {
+            @Override
+            protected List<NoteReplacer.Match> call() throws Exception {
+                return replacer.find((done, total, message) -> {
+                    this.updateMessage(message);
+                    this.updateProgress(done, total);
+                }, this::isCancelled);
+            }
+        }, matches -> {
+            this.replacer = replacer;
+            this.getLvMatches().getItems().setAll(matches);
+
+            int count = 0;
+            for (NoteReplacer.Match match : matches) count += match.getCount();
+            this.getLblStatus().setText(String.format("%d matches in %d notes, read %.1f MB at %.1f MB/s",
+                    count, matches.size(), replacer.getMegabytes(), replacer.getMegabytesPerSecond()));
+        }, "Stopped searching.");
+    }
+
+    /**
+     * Replaces the text in every note of the preview in the background.
+     */
+    private void replaceAll() {
+        NoteReplacer replacer = this.replacer;
+        List<NoteReplacer.Match> matches = new ArrayList<>(this.getLvMatches().getItems());
+        if (replacer == null || matches.isEmpty()) {
+            return;
+        }
+
+        this.run(new Task<Integer>() {
+            @Override
+            protected Integer call() throws Exception {
+                return replacer.replace(matches, (done, total, message) -> {
+                    this.updateMessage(message);
+                    this.updateProgress(done, total);
+                }, this::isCancelled, batch -> Platform.runLater(() -> {
+                    if (ReplaceDialog.this.getOnReplaced() != null) ReplaceDialog.this.getOnReplaced().accept(batch);
+                }));
+            }
+        }, count -> {
+            this.forget();
+            this.getLblStatus().setText(String.format("Replaced %d matches in %d notes, read %.1f MB at %.1f MB/s",
+                    count, replacer.getNotesChanged(), replacer.getMegabytes(), replacer.getMegabytesPerSecond()));
+        }, "Stopped replacing, %d notes were already changed.");
+    }
+
+    /**
+     * Runs a search or replacement on a background thread, while showing its progress in the window.
+     * @param task - the task to run
+     * @param onDone - called with the result of the task when it succeeds
+     * @param stopped - the status shown when the task is stopped (with the amount of changed notes as %d, if any)
+     * @param <T> - the type of the task's result
+     */
+    private <T> void run(Task<T> task, Consumer<T> onDone, String stopped) {
+        this.running = task;
+        this.getPbProgress().progressProperty().bind(task.progressProperty());
+        this.getLblStatus().textProperty().bind(task.messageProperty());
+        this.update();
+
+        task.setOnSucceeded(v -> {
+            this.finish();
+            onDone.accept(task.getValue());
+        });
+        task.setOnCancelled(v -> {
+            int changed = this.replacer == null ? 0 : this.replacer.getNotesChanged();
+
+            // the notes that were already changed no longer match the preview, so the search has to be done again
+            this.finish();
+            this.forget();
+            this.getLblStatus().setText(String.format(stopped, changed));
+        });
+        task.setOnFailed(v -> {
+            this.finish();
+            this.getLblStatus().setText("Yikes! Some notes can't be read or written right now, try again later.");
+        });
+
+        // run the task on a daemon thread, so that it never keeps the program from exiting
+        Thread thread = new Thread(task, "gui101-replace");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Unbinds the progress from the task that just ended.
+     */
+    private void finish() {
+        this.running = null;
+        this.getPbProgress().progressProperty().unbind();
+        this.getLblStatus().textProperty().unbind();
+        this.update();
+    }
+
+    /**
+     * Forgets the last search, since the preview does not match the text or options anymore.
+     */
+    private void forget() {
+        if (this.running == null) {
+            this.replacer = null;
+            this.getLvMatches().getItems().clear();
+            this.update();
+        }
+    }
+
+    /**
+     * Enables the buttons that can be used right now.
+     */
+    private void update() {
+        boolean busy = this.running != null;
+        this.getBtnFind().setDisable(busy);
+        this.getBtnReplaceAll().setDisable(busy || this.replacer == null || this.getLvMatches().getItems().isEmpty());
+        this.getBtnStop().setDisable(!busy);
+        this.getTfFind().setDisable(busy);
+        this.getTfReplace().setDisable(busy);
+        this.getCbMatchCase().setDisable(busy);
+    }
+
+    /**
+     * @return the text field of the text to find
+     */
+    public TextField getTfFind() {
+        return this.tfFind;
+    }
+
+    /**
+     * @return the text field of the replacement
+     */
+    public TextField getTfReplace() {
+        return this.tfReplace;
+    }
+
+    /**
+     * @return the check box that makes the search match the case
+     */
+    public CheckBox getCbMatchCase() {
+        return this.cbMatchCase;
+    }
+
+    /**
+     * @return the button that finds the notes with the text
+     */
+    public Button getBtnFind() {
+        return this.btnFind;
+    }
+
+    /**
+     * @return the button that replaces the text in the found notes
+     */
+    public Button getBtnReplaceAll() {
+        return this.btnReplaceAll;
+    }
+
+    /**
+     * @return the button that stops the search or replacement
+     */
+    public Button getBtnStop() {
+        return this.btnStop;
+    }
+
+    /**
+     * @return the preview of the matches
+     */
+    public ListView<NoteReplacer.Match> getLvMatches() {
+        return this.lvMatches;
+    }
+
+    /**
+     * @return the progress bar of the search or replacement
+     */
+    public ProgressBar getPbProgress() {
+        return this.pbProgress;
+    }
+
+    /**
+     * @return the label that shows the progress and results
+     */
+    public Label getLblStatus() {
+        return this.lblStatus;
+    }
+
+    /**
+     * @return the action called with the metadata of the notes changed by each batch
+     */
+    public Consumer<List<NoteMeta>> getOnReplaced() {
+        return this.onReplaced;
+    }
+
+    /**
+     * Sets the text field of the text to find
+     * @param tfFind - the text field
+     */
+    public void setTfFind(TextField tfFind) {
+        this.tfFind = tfFind;
+    }
+
+    /**
+     * Sets the text field of the replacement
+     * @param tfReplace - the text field
+     */
+    public void setTfReplace(TextField tfReplace) {
+        this.tfReplace = tfReplace;
+    }
+
+    /**
+     * Sets the check box that makes the search match the case
+     * @param cbMatchCase - the check box
+     */
+    public void setCbMatchCase(CheckBox cbMatchCase) {
+        this.cbMatchCase = cbMatchCase;
+    }
+
+    /**
+     * Sets the button that finds the notes with the text
+     * @param btnFind - the button
+     */
+    public void setBtnFind(Button btnFind) {
+        this.btnFind = btnFind;
+    }
+
+    /**
+     * Sets the button that replaces the text in the found notes
+     * @param btnReplaceAll - the button
+     */
+    public void setBtnReplaceAll(Button btnReplaceAll) {
+        this.btnReplaceAll = btnReplaceAll;
+    }
+
+    /**
+     * Sets the button that stops the search or replacement
+     * @param btnStop - the button
+     */
+    public void setBtnStop(Button btnStop) {
+        this.btnStop = btnStop;
+    }
+
+    /**
+     * Sets the preview of the matches
+     * @param lvMatches - the list view
+     */
+    public void setLvMatches(ListView<NoteReplacer.Match> lvMatches) {
+        this.lvMatches = lvMatches;
+    }
+
+    /**
+     * Sets the progress bar of the search or replacement
+     * @param pbProgress - the progress bar
+     */
+    public void setPbProgress(ProgressBar pbProgress) {
+        this.pbProgress = pbProgress;
+    }
+
+    /**
+     * Sets the label that shows the progress and results
+     * @param lblStatus - the label
+     */
+    public void setLblStatus(Label lblStatus) {
+        this.lblStatus = lblStatus;
+    }
+
+    /**
+     * Sets the action called with the metadata of the notes changed by each batch
+     * @param onReplaced - receives the metadata on the JavaFX Application Thread
+     */
+    public void setOnReplaced(Consumer<List<NoteMeta>> onReplaced) {
+        this.onReplaced = onReplaced;
+    }
+
+    /**
+     * Shows a note of the preview as its title and amount of matches, followed by the text around the first match.
+     */
+    private static class MatchCell extends ListCell<NoteReplacer.Match> {
+        @Override
+        protected void updateItem(NoteReplacer.Match item, boolean empty) {
+            super.updateItem(item, empty);
+
+            if (item == null || empty) {
+                this.setText(null);
+                return;
+            }
+            this.setText(item.getSample() + "  (" + item.getCount() + (item.getCount() == 1 ? " match)" : " matches)")
+                    + "\n    ..." + item.getSnippet() + "...");
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package gui101;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * The messages NoteSync and the SyncServer exchange over a TCP connection.
+ * Every message is a frame: its length (an int), its type (a byte) and its body, so a side can send many requests
+ * without waiting for the responses in between (pipelining), and the responses come back in the same order.
+ * The requests are:
+ *  - PULL, the notes that changed on the server since the last sync: the headers of the notes, without content
+ *  - PUSH, a batch of notes that changed on the client: the difference to the version both sides already have
+ *    (see NoteDelta), the new version vector (see VersionVector), and what the server decided for each note
+ *  - FETCH, a batch of notes the client wants: the difference to the version the client already has
+ * Every response starts with OK, or with ERROR and a message.
+ */
+final class SyncProtocol {
+    // the request types
+    static final byte PULL = 1, PUSH = 2, FETCH = 3;
+
+    // the first byte of every response
+    static final byte OK = 0, ERROR = 1;
+
+    // what the server decided for a pushed note
+    static final byte ACCEPTED = 0, WON = 1, LOST = 2, NEED_FULL = 3;
+
+    // the largest frame a side accepts, a larger length means the connection is broken
+    static final int MAX_FRAME = 256 * 1024 * 1024;
+
+    private SyncProtocol() {
+    }
+
+    /**
+     * Writes one frame. The stream is not flushed, so a batch of frames goes out together.
+     * @param out - the connection
+     * @param type - the request type, or OK/ERROR for a response
+     * @param body - the body of the frame
+     * @throws IOException if the connection is broken
+     */
+    static void writeFrame(DataOutputStream out, byte type, byte[] body) throws IOException {
+        out.writeInt(body.length);
+        out.writeByte(type);
+        out.write(body);
+    }
+
+    /**
+     * Reads one frame.
+     * @param in - the connection
+     * @return the frame, or null if the other side closed the connection between two frames
+     * @throws IOException if the connection is broken or the frame is corrupt
+     */
+    static Frame readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("Corrupt frame of " + length + " bytes");
+        }
+
+        byte type = in.readByte();
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return new Frame(type, body);
+    }
+
+    /**
+     * Writes a byte array with its length.
+     */
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a byte array written by writeBytes().
+     */
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("Corrupt length of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Builds the body of a frame.
+     */
+    interface BodyWriter {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * @param writer - writes the body
+     * @return the body as bytes
+     */
+    static byte[] body(BodyWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing into memory cannot fail", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * One frame: its type and its body.
+     */
+    static final class Frame {
+        private final byte type;
+        private final byte[] body;
+
+        Frame(byte type, byte[] body) {
+            this.type = type;
+            this.body = body;
+        }
+
+        byte getType() {
+            return this.type;
+        }
+
+        byte[] getBody() {
+            return this.body;
+        }
+    }
+
+    /**
+     * A version of a note as it is sent in either direction: its version vector, its dates and tags, and its content
+     * as the difference to a base version (or a deleted note, which has no content).
+     */
+    static final class Record {
+        private String noteID;
+        private VersionVector vector = VersionVector.EMPTY;
+        private boolean deleted;
+        private long created, modified;
+        private String tags = "";
+
+        // the checksum of the content, of the version the delta is based on ("" for none), and the delta itself
+        private String checksum = "", baseChecksum = "";
+        private byte[] delta = new byte[0];
+
+        /**
+         * Writes the record.
+         */
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(this.noteID);
+            out.writeUTF(this.vector.toText());
+            out.writeBoolean(this.deleted);
+            out.writeLong(this.created);
+            out.writeLong(this.modified);
+            out.writeUTF(this.tags);
+            out.writeUTF(this.checksum);
+            out.writeUTF(this.baseChecksum);
+            writeBytes(out, this.delta);
+        }
+
+        /**
+         * Reads a record written by writeTo().
+         */
+        static Record readFrom(DataInputStream in) throws IOException {
+            Record record = new Record();
+            record.setNoteID(in.readUTF());
+            try {
+                record.setVector(VersionVector.parse(in.readUTF()));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt record of " + record.getNoteID(), e);
+            }
+            record.setDeleted(in.readBoolean());
+            record.setCreated(in.readLong());
+            record.setModified(in.readLong());
+            record.setTags(in.readUTF());
+            record.setChecksum(in.readUTF());
+            record.setBaseChecksum(in.readUTF());
+            record.setDelta(readBytes(in));
+            return record;
+        }
+
+        String getNoteID() {
+            return this.noteID;
+        }
+
+        VersionVector getVector() {
+            return this.vector;
+        }
+
+        boolean isDeleted() {
+            return this.deleted;
+        }
+
+        long getCreated() {
+            return this.created;
+        }
+
+        long getModified() {
+            return this.modified;
+        }
+
+        String getTags() {
+            return this.tags;
+        }
+
+        String getChecksum() {
+            return this.checksum;
+        }
+
+        String getBaseChecksum() {
+            return this.baseChecksum;
+        }
+
+        byte[] getDelta() {
+            return this.delta;
+        }
+
+        void setNoteID(String noteID) {
+            this.noteID = noteID;
+        }
+
+        void setVector(VersionVector vector) {
+            this.vector = vector;
+        }
+
+        void setDeleted(boolean deleted) {
+            this.deleted = deleted;
+        }
+
+        void setCreated(long created) {
+            this.created = created;
+        }
+
+        void setModified(long modified) {
+            this.modified = modified;
+        }
+
+        void setTags(String tags) {
+            this.tags = tags;
+        }
+
+        void setChecksum(String checksum) {
+            this.checksum = checksum;
+        }
+
+        void setBaseChecksum(String baseChecksum) {
+            this.baseChecksum = baseChecksum;
+        }
+
+        void setDelta(byte[] delta) {
+            this.delta = delta;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package gui101;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A small sync server that keeps the synced notes in memory, for trying out and testing NoteSync without a real
+ * server (see the "sync-server" command of NoteCli). It only listens on the local machine.
+ * The server keeps the latest version of every note, plus the last few versions of its content, so it can send a
+ * client the difference to the version that client already has (see NoteDelta).
+ * A pushed note that was changed on two machines at the same time is a conflict, which the server resolves the same
+ * way no matter which machine pushes first: a note beats a deleted note, then the later change wins, then the
+ * larger checksum. The losing version is kept as a new note ("<note id>-conflict-<checksum>"), so nothing is lost.
+ * The notes are forgotten when the server stops. Every start has a new epoch, which tells the clients to send and
+ * receive everything again.
+ */
+public class SyncServer {
+    // the amount of versions of a note's content the server keeps to send differences against
+    private static final int HISTORY = 4;
+
+    // the replica the server counts the conflict copies it creates for
+    private static final String REPLICA = "server";
+
+    private final ServerSocket serverSocket;
+
+    // changes every time the server starts, a client that synced with another epoch starts over
+    private final long epoch = new SecureRandom().nextLong();
+
+    // the latest version of every note, the content of its last versions by checksum, and the note changed by
+    // every sequence number (the sequence number of a note is the last time it changed)
+    private final Map<String, SyncProtocol.Record> notes = new HashMap<>();
+    private final Map<String, LinkedHashMap<String, byte[]>> history = new HashMap<>();
+    private final Map<String, Long> seqs = new HashMap<>();
+    private final TreeMap<Long, String> bySeq = new TreeMap<>();
+    private long seq;
+
+    /**
+     * Starts listening on a port of the local machine. Connections are accepted once start() is called.
+     * @param port - the port, or 0 for any free port (see getPort())
+     * @throws IOException if the port cannot be opened
+     */
+    public SyncServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Accepts connections on a background thread, and serves every connection on a thread of its own.
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    Thread connection = new Thread(() -> this.serve(socket), "gui101-sync-server-connection");
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    // the server was stopped, or the connection failed before it was accepted
+                }
+            }
+        }, "gui101-sync-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections. Connections that are open are served until the clients close them.
+     */
+    public void stop() {
+        try {
+            this.serverSocket.close();
+        } catch (IOException e) {
+            // the server is stopped either way
+        }
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the amount of notes on the server, including deleted notes
+     */
+    public synchronized int size() {
+        return this.notes.size();
+    }
+
+    /**
+     * Answers the requests of one connection in the order they arrive, until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            SyncProtocol.Frame frame;
+            while ((frame = SyncProtocol.readFrame(in)) != null) {
+                byte[] response;
+                try {
+                    response = this.handle(frame);
+                } catch (IOException | RuntimeException e) {
+                    SyncProtocol.writeFrame(out, SyncProtocol.ERROR, SyncProtocol.body(o -> o.writeUTF(String.valueOf(e.getMessage()))));
+                    out.flush();
+                    continue;
+                }
+                SyncProtocol.writeFrame(out, SyncProtocol.OK, response);
+
+                // the responses of requests that already arrived go out together
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // the client went away
+        } catch (IOException e) {
+            // the connection is broken, the client syncs again on a new one
+        }
+    }
+
+    /**
+     * @return the body of the response to a request
+     */
+    private byte[] handle(SyncProtocol.Frame frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.getBody()));
+        switch (frame.getType()) {
+            case SyncProtocol.PULL:
+                return this.pull(in.readLong(), in.readLong());
+            case SyncProtocol.PUSH:
+                int count = in.readInt();
+                List<SyncProtocol.Record> records = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    records.add(SyncProtocol.Record.readFrom(in));
+                }
+                return this.push(records);
+            case SyncProtocol.FETCH:
+                int wanted = in.readInt();
+                Map<String, String> bases = new LinkedHashMap<>();
+                for (int i = 0; i < wanted; i++) {
+                    bases.put(in.readUTF(), in.readUTF());
+                }
+                return this.fetch(bases);
+            default:
+                throw new IOException("Unknown request " + frame.getType());
+        }
+    }
+
+    /**
+     * Lists the headers of the notes that changed since a sequence number, everything if the epoch is another one.
+     */
+    private synchronized byte[] pull(long clientEpoch, long since) {
+        long from = clientEpoch == this.epoch ? since : 0;
+        List<SyncProtocol.Record> changed = new ArrayList<>();
+        for (String noteID : this.bySeq.tailMap(from, false).values()) {
+            changed.add(this.notes.get(noteID));
+        }
+
+        return SyncProtocol.body(out -> {
+            out.writeLong(this.epoch);
+            out.writeLong(this.seq);
+            out.writeInt(changed.size());
+            for (SyncProtocol.Record note : changed) {
+                out.writeUTF(note.getNoteID());
+                out.writeUTF(note.getVector().toText());
+                out.writeUTF(note.getChecksum());
+                out.writeBoolean(note.isDeleted());
+            }
+        });
+    }
+
+    /**
+     * Takes a batch of changed notes, and answers what was decided for each with the vector the client now has.
+     */
+    private synchronized byte[] push(List<SyncProtocol.Record> records) throws IOException {
+        List<Byte> results = new ArrayList<>(records.size());
+        List<VersionVector> vectors = new ArrayList<>(records.size());
+        for (SyncProtocol.Record pushed : records) {
+            byte result = this.push(pushed);
+            results.add(result);
+            SyncProtocol.Record current = this.notes.get(pushed.getNoteID());
+            vectors.add(current == null ? pushed.getVector() : current.getVector());
+        }
+
+        return SyncProtocol.body(out -> {
+            out.writeInt(results.size());
+            for (int i = 0; i < results.size(); i++) {
+                out.writeByte(results.get(i));
+                out.writeUTF(vectors.get(i).toText());
+            }
+        });
+    }
+
+    /**
+     * Takes one changed note.
+     */
+    private byte push(SyncProtocol.Record pushed) throws IOException {
+        String noteID = pushed.getNoteID();
+        SyncProtocol.Record current = this.notes.get(noteID);
+
+        // the content of the pushed note, rebuilt from the version of its base the server still has
+        byte[] content = null;
+        if (!pushed.isDeleted()) {
+            byte[] base = new byte[0];
+            if (!pushed.getBaseChecksum().isEmpty()) {
+                base = this.history.getOrDefault(noteID, new LinkedHashMap<>()).get(pushed.getBaseChecksum());
+                if (base == null) {
+                    return SyncProtocol.NEED_FULL;
+                }
+            }
+            content = NoteDelta.apply(base, pushed.getDelta());
+            if (!NoteStore.checksumOf(content).equals(pushed.getChecksum())) {
+                throw new IOException("The content of " + noteID + " does not match its checksum");
+            }
+        }
+
+        if (current == null) {
+            if (!pushed.isDeleted()) {
+                this.store(pushed, content);
+            }
+            return SyncProtocol.ACCEPTED;
+        }
+
+        VersionVector.Order order = pushed.getVector().compare(current.getVector());
+        if (order == VersionVector.Order.AFTER) {
+            this.store(pushed, content);
+            return SyncProtocol.ACCEPTED;
+        }
+        if (sameVersion(pushed, current)) {
+            // both machines made the same change, e.g. the same tag, which is no conflict
+            current.setVector(current.getVector().merge(pushed.getVector()));
+            this.changed(noteID);
+            return SyncProtocol.ACCEPTED;
+        }
+
+        // changed on two machines at the same time (or pushed by a client that missed the current version)
+        VersionVector merged = current.getVector().merge(pushed.getVector());
+        boolean pushedWins = wins(pushed, current);
+        SyncProtocol.Record winner = pushedWins ? pushed : current, loser = pushedWins ? current : pushed;
+        byte[] winnerContent = pushedWins ? content : this.contentOf(current);
+        byte[] loserContent = pushedWins ? this.contentOf(current) : content;
+
+        winner.setVector(merged);
+        this.store(winner, winnerContent);
+        if (!loser.isDeleted()) {
+            this.storeConflictCopy(loser, loserContent);
+        }
+        return pushedWins ? SyncProtocol.WON : SyncProtocol.LOST;
+    }
+
+    /**
+     * @return whether two versions of a note have the same content and tags
+     */
+    private static boolean sameVersion(SyncProtocol.Record a, SyncProtocol.Record b) {
+        return a.isDeleted() == b.isDeleted() && a.getChecksum().equals(b.getChecksum()) && a.getTags().equals(b.getTags());
+    }
+
+    /**
+     * @return whether the first of two conflicting versions wins: a note beats a deleted note, then the later
+     *         change wins, then the larger checksum, so every server decides the same
+     */
+    private static boolean wins(SyncProtocol.Record a, SyncProtocol.Record b) {
+        if (a.isDeleted() != b.isDeleted()) {
+            return !a.isDeleted();
+        }
+        if (a.getModified() != b.getModified()) {
+            return a.getModified() > b.getModified();
+        }
+        return a.getChecksum().compareTo(b.getChecksum()) > 0;
+    }
+
+    /**
+     * Keeps the losing version of a conflict as a new note.
+     */
+    private void storeConflictCopy(SyncProtocol.Record loser, byte[] content) {
+        SyncProtocol.Record copy = new SyncProtocol.Record();
+        copy.setNoteID(loser.getNoteID() + "-conflict-" + loser.getChecksum());
+        if (this.notes.containsKey(copy.getNoteID())) {
+            return; // the same version lost before
+        }
+
+        copy.setVector(VersionVector.EMPTY.increment(REPLICA));
+        copy.setCreated(loser.getCreated());
+        copy.setModified(loser.getModified());
+        copy.setTags(loser.getTags());
+        copy.setChecksum(loser.getChecksum());
+        this.store(copy, content);
+    }
+
+    /**
+     * Makes a version the latest version of its note. Its delta is not needed anymore, the content is kept instead.
+     */
+    private void store(SyncProtocol.Record record, byte[] content) {
+        record.setBaseChecksum("");
+        record.setDelta(new byte[0]);
+        this.notes.put(record.getNoteID(), record);
+
+        if (content != null) {
+            LinkedHashMap<String, byte[]> versions = this.history.computeIfAbsent(record.getNoteID(), id -> new LinkedHashMap<>());
+            versions.remove(record.getChecksum());
+            versions.put(record.getChecksum(), content);
+            while (versions.size() > HISTORY) {
+                versions.remove(versions.keySet().iterator().next());
+            }
+        }
+        this.changed(record.getNoteID());
+    }
+
+    /**
+     * Gives a note the next sequence number, so the next pull of every client lists it.
+     */
+    private void changed(String noteID) {
+        Long old = this.seqs.put(noteID, ++this.seq);
+        if (old != null) {
+            this.bySeq.remove(old);
+        }
+        this.bySeq.put(this.seq, noteID);
+    }
+
+    /**
+     * @return the content of the latest version of a note, or null if it is deleted
+     */
+    private byte[] contentOf(SyncProtocol.Record record) {
+        if (record.isDeleted()) {
+            return null;
+        }
+        return this.history.get(record.getNoteID()).get(record.getChecksum());
+    }
+
+    /**
+     * Sends a batch of notes, each as the difference to the version the client has if the server still has it.
+     */
+    private synchronized byte[] fetch(Map<String, String> bases) {
+        List<SyncProtocol.Record> found = new ArrayList<>(bases.size());
+        for (Map.Entry<String, String> wanted : bases.entrySet()) {
+            SyncProtocol.Record current = this.notes.get(wanted.getKey());
+            if (current == null) {
+                found.add(null);
+                continue;
+            }
+
+            SyncProtocol.Record sent = new SyncProtocol.Record();
+            sent.setNoteID(current.getNoteID());
+            sent.setVector(current.getVector());
+            sent.setDeleted(current.isDeleted());
+            sent.setCreated(current.getCreated());
+            sent.setModified(current.getModified());
+            sent.setTags(current.getTags());
+            sent.setChecksum(current.getChecksum());
+            if (!current.isDeleted()) {
+                byte[] base = wanted.getValue().isEmpty() ? null : this.history.get(current.getNoteID()).get(wanted.getValue());
+                sent.setBaseChecksum(base == null ? "" : wanted.getValue());
+                sent.setDelta(NoteDelta.encode(base == null ? new byte[0] : base, this.contentOf(current)));
+            }
+            found.add(sent);
+        }
+
+        return SyncProtocol.body(out -> {
+            out.writeInt(found.size());
+            for (SyncProtocol.Record record : found) {
+                out.writeBoolean(record != null);
+                if (record != null) {
+                    record.writeTo(out);
+                }
+            }
+        });
+    }
+}
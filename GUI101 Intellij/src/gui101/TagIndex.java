@@ -0,0 +1,279 @@
+package gui101;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds the notes that match a tag filter (e.g. "work AND (urgent OR today) AND NOT done") without reading
+ * any note or metadata file.
+ * Every note gets a small number (its ordinal), and every tag has a Bitmap with the ordinals of the notes that
+ * have the tag. A filter is answered by combining the bitmaps of its tags, so its cost depends on the amount of
+ * tags in the filter and how the notes are spread over them, not on reading every note.
+ * Tags are lower case words without spaces, commas or parentheses.
+ */
+public class TagIndex {
+    // the ordinal of every note ID, and the note ID and tags of every ordinal (null once the note is removed)
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<String> ids = new ArrayList<>();
+    private final List<Set<String>> tagsOf = new ArrayList<>();
+
+    // the ordinals of removed notes, which are given to new notes so the bitmaps stay dense
+    private final Deque<Integer> free = new ArrayDeque<>();
+
+    // the notes of each tag, and every note in the index (used by NOT)
+    private final Map<String, Bitmap> tags = new HashMap<>();
+    private final Bitmap all = new Bitmap();
+
+    /**
+     * Adds a note to the index, or replaces the tags of a note that is already in it.
+     * @param noteID - the note ID
+     * @param noteTags - the tags of the note
+     */
+    public void put(String noteID, Set<String> noteTags) {
+        Integer ordinal = this.ordinals.get(noteID);
+        if (ordinal == null) {
+            ordinal = this.free.isEmpty() ? this.ids.size() : this.free.pop();
+            if (ordinal == this.ids.size()) {
+                this.ids.add(null);
+                this.tagsOf.add(null);
+            }
+
+            this.ordinals.put(noteID, ordinal);
+            this.ids.set(ordinal, noteID);
+            this.all.add(ordinal);
+        } else {
+            // only the tags that were removed from the note have to be cleared
+            for (String tag : this.tagsOf.get(ordinal)) {
+                if (!noteTags.contains(tag)) {
+                    this.clear(tag, ordinal);
+                }
+            }
+        }
+
+        for (String tag : noteTags) {
+            this.tags.computeIfAbsent(tag, t -> new Bitmap()).add(ordinal);
+        }
+        this.tagsOf.set(ordinal, new TreeSet<>(noteTags));
+    }
+
+    /**
+     * Removes a note from the index.
+     * @param noteID - the note ID
+     */
+    public void remove(String noteID) {
+        Integer ordinal = this.ordinals.remove(noteID);
+        if (ordinal == null) {
+            return;
+        }
+
+        for (String tag : this.tagsOf.get(ordinal)) {
+            this.clear(tag, ordinal);
+        }
+        this.all.remove(ordinal);
+        this.ids.set(ordinal, null);
+        this.tagsOf.set(ordinal, null);
+        this.free.push(ordinal);
+    }
+
+    /**
+     * Removes a note from the bitmap of a tag, and forgets the tag once no note has it.
+     */
+    private void clear(String tag, int ordinal) {
+        Bitmap notes = this.tags.get(tag);
+        if (notes != null) {
+            notes.remove(ordinal);
+            if (notes.cardinality() == 0) {
+                this.tags.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * Finds the notes that match a tag filter.
+     * The filter is made of tags, AND, OR, NOT and parentheses. Tags next to each other without an operator are
+     * joined with AND, and AND is applied before OR (so "a OR b c" means "a OR (b AND c)").
+     * @param filter - the filter
+     * @return the ordinals of the matching notes (which must not be changed), or null if the filter is blank
+     * @throws IllegalArgumentException if the filter is not valid
+     */
+    public Bitmap query(String filter) {
+        List<String> tokens = tokenize(filter);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+
+        Query query = new Query(tokens);
+        Bitmap result = query.or();
+        if (query.position < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(query.position) + "' in the filter");
+        }
+        return result;
+    }
+
+    /**
+     * @param result - the result of query()
+     * @param noteID - a note ID
+     * @return whether the note is in the result (every note is in the result of a blank filter)
+     */
+    public boolean matches(Bitmap result, String noteID) {
+        if (result == null) {
+            return true;
+        }
+
+        Integer ordinal = this.ordinals.get(noteID);
+        return ordinal != null && result.contains(ordinal);
+    }
+
+    /**
+     * @param result - the result of query()
+     * @return the IDs of the notes in the result
+     */
+    public List<String> idsOf(Bitmap result) {
+        List<String> found = new ArrayList<>();
+        (result == null ? this.all : result).forEach(ordinal -> found.add(this.ids.get(ordinal)));
+        return found;
+    }
+
+    /**
+     * @param tag - a tag, in lower case
+     * @return the IDs of the notes that have the tag
+     */
+    public List<String> notesTagged(String tag) {
+        Bitmap notes = this.tags.get(tag);
+        return notes == null ? Collections.emptyList() : this.idsOf(notes);
+    }
+
+    /**
+     * @return every tag that at least one note has, sorted
+     */
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(new TreeSet<>(this.tags.keySet()));
+    }
+
+    /**
+     * Turns the text the user typed (e.g. "Work, To Do") into tags (e.g. "work" and "to-do").
+     * @param text - tags separated by commas
+     * @return the tags
+     */
+    public static Set<String> parseTags(String text) {
+        Set<String> parsed = new TreeSet<>();
+        for (String tag : text.split(",")) {
+            String normal = tag.trim().toLowerCase(Locale.ROOT).replaceAll("[\\s()]+", "-");
+            if (!normal.isEmpty()) {
+                parsed.add(normal);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Splits a filter into tags, operators and parentheses.
+     */
+    private static List<String> tokenize(String filter) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (char c : filter.toCharArray()) {
+            if (Character.isWhitespace(c) || c == '(' || c == ')') {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+                if (c == '(' || c == ')') {
+                    tokens.add(String.valueOf(c));
+                }
+            } else {
+                token.append(c);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * A recursive descent parser that combines the bitmaps while it reads the filter:
+     *   or  = and { "OR" and }
+     *   and = not { ["AND"] not }
+     *   not = "NOT" not | "(" or ")" | tag
+     */
+    private class Query {
+        private final List<String> tokens;
+        private int position;
+
+        private Query(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        private Bitmap or() {
+            Bitmap result = this.and();
+            while (this.accept("OR")) {
+                result = result.or(this.and());
+            }
+            return result;
+        }
+
+        private Bitmap and() {
+            Bitmap result = this.not();
+            while (this.position < this.tokens.size() && !this.peek("OR") && !this.peek(")")) {
+                this.accept("AND");
+                result = result.and(this.not());
+            }
+            return result;
+        }
+
+        private Bitmap not() {
+            if (this.position == this.tokens.size()) {
+                throw new IllegalArgumentException("The filter ends too early");
+            }
+
+            if (this.accept("NOT")) {
+                return TagIndex.this.all.andNot(this.not());
+            }
+
+            if (this.accept("(")) {
+                Bitmap result = this.or();
+                if (!this.accept(")")) {
+                    throw new IllegalArgumentException("Missing ')' in the filter");
+                }
+                return result;
+            }
+
+            String token = this.tokens.get(this.position);
+            if (token.equals(")") || token.equalsIgnoreCase("AND") || token.equalsIgnoreCase("OR")) {
+                throw new IllegalArgumentException("Unexpected '" + token + "' in the filter");
+            }
+
+            this.position++;
+            Bitmap notes = TagIndex.this.tags.get(token.toLowerCase(Locale.ROOT));
+            return notes == null ? new Bitmap() : notes;
+        }
+
+        /**
+         * @return whether the next token is the given word (ignoring case)
+         */
+        private boolean peek(String word) {
+            return this.position < this.tokens.size() && this.tokens.get(this.position).equalsIgnoreCase(word);
+        }
+
+        /**
+         * Skips the next token if it is the given word.
+         * @return whether the token was skipped
+         */
+        private boolean accept(String word) {
+            if (this.peek(word)) {
+                this.position++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
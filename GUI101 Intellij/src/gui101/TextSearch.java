@@ -0,0 +1,105 @@
+package gui101;
+
+import java.util.Arrays;
+
+/**
+ * Finds text in a note, either in its plain text (find in the note) or in its html without touching the tags
+ * (find and replace across the notes, where a tag or a link must never be changed by a replacement).
+ * Case is ignored the same way the editor's own find ignores it, character by character.
+ */
+public final class TextSearch {
+    private TextSearch() {
+    }
+
+    /**
+     * Counts the matches of a query in text, matches do not overlap.
+     * @param text - the text to search, e.g. the plain text of a note
+     * @param query - the text to find
+     * @param matchCase - whether upper and lower case letters are different
+     * @return the amount of matches
+     */
+    public static int count(String text, String query, boolean matchCase) {
+        if (query.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        for (int i = next(text, query, matchCase, 0, text.length()); i != -1; i = next(text, query, matchCase, i + query.length(), text.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Finds the matches of a query in the text of an html document, skipping everything inside the tags.
+     * A match that is split by a tag (e.g. "he<b>llo</b>") is not found, since replacing it would break the tag.
+     * @param html - the html of a note
+     * @param query - the text to find, as html (see NoteImporter.escape())
+     * @param matchCase - whether upper and lower case letters are different
+     * @return where each match starts in the html
+     */
+    public static int[] findInHtml(String html, String query, boolean matchCase) {
+        int[] found = new int[8];
+        int count = 0;
+        if (query.isEmpty()) {
+            return found;
+        }
+
+        int i = 0;
+        while (i < html.length()) {
+            // the text runs until the next tag, which is skipped as a whole
+            int tag = html.indexOf('<', i);
+            int end = tag == -1 ? html.length() : tag;
+
+            for (int at = next(html, query, matchCase, i, end); at != -1; at = next(html, query, matchCase, at + query.length(), end)) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = at;
+            }
+
+            if (tag == -1) {
+                break;
+            }
+            int close = html.indexOf('>', tag);
+            i = close == -1 ? html.length() : close + 1;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Replaces the matches found by findInHtml().
+     * @param html - the html of a note
+     * @param matches - where each match starts, in order
+     * @param length - the length of the query
+     * @param replacement - the replacement, as html
+     * @return the changed html
+     */
+    public static String replace(String html, int[] matches, int length, String replacement) {
+        StringBuilder out = new StringBuilder(html.length() + matches.length * (replacement.length() - length));
+        int last = 0;
+        for (int at : matches) {
+            out.append(html, last, at).append(replacement);
+            last = at + length;
+        }
+        return out.append(html, last, html.length()).toString();
+    }
+
+    /**
+     * @return where the next match starts between from and end, or -1 if there is none
+     */
+    private static int next(String text, String query, boolean matchCase, int from, int end) {
+        char first = query.charAt(0);
+        char upper = Character.toUpperCase(first), lower = Character.toLowerCase(first);
+        for (int i = from; i <= end - query.length(); i++) {
+            char c = text.charAt(i);
+
+            // the first character is compared directly, which skips most positions without calling regionMatches
+            boolean candidate = matchCase ? c == first : c == upper || c == lower || Character.toLowerCase(c) == lower;
+            if (candidate && text.regionMatches(!matchCase, i, query, 0, query.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}